@@ -110,6 +110,8 @@ public class Database {
 			throw new DatabaseException(e);
 		} catch (CollectionConfigurationException e) {
 			throw new DatabaseException(e);
+		} catch (EXistException e) {
+			throw new DatabaseException(e);
 		} finally {
 			tx.abortIfIncomplete();
 		}
@@ -0,0 +1,158 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.exist.dom.DocumentImpl;
+import org.exist.dom.DocumentSet;
+
+/**
+ * Restricts a search to the Lucene documents belonging to a set of eXist
+ * documents, e.g. the documents of a collection subtree or of the context
+ * set of a query. Hits outside the set are skipped by Lucene before they
+ * reach the collector.
+ *
+ * For every index segment, a {@link Cache} maps the eXist document ids to
+ * the Lucene documents indexed for them. The mapping is created once per
+ * segment and shared by all queries. Segments never change once written,
+ * new or merged segments get a new core key and thus a new mapping.
+ */
+public class DocumentsFilter extends Filter {
+
+    private final Cache cache;
+    private final DocumentSet docs;
+
+    public DocumentsFilter(Cache cache, DocumentSet docs) {
+        this.cache = cache;
+        this.docs = docs;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final AtomicReader reader = context.reader();
+        final SegmentDocuments segment = cache.get(reader);
+        final FixedBitSet bits = new FixedBitSet(reader.maxDoc());
+        boolean found = false;
+        if (docs.getDocumentCount() < segment.docIds.length) {
+            for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+                final int index = Arrays.binarySearch(segment.docIds, i.next().getDocId());
+                if (index >= 0) {
+                    segment.collect(index, bits);
+                    found = true;
+                }
+            }
+        } else {
+            for (int index = 0; index < segment.docIds.length; index++) {
+                if (docs.contains(segment.docIds[index])) {
+                    segment.collect(index, bits);
+                    found = true;
+                }
+            }
+        }
+        if (!found)
+            return null;
+        return BitsFilteredDocIdSet.wrap(bits, acceptDocs);
+    }
+
+    /**
+     * Caches the document mapping of each segment. Entries are removed
+     * when the segment is no longer referenced by any reader.
+     */
+    public static class Cache {
+
+        private final Map<Object, SegmentDocuments> segments =
+            Collections.synchronizedMap(new WeakHashMap<Object, SegmentDocuments>());
+
+        SegmentDocuments get(AtomicReader reader) throws IOException {
+            final Object key = reader.getCoreCacheKey();
+            SegmentDocuments segment = segments.get(key);
+            if (segment == null) {
+                segment = new SegmentDocuments(reader);
+                segments.put(key, segment);
+            }
+            return segment;
+        }
+
+        public int size() {
+            return segments.size();
+        }
+    }
+
+    /**
+     * The Lucene documents of one segment, grouped by eXist document id.
+     * The documents indexed for docIds[i] are stored in luceneDocs from
+     * offsets[i] to offsets[i + 1].
+     */
+    static class SegmentDocuments {
+
+        final int[] docIds;
+        final int[] offsets;
+        final int[] luceneDocs;
+
+        SegmentDocuments(AtomicReader reader) throws IOException {
+            final NumericDocValues values = reader.getNumericDocValues(LuceneUtil.FIELD_DOC_ID);
+            final int maxDoc = values == null ? 0 : reader.maxDoc();
+            // sort by eXist document id, then Lucene document
+            final long[] pairs = new long[maxDoc];
+            for (int doc = 0; doc < maxDoc; doc++) {
+                pairs[doc] = values.get(doc) << 32 | doc;
+            }
+            Arrays.sort(pairs);
+
+            luceneDocs = new int[maxDoc];
+            final int[] ids = new int[maxDoc];
+            final int[] starts = new int[maxDoc + 1];
+            int count = 0;
+            for (int i = 0; i < maxDoc; i++) {
+                final int docId = (int) (pairs[i] >>> 32);
+                luceneDocs[i] = (int) pairs[i];
+                if (count == 0 || ids[count - 1] != docId) {
+                    ids[count] = docId;
+                    starts[count++] = i;
+                }
+            }
+            starts[count] = maxDoc;
+            docIds = Arrays.copyOf(ids, count);
+            offsets = Arrays.copyOf(starts, count + 1);
+        }
+
+        void collect(int index, FixedBitSet bits) {
+            for (int i = offsets[index]; i < offsets[index + 1]; i++) {
+                bits.set(luceneDocs[i]);
+            }
+        }
+    }
+}
@@ -5,13 +5,15 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.facet.taxonomy.TaxonomyReader;
 import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
-import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.exist.backup.RawDataBackup;
+import org.exist.dom.DocumentSet;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
@@ -38,6 +40,8 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
     public final static String ID = LuceneIndex.class.getName();
 
+    public final static long DEFAULT_REFRESH_INTERVAL = 1000;
+
 	private static final String DIR_NAME = "lucene";
 
     protected Directory directory;
@@ -45,25 +49,34 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
     protected double bufferSize = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
 
-    protected IndexWriter cachedWriter = null;
+    /** Milliseconds after which changes become visible to searchers at the latest. */
+    protected long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    protected IndexWriter writer = null;
+    protected TrackingIndexWriter trackingWriter = null;
     protected int writerUseCount = 0;
-    protected IndexReader cachedReader = null;
-    protected int readerUseCount = 0;
-    protected IndexReader cachedWritingReader = null;
-    protected int writingReaderUseCount = 0;
-    protected IndexSearcher cachedSearcher = null;
-    protected int searcherUseCount = 0;
-    
     protected boolean singleWriter = false;
 
+    protected volatile boolean needsCommit = false;
+    private final Object commitLock = new Object();
+
     //Taxonomy staff
     protected Directory taxonomyDirectory;
 
-    protected TaxonomyWriter cachedTaxonomyWriter = null;
-    protected int taxonomyWriterUseCount = 0;
+    protected DirectoryTaxonomyWriter taxonomyWriter = null;
 
-    protected TaxonomyReader cachedTaxonomyReader = null;
-    protected int taxonomyReaderUseCount = 0;
+    protected NRTSearcherManager searcherManager = null;
+    protected ControlledRealTimeReopenThread<IndexSearcher> reopenThread = null;
+
+    /** Per-segment mapping of eXist documents to Lucene documents, shared by all searchers */
+    private final DocumentsFilter.Cache documentsCache = new DocumentsFilter.Cache();
+
+    /**
+     * Generation of the last change made by the current thread. Searchers
+     * acquired by the thread wait until the change is visible, so a query
+     * sees the documents stored before by the same broker.
+     */
+    private final ThreadLocal<Long> lastChange = new ThreadLocal<Long>();
 
     public LuceneIndex() {
         //Nothing special to do
@@ -89,6 +102,14 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
         if (LOG.isDebugEnabled())
             LOG.debug("Using buffer size: " + bufferSize);
+
+        String refreshParam = config.getAttribute("refresh-interval");
+        if (refreshParam != null && refreshParam.length() > 0)
+            try {
+                refreshInterval = Long.parseLong(refreshParam);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid refresh interval setting for lucene index: " + refreshParam, e);
+            }
         
         NodeList nl = config.getElementsByTagName("analyzer");
         if (nl.getLength() > 0) {
@@ -113,32 +134,47 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
                     dir.getAbsolutePath());
         } else
             dir.mkdirs();
-        IndexWriter writer = null;
         try {
             directory = FSDirectory.open(dir);
             taxonomyDirectory = FSDirectory.open(new File(dir, "taxonomy"));
 
-            writer = getWriter();
-            
+            final IndexWriterConfig idxWriterConfig = new IndexWriterConfig(LUCENE_VERSION_IN_USE, defaultAnalyzer);
+            idxWriterConfig.setRAMBufferSizeMB(bufferSize);
+            writer = new IndexWriter(directory, idxWriterConfig);
+            trackingWriter = new TrackingIndexWriter(writer);
+            taxonomyWriter = new DirectoryTaxonomyWriter(taxonomyDirectory);
+
+            searcherManager = new NRTSearcherManager(writer, taxonomyWriter);
+            // refresh the searchers every refreshInterval, but immediately if
+            // a thread waits for its own changes
+            reopenThread = new ControlledRealTimeReopenThread<IndexSearcher>(trackingWriter, searcherManager,
+                refreshInterval / 1000.0, 0.0);
+            reopenThread.setName("lucene-refresh-" + getDirName());
+            reopenThread.setDaemon(true);
+            reopenThread.start();
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading lucene index directory: " +
                 e.getMessage(), e);
-        } finally {
-            releaseWriter(writer);
         }
     }
 
     @Override
     public synchronized void close() throws DBException {
         try {
-            if (cachedWriter != null) {
+            if (writer != null) {
+                reopenThread.close();
+                searcherManager.close();
+
             	commit();
-            	
-            	cachedTaxonomyWriter.close();
-                cachedWriter.close();
-                
-                cachedTaxonomyWriter = null;
-                cachedWriter = null;
+
+            	taxonomyWriter.close();
+                writer.close();
+
+                reopenThread = null;
+                searcherManager = null;
+                taxonomyWriter = null;
+                trackingWriter = null;
+                writer = null;
             }
             taxonomyDirectory.close();
             directory.close();
@@ -147,9 +183,12 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         }
     }
 
+    /**
+     * Commit the changes to disk. Called on every checkpoint of the
+     * database; after a crash, the recovery reindexes the database.
+     */
     @Override
-    public synchronized void sync() throws DBException {
-        //Nothing special to do
+    public void sync() throws DBException {
         commit();
     }
 
@@ -179,215 +218,145 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     protected Analyzer getDefaultAnalyzer() {
         return defaultAnalyzer;
     }
-    
-    protected boolean needsCommit = false;
 
     public IndexWriter getWriter() throws IOException {
         return getWriter(false);
     }
 
+    /**
+     * Returns the index writer, which is shared by all threads unless
+     * exclusive access is requested. Changes are not committed when the
+     * writer is released, but on the next checkpoint.
+     */
     public synchronized IndexWriter getWriter(boolean exclusive) throws IOException {
-        while (writingReaderUseCount > 0) {
+        while (writerUseCount > 0 && (singleWriter || exclusive)) {
             try {
                 wait();
             } catch (InterruptedException e) {
                 //Nothing special to do
             }
         }
-        if (singleWriter) {
-            while (writerUseCount > 0) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    //Nothing special to do
-                }
-            }
-        }
         singleWriter = exclusive;
-        if (cachedWriter != null) {
-            writerUseCount++;
-        } else {
-            final IndexWriterConfig idxWriterConfig = new IndexWriterConfig(LUCENE_VERSION_IN_USE, defaultAnalyzer);
-            idxWriterConfig.setRAMBufferSizeMB(bufferSize);
-            
-            /**
-             With Lucene 2.9.4 we had auto-commit = true set on the IndexWriter constructor here,
-             now we have to commit ourselves, this is done manually in releaseWriter()
-             */
-            cachedWriter = new IndexWriter(directory, idxWriterConfig);
-            cachedTaxonomyWriter = new DirectoryTaxonomyWriter(taxonomyDirectory);
-            writerUseCount = 1;
-        }
-        notifyAll();
-        return cachedWriter;
+        writerUseCount++;
+        return writer;
     }
 
-    public synchronized void releaseWriter(IndexWriter writer) {
+    public void releaseWriter(IndexWriter writer) {
         if (writer == null)
             return;
-        if (writer != cachedWriter)
+        if (writer != this.writer)
             throw new IllegalStateException("IndexWriter was not obtained from getWriter().");
 
         needsCommit = true;
-        writerUseCount--;
-        notifyAll();
-
-        waitForReadersAndReopen();
+        lastChange.set(Long.valueOf(trackingWriter.getAndIncrementGeneration()));
+        synchronized (this) {
+            writerUseCount--;
+            if (writerUseCount == 0)
+                singleWriter = false;
+            notifyAll();
+        }
     }
 
     protected void commit() {
-    	if (!needsCommit) {
-            return;
-        }
-        try {
-            if(LOG.isDebugEnabled()) {
-                LOG.debug("Committing lucene index");
+        // writers may continue while the commit is running
+        synchronized (commitLock) {
+            if (!needsCommit || writer == null) {
+                return;
             }
-            
-        	if (cachedWriter != null) {
-        	    cachedTaxonomyWriter.commit();
-                cachedWriter.commit();
+            try {
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("Committing lucene index");
+                }
+                needsCommit = false;
+                taxonomyWriter.commit();
+                writer.commit();
+            } catch(CorruptIndexException cie) {
+                LOG.error("Detected corrupt Lucence index on commit: " + cie.getMessage(), cie);
+            } catch(IOException ioe) {
+                LOG.error("Detected Lucence index issue on commit: " + ioe.getMessage(), ioe);
             }
-            needsCommit = false;
-        } catch(CorruptIndexException cie) {
-            LOG.error("Detected corrupt Lucence index on writer release and commit: " + cie.getMessage(), cie);
-        } catch(IOException ioe) {
-            LOG.error("Detected Lucence index issue on writer release and commit: " + ioe.getMessage(), ioe);
         }
     }
-    
-    public synchronized IndexReader getReader() throws IOException {
-    	commit();
-        if (cachedReader != null) {
-            readerUseCount++;
-        } else {
-            cachedReader = DirectoryReader.open(directory);
-            cachedTaxonomyReader = new DirectoryTaxonomyReader(taxonomyDirectory);
-            readerUseCount = 1;
-        }
-        return cachedReader;
-    }
-
-    public synchronized void releaseReader(IndexReader reader) {
-        if (reader == null)
-            return;
-        if (reader != cachedReader)
-            throw new IllegalStateException("IndexReader was not obtained from getReader().");
-        readerUseCount--;
-        notifyAll();
-    }
 
-    protected synchronized IndexReader getWritingReader() throws IOException {
-        while (writerUseCount > 0) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                //Nothing special to do
-            }
-        }
-        if (cachedWriter != null) {
-        	try {
-                cachedWriter.close();
-            } catch (IOException e) {
-                LOG.warn("Exception while closing lucene index: " + e.getMessage(), e);
-            } finally {
-                cachedWriter = null;
-            }
-        }
-        if (cachedWritingReader != null) {
-            writingReaderUseCount++;
-        } else {
-            cachedWritingReader = DirectoryReader.open(directory);
-            writingReaderUseCount = 1;
+    /**
+     * Returns a reader on the current state of the index. The reader must be
+     * returned with {@link #releaseReader(IndexReader)}.
+     */
+    public IndexReader getReader() throws IOException {
+        final IndexSearcher searcher = getSearcher();
+        try {
+            final IndexReader reader = searcher.getIndexReader();
+            reader.incRef();
+            return reader;
+        } finally {
+            releaseSearcher(searcher);
         }
-        notifyAll();
-        return cachedWritingReader;
     }
 
-    protected synchronized void releaseWritingReader(IndexReader reader) {
+    public void releaseReader(IndexReader reader) {
         if (reader == null)
             return;
-        if (reader != cachedWritingReader)
-            throw new IllegalStateException("IndexReader was not obtained from getWritingReader().");
-        writingReaderUseCount--;
-        if (writingReaderUseCount == 0) {
-            try {
-                cachedWritingReader.close();
-            } catch (IOException e) {
-                LOG.warn("Exception while closing lucene index: " + e.getMessage(), e);
-            } finally {
-                cachedWritingReader = null;
-            }
+        try {
+            reader.decRef();
+        } catch (IOException e) {
+            LOG.warn("Exception while releasing lucene reader: " + e.getMessage(), e);
         }
-        notifyAll();
-
-        waitForReadersAndReopen();
     }
 
-    private void waitForReadersAndReopen() {
-        while (readerUseCount > 0 || searcherUseCount > 0) {
+    /**
+     * Returns a searcher on the current state of the index. Searchers are
+     * refreshed in the background and never wait for writers. If the current
+     * thread changed the index, the searcher includes the changes.
+     *
+     * The searcher must be returned with {@link #releaseSearcher(IndexSearcher)}.
+     */
+    public IndexSearcher getSearcher() throws IOException {
+        final Long generation = lastChange.get();
+        if (generation != null && generation.longValue() <= trackingWriter.getGeneration()) {
             try {
-                // DW: feedback: ".wait invoked outside a synchronized context"
-                wait();
+                reopenThread.waitForGeneration(generation.longValue());
+                lastChange.remove();
             } catch (InterruptedException e) {
                 //Nothing special to do
             }
         }
-        reopenReaders();
+        return searcherManager.acquire();
     }
 
-    private void reopenReaders() {
-        if (cachedReader == null)
+    public void releaseSearcher(IndexSearcher searcher) {
+        if (searcher == null)
             return;
         try {
-            cachedTaxonomyReader.close();
-        	cachedReader.close();
-        	
-        	cachedTaxonomyReader = null;
-        	cachedReader = null;
-  
-        	//XXX: understand - is it right to comment close out? ... Closed by "cachedReader.close();"?
-//        	if (cachedSearcher != null)
-//        		cachedSearcher.close();
-        	cachedSearcher = null;
+            searcherManager.release(searcher);
         } catch (IOException e) {
-            LOG.warn("Exception while refreshing lucene index: " + e.getMessage(), e);
+            LOG.warn("Exception while releasing lucene searcher: " + e.getMessage(), e);
         }
     }
 
-    public synchronized IndexSearcher getSearcher() throws IOException {
-    	commit();
-        if (cachedSearcher != null) {
-            searcherUseCount++;
-        } else {
-            cachedSearcher = new IndexSearcher(getReader());
-            readerUseCount--;
-            searcherUseCount = 1;
-        }
-        return cachedSearcher;
+    public TaxonomyWriter getTaxonomyWriter() {
+        return taxonomyWriter;
     }
 
-    public synchronized void releaseSearcher(IndexSearcher searcher) {
-        if (searcher == null)
-            return;
-        if (searcher != cachedSearcher)
-            throw new IllegalStateException("IndexSearcher was not obtained from getWritingReader().");
-        searcherUseCount--;
-        notifyAll();
-    }
-    
-    //DirectoryTaxonomyWriter taxoWriter = new DirectoryTaxonomyWriter(taxoDir);
-    
-    public synchronized TaxonomyWriter getTaxonomyWriter() throws IOException {
-        return cachedTaxonomyWriter;
+    /**
+     * Returns the taxonomy reader matching a searcher obtained from
+     * {@link #getSearcher()}.
+     */
+    public TaxonomyReader getTaxonomyReader(IndexSearcher searcher) {
+        return NRTSearcherManager.getTaxonomyReader(searcher);
     }
 
-    public synchronized TaxonomyReader getTaxonomyReader() throws IOException {
-        return cachedTaxonomyReader;
+    /**
+     * Returns a filter restricting a search to the Lucene documents indexed
+     * for the given eXist documents.
+     */
+    public Filter getDocumentsFilter(DocumentSet docs) {
+        return new DocumentsFilter(documentsCache, docs);
     }
 
 	@Override
 	public void backupToArchive(RawDataBackup backup) throws IOException {
+		// the backup only contains committed changes
+		commit();
 		for (String name : directory.listAll()) {
 			String path = getDirName() + "/" + name;
 			OutputStream os = backup.newEntry(path);
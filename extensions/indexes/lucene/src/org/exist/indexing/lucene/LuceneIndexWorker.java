@@ -505,7 +505,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
             IndexSearcher searcher, Query query, XQueryWatchDog watchDog) throws IOException, TerminatedException {
         LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, watchDog);
-        searcher.search(query, collector);
+        // ancestors are only returned for nodes in the context set, so only its documents need to be searched
+        final DocumentSet filterDocs = returnAncestor && contextSet != null ? contextSet.getDocumentSet() : docs;
+        searcher.search(query, index.getDocumentsFilter(filterDocs), collector);
     }
 
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
@@ -0,0 +1,105 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.facet.taxonomy.TaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+
+/**
+ * Manages the searchers of a {@link LuceneIndex}. The searchers are opened
+ * near-real-time from the index writer, so they see changes which have not
+ * been committed yet. Every searcher is paired with a taxonomy reader, which
+ * is refreshed after the index reader and thus knows all categories used by
+ * the indexed documents.
+ *
+ * Searchers are obtained with {@link #acquire()} and must be returned with
+ * {@link #release(Object)}. A refresh never waits for searchers still in use:
+ * they keep their readers open until released.
+ */
+public class NRTSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    private final IndexWriter writer;
+
+    public NRTSearcherManager(IndexWriter writer, DirectoryTaxonomyWriter taxonomyWriter) throws IOException {
+        this.writer = writer;
+        current = new TaxonomySearcher(DirectoryReader.open(writer, true),
+            new DirectoryTaxonomyReader(taxonomyWriter));
+    }
+
+    /**
+     * Returns the taxonomy reader belonging to a searcher acquired from this
+     * manager.
+     */
+    public static TaxonomyReader getTaxonomyReader(IndexSearcher searcher) {
+        return ((TaxonomySearcher) searcher).taxonomyReader;
+    }
+
+    @Override
+    protected void decRef(IndexSearcher searcher) throws IOException {
+        searcher.getIndexReader().decRef();
+        ((TaxonomySearcher) searcher).taxonomyReader.decRef();
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexSearcher searcher) throws IOException {
+        final IndexReader reader = searcher.getIndexReader();
+        if (reader.tryIncRef()) {
+            if (((TaxonomySearcher) searcher).taxonomyReader.tryIncRef())
+                return true;
+            reader.decRef();
+        }
+        return false;
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher old) throws IOException {
+        final DirectoryReader reader =
+            DirectoryReader.openIfChanged((DirectoryReader) old.getIndexReader(), writer, true);
+        if (reader == null)
+            return null;
+        final DirectoryTaxonomyReader oldTaxonomy = ((TaxonomySearcher) old).taxonomyReader;
+        DirectoryTaxonomyReader taxonomy = TaxonomyReader.openIfChanged(oldTaxonomy);
+        if (taxonomy == null) {
+            oldTaxonomy.incRef();
+            taxonomy = oldTaxonomy;
+        }
+        return new TaxonomySearcher(reader, taxonomy);
+    }
+
+    private final static class TaxonomySearcher extends IndexSearcher {
+
+        private final DirectoryTaxonomyReader taxonomyReader;
+
+        TaxonomySearcher(IndexReader reader, DirectoryTaxonomyReader taxonomyReader) {
+            super(reader);
+            this.taxonomyReader = taxonomyReader;
+        }
+    }
+}
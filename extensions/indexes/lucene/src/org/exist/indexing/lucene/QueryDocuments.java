@@ -57,11 +57,11 @@ public class QueryDocuments {
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
-            final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
+            final TaxonomyReader taxonomyReader = index.getTaxonomyReader(searcher);
 
             DocumentHitCollector collector = new DocumentHitCollector(docs, callback, searchParams, taxonomyReader);
 
-            searcher.search(query, collector);
+            searcher.search(query, index.getDocumentsFilter(docs), collector);
             
             return collector.getFacetResults();
         } finally {
@@ -85,7 +85,7 @@ public class QueryDocuments {
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
-            final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
+            final TaxonomyReader taxonomyReader = index.getTaxonomyReader(searcher);
 
             DocumentHitCollector collector = new DocumentHitCollector(docs, callback, searchParams, taxonomyReader);
 
@@ -101,7 +101,7 @@ public class QueryDocuments {
 
                 Query query = parser.parse(queryStr);
 
-                searcher.search(query, collector);
+                searcher.search(query, index.getDocumentsFilter(docs), collector);
             }
             
             return collector.getFacetResults();
@@ -68,11 +68,11 @@ public class QueryNodes {
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
-            final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
+            final TaxonomyReader taxonomyReader = index.getTaxonomyReader(searcher);
 
             DocumentHitCollector collector = new DocumentHitCollector(db, worker, query, qname, contextId, docs, callback, searchParams, taxonomyReader);
 
-            searcher.search(query, collector);
+            searcher.search(query, index.getDocumentsFilter(docs), collector);
             
             return collector.getFacetResults();
         } finally {
@@ -96,7 +96,7 @@ public class QueryNodes {
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
-            final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
+            final TaxonomyReader taxonomyReader = index.getTaxonomyReader(searcher);
 
             DocumentHitCollector collector = new DocumentHitCollector(db, worker, null, null, contextId, docs, callback, searchParams, taxonomyReader);
 
@@ -115,7 +115,7 @@ public class QueryNodes {
                 collector.qname = qname;
                 collector.query = query;
 
-                searcher.search(query, collector);
+                searcher.search(query, index.getDocumentsFilter(docs), collector);
             }
             
             return collector.getFacetResults();
@@ -0,0 +1,111 @@
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.exist.dom.DefaultDocumentSet;
+import org.exist.dom.DocumentImpl;
+import org.exist.storage.BrokerPool;
+import org.exist.util.Configuration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DocumentsFilterTest {
+
+    private static BrokerPool pool;
+
+    private RAMDirectory directory;
+    private IndexWriter writer;
+    private final DocumentsFilter.Cache cache = new DocumentsFilter.Cache();
+
+    @Test
+    public void filterDocuments() throws Exception {
+        // two segments, the nodes of each document are spread over both
+        addNodes(3, 2, 1, 2, 3, 3);
+        writer.commit();
+        addNodes(1, 4, 2);
+        writer.commit();
+
+        final DirectoryReader reader = DirectoryReader.open(directory);
+        IndexSearcher searcher = new IndexSearcher(reader);
+        assertEquals(9, searcher.search(new MatchAllDocsQuery(), filter(1, 2, 3, 4), 100).totalHits);
+        assertEquals(3, searcher.search(new MatchAllDocsQuery(), filter(2), 100).totalHits);
+        assertEquals(5, searcher.search(new MatchAllDocsQuery(), filter(1, 3), 100).totalHits);
+        assertEquals(1, searcher.search(new MatchAllDocsQuery(), filter(4, 5), 100).totalHits);
+        assertEquals(0, searcher.search(new MatchAllDocsQuery(), filter(5), 100).totalHits);
+        assertEquals(0, searcher.search(new MatchAllDocsQuery(), filter(), 100).totalHits);
+        assertEquals(2, cache.size());
+
+        // deleted nodes are not returned, the segments are still cached
+        writer.deleteDocuments(new Term("node", "0"));
+        writer.commit();
+        final DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+        try {
+            searcher = new IndexSearcher(newReader);
+            assertEquals(3, searcher.search(new MatchAllDocsQuery(), filter(1, 3), 100).totalHits);
+            assertEquals(1, searcher.search(new TermQuery(new Term("node", "1")), filter(1, 2), 100).totalHits);
+            assertEquals(2, cache.size());
+        } finally {
+            newReader.close();
+            reader.close();
+        }
+    }
+
+    private void addNodes(int... docIds) throws Exception {
+        for (int i = 0; i < docIds.length; i++) {
+            final Document doc = new Document();
+            doc.add(new NumericDocValuesField(LuceneUtil.FIELD_DOC_ID, docIds[i]));
+            doc.add(new StringField("node", Integer.toString(i), Field.Store.NO));
+            writer.addDocument(doc);
+        }
+    }
+
+    private DocumentsFilter filter(int... docIds) {
+        final DefaultDocumentSet docs = new DefaultDocumentSet();
+        for (final int docId : docIds) {
+            final DocumentImpl doc = new DocumentImpl(pool);
+            doc.setDocId(docId);
+            docs.add(doc);
+        }
+        return new DocumentsFilter(cache, docs);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(LuceneIndex.LUCENE_VERSION_IN_USE, new KeywordAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.close();
+        directory.close();
+    }
+
+    @BeforeClass
+    public static void startDB() throws Exception {
+        BrokerPool.configure(1, 5, new Configuration());
+        pool = BrokerPool.getInstance();
+    }
+
+    @AfterClass
+    public static void stopDB() {
+        BrokerPool.stopAll(false);
+        pool = null;
+    }
+}
@@ -249,6 +249,37 @@ public class LuceneIndexTest {
         }
     }
 
+    @Test
+    public void refreshInBackground() throws Exception {
+        configureAndStore(COLLECTION_CONFIG1, XML1, "test.xml");
+        // another thread does not wait for the changes, but sees them after
+        // the next background refresh
+        final long[] count = new long[1];
+        final Thread searching = new Thread() {
+            @Override
+            public void run() {
+                DBBroker broker = null;
+                try {
+                    broker = pool.get(pool.getSecurityManager().getSystemSubject());
+                    final XQuery xquery = broker.getXQueryService();
+                    final long timeout = System.currentTimeMillis() + 10 * LuceneIndex.DEFAULT_REFRESH_INTERVAL;
+                    while (count[0] == 0 && System.currentTimeMillis() < timeout) {
+                        count[0] = xquery.execute("/section[ft:query(p, 'content')]", null, AccessContext.TEST).getItemCount();
+                        if (count[0] == 0)
+                            Thread.sleep(50);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    pool.release(broker);
+                }
+            }
+        };
+        searching.start();
+        searching.join();
+        assertEquals(1, count[0]);
+    }
+
     @Test
     public void configuration() {
         DocumentSet docs = configureAndStore(COLLECTION_CONFIG4, XML4, "test.xml");
@@ -72,7 +72,7 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
     @Override
     public void open() throws DatabaseConfigurationException {
         try {
-            db = new BFile(pool, (byte) 0, false, dataFile, pool.getCacheManager(), 1.4, 0.01, 0.07);
+            db = new NGramFile(pool, dataFile);
         } catch (DBException e) {
             throw new DatabaseConfigurationException("Failed to create index file: " + dataFile.getAbsolutePath() + ": " +
                 e.getMessage());
@@ -122,4 +122,24 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
         db.backupToStream(os);
         backup.closeEntry();
     }
+
+    /**
+     * The index file has its own version, which changes with the layout of the
+     * stored occurrences (see {@link NGramPostings}). Files written with an older
+     * layout are rejected when they are opened.
+     */
+    private static class NGramFile extends BFile {
+
+        /** 13 is the version of the plain BFile, which was used before occurrences were split into blocks */
+        public final static short FILE_FORMAT_VERSION_ID = 14;
+
+        public NGramFile(BrokerPool pool, File file) throws DBException {
+            super(pool, (byte) 0, false, file, pool.getCacheManager(), 1.4, 0.01, 0.07);
+        }
+
+        @Override
+        public short getFileVersion() {
+            return FILE_FORMAT_VERSION_ID;
+        }
+    }
 }
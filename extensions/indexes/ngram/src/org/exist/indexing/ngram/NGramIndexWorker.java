@@ -24,6 +24,9 @@ package org.exist.indexing.ngram;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -85,10 +88,13 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  *
- * Each index entry maps a key (collectionId, ngram) to a list of occurrences, which has the
- * following structure:
+ * Each index entry maps a key (collectionId, qname, ngram) to a list of occurrences, which has
+ * one section for every document:
  *
- * <pre>[docId : int, nameType: byte, occurrenceCount: int, entrySize: long, [id: NodeId, offset: int, ...]* ]</pre>
+ * <pre>[docId : int, nameType: byte, occurrenceCount: int, entrySize: fixedInt, block*]</pre>
+ *
+ * The nodes of a document are stored in blocks, which can be skipped by a reader. See
+ * {@link NGramPostings} for the details.
  */
 public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
@@ -97,6 +103,12 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     private static final String INDEX_ELEMENT = "ngram";
     private static final String QNAME_ATTR = "qname";
 
+    /**
+     * An ngram which is more frequent than the rarest ngram of a search string by this factor is
+     * not used to find the candidate nodes.
+     */
+    public static final int FREQUENT_NGRAM_FACTOR = 8;
+
     private static final byte IDX_QNAME = 0;
     @SuppressWarnings("unused")
     private static final byte IDX_GENERIC = 1;
@@ -111,12 +123,14 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 	private IndexController controller;
     private final Map<QNameTerm, OccurrenceList> ngrams = new TreeMap<QNameTerm, OccurrenceList>();
     private final VariableByteOutputStream os = new VariableByteOutputStream(7);
+    private final NGramPostings postings;
 
     private NGramMatchListener matchListener = null;
 
     public NGramIndexWorker(DBBroker broker, org.exist.indexing.ngram.NGramIndex index) {
         this.broker = broker;
         this.index = index;
+        this.postings = new NGramPostings(index.getBrokerPool().getNodeFactory());
         Arrays.fill(buf, ' ');
     }
 
@@ -182,29 +196,11 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             OccurrenceList occurences = entry.getValue();
             occurences.sort();
             os.clear();
-            os.writeInt(currentDoc.getDocId());
-            os.writeByte(key.qname.getNameType());
-            os.writeInt(occurences.getTermCount());
-            //Mark position
-            int lenOffset = os.position();
-            //Dummy value : actual one will be written below
-            os.writeFixedInt(0);
-            NodeId previous = null;
-            for (int m = 0; m < occurences.getSize(); ) {
-                try {
-                    previous = occurences.getNode(m).write(previous, os);
-                } catch (IOException e) {
-                    LOG.error("IOException while writing fulltext index: " + e.getMessage(), e);
-                }
-                int freq = occurences.getOccurrences(m);
-                os.writeInt(freq);
-                for (int n = 0; n < freq; n++) {
-                    os.writeInt(occurences.getOffset(m + n));
-                }
-                m += freq;
+            try {
+                postings.write(os, currentDoc.getDocId(), key.qname.getNameType(), occurences);
+            } catch (IOException e) {
+                LOG.error("IOException while writing ngram index: " + e.getMessage(), e);
             }
-            //Write (variable) length of node IDs + frequency + offsets
-            os.writeFixedInt(lenOffset, os.position() - lenOffset - 4);
 
             ByteArray data = os.data();
             if (data.size() == 0)
@@ -250,68 +246,41 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 VariableByteInput is = index.db.getAsStream(value);
                 if (is == null)
                     continue;
-                while (is.available() > 0) {
-                    int storedDocId = is.readInt();
-                    byte nameType = is.readByte();
-                    int occurrences = is.readInt();
-                    //Read (variable) length of node IDs + frequency + offsets
-                    int length = is.readFixedInt();
-                    if (storedDocId != currentDoc.getDocId()) {
+                while (postings.nextSection(is)) {
+                    if (postings.getDocId() != currentDoc.getDocId()) {
                         // data are related to another document:
                         // copy them to any existing data
-                        os.writeInt(storedDocId);
-                        os.writeByte(nameType);
-                        os.writeInt(occurrences);
-                        os.writeFixedInt(length);
-                        is.copyRaw(os, length);
+                        postings.copySection(is, os);
                     } else {
                         // data are related to our document:
                         if (mode == StreamListener.REMOVE_ALL_NODES) {
                             // skip them
-                            is.skipBytes(length);
+                            postings.skipSection(is);
                         } else {
                             // removing nodes: need to filter out the node ids to be removed
                             // feed the new list with the GIDs
-
-                            NodeId previous = null;
+                            byte nameType = postings.getNameType();
                             OccurrenceList newOccurrences = new OccurrenceList();
-                            for (int m = 0; m < occurrences; m++) {
-                                NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromStream(previous, is);
-                                previous = nodeId;
-                                int freq = is.readInt();
-                                // add the node to the new list if it is not
-                                // in the list of removed nodes
-                                if (!occurencesList.contains(nodeId)) {
-                                    for (int n = 0; n < freq; n++) {
-                                        newOccurrences.add(nodeId, is.readInt());
+                            while (postings.nextBlock(is)) {
+                                while (postings.nextNode(is)) {
+                                    NodeId nodeId = postings.getNodeId();
+                                    // add the node to the new list if it is not
+                                    // in the list of removed nodes
+                                    if (!occurencesList.contains(nodeId)) {
+                                        int[] offsets = postings.readOffsets(is);
+                                        for (int n = 0; n < postings.getFrequency(); n++) {
+                                            newOccurrences.add(nodeId, offsets[n]);
+                                        }
+                                    } else {
+                                        postings.skipOffsets(is);
                                     }
-                                } else {
-                                    is.skip(freq);
                                 }
                             }
                             // append the data from the new list
                             if(newOccurrences.getSize() > 0) {
                                 //Don't forget this one
                                 newOccurrences.sort();
-                                os.writeInt(currentDoc.getDocId());
-                                os.writeByte(nameType);
-                                os.writeInt(newOccurrences.getTermCount());
-                                //Mark position
-                                int lenOffset = os.position();
-                                //Dummy value : actual one will be written below
-                                os.writeFixedInt(0);
-                                previous = null;
-                                for (int m = 0; m < newOccurrences.getSize(); ) {
-                                    previous = newOccurrences.getNode(m).write(previous, os);
-                                    int freq = newOccurrences.getOccurrences(m);
-                                    os.writeInt(freq);
-                                    for (int n = 0; n < freq; n++) {
-                                        os.writeInt(newOccurrences.getOffset(m + n));
-                                    }
-                                    m += freq;
-                                }
-                                //Write (variable) length of node IDs + frequency + offsets
-                                os.writeFixedInt(lenOffset, os.position() - lenOffset - 4);
+                                postings.write(os, currentDoc.getDocId(), nameType, newOccurrences);
                             }
                         }
                         changed = true;
@@ -366,9 +335,104 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     public NodeSet search(int contextId, DocumentSet docs, List<QName> qnames, String query, String ngram, XQueryContext context, NodeSet contextSet, int axis)
  throws XPathException {
+        return search(contextId, docs, qnames, query, ngram, context, contextSet, axis, null);
+    }
+
+    /**
+     * Search for the given ngram, but only return the nodes in the given candidates, which have been
+     * determined by {@link #getCandidates(DocumentSet, List, String[], XQueryContext, NodeSet, int)}
+     * for the same arguments. The occurrences of other nodes are skipped without being decoded.
+     *
+     * @param candidates the candidates or null to return all nodes
+     */
+    public NodeSet search(int contextId, DocumentSet docs, List<QName> qnames, String query, String ngram, XQueryContext context, NodeSet contextSet, int axis,
+            Candidates candidates) throws XPathException {
         if (qnames == null || qnames.isEmpty())
             qnames = getDefinedIndexes(context.getBroker(), docs);
         final NodeSet result = new ExtArrayNodeSet(docs.getDocumentCount(), 250);
+        SearchCallback cb = new SearchCallback(contextId, query, ngram, docs, contextSet, context, result, axis == NodeSet.ANCESTOR);
+        cb.setCandidates(candidates);
+        query(docs, qnames, query, cb);
+
+        result.iterate(); // ensure result is ready to use
+
+        return result;
+    }
+
+    /**
+     * Find the nodes which contain all of the given ngrams, so the positions of the ngrams only need to be
+     * compared for those nodes. The occurrences of the ngrams are read rarest first, where the number of
+     * occurrences is estimated from the size of the stored value: the nodes containing the rarest ngram are
+     * the first candidates and the occurrences of the next ngrams are only read for the remaining candidates,
+     * skipping all documents and blocks of nodes which don't contain one.
+     *
+     * Similar to a stop word, an ngram which is more than {@link #FREQUENT_NGRAM_FACTOR} times as frequent
+     * as the rarest ngram is not used to reduce the candidates. Its occurrences will only be read for the final
+     * candidates by {@link #search(int, DocumentSet, List, String, String, XQueryContext, NodeSet, int, Candidates)}.
+     *
+     * @param ngrams the ngrams to search for, which must have the length {@link #getN()}
+     * @return the candidates, which may be empty
+     */
+    public Candidates getCandidates(DocumentSet docs, List<QName> qnames, String[] ngrams, XQueryContext context,
+            NodeSet contextSet, int axis) throws XPathException {
+        if (qnames == null || qnames.isEmpty())
+            qnames = getDefinedIndexes(context.getBroker(), docs);
+        final Map<String, Long> sizes = new HashMap<String, Long>();
+        for (String ngram : ngrams) {
+            if (!sizes.containsKey(ngram))
+                sizes.put(ngram, getOccurrenceSize(docs, qnames, ngram));
+        }
+        final List<String> rarestFirst = new ArrayList<String>(sizes.keySet());
+        Collections.sort(rarestFirst, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return sizes.get(o1).compareTo(sizes.get(o2));
+            }
+        });
+        Candidates candidates = null;
+        final long rarest = sizes.get(rarestFirst.get(0));
+        for (String ngram : rarestFirst) {
+            if (sizes.get(ngram) == 0)
+                return new Candidates(new HashMap<Integer, List<NodeId>>());
+            if (candidates != null && sizes.get(ngram) > rarest * FREQUENT_NGRAM_FACTOR)
+                break;
+            SearchCallback cb = new SearchCallback(0, ngram, ngram, docs, contextSet, context, null, axis == NodeSet.ANCESTOR);
+            cb.setCandidates(candidates);
+            cb.collectCandidates();
+            query(docs, qnames, ngram, cb);
+            candidates = new Candidates(cb.collected);
+            if (candidates.isEmpty())
+                break;
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the number of bytes stored for the given ngram in the collections of the documents.
+     */
+    private long getOccurrenceSize(DocumentSet docs, List<QName> qnames, String ngram) {
+        long size = 0;
+        final Lock lock = index.db.getLock();
+        try {
+            lock.acquire(Lock.READ_LOCK);
+            for (Iterator<Collection> iter = docs.getCollectionIterator(); iter.hasNext();) {
+                final int collectionId = iter.next().getId();
+                for (QName qname : qnames) {
+                    NGramQNameKey key = new NGramQNameKey(collectionId, qname, index.getBrokerPool().getSymbols(), ngram);
+                    size += Math.max(0, index.db.getValueLength(key));
+                }
+            }
+        } catch (LockException e) {
+            LOG.warn("Failed to acquire lock for '" + index.db.getFile().getName() + "'", e);
+        } catch (IOException e) {
+            LOG.error(e.getMessage() + " in '" + index.db.getFile().getName() + "'", e);
+        } finally {
+            lock.release(Lock.READ_LOCK);
+        }
+        return size;
+    }
+
+    private void query(DocumentSet docs, List<QName> qnames, String query, SearchCallback cb) throws XPathException {
         for (Iterator<org.exist.collections.Collection> iter = docs.getCollectionIterator(); iter.hasNext();) {
             final int collectionId = iter.next().getId();
             for (int i = 0; i < qnames.size(); i++) {
@@ -377,7 +441,6 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 final Lock lock = index.db.getLock();
                 try {
                     lock.acquire(Lock.READ_LOCK);
-                    SearchCallback cb = new SearchCallback(contextId, query, ngram, docs, contextSet, context, result, axis == NodeSet.ANCESTOR);
                     int op = query.codePointCount(0, query.length()) < getN() ? IndexQuery.TRUNC_RIGHT : IndexQuery.EQ;
                     index.db.query(new IndexQuery(op, key), cb);
                 } catch (LockException e) {
@@ -391,10 +454,6 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 }
             }
         }
-
-        result.iterate(); // ensure result is ready to use
-
-        return result;
     }
 
     /**
@@ -943,6 +1002,9 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final XQueryContext context;
         private final NodeSet resultSet;
         private final boolean returnAncestor;
+        private final NGramPostings postings = new NGramPostings(index.getBrokerPool().getNodeFactory());
+        private Candidates candidates = null;
+        private Map<Integer, List<NodeId>> collected = null;
 
         public SearchCallback(int contextId, String query, String ngram, DocumentSet docs, NodeSet contextSet,
                   XQueryContext context, NodeSet result, boolean returnAncestor) {
@@ -956,6 +1018,20 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.returnAncestor = returnAncestor;
         }
 
+        /**
+         * Only return nodes contained in the candidates.
+         */
+        void setCandidates(Candidates candidates) {
+            this.candidates = candidates;
+        }
+
+        /**
+         * Instead of adding the nodes to the result set, only collect their ids.
+         */
+        void collectCandidates() {
+            collected = new HashMap<Integer, List<NodeId>>();
+        }
+
         @Override
         public boolean indexInfo(Value key, long pointer) throws TerminatedException {
             String ngram = new String(key.getData(), NGramQNameKey.NGRAM_OFFSET, key.getLength() - NGramQNameKey.NGRAM_OFFSET, UTF_8);
@@ -966,46 +1042,59 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 //Does the token already has data in the index ?
                 if (is == null)
                     return true;
-                while (is.available() > 0) {
-                    int storedDocId = is.readInt();
-                    is.readByte();
-                    int occurrences = is.readInt();
-                    //Read (variable) length of node IDs + frequency + offsets
-                    int length = is.readFixedInt();
-                    DocumentImpl storedDocument = docs.getDoc(storedDocId);
+                // the ids of the returned nodes are the stored ids, unless ancestors from the context set are returned
+                final boolean storedIds = contextSet == null || !returnAncestor;
+                while (postings.nextSection(is)) {
+                    DocumentImpl storedDocument = docs.getDoc(postings.getDocId());
+                    NodeId[] docCandidates = candidates == null ? null : candidates.get(postings.getDocId());
                     //Exit if the document is not concerned
-                    if (storedDocument == null) {
-                        is.skipBytes(length);
+                    if (storedDocument == null || (candidates != null && docCandidates == null)) {
+                        postings.skipSection(is);
                         continue;
                     }
-                    NodeId previous = null;
-                    for (int m = 0; m < occurrences; m++) {
-                        NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromStream(previous, is);
-                        previous = nodeId;
-                        int freq = is.readInt();
-                        NodeProxy storedNode = new NodeProxy(storedDocument, nodeId);
-                        // if a context set is specified, we can directly check if the
-                        // matching node is a descendant of one of the nodes
-                        // in the context set.
-                        if (contextSet != null) {
-                            int sizeHint = contextSet.getSizeHint(storedDocument);
-                            if (returnAncestor) {
-                                NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
-                                if (parentNode != null) {
-                                    readMatches(ngram, is, nodeId, freq, parentNode);
-                                    resultSet.add(parentNode, sizeHint);
-                                } else
-                                    is.skip(freq);
+                    List<NodeId> docCollected = null;
+                    if (collected != null) {
+                        docCollected = collected.get(postings.getDocId());
+                        if (docCollected == null) {
+                            docCollected = new ArrayList<NodeId>();
+                            collected.put(postings.getDocId(), docCollected);
+                        }
+                    }
+                    while (postings.nextBlock(is)) {
+                        if (storedIds && docCandidates != null &&
+                                !Candidates.intersects(docCandidates, postings.getBlockFirst(), postings.getBlockLast())) {
+                            postings.skipBlock(is);
+                            continue;
+                        }
+                        while (postings.nextNode(is)) {
+                            NodeId nodeId = postings.getNodeId();
+                            if (storedIds && docCandidates != null && !Candidates.contains(docCandidates, nodeId)) {
+                                postings.skipOffsets(is);
+                                continue;
+                            }
+                            NodeProxy storedNode = new NodeProxy(storedDocument, nodeId);
+                            NodeProxy resultNode = storedNode;
+                            // if a context set is specified, we can directly check if the
+                            // matching node is a descendant of one of the nodes
+                            // in the context set.
+                            if (contextSet != null && returnAncestor) {
+                                resultNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
+                                if (resultNode == null ||
+                                        (docCandidates != null && !Candidates.contains(docCandidates, resultNode.getNodeId()))) {
+                                    postings.skipOffsets(is);
+                                    continue;
+                                }
+                            }
+                            if (docCollected != null) {
+                                postings.skipOffsets(is);
+                                docCollected.add(resultNode.getNodeId());
                             } else {
-                                readMatches(ngram, is, nodeId, freq, storedNode);
-                                resultSet.add(storedNode, sizeHint);
+                                readMatches(ngram, is, nodeId, resultNode);
+                                resultSet.add(resultNode, contextSet == null ? Constants.NO_SIZE_HINT :
+                                    contextSet.getSizeHint(storedDocument));
                             }
-                            // otherwise, we add all text nodes without check
-                        } else {
-                            readMatches(ngram, is, nodeId, freq, storedNode);
-                            resultSet.add(storedNode, Constants.NO_SIZE_HINT);
+                            context.proceed();
                         }
-                        context.proceed();
                     }
                 }
                 return false;
@@ -1015,13 +1104,15 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             }
         }
 
-        private void readMatches(String current, VariableByteInput is, NodeId nodeId, int freq, NodeProxy parentNode) throws IOException {
+        private void readMatches(String current, VariableByteInput is, NodeId nodeId, NodeProxy parentNode) throws IOException {
             int diff = 0;
             if (current.length() > ngram.length())
                 diff = current.lastIndexOf(ngram);
+            final int freq = postings.getFrequency();
+            final int[] offsets = postings.readOffsets(is);
             Match match = new NGramMatch(contextId, nodeId, ngram, freq);
             for (int n = 0; n < freq; n++) {
-                int offset = is.readInt();
+                int offset = offsets[n];
                 if (diff > 0)
                     offset += diff;
                 match.addOffset(offset, ngram.length());
@@ -1030,11 +1121,61 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    /**
+     * The nodes which may contain a search string, as returned by
+     * {@link NGramIndexWorker#getCandidates(DocumentSet, List, String[], XQueryContext, NodeSet, int)}.
+     * For every document, the ids of the candidate nodes are kept in a sorted array.
+     */
+    public static final class Candidates {
+
+        private final Map<Integer, NodeId[]> nodes = new HashMap<Integer, NodeId[]>();
+
+        private Candidates(Map<Integer, List<NodeId>> collected) {
+            for (Map.Entry<Integer, List<NodeId>> entry : collected.entrySet()) {
+                final List<NodeId> ids = entry.getValue();
+                if (ids.isEmpty())
+                    continue;
+                // a document may have more than one section for a key and more than one key
+                Collections.sort(ids);
+                final List<NodeId> distinct = new ArrayList<NodeId>(ids.size());
+                for (NodeId id : ids) {
+                    if (distinct.isEmpty() || !distinct.get(distinct.size() - 1).equals(id))
+                        distinct.add(id);
+                }
+                nodes.put(entry.getKey(), distinct.toArray(new NodeId[distinct.size()]));
+            }
+        }
+
+        public boolean isEmpty() {
+            return nodes.isEmpty();
+        }
+
+        NodeId[] get(int docId) {
+            return nodes.get(docId);
+        }
+
+        static boolean contains(NodeId[] ids, NodeId nodeId) {
+            return Arrays.binarySearch(ids, nodeId) >= 0;
+        }
+
+        /**
+         * Check if one of the ids is in the range from first to last.
+         */
+        static boolean intersects(NodeId[] ids, NodeId first, NodeId last) {
+            int pos = Arrays.binarySearch(ids, first);
+            if (pos >= 0)
+                return true;
+            pos = -(pos + 1);
+            return pos < ids.length && ids[pos].compareTo(last) <= 0;
+        }
+    }
+
     private final class IndexScanCallback implements BTreeCallback {
 
         private final DocumentSet docs;
         private NodeSet contextSet;
         private final Map<String, Occurrences> map = new TreeMap<String, Occurrences>();
+        private final NGramPostings postings = new NGramPostings(index.getBrokerPool().getNodeFactory());
 
         //IndexScanCallback(DocumentSet docs) {
             //this.docs = docs;
@@ -1060,42 +1201,37 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 return true;
             }
             try {
-                while (is.available() > 0) {
+                while (postings.nextSection(is)) {
                     boolean docAdded = false;
-                    int storedDocId = is.readInt();
-                    byte nameType = is.readByte();
-                    int occurrences = is.readInt();
-                    //Read (variable) length of node IDs + frequency + offsets
-                    int length = is.readFixedInt();
-                    DocumentImpl storedDocument = docs.getDoc(storedDocId);
+                    DocumentImpl storedDocument = docs.getDoc(postings.getDocId());
                     //Exit if the document is not concerned
                     if (storedDocument == null) {
-                        is.skipBytes(length);
+                        postings.skipSection(is);
                         continue;
                     }
-                    NodeId previous = null;
-                    for (int m = 0; m < occurrences; m++) {
-                        NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromStream(previous, is);
-                        previous = nodeId;
-                        int freq = is.readInt();
-                        is.skip(freq);
-                        boolean include = true;
-                        //TODO : revisit
-                        if (contextSet != null) {
-                            NodeProxy parentNode = contextSet.parentWithChild(storedDocument, nodeId, false, true);
-                            include = (parentNode != null);
-                        }
-                        if (include) {
-                            Occurrences oc = map.get(term);
-                            if (oc == null) {
-                                oc = new Occurrences(term);
-                                map.put(term, oc);
+                    while (postings.nextBlock(is)) {
+                        while (postings.nextNode(is)) {
+                            NodeId nodeId = postings.getNodeId();
+                            int freq = postings.getFrequency();
+                            postings.skipOffsets(is);
+                            boolean include = true;
+                            //TODO : revisit
+                            if (contextSet != null) {
+                                NodeProxy parentNode = contextSet.parentWithChild(storedDocument, nodeId, false, true);
+                                include = (parentNode != null);
                             }
-                            if (!docAdded) {
-                                oc.addDocument(storedDocument);
-                                docAdded = true;
+                            if (include) {
+                                Occurrences oc = map.get(term);
+                                if (oc == null) {
+                                    oc = new Occurrences(term);
+                                    map.put(term, oc);
+                                }
+                                if (!docAdded) {
+                                    oc.addDocument(storedDocument);
+                                    docAdded = true;
+                                }
+                                oc.addOccurrences(freq);
                             }
-                            oc.addOccurrences(freq);
                         }
                     }
                 }
@@ -0,0 +1,250 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-07 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.ngram;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.exist.numbering.NodeId;
+import org.exist.numbering.NodeIdFactory;
+import org.exist.storage.OccurrenceList;
+import org.exist.storage.io.VariableByteInput;
+import org.exist.storage.io.VariableByteOutputStream;
+
+/**
+ * Reads and writes the occurrences of an ngram in a single document. The value of an
+ * index entry is a sequence of such sections, one for every document:
+ *
+ * <pre>[docId: int, nameType: byte, nodeCount: int, length: fixedInt, block*]</pre>
+ *
+ * The nodes of a section are grouped into blocks of up to {@link #BLOCK_SIZE} nodes. Every block
+ * starts with the number of nodes, the first and the last node id and the length of the node data,
+ * so a reader can skip all nodes of a block which cannot be of interest:
+ *
+ * <pre>[count: int, first: NodeId, last: NodeId, length: int, [nodeId: NodeId, freq: int, offset: int*]*]</pre>
+ *
+ * Node ids are written relative to the previous node id, the id of the first node in a block is not
+ * repeated. The offsets of a node are sorted and written as the difference to the previous offset.
+ *
+ * An instance reads one value at a time: call {@link #nextSection(VariableByteInput)},
+ * then {@link #nextBlock(VariableByteInput)} and {@link #nextNode(VariableByteInput)} until they
+ * return false. After a node has been read, its offsets must be read or skipped.
+ */
+final class NGramPostings {
+
+    public final static int BLOCK_SIZE = 64;
+
+    private final NodeIdFactory nodeFactory;
+
+    private final VariableByteOutputStream blockOs = new VariableByteOutputStream(7);
+    private int[] offsets = new int[16];
+
+    private int docId;
+    private byte nameType;
+    private int nodeCount;
+    private int length;
+    private int remainingNodes = 0;
+
+    private NodeId blockFirst;
+    private NodeId blockLast;
+    private int blockLength;
+    private int remainingInBlock = 0;
+
+    private NodeId nodeId;
+    private int freq;
+
+    NGramPostings(NodeIdFactory nodeFactory) {
+        this.nodeFactory = nodeFactory;
+    }
+
+    /**
+     * Append a section for the given occurrences to the output stream. The
+     * occurrences need to be sorted.
+     */
+    void write(VariableByteOutputStream os, int docId, byte nameType, OccurrenceList occurrences) throws IOException {
+        os.writeInt(docId);
+        os.writeByte(nameType);
+        os.writeInt(occurrences.getTermCount());
+        //Mark position
+        final int lenOffset = os.position();
+        //Dummy value : actual one will be written below
+        os.writeFixedInt(0);
+        for (int m = 0; m < occurrences.getSize(); ) {
+            blockOs.clear();
+            final NodeId first = occurrences.getNode(m);
+            NodeId previous = first;
+            int count = 0;
+            for ( ; m < occurrences.getSize() && count < BLOCK_SIZE; count++) {
+                final NodeId current = occurrences.getNode(m);
+                if (count > 0)
+                    previous = current.write(previous, blockOs);
+                final int frequency = occurrences.getOccurrences(m);
+                blockOs.writeInt(frequency);
+                if (offsets.length < frequency)
+                    offsets = new int[frequency];
+                for (int n = 0; n < frequency; n++) {
+                    offsets[n] = occurrences.getOffset(m + n);
+                }
+                Arrays.sort(offsets, 0, frequency);
+                int lastOffset = 0;
+                for (int n = 0; n < frequency; n++) {
+                    blockOs.writeInt(offsets[n] - lastOffset);
+                    lastOffset = offsets[n];
+                }
+                m += frequency;
+            }
+            os.writeInt(count);
+            first.write(null, os);
+            previous.write(first, os);
+            os.writeInt(blockOs.position());
+            os.write(blockOs.data());
+        }
+        //Write (variable) length of the blocks
+        os.writeFixedInt(lenOffset, os.position() - lenOffset - 4);
+        blockOs.clear();
+    }
+
+    /**
+     * Read the header of the next section.
+     *
+     * @return false if there are no more sections
+     */
+    boolean nextSection(VariableByteInput is) throws IOException {
+        if (is.available() <= 0)
+            return false;
+        docId = is.readInt();
+        nameType = is.readByte();
+        nodeCount = is.readInt();
+        length = is.readFixedInt();
+        remainingNodes = nodeCount;
+        remainingInBlock = 0;
+        return true;
+    }
+
+    /**
+     * Skip the current section. Only valid directly after {@link #nextSection(VariableByteInput)}.
+     */
+    void skipSection(VariableByteInput is) throws IOException {
+        is.skipBytes(length);
+        remainingNodes = 0;
+    }
+
+    /**
+     * Copy the current section unchanged to the output stream. Only valid directly
+     * after {@link #nextSection(VariableByteInput)}.
+     */
+    void copySection(VariableByteInput is, VariableByteOutputStream os) throws IOException {
+        os.writeInt(docId);
+        os.writeByte(nameType);
+        os.writeInt(nodeCount);
+        os.writeFixedInt(length);
+        is.copyRaw(os, length);
+        remainingNodes = 0;
+    }
+
+    /**
+     * Read the header of the next block in the current section.
+     *
+     * @return false if there are no more blocks
+     */
+    boolean nextBlock(VariableByteInput is) throws IOException {
+        if (remainingNodes == 0)
+            return false;
+        final int count = is.readInt();
+        blockFirst = nodeFactory.createFromStream(null, is);
+        blockLast = nodeFactory.createFromStream(blockFirst, is);
+        blockLength = is.readInt();
+        remainingInBlock = count;
+        remainingNodes -= count;
+        nodeId = null;
+        return true;
+    }
+
+    /**
+     * Skip the nodes of the current block. Only valid directly after {@link #nextBlock(VariableByteInput)}.
+     */
+    void skipBlock(VariableByteInput is) throws IOException {
+        is.skipBytes(blockLength);
+        remainingInBlock = 0;
+    }
+
+    /**
+     * Read the id and the frequency of the next node in the current block.
+     *
+     * @return false if there are no more nodes in the block
+     */
+    boolean nextNode(VariableByteInput is) throws IOException {
+        if (remainingInBlock == 0)
+            return false;
+        nodeId = nodeId == null ? blockFirst : nodeFactory.createFromStream(nodeId, is);
+        freq = is.readInt();
+        remainingInBlock--;
+        return true;
+    }
+
+    /**
+     * Read the offsets of the current node. The returned array is reused
+     * and contains {@link #getFrequency()} offsets.
+     */
+    int[] readOffsets(VariableByteInput is) throws IOException {
+        if (offsets.length < freq)
+            offsets = new int[freq];
+        int offset = 0;
+        for (int n = 0; n < freq; n++) {
+            offset += is.readInt();
+            offsets[n] = offset;
+        }
+        return offsets;
+    }
+
+    void skipOffsets(VariableByteInput is) throws IOException {
+        is.skip(freq);
+    }
+
+    int getDocId() {
+        return docId;
+    }
+
+    byte getNameType() {
+        return nameType;
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    NodeId getBlockFirst() {
+        return blockFirst;
+    }
+
+    NodeId getBlockLast() {
+        return blockLast;
+    }
+
+    NodeId getNodeId() {
+        return nodeId;
+    }
+
+    int getFrequency() {
+        return freq;
+    }
+}
@@ -490,10 +490,8 @@ public class NGramSearch extends Function implements Optimizable {
         if (ngrams.length == 0)
             return new EmptyNodeSet();
 
-        String firstNgramm = ngrams[0];
-        LOG.trace("First NGRAM: " + firstNgramm);
-        NodeSet result = index.search(getExpressionId(), docs, qnames, firstNgramm, firstNgramm, context, nodeSet, axis);
-
+        String[] filledNgrams = new String[ngrams.length];
+        filledNgrams[0] = ngrams[0];
         for (int i = 1; i < ngrams.length; i++) {
             String ngram = ngrams[i];
             int len = ngram.codePointCount(0, ngram.length());
@@ -516,8 +514,26 @@ public class NGramSearch extends Function implements Optimizable {
                 filledNgram = buf.toString();
                 LOG.debug("Filled: " + filledNgram);
             }
+            filledNgrams[i] = filledNgram;
+        }
+
+        // only nodes containing all ngrams can match. Determine them from the rarest
+        // ngrams first, so the positions only need to be compared for those nodes.
+        NGramIndexWorker.Candidates candidates = null;
+        if (ngrams.length > 1) {
+            candidates = index.getCandidates(docs, qnames, filledNgrams, context, nodeSet, axis);
+            if (candidates.isEmpty())
+                return new EmptyNodeSet();
+        }
 
-            NodeSet nodes = index.search(getExpressionId(), docs, qnames, filledNgram, ngram, context, nodeSet, axis);
+        String firstNgramm = ngrams[0];
+        LOG.trace("First NGRAM: " + firstNgramm);
+        NodeSet result = index.search(getExpressionId(), docs, qnames, firstNgramm, firstNgramm, context, nodeSet, axis,
+            candidates);
+
+        for (int i = 1; i < ngrams.length; i++) {
+            NodeSet nodes = index.search(getExpressionId(), docs, qnames, filledNgrams[i], ngrams[i], context, nodeSet,
+                axis, candidates);
 
             final NodeSet nodesContainingFirstINgrams = result;
 
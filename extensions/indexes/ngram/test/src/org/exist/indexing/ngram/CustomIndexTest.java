@@ -567,6 +567,64 @@ public class CustomIndexTest extends TestCase {
         }
     }
 
+    /**
+     * Store enough nodes to split the occurrences of an ngram into several blocks
+     * and check the results of queries combining rare and frequent ngrams, before and
+     * after nodes are removed and inserted.
+     */
+    public void testManyNodes() {
+        DBBroker broker = null;
+        TransactionManager transact = null;
+        Txn transaction = null;
+        try {
+        	broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            transact = pool.getTransactionManager();
+            transaction = transact.beginTransaction();
+
+            StringBuilder xml = new StringBuilder("<paras>");
+            for (int i = 0; i < 500; i++) {
+                xml.append("<para n='").append(i).append("'>item ").append(i)
+                    .append(i % 50 == 0 ? " special value" : " ordinary value").append("</para>");
+            }
+            xml.append("</paras>");
+            Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create("test_string3.xml"), xml.toString());
+            assertNotNull(info);
+            root.store(transaction, broker, info, xml.toString(), false);
+            transact.commit(transaction);
+
+            XQuery xquery = broker.getXQueryService();
+            assertNotNull(xquery);
+            checkCount(xquery, "/paras/para[ngram:contains(., 'special value')]", 10);
+            checkCount(xquery, "/paras/para[ngram:contains(., 'ordinary value')]", 490);
+            checkCount(xquery, "/paras/para[ngram:contains(., 'item 12')]", 11);
+            checkCount(xquery, "/paras/para[ngram:starts-with(., 'item 49')]", 11);
+            checkCount(xquery, "/paras[ngram:contains(para, 'item 450 special')]", 1);
+            checkCount(xquery, "/paras/para[ngram:contains(., 'item 451 special')]", 0);
+
+            xquery.execute("update delete /paras/para[@n mod 3 = 0]", null, AccessContext.TEST);
+            checkCount(xquery, "/paras/para[ngram:contains(., 'special value')]", 6);
+            checkCount(xquery, "/paras/para[ngram:contains(., 'item 12')]", 6);
+            checkCount(xquery, "/paras/para[ngram:starts-with(., 'item 49')]", 8);
+
+            xquery.execute("update insert <para n='1000'>item 1000 special value</para> into /paras", null,
+                AccessContext.TEST);
+            checkCount(xquery, "/paras/para[ngram:contains(., 'special value')]", 7);
+            checkCount(xquery, "/paras/para[ngram:ends-with(., '00 special value')]", 4);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private void checkCount(XQuery xquery, String query, int count) throws Exception {
+        Sequence seq = xquery.execute(query, null, AccessContext.TEST);
+        assertNotNull(seq);
+        assertEquals(query, count, seq.getItemCount());
+    }
+
     public void testIndexKeys() {
         DBBroker broker = null;
         try {
@@ -26,7 +26,11 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.lucene.LuceneIndex;
+import org.exist.indexing.range.column.ColumnStore;
+import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
+import org.exist.util.DatabaseConfigurationException;
+import org.w3c.dom.Element;
 
 /**
  * Main implementation class for the new range index. This extends the existing LuceneIndex.
@@ -69,6 +73,18 @@ public class RangeIndex extends LuceneIndex {
 
     private Analyzer defaultAnalyzer = new KeywordAnalyzer();
 
+    private ColumnStore columnStore = null;
+
+    @Override
+    public void configure(BrokerPool pool, String dataDir, Element config) throws DatabaseConfigurationException {
+        super.configure(pool, dataDir, config);
+        final String columns = config.getAttribute("columns");
+        if ("yes".equalsIgnoreCase(columns)) {
+            LOG.info("Range index queries are evaluated on sorted columns");
+            columnStore = new ColumnStore();
+        }
+    }
+
     @Override
     public String getDirName() {
         return DIR_NAME;
@@ -87,4 +103,12 @@ public class RangeIndex extends LuceneIndex {
     public Analyzer getDefaultAnalyzer() {
         return defaultAnalyzer;
     }
+
+    /**
+     * Returns the sorted columns used to evaluate comparisons, or null if
+     * comparisons should be evaluated by Lucene queries.
+     */
+    public ColumnStore getColumnStore() {
+        return columnStore;
+    }
 }
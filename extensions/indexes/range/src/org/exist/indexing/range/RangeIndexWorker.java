@@ -38,6 +38,9 @@ import org.exist.indexing.*;
 import org.exist.indexing.lucene.BinaryTokenStream;
 import org.exist.indexing.lucene.LuceneIndexWorker;
 import org.exist.indexing.lucene.LuceneUtil;
+import org.exist.indexing.range.column.ColumnCondition;
+import org.exist.indexing.range.column.ColumnFilter;
+import org.exist.indexing.range.column.ColumnStore;
 import org.exist.numbering.NodeId;
 import org.exist.security.PermissionDeniedException;
 import org.exist.storage.DBBroker;
@@ -193,6 +196,70 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    /**
+     * Translates a comparison into a condition on the sorted columns of the index. Keys are
+     * converted the same way as in {@link #toQuery(String, QName, AtomicValue, RangeIndex.Operator, DocumentSet)}.
+     *
+     * @return the condition or null if the comparison can only be evaluated by a Lucene query
+     */
+    private ColumnCondition toCondition(String field, QName qname, AtomicValue content, RangeIndex.Operator operator, DocumentSet docs) throws XPathException {
+        final int type = content.getType();
+        if (Type.subTypeOf(type, Type.STRING)) {
+            switch (operator) {
+                case EQ:
+                case STARTS_WITH:
+                    return ColumnCondition.terms(field, analyzeContent(field, qname, content.getStringValue(), docs), operator);
+                case ENDS_WITH:
+                case CONTAINS:
+                case MATCH:
+                    return null;
+            }
+        }
+        switch (type) {
+            case Type.INTEGER:
+            case Type.LONG:
+            case Type.UNSIGNED_LONG:
+                return ColumnCondition.numeric(field, FieldType.NumericType.LONG, ((NumericValue) content).getLong(), operator);
+            case Type.INT:
+            case Type.UNSIGNED_INT:
+            case Type.SHORT:
+            case Type.UNSIGNED_SHORT:
+                return ColumnCondition.numeric(field, FieldType.NumericType.INT, ((NumericValue) content).getInt(), operator);
+            case Type.DECIMAL:
+            case Type.DOUBLE:
+                return ColumnCondition.numeric(field, FieldType.NumericType.DOUBLE,
+                    NumericUtils.doubleToSortableLong(((NumericValue) content).getDouble()), operator);
+            case Type.FLOAT:
+                return ColumnCondition.numeric(field, FieldType.NumericType.FLOAT,
+                    NumericUtils.floatToSortableInt((float) ((NumericValue) content).getDouble()), operator);
+            case Type.DATE:
+                return ColumnCondition.numeric(field, FieldType.NumericType.LONG, RangeIndexConfigElement.dateToLong((DateValue) content), operator);
+            case Type.TIME:
+                return ColumnCondition.numeric(field, FieldType.NumericType.LONG, RangeIndexConfigElement.timeToLong((TimeValue) content), operator);
+            case Type.DATE_TIME:
+            default:
+                return ColumnCondition.terms(field, RangeIndexConfigElement.convertToBytes(content), operator);
+        }
+    }
+
+    /**
+     * Returns a query evaluating the given groups of comparisons on the sorted columns of the
+     * index, or null if the columns are disabled or a comparison cannot be evaluated on them.
+     * A node matches if it matches one comparison in every group.
+     */
+    private Query toColumnQuery(List<ColumnCondition[]> groups) {
+        final ColumnStore store = index.getColumnStore();
+        if (store == null)
+            return null;
+        for (ColumnCondition[] group : groups) {
+            for (ColumnCondition condition : group) {
+                if (condition == null)
+                    return null;
+            }
+        }
+        return new ConstantScoreQuery(new ColumnFilter(store, groups));
+    }
+
     @Override
     public String getIndexId() {
         return index.getIndexId();
@@ -491,16 +558,25 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         try {
             searcher = index.getSearcher();
             for (QName qname : qnames) {
-                Query query;
+                Query query = null;
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
-                if (keys.length > 1) {
-                    BooleanQuery bool = new BooleanQuery();
-                    for (AtomicValue key: keys) {
-                        bool.add(toQuery(field, qname, key, operator, docs), BooleanClause.Occur.SHOULD);
+                if (index.getColumnStore() != null) {
+                    ColumnCondition[] conditions = new ColumnCondition[keys.length];
+                    for (int i = 0; i < keys.length; i++) {
+                        conditions[i] = toCondition(field, qname, keys[i], operator, docs);
+                    }
+                    query = toColumnQuery(Collections.singletonList(conditions));
+                }
+                if (query == null) {
+                    if (keys.length > 1) {
+                        BooleanQuery bool = new BooleanQuery();
+                        for (AtomicValue key: keys) {
+                            bool.add(toQuery(field, qname, key, operator, docs), BooleanClause.Occur.SHOULD);
+                        }
+                        query = bool;
+                    } else {
+                        query = toQuery(field, qname, keys[0], operator, docs);
                     }
-                    query = bool;
-                } else {
-                    query = toQuery(field, qname, keys[0], operator, docs);
                 }
 
                 if (contextSet != null && contextSet.hasOne() && contextSet.getItemType() != Type.DOCUMENT) {
@@ -509,7 +585,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                     FilteredQuery filtered = new FilteredQuery(query, filter, FilteredQuery.LEAP_FROG_FILTER_FIRST_STRATEGY);
                     resultSet = doQuery(contextId, docs, contextSet, axis, searcher, null, filtered, null);
                 } else {
-                    resultSet = doQuery(contextId, docs, contextSet, axis, searcher, null, query, null);
+                    resultSet = doQuery(contextId, docs, contextSet, axis, searcher, null, query, getDocumentsFilter(docs, contextSet));
                 }
             }
         } finally {
@@ -523,36 +599,16 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
-            BooleanQuery query = new BooleanQuery();
-            int j = 0;
-            for (SequenceIterator i = fields.iterate(); i.hasNext(); j++) {
-                String field = i.nextItem().getStringValue();
-                if (keys[j].getItemCount() > 1) {
-                    BooleanQuery bool = new BooleanQuery();
-                    bool.setMinimumNumberShouldMatch(1);
-                    for (SequenceIterator ki = keys[j].iterate(); ki.hasNext(); ) {
-                        Item key = ki.nextItem();
-                        Query q = toQuery(field, null, key.atomize(), operators[j], docs);
-                        bool.add(q, BooleanClause.Occur.SHOULD);
-                    }
-                    query.add(bool, BooleanClause.Occur.MUST);
-                } else {
-                    Query q = toQuery(field, null, keys[j].itemAt(0).atomize(), operators[j], docs);
-                    query.add(q, BooleanClause.Occur.MUST);
-                }
-            }
-            Query qu = query;
-            BooleanClause[] clauses = query.getClauses();
-            if (clauses.length == 1) {
-                qu = clauses[0].getQuery();
-            }
+            Query qu = index.getColumnStore() == null ? null : toColumnQuery(fields, keys, operators, docs);
+            if (qu == null)
+                qu = toFieldQuery(fields, keys, operators, docs);
             if (contextSet != null && contextSet.hasOne() && contextSet.getItemType() != Type.DOCUMENT) {
                 NodesFilter filter = new NodesFilter(contextSet);
                 filter.init(searcher.getIndexReader());
                 FilteredQuery filtered = new FilteredQuery(qu, filter, FilteredQuery.LEAP_FROG_FILTER_FIRST_STRATEGY);
                 resultSet = doQuery(contextId, docs, contextSet, axis, searcher, null, filtered, null);
             } else {
-                resultSet = doQuery(contextId, docs, contextSet, axis, searcher, null, qu, null);
+                resultSet = doQuery(contextId, docs, contextSet, axis, searcher, null, qu, getDocumentsFilter(docs, contextSet));
             }
         } finally {
             index.releaseSearcher(searcher);
@@ -560,19 +616,58 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return resultSet;
     }
 
-//    private OpenBitSet getDocs(DocumentSet docs, IndexSearcher searcher) throws IOException {
-//        OpenBitSet bits = new OpenBitSet(searcher.getIndexReader().maxDoc());
-//        for (Iterator i = docs.getDocumentIterator(); i.hasNext(); ) {
-//            DocumentImpl nextDoc = (DocumentImpl) i.next();
-//            Term dt = new Term(FIELD_DOC_ID, NumericUtils.intToPrefixCoded(nextDoc.getDocId()));
-//            TermDocs td = searcher.getIndexReader().termDocs(dt);
-//            while (td.next()) {
-//                bits.set(td.doc());
-//            }
-//            td.close();
-//        }
-//        return bits;
-//    }
+    private Query toFieldQuery(Sequence fields, Sequence[] keys, RangeIndex.Operator[] operators, DocumentSet docs) throws XPathException {
+        BooleanQuery query = new BooleanQuery();
+        int j = 0;
+        for (SequenceIterator i = fields.iterate(); i.hasNext(); j++) {
+            String field = i.nextItem().getStringValue();
+            if (keys[j].getItemCount() > 1) {
+                BooleanQuery bool = new BooleanQuery();
+                bool.setMinimumNumberShouldMatch(1);
+                for (SequenceIterator ki = keys[j].iterate(); ki.hasNext(); ) {
+                    Item key = ki.nextItem();
+                    Query q = toQuery(field, null, key.atomize(), operators[j], docs);
+                    bool.add(q, BooleanClause.Occur.SHOULD);
+                }
+                query.add(bool, BooleanClause.Occur.MUST);
+            } else {
+                Query q = toQuery(field, null, keys[j].itemAt(0).atomize(), operators[j], docs);
+                query.add(q, BooleanClause.Occur.MUST);
+            }
+        }
+        BooleanClause[] clauses = query.getClauses();
+        if (clauses.length == 1) {
+            return clauses[0].getQuery();
+        }
+        return query;
+    }
+
+    /**
+     * Translates a field query into groups of conditions, one group for each field, and
+     * evaluates them on the sorted columns.
+     */
+    private Query toColumnQuery(Sequence fields, Sequence[] keys, RangeIndex.Operator[] operators, DocumentSet docs) throws XPathException {
+        List<ColumnCondition[]> groups = new ArrayList<ColumnCondition[]>(keys.length);
+        int j = 0;
+        for (SequenceIterator i = fields.iterate(); i.hasNext(); j++) {
+            String field = i.nextItem().getStringValue();
+            ColumnCondition[] conditions = new ColumnCondition[keys[j].getItemCount()];
+            int k = 0;
+            for (SequenceIterator ki = keys[j].iterate(); ki.hasNext(); k++) {
+                conditions[k] = toCondition(field, null, ki.nextItem().atomize(), operators[j], docs);
+            }
+            groups.add(conditions);
+        }
+        return toColumnQuery(groups);
+    }
+
+    /**
+     * Restricts the search to the documents of the context set, or to the documents
+     * being queried if there's no context.
+     */
+    private Filter getDocumentsFilter(DocumentSet docs, NodeSet contextSet) {
+        return index.getDocumentsFilter(contextSet == null ? docs : contextSet.getDocumentSet());
+    }
 
     private NodeSet doQuery(final int contextId, final DocumentSet docs, final NodeSet contextSet, final int axis,
                             IndexSearcher searcher, final QName qname, Query query, Filter filter) throws IOException {
@@ -0,0 +1,173 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.range.column;
+
+import java.io.IOException;
+
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.exist.indexing.range.RangeIndex;
+
+/**
+ * A comparison of a field against a key, evaluated on the sorted column
+ * of the field. The key has to be converted to the representation used in
+ * the index.
+ */
+public abstract class ColumnCondition {
+
+    protected final String field;
+    protected final RangeIndex.Operator operator;
+
+    protected ColumnCondition(String field, RangeIndex.Operator operator) {
+        this.field = field;
+        this.operator = operator;
+    }
+
+    /**
+     * Returns a condition comparing a numeric field with the given key, or null if
+     * the operator is not supported for numbers.
+     *
+     * @param type INT or FLOAT if the field is indexed with 32 bit precision
+     */
+    public static ColumnCondition numeric(String field, NumericType type, long key, RangeIndex.Operator operator) {
+        if (!isComparison(operator))
+            return null;
+        return new NumericCondition(field, type, key, operator);
+    }
+
+    /**
+     * Returns a condition comparing a string field with the given key, or null if
+     * the operator is not supported for strings.
+     */
+    public static ColumnCondition terms(String field, BytesRef key, RangeIndex.Operator operator) {
+        if (!isComparison(operator) && operator != RangeIndex.Operator.STARTS_WITH)
+            return null;
+        return new TermsCondition(field, key, operator);
+    }
+
+    private static boolean isComparison(RangeIndex.Operator operator) {
+        switch (operator) {
+            case EQ:
+            case LT:
+            case LE:
+            case GT:
+            case GE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Determines the range of ordinals matching this condition in the column
+     * of the given segment.
+     */
+    public abstract Range find(ColumnStore store, AtomicReader reader) throws IOException;
+
+    /**
+     * A range of ordinals in a column.
+     */
+    public static class Range {
+
+        private final SortedColumn column;
+        private final int from;
+        private final int to;
+
+        Range(SortedColumn column, int from, int to) {
+            this.column = column;
+            this.from = from;
+            this.to = Math.max(from, to);
+        }
+
+        /**
+         * Returns the number of documents in the range.
+         */
+        public int count() {
+            return column.count(from, to);
+        }
+
+        public void collect(FixedBitSet bits) {
+            column.collect(from, to, bits);
+        }
+    }
+
+    private static class NumericCondition extends ColumnCondition {
+
+        private final NumericType type;
+        private final long key;
+
+        NumericCondition(String field, NumericType type, long key, RangeIndex.Operator operator) {
+            super(field, operator);
+            this.type = type;
+            this.key = key;
+        }
+
+        @Override
+        public Range find(ColumnStore store, AtomicReader reader) throws IOException {
+            final NumericColumn column = store.getNumericColumn(reader, field, type);
+            switch (operator) {
+                case EQ:
+                    return new Range(column, column.ceiling(key, true), column.ceiling(key, false));
+                case LT:
+                    return new Range(column, 0, column.ceiling(key, true));
+                case LE:
+                    return new Range(column, 0, column.ceiling(key, false));
+                case GT:
+                    return new Range(column, column.ceiling(key, false), column.size());
+                default:
+                    return new Range(column, column.ceiling(key, true), column.size());
+            }
+        }
+    }
+
+    private static class TermsCondition extends ColumnCondition {
+
+        private final BytesRef key;
+
+        TermsCondition(String field, BytesRef key, RangeIndex.Operator operator) {
+            super(field, operator);
+            this.key = key;
+        }
+
+        @Override
+        public Range find(ColumnStore store, AtomicReader reader) throws IOException {
+            final TermsColumn column = store.getTermsColumn(reader, field);
+            switch (operator) {
+                case EQ:
+                    return new Range(column, column.ceiling(key, true), column.ceiling(key, false));
+                case STARTS_WITH:
+                    final int start = column.ceiling(key, true);
+                    return new Range(column, start, column.prefixEnd(start, key));
+                case LT:
+                    return new Range(column, 0, column.ceiling(key, true));
+                case LE:
+                    return new Range(column, 0, column.ceiling(key, false));
+                case GT:
+                    return new Range(column, column.ceiling(key, false), column.size());
+                default:
+                    return new Range(column, column.ceiling(key, true), column.size());
+            }
+        }
+    }
+}
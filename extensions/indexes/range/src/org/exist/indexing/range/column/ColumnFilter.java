@@ -0,0 +1,105 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.range.column;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Selects the nodes matching a set of conditions on sorted columns. The
+ * conditions are given as groups: a node has to match one condition of
+ * every group.
+ *
+ * Within a segment, the matches of each group are collected into a bitset
+ * and the bitsets are intersected word by word, starting with the group
+ * having the fewest matches. No bitsets are created if a group has no
+ * matches at all.
+ */
+public class ColumnFilter extends Filter {
+
+    private final ColumnStore store;
+    private final List<ColumnCondition[]> groups;
+
+    public ColumnFilter(ColumnStore store, List<ColumnCondition[]> groups) {
+        this.store = store;
+        this.groups = groups;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final AtomicReader reader = context.reader();
+        final GroupRanges[] ranges = new GroupRanges[groups.size()];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = new GroupRanges(groups.get(i), reader);
+            if (ranges[i].count == 0)
+                return null;
+        }
+        Arrays.sort(ranges, new Comparator<GroupRanges>() {
+            @Override
+            public int compare(GroupRanges g1, GroupRanges g2) {
+                return g1.count < g2.count ? -1 : (g1.count == g2.count ? 0 : 1);
+            }
+        });
+        FixedBitSet result = null;
+        for (final GroupRanges group : ranges) {
+            final FixedBitSet bits = new FixedBitSet(reader.maxDoc());
+            group.collect(bits);
+            if (result == null)
+                result = bits;
+            else
+                result.and(bits);
+        }
+        if (result == null)
+            return null;
+        return BitsFilteredDocIdSet.wrap(result, acceptDocs);
+    }
+
+    private class GroupRanges {
+
+        private final ColumnCondition.Range[] ranges;
+        private long count = 0;
+
+        GroupRanges(ColumnCondition[] conditions, AtomicReader reader) throws IOException {
+            ranges = new ColumnCondition.Range[conditions.length];
+            for (int i = 0; i < conditions.length; i++) {
+                ranges[i] = conditions[i].find(store, reader);
+                count += ranges[i].count();
+            }
+        }
+
+        void collect(FixedBitSet bits) {
+            for (final ColumnCondition.Range range : ranges) {
+                range.collect(bits);
+            }
+        }
+    }
+}
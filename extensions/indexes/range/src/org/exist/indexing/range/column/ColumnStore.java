@@ -0,0 +1,92 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.range.column;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReader;
+
+/**
+ * Keeps the sorted columns of the range index. Columns are created on
+ * first use for every index segment and field, and are dropped together
+ * with the segment, e.g. after it has been merged.
+ */
+public class ColumnStore {
+
+    private static final Logger LOG = Logger.getLogger(ColumnStore.class);
+
+    private final Map<Object, Map<String, SortedColumn>> segments =
+        Collections.synchronizedMap(new WeakHashMap<Object, Map<String, SortedColumn>>());
+
+    public NumericColumn getNumericColumn(AtomicReader reader, String field, NumericType type) throws IOException {
+        final boolean ints = type == NumericType.INT || type == NumericType.FLOAT;
+        final String key = field + (ints ? "#int" : "#long");
+        final Map<String, SortedColumn> columns = getColumns(reader);
+        synchronized (columns) {
+            NumericColumn column = (NumericColumn) columns.get(key);
+            if (column == null) {
+                final long start = System.currentTimeMillis();
+                column = NumericColumn.create(reader, field, type);
+                columns.put(key, column);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Created column " + key + " with " + column.size() + " values in " +
+                        (System.currentTimeMillis() - start) + "ms");
+            }
+            return column;
+        }
+    }
+
+    public TermsColumn getTermsColumn(AtomicReader reader, String field) throws IOException {
+        final String key = field + "#terms";
+        final Map<String, SortedColumn> columns = getColumns(reader);
+        synchronized (columns) {
+            TermsColumn column = (TermsColumn) columns.get(key);
+            if (column == null) {
+                final long start = System.currentTimeMillis();
+                column = TermsColumn.create(reader, field);
+                columns.put(key, column);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Created column " + key + " with " + column.size() + " values in " +
+                        (System.currentTimeMillis() - start) + "ms");
+            }
+            return column;
+        }
+    }
+
+    private Map<String, SortedColumn> getColumns(AtomicReader reader) {
+        final Object key = reader.getCoreCacheKey();
+        synchronized (segments) {
+            Map<String, SortedColumn> columns = segments.get(key);
+            if (columns == null) {
+                columns = new HashMap<String, SortedColumn>();
+                segments.put(key, columns);
+            }
+            return columns;
+        }
+    }
+}
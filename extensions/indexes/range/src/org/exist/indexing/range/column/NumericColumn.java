@@ -0,0 +1,102 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.range.column;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Column of a numeric field. Values are kept as primitive longs. Doubles
+ * and floats are stored in their sortable integer representation, dates
+ * and times as the long they are indexed as.
+ */
+public class NumericColumn extends SortedColumn {
+
+    private final long[] values;
+
+    private NumericColumn(Postings postings, long[] values) {
+        super(postings);
+        this.values = values;
+    }
+
+    /**
+     * Creates the column from the full precision terms of a field indexed
+     * as {@link org.apache.lucene.document.IntField}, {@link org.apache.lucene.document.LongField}
+     * or their floating point counterparts.
+     *
+     * @param type INT for fields indexed with 32 bit precision, LONG otherwise
+     */
+    public static NumericColumn create(AtomicReader reader, String field, NumericType type) throws IOException {
+        final boolean ints = type == NumericType.INT || type == NumericType.FLOAT;
+        final byte fullPrecision = ints ? NumericUtils.SHIFT_START_INT : NumericUtils.SHIFT_START_LONG;
+        final Postings postings = new Postings();
+        long[] values = new long[16];
+        final Terms terms = reader.terms(field);
+        if (terms != null) {
+            final TermsEnum termsEnum = terms.iterator(null);
+            // terms are sorted by shift first, so the full precision terms come first
+            if (termsEnum.seekCeil(new BytesRef(new byte[] { fullPrecision })) != TermsEnum.SeekStatus.END) {
+                BytesRef term = termsEnum.term();
+                do {
+                    if (term.length == 0 || term.bytes[term.offset] != fullPrecision)
+                        break;
+                    final long value;
+                    try {
+                        value = ints ? NumericUtils.prefixCodedToInt(term) : NumericUtils.prefixCodedToLong(term);
+                    } catch (NumberFormatException e) {
+                        // not a numeric term
+                        continue;
+                    }
+                    values = ArrayUtil.grow(values, postings.size() + 1);
+                    values[postings.size()] = value;
+                    postings.add(termsEnum);
+                } while ((term = termsEnum.next()) != null);
+            }
+        }
+        return new NumericColumn(postings, Arrays.copyOf(values, postings.size()));
+    }
+
+    /**
+     * Returns the ordinal of the first value greater than or equal to the
+     * given value, or greater than it if inclusive is false.
+     */
+    public int ceiling(long value, boolean inclusive) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (values[mid] < value || (!inclusive && values[mid] == value))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.range.column;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * A column holds the distinct values of a field within one index segment
+ * in sorted order, together with the Lucene documents (i.e. nodes) having
+ * each value. A range of values thus maps to a contiguous range of
+ * ordinals, which can be found by binary search.
+ *
+ * Columns are created from the terms of the segment and never change
+ * afterwards. Deleted documents are not removed from a column: they are
+ * filtered out by the searcher.
+ */
+public abstract class SortedColumn {
+
+    /** The documents for the value with ordinal i are stored in docs from offsets[i] to offsets[i + 1] */
+    private final int[] offsets;
+    private final int[] docs;
+
+    protected SortedColumn(Postings postings) {
+        this.offsets = postings.getOffsets();
+        this.docs = postings.getDocs();
+    }
+
+    /**
+     * Returns the number of distinct values in the column.
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the number of documents having a value with an
+     * ordinal between from (inclusive) and to (exclusive).
+     */
+    public int count(int from, int to) {
+        return offsets[to] - offsets[from];
+    }
+
+    /**
+     * Sets the bits of the documents having a value with an ordinal
+     * between from (inclusive) and to (exclusive).
+     */
+    public void collect(int from, int to, FixedBitSet bits) {
+        for (int i = offsets[from]; i < offsets[to]; i++) {
+            bits.set(docs[i]);
+        }
+    }
+
+    /**
+     * Collects the documents of all terms in the order they are added.
+     */
+    protected static class Postings {
+
+        private int[] offsets = new int[16];
+        private int[] docs = new int[64];
+        private int size = 0;
+        private int count = 0;
+        private DocsEnum docsEnum = null;
+
+        /**
+         * Adds the documents of the current term as the next value.
+         */
+        public void add(TermsEnum termsEnum) throws IOException {
+            docsEnum = termsEnum.docs(null, docsEnum, DocsEnum.FLAG_NONE);
+            offsets = ArrayUtil.grow(offsets, size + 2);
+            offsets[size++] = count;
+            docs = ArrayUtil.grow(docs, count + termsEnum.docFreq());
+            int doc;
+            while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                if (count == docs.length)
+                    docs = ArrayUtil.grow(docs, count + 1);
+                docs[count++] = doc;
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        int[] getOffsets() {
+            final int[] result = Arrays.copyOf(offsets, size + 1);
+            result[size] = count;
+            return result;
+        }
+
+        int[] getDocs() {
+            return Arrays.copyOf(docs, count);
+        }
+    }
+}
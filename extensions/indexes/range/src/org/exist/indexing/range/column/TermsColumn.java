@@ -0,0 +1,115 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.range.column;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/**
+ * Column of a string field. The values are dictionary encoded: the distinct
+ * terms are concatenated in sort order and identified by their ordinal.
+ */
+public class TermsColumn extends SortedColumn {
+
+    private final byte[] data;
+    private final int[] starts;
+
+    private TermsColumn(Postings postings, byte[] data, int[] starts) {
+        super(postings);
+        this.data = data;
+        this.starts = starts;
+    }
+
+    /**
+     * Creates the column from all terms of the given field.
+     */
+    public static TermsColumn create(AtomicReader reader, String field) throws IOException {
+        final Postings postings = new Postings();
+        byte[] data = new byte[256];
+        int[] starts = new int[17];
+        int length = 0;
+        final Terms terms = reader.terms(field);
+        if (terms != null) {
+            final TermsEnum termsEnum = terms.iterator(null);
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                data = ArrayUtil.grow(data, length + term.length);
+                System.arraycopy(term.bytes, term.offset, data, length, term.length);
+                starts = ArrayUtil.grow(starts, postings.size() + 2);
+                starts[postings.size()] = length;
+                length += term.length;
+                postings.add(termsEnum);
+            }
+        }
+        starts[postings.size()] = length;
+        return new TermsColumn(postings, Arrays.copyOf(data, length), Arrays.copyOf(starts, postings.size() + 1));
+    }
+
+    /**
+     * Returns the ordinal of the first term greater than or equal to the
+     * given term, or greater than it if inclusive is false.
+     */
+    public int ceiling(BytesRef key, boolean inclusive) {
+        final BytesRef term = new BytesRef();
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = getTerm(mid, term).compareTo(key);
+            if (cmp < 0 || (!inclusive && cmp == 0))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the ordinal following the last term which starts with the
+     * given prefix, beginning at ordinal from.
+     */
+    public int prefixEnd(int from, BytesRef prefix) {
+        final BytesRef term = new BytesRef();
+        int ordinal = from;
+        while (ordinal < size() && StringHelper.startsWith(getTerm(ordinal, term), prefix)) {
+            ordinal++;
+        }
+        return ordinal;
+    }
+
+    /**
+     * Points the given BytesRef to the term with the given ordinal.
+     */
+    public BytesRef getTerm(int ordinal, BytesRef term) {
+        term.bytes = data;
+        term.offset = starts[ordinal];
+        term.length = starts[ordinal + 1] - starts[ordinal];
+        return term;
+    }
+}
@@ -0,0 +1,186 @@
+package org.exist.indexing.range.column;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.exist.indexing.range.RangeIndex;
+import org.exist.indexing.range.RangeIndex.Operator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColumnFilterTest {
+
+    private final static String[] WORDS = { "a", "ab", "abc", "b", "ba", "c", "cab" };
+    private final static Operator[] OPERATORS = { Operator.EQ, Operator.LT, Operator.LE, Operator.GT, Operator.GE };
+
+    private RAMDirectory directory;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private final ColumnStore store = new ColumnStore();
+
+    @Test
+    public void longs() throws Exception {
+        for (long key = -60; key <= 60; key += 7) {
+            for (Operator op : OPERATORS) {
+                assertSameHits(longRange("l", key, op),
+                    ColumnCondition.numeric("l", NumericType.LONG, key, op));
+            }
+        }
+    }
+
+    @Test
+    public void ints() throws Exception {
+        for (int key = -60; key <= 60; key += 7) {
+            for (Operator op : OPERATORS) {
+                final Query query = NumericRangeQuery.newIntRange("i",
+                    op == Operator.LT || op == Operator.LE ? null : key,
+                    op == Operator.GT || op == Operator.GE ? null : key,
+                    op == Operator.EQ || op == Operator.GE, op == Operator.EQ || op == Operator.LE);
+                assertSameHits(query, ColumnCondition.numeric("i", NumericType.INT, key, op));
+            }
+        }
+    }
+
+    @Test
+    public void doubles() throws Exception {
+        for (double key = -10.0; key <= 10.0; key += 0.5) {
+            for (Operator op : OPERATORS) {
+                final Query query = NumericRangeQuery.newDoubleRange("d",
+                    op == Operator.LT || op == Operator.LE ? null : key,
+                    op == Operator.GT || op == Operator.GE ? null : key,
+                    op == Operator.EQ || op == Operator.GE, op == Operator.EQ || op == Operator.LE);
+                assertSameHits(query, ColumnCondition.numeric("d", NumericType.DOUBLE,
+                    NumericUtils.doubleToSortableLong(key), op));
+            }
+        }
+    }
+
+    @Test
+    public void strings() throws Exception {
+        for (String word : new String[] { "", "a", "abb", "b", "c", "cab", "d" }) {
+            final BytesRef key = new BytesRef(word);
+            assertSameHits(new TermQuery(new Term("s", key)), ColumnCondition.terms("s", key, Operator.EQ));
+            assertSameHits(new PrefixQuery(new Term("s", key)), ColumnCondition.terms("s", key, Operator.STARTS_WITH));
+            assertSameHits(new TermRangeQuery("s", null, key, false, false), ColumnCondition.terms("s", key, Operator.LT));
+            assertSameHits(new TermRangeQuery("s", null, key, false, true), ColumnCondition.terms("s", key, Operator.LE));
+            assertSameHits(new TermRangeQuery("s", key, null, false, false), ColumnCondition.terms("s", key, Operator.GT));
+            assertSameHits(new TermRangeQuery("s", key, null, true, false), ColumnCondition.terms("s", key, Operator.GE));
+        }
+    }
+
+    @Test
+    public void unsupported() {
+        assertEquals(null, ColumnCondition.numeric("l", NumericType.LONG, 1, Operator.STARTS_WITH));
+        assertEquals(null, ColumnCondition.terms("s", new BytesRef("a"), Operator.CONTAINS));
+    }
+
+    @Test
+    public void intersection() throws Exception {
+        for (long key = -40; key <= 40; key += 20) {
+            final BooleanQuery strings = new BooleanQuery();
+            strings.add(new PrefixQuery(new Term("s", "ab")), BooleanClause.Occur.SHOULD);
+            strings.add(new TermQuery(new Term("s", "c")), BooleanClause.Occur.SHOULD);
+            final BooleanQuery query = new BooleanQuery();
+            query.add(longRange("l", key, Operator.GT), BooleanClause.Occur.MUST);
+            query.add(strings, BooleanClause.Occur.MUST);
+            query.add(longRange("l", key + 30, Operator.LE), BooleanClause.Occur.MUST);
+
+            final List<ColumnCondition[]> groups = new ArrayList<ColumnCondition[]>();
+            groups.add(new ColumnCondition[] { ColumnCondition.numeric("l", NumericType.LONG, key, Operator.GT) });
+            groups.add(new ColumnCondition[] {
+                ColumnCondition.terms("s", new BytesRef("ab"), Operator.STARTS_WITH),
+                ColumnCondition.terms("s", new BytesRef("c"), Operator.EQ)
+            });
+            groups.add(new ColumnCondition[] { ColumnCondition.numeric("l", NumericType.LONG, key + 30, Operator.LE) });
+            assertEquals(count(query), count(new ConstantScoreQuery(new ColumnFilter(store, groups))));
+        }
+    }
+
+    @Test
+    public void missingField() throws Exception {
+        assertEquals(0, count(new ConstantScoreQuery(filter(ColumnCondition.numeric("x", NumericType.LONG, 0, Operator.GE)))));
+        assertEquals(0, count(new ConstantScoreQuery(filter(ColumnCondition.terms("x", new BytesRef(""), Operator.GE)))));
+    }
+
+    private Query longRange(String field, long key, Operator op) {
+        return NumericRangeQuery.newLongRange(field,
+            op == Operator.LT || op == Operator.LE ? null : key,
+            op == Operator.GT || op == Operator.GE ? null : key,
+            op == Operator.EQ || op == Operator.GE, op == Operator.EQ || op == Operator.LE);
+    }
+
+    private void assertSameHits(Query expected, ColumnCondition condition) throws Exception {
+        assertEquals(expected.toString(), count(expected), count(new ConstantScoreQuery(filter(condition))));
+    }
+
+    private ColumnFilter filter(ColumnCondition condition) {
+        return new ColumnFilter(store, Collections.singletonList(new ColumnCondition[] { condition }));
+    }
+
+    private int count(Query query) throws Exception {
+        return searcher.search(query, 1).totalHits;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(RangeIndex.LUCENE_VERSION_IN_USE, new KeywordAnalyzer()));
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final Document doc = new Document();
+            doc.add(new StringField("id", Integer.toString(i), Field.Store.NO));
+            // some nodes have no value or more than one
+            for (int j = random.nextInt(3); j > 0; j--) {
+                doc.add(new LongField("l", random.nextInt(101) - 50, Field.Store.NO));
+                doc.add(new IntField("i", random.nextInt(101) - 50, Field.Store.NO));
+                doc.add(new DoubleField("d", (random.nextInt(81) - 40) / 4.0, Field.Store.NO));
+                doc.add(new StringField("s", WORDS[random.nextInt(WORDS.length)], Field.Store.NO));
+            }
+            writer.addDocument(doc);
+            if (i % 300 == 299)
+                writer.commit();
+        }
+        // deleted nodes must not be returned
+        for (int i = 0; i < 1000; i += 10) {
+            writer.deleteDocuments(new Term("id", Integer.toString(i)));
+        }
+        writer.close();
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+    }
+}
@@ -0,0 +1,276 @@
+package org.exist.indexing.sort;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.dom.DocumentImpl;
+import org.exist.dom.NodeProxy;
+import org.exist.dom.NodeSet;
+import org.exist.dom.QName;
+import org.exist.storage.DBBroker;
+import org.exist.storage.IndexSpec;
+import org.exist.util.LockException;
+import org.exist.xquery.ForExpr;
+import org.exist.xquery.IndexedOrderBy;
+import org.exist.xquery.OrderSpec;
+import org.exist.xquery.PerformanceStats;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Orders the input nodes of a "for" expression by the sort keys stored in a
+ * configured sort index. The binary keys are compared directly, so no nodes need
+ * to be loaded and no values need to be converted or collated at query time.
+ *
+ * The order is only determined from the index if there's a sort index definition
+ * for every input document which covers all order specs and all input nodes,
+ * and if the stored keys are sufficient to decide the order, i.e. none of the
+ * paths selects more than one node or a value which cannot be converted to the
+ * type and equal keys are not truncated. Otherwise {@link #order(NodeSet)}
+ * returns null and the "for" expression sorts its result as usual.
+ *
+ * If tracing is enabled, every call is recorded as a use of the "sort" index,
+ * with optimization level {@link PerformanceStats#OPTIMIZED_INDEX} if the order
+ * was determined from the index and {@link PerformanceStats#NO_INDEX} otherwise.
+ */
+public class IndexedSort implements IndexedOrderBy {
+
+    public final static String INDEX_TYPE = "sort";
+
+    private final XQueryContext context;
+    private final ForExpr forExpr;
+    private final OrderKey[] orderKeys;
+
+    public IndexedSort(XQueryContext context, ForExpr forExpr, OrderKey[] orderKeys) {
+        this.context = context;
+        this.forExpr = forExpr;
+        this.orderKeys = orderKeys;
+    }
+
+    public Sequence order(NodeSet nodes) throws XPathException {
+        final long start = System.currentTimeMillis();
+        final Sequence result = orderByIndex(nodes);
+        if (context.getProfiler().traceFunctions()) {
+            context.getProfiler().traceIndexUsage(context, INDEX_TYPE, forExpr,
+                result == null ? PerformanceStats.NO_INDEX : PerformanceStats.OPTIMIZED_INDEX,
+                System.currentTimeMillis() - start);
+        }
+        return result;
+    }
+
+    private Sequence orderByIndex(NodeSet nodes) throws XPathException {
+        final DBBroker broker = context.getBroker();
+        final SortIndexWorker worker = (SortIndexWorker) broker.getIndexController().getWorkerByIndexId(SortIndex.ID);
+        if (worker == null)
+            return null;
+        final EntryCollector collector = new EntryCollector(nodes.getLength());
+        Collection lastCollection = null;
+        SortIndexConfigElement definition = null;
+        try {
+            for (Iterator<DocumentImpl> i = nodes.getDocumentSet().getDocumentIterator(); i.hasNext(); ) {
+                final DocumentImpl doc = i.next();
+                if (doc.getCollection() != lastCollection) {
+                    lastCollection = doc.getCollection();
+                    definition = findDefinition(broker, lastCollection);
+                    if (definition == null)
+                        return null;
+                    collector.setDefinition(definition);
+                }
+                if (!worker.readSortKeys(definition.getName(), doc, nodes, collector) || collector.invalid)
+                    return null;
+            }
+        } catch (EXistException e) {
+            throw new XPathException("Exception caught while reading sort index: " + e.getMessage(), e);
+        } catch (LockException e) {
+            throw new XPathException("Exception caught while reading sort index: " + e.getMessage(), e);
+        }
+        // all nodes need a sort key
+        if (collector.entries.size() != nodes.getLength())
+            return null;
+        final EntryComparator comparator = new EntryComparator();
+        Collections.sort(collector.entries, comparator);
+        if (comparator.undecided)
+            return null;
+        final ValueSequence result = new ValueSequence(collector.entries.size());
+        for (Entry entry : collector.entries) {
+            result.add(entry.node);
+        }
+        return result;
+    }
+
+    /**
+     * Find a sort index definition in the configuration of the collection
+     * which has a key for every order spec.
+     */
+    private SortIndexConfigElement findDefinition(DBBroker broker, Collection collection) {
+        final IndexSpec indexConf = collection.getIndexConfiguration(broker);
+        if (indexConf == null)
+            return null;
+        final SortIndexConfig config = (SortIndexConfig) indexConf.getCustomIndexSpec(SortIndex.ID);
+        if (config == null)
+            return null;
+        for (SortIndexConfigElement element : config.getElements()) {
+            if (getKeyIndexes(element) != null)
+                return element;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the position of the key matching each order spec in the given
+     * definition or null if an order spec is not covered.
+     */
+    private int[] getKeyIndexes(SortIndexConfigElement element) {
+        final SortKey[] keys = element.getKeys();
+        final int[] indexes = new int[orderKeys.length];
+        for (int i = 0; i < orderKeys.length; i++) {
+            indexes[i] = -1;
+            for (int j = 0; j < keys.length; j++) {
+                if (orderKeys[i].matches(keys[j])) {
+                    indexes[i] = j;
+                    break;
+                }
+            }
+            if (indexes[i] < 0)
+                return null;
+        }
+        return indexes;
+    }
+
+    /**
+     * A sort expression in the "order by" clause: a path relative to the
+     * variable of the "for" expression and the type it is converted to.
+     */
+    public static class OrderKey {
+
+        private final QName[] path;
+        private final boolean attribute;
+        private final int type;
+        private final Collator collator;
+        private final int modifiers;
+
+        public OrderKey(QName[] path, boolean attribute, int type, Collator collator, int modifiers) {
+            this.path = path;
+            this.attribute = attribute;
+            this.type = type;
+            this.collator = collator;
+            this.modifiers = modifiers;
+        }
+
+        boolean matches(SortKey key) {
+            if (key.getType() != type || key.isAttribute() != attribute || key.getPath().length != path.length)
+                return false;
+            for (int i = 0; i < path.length; i++) {
+                if (!key.getPath()[i].equalsSimple(path[i]))
+                    return false;
+            }
+            if (type == Type.STRING) {
+                final Collator keyCollator = key.getCollator();
+                return collator == null ? keyCollator == null : collator.equals(keyCollator);
+            }
+            return true;
+        }
+    }
+
+    private final static class Entry {
+
+        final NodeProxy node;
+        final byte[] data;
+        /** offset of the key for each order spec */
+        final int[] offsets;
+
+        Entry(NodeProxy node, byte[] data, int[] offsets) {
+            this.node = node;
+            this.data = data;
+            this.offsets = offsets;
+        }
+    }
+
+    private class EntryCollector implements SortIndexWorker.SortKeyCallback {
+
+        final List<Entry> entries;
+        SortKey[] keys;
+        int[] keyIndexes;
+        boolean invalid = false;
+
+        EntryCollector(int size) {
+            entries = new ArrayList<Entry>(size);
+        }
+
+        void setDefinition(SortIndexConfigElement definition) {
+            keys = definition.getKeys();
+            keyIndexes = getKeyIndexes(definition);
+        }
+
+        public void sortKey(NodeProxy node, byte[] data) {
+            final int[] keyOffsets = new int[keys.length];
+            int offset = 0;
+            for (int i = 0; i < keys.length; i++) {
+                keyOffsets[i] = offset;
+                offset += keys[i].getLength(data, offset);
+            }
+            final int[] offsets = new int[orderKeys.length];
+            for (int i = 0; i < orderKeys.length; i++) {
+                offsets[i] = keyOffsets[keyIndexes[i]];
+                if (data[offsets[i]] == SortKey.INVALID)
+                    invalid = true;
+            }
+            entries.add(new Entry(node, data, offsets));
+        }
+    }
+
+    private class EntryComparator implements Comparator<Entry> {
+
+        /** set if two keys are equal up to the truncated part */
+        boolean undecided = false;
+
+        public int compare(Entry e1, Entry e2) {
+            for (int i = 0; i < orderKeys.length; i++) {
+                final int cmp = compareKey(orderKeys[i], e1.data, e1.offsets[i], e2.data, e2.offsets[i]);
+                if (cmp != 0)
+                    return (orderKeys[i].modifiers & OrderSpec.DESCENDING_ORDER) != 0 ? -cmp : cmp;
+            }
+            // equal keys are ordered by their position in the input sequence
+            return e1.node.compareTo(e2.node);
+        }
+
+        private int compareKey(OrderKey key, byte[] d1, int o1, byte[] d2, int o2) {
+            final boolean empty1 = d1[o1] == SortKey.EMPTY;
+            final boolean empty2 = d2[o2] == SortKey.EMPTY;
+            if (empty1 || empty2) {
+                if (empty1 && empty2)
+                    return 0;
+                final int cmp = (key.modifiers & OrderSpec.EMPTY_LEAST) != 0 ? -1 : 1;
+                return empty1 ? cmp : -cmp;
+            }
+            if (key.type == Type.STRING) {
+                final int cmp = compareBytes(d1, o1 + 3, (d1[o1 + 1] & 0xFF) << 8 | (d1[o1 + 2] & 0xFF),
+                    d2, o2 + 3, (d2[o2 + 1] & 0xFF) << 8 | (d2[o2 + 2] & 0xFF));
+                if (cmp == 0 && (d1[o1] == SortKey.TRUNCATED || d2[o2] == SortKey.TRUNCATED))
+                    undecided = true;
+                return cmp;
+            }
+            final int len = SortKey.getValueLength(key.type);
+            return compareBytes(d1, o1 + 1, len, d2, o2 + 1, len);
+        }
+
+        private int compareBytes(byte[] d1, int o1, int l1, byte[] d2, int o2, int l2) {
+            final int len = Math.min(l1, l2);
+            for (int i = 0; i < len; i++) {
+                final int cmp = (d1[o1 + i] & 0xFF) - (d2[o2 + i] & 0xFF);
+                if (cmp != 0)
+                    return cmp;
+            }
+            return l1 - l2;
+        }
+    }
+}
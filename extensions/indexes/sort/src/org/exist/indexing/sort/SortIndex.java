@@ -87,7 +87,7 @@ public class SortIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public IndexWorker getWorker(DBBroker broker) {
-        return new SortIndexWorker(this);
+        return new SortIndexWorker(this, broker);
     }
 
     @Override
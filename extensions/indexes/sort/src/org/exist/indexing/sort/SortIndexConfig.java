@@ -0,0 +1,54 @@
+package org.exist.indexing.sort;
+
+import org.exist.storage.NodePath;
+import org.exist.util.DatabaseConfigurationException;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sort index definitions of a collection, read from the &lt;sort&gt;
+ * section of the collection configuration.
+ */
+public class SortIndexConfig {
+
+    private final static String CONFIG_ROOT = "sort";
+    private final static String CREATE_ELEMENT = "create";
+
+    private final List<SortIndexConfigElement> elements = new ArrayList<SortIndexConfigElement>();
+
+    public SortIndexConfig(NodeList configNodes, Map<String, String> namespaces) throws DatabaseConfigurationException {
+        for (int i = 0; i < configNodes.getLength(); i++) {
+            final Node node = configNodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && CONFIG_ROOT.equals(node.getLocalName())) {
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if (child.getNodeType() == Node.ELEMENT_NODE && CREATE_ELEMENT.equals(child.getLocalName()))
+                        elements.add(new SortIndexConfigElement((Element) child, namespaces));
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+
+    public List<SortIndexConfigElement> getElements() {
+        return elements;
+    }
+
+    /**
+     * Returns true if a sort index is defined on nodes with the given path.
+     */
+    public boolean match(NodePath path) {
+        for (SortIndexConfigElement element : elements) {
+            if (element.match(path))
+                return true;
+        }
+        return false;
+    }
+}
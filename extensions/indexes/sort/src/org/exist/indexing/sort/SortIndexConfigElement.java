@@ -0,0 +1,77 @@
+package org.exist.indexing.sort;
+
+import org.exist.storage.NodePath;
+import org.exist.util.DatabaseConfigurationException;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sort index definition, configured by a &lt;create&gt; element in the
+ * &lt;sort&gt; section of the collection configuration:
+ *
+ * <pre>
+ * &lt;create match="//item"&gt;
+ *     &lt;key match="name" collation="?lang=en"/&gt;
+ *     &lt;key match="@price" type="xs:double"/&gt;
+ * &lt;/create&gt;
+ * </pre>
+ *
+ * Every element selected by the match path gets an entry in the index, which
+ * combines the values of all keys.
+ */
+public class SortIndexConfigElement {
+
+    private final static String KEY_ELEMENT = "key";
+
+    private final NodePath path;
+    private final SortKey[] keys;
+    private final String name;
+
+    public SortIndexConfigElement(Element config, Map<String, String> namespaces) throws DatabaseConfigurationException {
+        final String match = config.getAttribute("match");
+        if (match == null || match.length() == 0)
+            throw new DatabaseConfigurationException("Sort index: create needs a match attribute");
+        try {
+            path = new NodePath(namespaces, match);
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseConfigurationException("Sort index: invalid qname in configuration: " + e.getMessage());
+        }
+        if (path.length() == 0)
+            throw new DatabaseConfigurationException("Sort index: invalid match path in collection config: " + match);
+
+        final List<SortKey> keyList = new ArrayList<SortKey>(3);
+        for (Node child = config.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && KEY_ELEMENT.equals(child.getLocalName()))
+                keyList.add(new SortKey((Element) child, namespaces));
+        }
+        if (keyList.isEmpty())
+            throw new DatabaseConfigurationException("Sort index: no key defined for " + match);
+        keys = new SortKey[keyList.size()];
+        keyList.toArray(keys);
+
+        // the name identifies the index in sort.dbx. It changes if the keys are changed,
+        // so entries created for a different definition are never mixed up.
+        final StringBuilder buf = new StringBuilder("xconf:");
+        buf.append(match);
+        for (SortKey key : keys) {
+            buf.append('[').append(key.toString()).append(']');
+        }
+        name = buf.toString();
+    }
+
+    public boolean match(NodePath other) {
+        return path.match(other);
+    }
+
+    public SortKey[] getKeys() {
+        return keys;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
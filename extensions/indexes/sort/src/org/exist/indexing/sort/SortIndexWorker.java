@@ -7,37 +7,84 @@ import org.exist.indexing.IndexController;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.MatchListener;
 import org.exist.indexing.StreamListener;
+import org.exist.indexing.AbstractStreamListener;
+import org.exist.numbering.NodeId;
+import org.exist.security.PermissionDeniedException;
 import org.exist.storage.DBBroker;
+import org.exist.storage.IndexSpec;
 import org.exist.storage.NodePath;
 import org.exist.storage.btree.BTreeCallback;
 import org.exist.storage.btree.BTreeException;
 import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.Txn;
 import org.exist.util.*;
 import org.exist.xquery.QueryRewriter;
 import org.exist.xquery.TerminatedException;
 import org.exist.xquery.XQueryContext;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Stack;
+
+/**
+ * Index worker for the sort index. It maintains two kinds of indexes in sort.dbx:
+ *
+ * <ul>
+ *     <li>indexes created explicitly by the functions in the sort module, which map each
+ *     node to its position in the pre-ordered set. They are not updated if documents change.</li>
+ *     <li>indexes configured in the &lt;sort&gt; section of the collection configuration, which
+ *     map each node selected by a definition to the binary values of its sort keys (see
+ *     {@link SortKey}). They are maintained by the {@link StreamListener} of the worker and
+ *     used by {@link SortQueryRewriter} to answer "order by" clauses.</li>
+ * </ul>
+ *
+ * Both kinds are identified by a short id, registered under the name of the index. Keys of
+ * explicit indexes are [0, id, docId, nodeId], keys of configured indexes are
+ * [2, docId, id, nodeId units, nodeId, sort keys], so all entries of a document can be removed
+ * with one range query.
+ */
 public class SortIndexWorker implements IndexWorker {
 
+    private final static byte CONFIGURED_PREFIX = 2;
+
     private int mode = 0;
     private DocumentImpl document = null;
     private SortIndex index;
+    private DBBroker broker;
+
+    private SortIndexConfig config = null;
+    private final SortStreamListener listener = new SortStreamListener();
 
-    public SortIndexWorker(SortIndex index) {
+    /** Nodes selected by a sort index definition, whose end has not been reached yet */
+    private final Stack<PendingNode> pendingNodes = new Stack<PendingNode>();
+    /** Collects the string value of key elements */
+    private final Stack<KeyCollector> collectors = new Stack<KeyCollector>();
+    /** Entries to be written or removed on flush */
+    private final List<PendingNode> entries = new ArrayList<PendingNode>();
+
+    public SortIndexWorker(SortIndex index, DBBroker broker) {
         this.index = index;
+        this.broker = broker;
     }
 
     public void setDocument(DocumentImpl doc, int mode) {
         this.document = doc;
         this.mode = mode;
+        this.config = null;
+        pendingNodes.clear();
+        collectors.clear();
+        entries.clear();
+        final IndexSpec indexConf = doc.getCollection().getIndexConfiguration(broker);
+        if (indexConf != null)
+            config = (SortIndexConfig) indexConf.getCustomIndexSpec(SortIndex.ID);
     }
 
     public void setMode(int mode) {
@@ -54,15 +101,173 @@ public class SortIndexWorker implements IndexWorker {
 
     @Override
     public QueryRewriter getQueryRewriter(XQueryContext context) {
-        return null;
+        return new SortQueryRewriter(context);
     }
 
     public void flush() {
         switch (mode) {
+            case StreamListener.STORE:
+                storeEntries();
+                break;
+            case StreamListener.REMOVE_SOME_NODES:
+                removeEntries();
+                break;
             case StreamListener.REMOVE_ALL_NODES:
                 remove(document);
                 break;
         }
+        entries.clear();
+    }
+
+    /**
+     * Write the sort keys collected by the listener. If the document already has
+     * entries, the nodes are being reindexed and their old entries are removed first.
+     */
+    private void storeEntries() {
+        if (entries.isEmpty())
+            return;
+        final int docId = document.getDocId();
+        final Lock lock = index.btree.getLock();
+        try {
+            final Map<SortIndexConfigElement, Short> ids = getOrRegisterIds();
+            lock.acquire(Lock.WRITE_LOCK);
+            final boolean update = hasEntries(docId);
+            for (PendingNode entry : entries) {
+                final short id = ids.get(entry.config);
+                if (update)
+                    index.btree.remove(computeRange(docId, id, entry.nodeId), null);
+                index.btree.addValue(new Value(computeKey(docId, id, entry.nodeId, entry.getSortKey())), 0);
+            }
+        } catch (LockException e) {
+            SortIndex.LOG.warn("Failed to acquire lock for '" + index.btree.getFile().getName() + "'", e);
+        } catch (EXistException e) {
+            SortIndex.LOG.warn("Exception caught while writing sort index: " + e.getMessage(), e);
+        } catch (BTreeException e) {
+            SortIndex.LOG.warn("Exception caught while writing sort index: " + e.getMessage(), e);
+        } catch (IOException e) {
+            SortIndex.LOG.warn("Exception caught while writing sort index: " + e.getMessage(), e);
+        } catch (TerminatedException e) {
+            SortIndex.LOG.warn("Exception caught while writing sort index: " + e.getMessage(), e);
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+        }
+    }
+
+    private void removeEntries() {
+        if (entries.isEmpty())
+            return;
+        final int docId = document.getDocId();
+        final Lock lock = index.btree.getLock();
+        try {
+            final Map<SortIndexConfigElement, Short> ids = getOrRegisterIds();
+            lock.acquire(Lock.WRITE_LOCK);
+            for (PendingNode entry : entries) {
+                index.btree.remove(computeRange(docId, ids.get(entry.config), entry.nodeId), null);
+            }
+        } catch (LockException e) {
+            SortIndex.LOG.warn("Failed to acquire lock for '" + index.btree.getFile().getName() + "'", e);
+        } catch (EXistException e) {
+            SortIndex.LOG.warn("Exception caught while removing from sort index: " + e.getMessage(), e);
+        } catch (BTreeException e) {
+            SortIndex.LOG.warn("Exception caught while removing from sort index: " + e.getMessage(), e);
+        } catch (IOException e) {
+            SortIndex.LOG.warn("Exception caught while removing from sort index: " + e.getMessage(), e);
+        } catch (TerminatedException e) {
+            SortIndex.LOG.warn("Exception caught while removing from sort index: " + e.getMessage(), e);
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+        }
+    }
+
+    private Map<SortIndexConfigElement, Short> getOrRegisterIds() throws EXistException, LockException {
+        final Map<SortIndexConfigElement, Short> ids = new HashMap<SortIndexConfigElement, Short>();
+        for (PendingNode entry : entries) {
+            if (!ids.containsKey(entry.config))
+                ids.put(entry.config, getOrRegisterId(entry.config.getName()));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns true if the index contains configured entries for the document.
+     */
+    private boolean hasEntries(int docId) throws IOException, BTreeException {
+        final byte[] fromKey = new byte[5];
+        fromKey[0] = CONFIGURED_PREFIX;
+        ByteConversion.intToByteH(docId, fromKey, 1);
+        final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(prefixEnd(fromKey)));
+        try {
+            index.btree.query(query, new BTreeCallback() {
+                public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+                    // stop at the first entry
+                    throw new TerminatedException("found");
+                }
+            });
+        } catch (TerminatedException e) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the sort keys of the given nodes from the configured index with the given name.
+     * The callback is called for every node in the set which has an entry in the index.
+     *
+     * @param name the name of the index definition
+     * @param doc the document to read
+     * @param nodes the nodes to look up
+     * @param callback receives the nodes and their sort keys
+     * @return false if the index does not exist
+     * @throws EXistException
+     * @throws LockException
+     */
+    public boolean readSortKeys(String name, final DocumentImpl doc, final NodeSet nodes, final SortKeyCallback callback)
+            throws EXistException, LockException {
+        final short id = getId(name);
+        if (id < 0)
+            return false;
+        final byte[] fromKey = new byte[7];
+        fromKey[0] = CONFIGURED_PREFIX;
+        ByteConversion.intToByteH(doc.getDocId(), fromKey, 1);
+        ByteConversion.shortToByteH(id, fromKey, 5);
+        final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(prefixEnd(fromKey)));
+        final Lock lock = index.btree.getLock();
+        try {
+            lock.acquire(Lock.READ_LOCK);
+            index.btree.query(query, new BTreeCallback() {
+                public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+                    final byte[] data = value.data();
+                    final int start = value.start();
+                    final int units = ByteConversion.byteToShortH(data, start + 7);
+                    final NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, data, start + 9);
+                    final NodeProxy node = nodes.get(doc, nodeId);
+                    if (node != null) {
+                        final int offset = start + 9 + nodeId.size();
+                        final byte[] sortKey = new byte[value.getLength() - offset + start];
+                        System.arraycopy(data, offset, sortKey, 0, sortKey.length);
+                        callback.sortKey(node, sortKey);
+                    }
+                    return true;
+                }
+            });
+            return true;
+        } catch (BTreeException e) {
+            throw new EXistException("Exception caught while reading sort index: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new EXistException("Exception caught while reading sort index: " + e.getMessage(), e);
+        } catch (TerminatedException e) {
+            throw new EXistException("Exception caught while reading sort index: " + e.getMessage(), e);
+        } finally {
+            lock.release(Lock.READ_LOCK);
+        }
+    }
+
+    /**
+     * Receives the entries read by {@link #readSortKeys(String, DocumentImpl, NodeSet, SortKeyCallback)}.
+     */
+    public interface SortKeyCallback {
+
+        void sortKey(NodeProxy node, byte[] sortKey);
     }
 
     /**
@@ -198,6 +403,7 @@ public class SortIndexWorker implements IndexWorker {
             for (long id : callback.allIds) {
                 remove(doc, (short) id);
             }
+            removeConfigured(doc);
 
         } catch (BTreeException e) {
             SortIndex.LOG.debug("Exception caught while reading sort index: " + e.getMessage(), e);
@@ -214,6 +420,29 @@ public class SortIndexWorker implements IndexWorker {
         }
     }
 
+    /**
+     * Remove the entries of all configured indexes for the given document.
+     */
+    private void removeConfigured(DocumentImpl doc) throws LockException, EXistException {
+        final byte[] fromKey = new byte[5];
+        fromKey[0] = CONFIGURED_PREFIX;
+        ByteConversion.intToByteH(doc.getDocId(), fromKey, 1);
+        final Lock lock = index.btree.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(prefixEnd(fromKey)));
+            index.btree.remove(query, null);
+        } catch (BTreeException e) {
+            throw new EXistException("Exception caught while deleting sort index: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new EXistException("Exception caught while deleting sort index: " + e.getMessage(), e);
+        } catch (TerminatedException e) {
+            throw new EXistException("Exception caught while deleting sort index: " + e.getMessage(), e);
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+        }
+    }
+
     /**
      * Register the given index name and return a short id for it.
      *
@@ -346,12 +575,45 @@ public class SortIndexWorker implements IndexWorker {
         return data;
     }
 
+    private byte[] computeKey(int docId, short id, NodeId nodeId, byte[] sortKey) {
+        final byte[] data = new byte[9 + nodeId.size() + sortKey.length];
+        data[0] = CONFIGURED_PREFIX;
+        ByteConversion.intToByteH(docId, data, 1);
+        ByteConversion.shortToByteH(id, data, 5);
+        ByteConversion.shortToByteH((short) nodeId.units(), data, 7);
+        nodeId.serialize(data, 9);
+        System.arraycopy(sortKey, 0, data, 9 + nodeId.size(), sortKey.length);
+        return data;
+    }
+
+    /**
+     * Returns a query for the entry of the given node in a configured index.
+     */
+    private IndexQuery computeRange(int docId, short id, NodeId nodeId) {
+        final byte[] fromKey = computeKey(docId, id, nodeId, new byte[0]);
+        return new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(prefixEnd(fromKey)));
+    }
+
+    /**
+     * Returns the smallest key which is greater than all keys starting with the given prefix.
+     */
+    private static byte[] prefixEnd(byte[] prefix) {
+        final byte[] end = new byte[prefix.length];
+        System.arraycopy(prefix, 0, end, 0, prefix.length);
+        for (int i = end.length - 1; i >= 0; i--) {
+            if (++end[i] != 0)
+                break;
+        }
+        return end;
+    }
+
     public Object configure(IndexController controller, NodeList configNodes, Map<String, String> namespaces) throws DatabaseConfigurationException {
-        return null;
+        final SortIndexConfig sortConfig = new SortIndexConfig(configNodes, namespaces);
+        return sortConfig.isEmpty() ? null : sortConfig;
     }
 
     public void setDocument(DocumentImpl doc) {
-        this.document = doc;
+        setDocument(doc, StreamListener.UNKNOWN);
     }
 
     public DocumentImpl getDocument() {
@@ -362,19 +624,65 @@ public class SortIndexWorker implements IndexWorker {
         return mode;
     }
 
+    /**
+     * If the node is an ancestor of a node selected by a sort index definition, the
+     * sort keys of the top-most such node need to be recomputed.
+     */
     public StoredNode getReindexRoot(StoredNode node, NodePath path, boolean insert, boolean includeSelf) {
+        final IndexSpec indexConf = node.getDocument().getCollection().getIndexConfiguration(broker);
+        final SortIndexConfig sortConfig = indexConf == null ? null :
+            (SortIndexConfig) indexConf.getCustomIndexSpec(SortIndex.ID);
+        if (sortConfig != null) {
+            // the path ends with the element itself or with the parent of other nodes
+            final NodePath currentPath = new NodePath(path);
+            StoredNode current = node;
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                current = node.getParentStoredNode();
+            } else if (!includeSelf) {
+                current = node.getParentStoredNode();
+                currentPath.removeLastComponent();
+            }
+            StoredNode topMost = null;
+            while (current != null && current.getNodeType() == Node.ELEMENT_NODE && currentPath.length() > 0) {
+                if (sortConfig.match(currentPath))
+                    topMost = current;
+                current = current.getParentStoredNode();
+                currentPath.removeLastComponent();
+            }
+            if (topMost != null)
+                return topMost;
+        }
         return insert ? null : node;
     }
 
     public StreamListener getListener() {
-        return null;
+        return listener;
     }
 
     public MatchListener getMatchListener(DBBroker broker, NodeProxy proxy) {
         return null;
     }
 
+    /**
+     * Remove the entries of configured indexes for all documents in the collection. If the
+     * collection is removed, the entries of explicitly created indexes are removed as well.
+     */
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) {
+        try {
+            for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                final DocumentImpl doc = i.next();
+                if (reindex)
+                    removeConfigured(doc);
+                else
+                    remove(doc);
+            }
+        } catch (PermissionDeniedException e) {
+            SortIndex.LOG.warn("Exception caught while removing sort index: " + e.getMessage(), e);
+        } catch (LockException e) {
+            SortIndex.LOG.warn("Exception caught while removing sort index: " + e.getMessage(), e);
+        } catch (EXistException e) {
+            SortIndex.LOG.warn("Exception caught while removing sort index: " + e.getMessage(), e);
+        }
     }
 
     public boolean checkIndex(DBBroker broker) {
@@ -384,4 +692,122 @@ public class SortIndexWorker implements IndexWorker {
     public Occurrences[] scanIndex(XQueryContext context, DocumentSet docs, NodeSet contextSet, Map hints) {
         return new Occurrences[0];
     }
+
+    /**
+     * A node selected by a sort index definition and the values of its keys.
+     */
+    private final static class PendingNode {
+
+        final SortIndexConfigElement config;
+        final NodeId nodeId;
+        final int depth;
+        final String[] values;
+        final int[] counts;
+
+        PendingNode(SortIndexConfigElement config, NodeId nodeId, int depth) {
+            this.config = config;
+            this.nodeId = nodeId;
+            this.depth = depth;
+            this.values = new String[config.getKeys().length];
+            this.counts = new int[values.length];
+        }
+
+        void addValue(int key, String value) {
+            values[key] = value;
+            counts[key]++;
+        }
+
+        byte[] getSortKey() {
+            final SortKey[] keys = config.getKeys();
+            final byte[][] parts = new byte[keys.length][];
+            int len = 0;
+            for (int i = 0; i < keys.length; i++) {
+                parts[i] = keys[i].encode(values[i], counts[i]);
+                len += parts[i].length;
+            }
+            final byte[] data = new byte[len];
+            int offset = 0;
+            for (byte[] part : parts) {
+                System.arraycopy(part, 0, data, offset, part.length);
+                offset += part.length;
+            }
+            return data;
+        }
+    }
+
+    private final static class KeyCollector {
+
+        final PendingNode node;
+        final int key;
+        final int depth;
+        final XMLString content = new XMLString();
+
+        KeyCollector(PendingNode node, int key, int depth) {
+            this.node = node;
+            this.key = key;
+            this.depth = depth;
+        }
+    }
+
+    private class SortStreamListener extends AbstractStreamListener {
+
+        @Override
+        public void startElement(Txn transaction, ElementImpl element, NodePath path) {
+            if (config != null && mode != StreamListener.REMOVE_ALL_NODES) {
+                if (mode == StreamListener.STORE) {
+                    for (PendingNode pending : pendingNodes) {
+                        final SortKey[] keys = pending.config.getKeys();
+                        for (int i = 0; i < keys.length; i++) {
+                            if (keys[i].match(path, pending.depth, null))
+                                collectors.push(new KeyCollector(pending, i, path.length()));
+                        }
+                    }
+                }
+                for (SortIndexConfigElement configElement : config.getElements()) {
+                    if (configElement.match(path))
+                        pendingNodes.push(new PendingNode(configElement, element.getNodeId(), path.length()));
+                }
+            }
+            super.startElement(transaction, element, path);
+        }
+
+        @Override
+        public void attribute(Txn transaction, AttrImpl attrib, NodePath path) {
+            if (mode == StreamListener.STORE && config != null) {
+                for (PendingNode pending : pendingNodes) {
+                    final SortKey[] keys = pending.config.getKeys();
+                    for (int i = 0; i < keys.length; i++) {
+                        if (keys[i].match(path, pending.depth, attrib.getQName()))
+                            pending.addValue(i, attrib.getValue());
+                    }
+                }
+            }
+            super.attribute(transaction, attrib, path);
+        }
+
+        @Override
+        public void characters(Txn transaction, CharacterDataImpl text, NodePath path) {
+            for (KeyCollector collector : collectors) {
+                collector.content.append(text.getXMLString());
+            }
+            super.characters(transaction, text, path);
+        }
+
+        @Override
+        public void endElement(Txn transaction, ElementImpl element, NodePath path) {
+            while (!collectors.isEmpty() && collectors.peek().depth == path.length()) {
+                final KeyCollector collector = collectors.pop();
+                collector.node.addValue(collector.key, collector.content.toString());
+            }
+            while (!pendingNodes.isEmpty() && pendingNodes.peek().depth == path.length()) {
+                entries.add(pendingNodes.pop());
+            }
+            super.endElement(transaction, element, path);
+        }
+
+        @Override
+        public IndexWorker getWorker() {
+            return SortIndexWorker.this;
+        }
+    }
 }
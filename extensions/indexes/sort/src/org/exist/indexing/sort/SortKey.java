@@ -0,0 +1,273 @@
+package org.exist.indexing.sort;
+
+import org.exist.dom.QName;
+import org.exist.storage.ElementValue;
+import org.exist.storage.NodePath;
+import org.exist.util.ByteConversion;
+import org.exist.util.Collations;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.AbstractDateTimeValue;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.NumericValue;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.UntypedAtomicValue;
+import org.w3c.dom.Element;
+
+import java.math.BigDecimal;
+import java.text.Collator;
+import java.util.Map;
+
+/**
+ * A single sort key of a sort index definition, configured by a &lt;key&gt; element:
+ *
+ * <pre>
+ * &lt;key match="name" type="xs:string" collation="?lang=de"/&gt;
+ * </pre>
+ *
+ * The match path is relative to the node selected by the enclosing &lt;create&gt;
+ * and may only use the child and attribute axes. The value of the key is the string
+ * value of the matched node, converted to the given type. It is stored in binary form,
+ * so comparing two keys byte by byte yields the same order as comparing the typed values.
+ *
+ * Every key starts with a marker byte: {@link #EMPTY} if there's no value,
+ * {@link #VALUE} followed by the binary value or {@link #INVALID} if the order cannot
+ * be determined from the index, because the path selects more than one node or
+ * the value cannot be converted to the type. Strings are preceded by their length and
+ * marked {@link #TRUNCATED} if they exceed {@link #MAX_STRING_LENGTH} bytes.
+ */
+public class SortKey {
+
+    public final static byte EMPTY = 0;
+    public final static byte VALUE = 1;
+    public final static byte TRUNCATED = 2;
+    public final static byte INVALID = 3;
+
+    public final static int MAX_STRING_LENGTH = 512;
+
+    private final static byte[] EMPTY_KEY = { EMPTY };
+    private final static byte[] INVALID_KEY = { INVALID };
+
+    private final String match;
+    private final QName[] path;
+    private int type = Type.STRING;
+    private String collation = null;
+    private Collator collator = null;
+
+    public SortKey(Element node, Map<String, String> namespaces) throws DatabaseConfigurationException {
+        match = node.getAttribute("match");
+        if (match == null || match.length() == 0)
+            throw new DatabaseConfigurationException("Sort index: key needs a match attribute");
+        NodePath nodePath;
+        try {
+            nodePath = new NodePath(namespaces, match);
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseConfigurationException("Sort index: invalid qname in configuration: " + e.getMessage());
+        }
+        if (nodePath.length() == 0 || match.startsWith("/"))
+            throw new DatabaseConfigurationException("Sort index: key path must be a relative path: " + match);
+        path = new QName[nodePath.length()];
+        for (int i = 0; i < path.length; i++) {
+            final QName qname = nodePath.getComponent(i);
+            if (qname == NodePath.SKIP || qname == NodePath.WILDCARD ||
+                    (i < path.length - 1 && qname.getNameType() == ElementValue.ATTRIBUTE))
+                throw new DatabaseConfigurationException("Sort index: key path may only contain child " +
+                    "and attribute steps: " + match);
+            path[i] = qname;
+        }
+        String typeStr = node.getAttribute("type");
+        if (typeStr != null && typeStr.length() > 0) {
+            try {
+                type = Type.getType(typeStr);
+            } catch (XPathException e) {
+                throw new DatabaseConfigurationException("Invalid type declared for sort index on " + match + ": " + typeStr);
+            }
+            switch (type) {
+                case Type.STRING:
+                case Type.INTEGER:
+                case Type.DOUBLE:
+                case Type.FLOAT:
+                case Type.DATE:
+                case Type.DATE_TIME:
+                case Type.TIME:
+                    break;
+                default:
+                    throw new DatabaseConfigurationException("Sort index: unsupported type for key " + match +
+                        ": " + typeStr);
+            }
+        }
+        collation = node.getAttribute("collation");
+        if (collation != null && collation.length() > 0) {
+            if (type != Type.STRING)
+                throw new DatabaseConfigurationException("Sort index: collation can only be used on keys of " +
+                    "type xs:string: " + match);
+            try {
+                collator = Collations.getCollationFromURI(null, collation);
+            } catch (XPathException e) {
+                throw new DatabaseConfigurationException(e.getMessage(), e);
+            }
+        } else {
+            collation = null;
+        }
+    }
+
+    /**
+     * Returns the steps of the match path.
+     */
+    public QName[] getPath() {
+        return path;
+    }
+
+    public boolean isAttribute() {
+        return path[path.length - 1].getNameType() == ElementValue.ATTRIBUTE;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns the collator for string keys, or null if strings are compared
+     * by codepoints.
+     */
+    public Collator getCollator() {
+        return collator;
+    }
+
+    /**
+     * Check if the given path, relative to the node selected by the sort index
+     * definition, matches this key.
+     *
+     * @param nodePath the path of the current node
+     * @param start the position of the first step after the indexed node
+     * @param attribute the attribute name if the current node is an attribute
+     */
+    public boolean match(NodePath nodePath, int start, QName attribute) {
+        final int len = nodePath.length() - start + (attribute == null ? 0 : 1);
+        if (len != path.length || (attribute != null) != isAttribute())
+            return false;
+        for (int i = 0; i < nodePath.length() - start; i++) {
+            if (!nodePath.getComponent(start + i).equalsSimple(path[i]))
+                return false;
+        }
+        return attribute == null || attribute.equalsSimple(path[path.length - 1]);
+    }
+
+    /**
+     * Encode the given value of the key.
+     *
+     * @param value the string value of the selected node or null if there was none
+     * @param count the number of nodes selected by the key path
+     * @return the binary key
+     */
+    public byte[] encode(String value, int count) {
+        if (count == 0)
+            return EMPTY_KEY;
+        if (count > 1)
+            return INVALID_KEY;
+        if (type == Type.STRING)
+            return encodeString(value);
+        try {
+            final AtomicValue atomic = new UntypedAtomicValue(value).convertTo(type);
+            switch (type) {
+                case Type.INTEGER:
+                    final IntegerValue integer = (IntegerValue) atomic;
+                    if (!integer.fitsInLong())
+                        return INVALID_KEY;
+                    return encodeLong(integer.getLong() ^ Long.MIN_VALUE);
+                case Type.DOUBLE:
+                case Type.FLOAT:
+                    final double d = ((NumericValue) atomic).getDouble();
+                    // NaN is ordered like an empty sequence
+                    if (Double.isNaN(d))
+                        return EMPTY_KEY;
+                    final long bits = Double.doubleToLongBits(d == 0.0 ? 0.0 : d);
+                    return encodeLong(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE);
+                default:
+                    final AbstractDateTimeValue dateTime = (AbstractDateTimeValue) atomic;
+                    int nanos = 0;
+                    final BigDecimal fraction = dateTime.calendar.getFractionalSecond();
+                    if (fraction != null)
+                        nanos = fraction.movePointRight(9).intValue() % 1000000;
+                    final byte[] data = encodeLong(dateTime.getTimeInMillis() ^ Long.MIN_VALUE);
+                    ByteConversion.intToByteH(nanos, data, 9);
+                    return data;
+            }
+        } catch (XPathException e) {
+            return INVALID_KEY;
+        }
+    }
+
+    /**
+     * Encode a long whose unsigned order is the order of the values.
+     * Date and time values get four more bytes for the fraction of
+     * a millisecond.
+     */
+    private byte[] encodeLong(long value) {
+        final byte[] data = new byte[getValueLength(type) + 1];
+        data[0] = VALUE;
+        ByteConversion.longToByte(value, data, 1);
+        return data;
+    }
+
+    /**
+     * Returns the number of bytes used by values of the given type, except for strings.
+     */
+    static int getValueLength(int type) {
+        switch (type) {
+            case Type.INTEGER:
+            case Type.DOUBLE:
+            case Type.FLOAT:
+                return 8;
+            default:
+                return 12;
+        }
+    }
+
+    private byte[] encodeString(String value) {
+        byte[] bytes;
+        if (collator == null) {
+            // String.compareTo compares UTF-16 code units
+            bytes = new byte[value.length() * 2];
+            for (int i = 0; i < value.length(); i++) {
+                final char ch = value.charAt(i);
+                bytes[i * 2] = (byte) (ch >>> 8);
+                bytes[i * 2 + 1] = (byte) ch;
+            }
+        } else
+            bytes = collator.getCollationKey(value).toByteArray();
+        final int len = Math.min(bytes.length, MAX_STRING_LENGTH);
+        final byte[] data = new byte[len + 3];
+        data[0] = bytes.length > len ? TRUNCATED : VALUE;
+        ByteConversion.shortToByteH((short) len, data, 1);
+        System.arraycopy(bytes, 0, data, 3, len);
+        return data;
+    }
+
+    /**
+     * Returns the number of bytes used by the key starting at offset.
+     */
+    public int getLength(byte[] data, int offset) {
+        switch (data[offset]) {
+            case EMPTY:
+            case INVALID:
+                return 1;
+            default:
+                if (type == Type.STRING)
+                    return 3 + (ByteConversion.byteToShortH(data, offset + 1) & 0xFFFF);
+                return 1 + getValueLength(type);
+        }
+    }
+
+    /**
+     * Returns a string which identifies the key in the name of the index.
+     */
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(match).append(' ').append(Type.getTypeName(type));
+        if (collation != null)
+            buf.append(' ').append(collation);
+        return buf.toString();
+    }
+}
@@ -0,0 +1,144 @@
+package org.exist.indexing.sort;
+
+import org.exist.dom.QName;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.fn.FunNumber;
+import org.exist.xquery.value.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Query rewriter for the sort index. Checks if the "order by" clause of a "for" expression
+ * only uses simple paths relative to the "for" variable, e.g.
+ *
+ * <pre>
+ * for $item in //item order by $item/name, xs:double($item/@price) descending return ...
+ * </pre>
+ *
+ * If yes, an {@link IndexedSort} is returned, which decides at evaluation time if a configured
+ * sort index covers all order specs and the input nodes.
+ */
+public class SortQueryRewriter extends QueryRewriter {
+
+    public SortQueryRewriter(XQueryContext context) {
+        super(context);
+    }
+
+    @Override
+    public IndexedOrderBy rewriteOrderBy(ForExpr forExpr) throws XPathException {
+        if (isShadowed(forExpr))
+            return null;
+        final OrderSpec[] specs = forExpr.getOrderSpecs();
+        final IndexedSort.OrderKey[] keys = new IndexedSort.OrderKey[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            keys[i] = getOrderKey(forExpr.getVariable(), specs[i]);
+            if (keys[i] == null)
+                return null;
+        }
+        return new IndexedSort(getContext(), forExpr, keys);
+    }
+
+    /**
+     * Check if a later clause of the FLWOR expression binds a variable with the same name as
+     * the "for" variable, e.g. <code>for $a in X, $a in Y order by $a/k</code>. The order
+     * specs then refer to the other variable.
+     */
+    private boolean isShadowed(ForExpr forExpr) {
+        final String variable = forExpr.getVariable();
+        Expression expr = forExpr;
+        while (expr instanceof BindingExpression) {
+            final BindingExpression binding = (BindingExpression) expr;
+            if (binding != forExpr && variable.equals(binding.getVariable()))
+                return true;
+            if (binding instanceof ForExpr && variable.equals(((ForExpr) binding).getPositionalVariable()))
+                return true;
+            final GroupSpec[] groupSpecs = binding.getGroupSpecs();
+            if (groupSpecs != null) {
+                for (final GroupSpec groupSpec : groupSpecs) {
+                    if (variable.equals(groupSpec.getKeyVarName()))
+                        return true;
+                }
+            }
+            expr = binding.getReturnExpression();
+        }
+        return false;
+    }
+
+    /**
+     * Analyze the sort expression of the order spec. Supported are a path, optionally wrapped
+     * into a cast to one of the types supported by {@link SortKey} or a call to fn:number.
+     */
+    private IndexedSort.OrderKey getOrderKey(String variable, OrderSpec spec) {
+        Expression expr = unwrap(spec.getSortExpression());
+        int type = Type.STRING;
+        if (expr instanceof CastExpression) {
+            final CastExpression cast = (CastExpression) expr;
+            // the empty sequence must be allowed, i.e. xs:double($a/b) and not $a/b cast as xs:double
+            if (!cast.allowsEmpty())
+                return null;
+            type = cast.getCastType();
+            expr = unwrap(cast.getInnerExpression());
+        } else if (expr instanceof InternalFunctionCall || expr instanceof Function) {
+            final Function function = expr instanceof InternalFunctionCall ?
+                ((InternalFunctionCall) expr).getFunction() : (Function) expr;
+            if (!(function instanceof FunNumber) || function.getArgumentCount() != 1)
+                return null;
+            type = Type.DOUBLE;
+            expr = unwrap(function.getArgument(0));
+        }
+        final List<Expression> steps = new ArrayList<Expression>();
+        flatten(expr, steps);
+        if (steps.size() < 2 || !(steps.get(0) instanceof VariableReference) ||
+                !variable.equals(((VariableReference) steps.get(0)).getName()))
+            return null;
+        final QName[] path = new QName[steps.size() - 1];
+        boolean attribute = false;
+        for (int i = 1; i < steps.size(); i++) {
+            if (!(steps.get(i) instanceof LocationStep) || attribute)
+                return null;
+            final LocationStep step = (LocationStep) steps.get(i);
+            if (step.hasPredicates() || step.getTest().isWildcardTest() || step.getTest().getName() == null)
+                return null;
+            if (step.getAxis() == Constants.ATTRIBUTE_AXIS)
+                attribute = true;
+            else if (step.getAxis() != Constants.CHILD_AXIS)
+                return null;
+            path[i - 1] = step.getTest().getName();
+        }
+        return new IndexedSort.OrderKey(path, attribute, type, spec.getCollator(), spec.getModifiers());
+    }
+
+    /**
+     * Skip the checks which are added around function arguments and atomized expressions
+     * and path expressions with a single step.
+     */
+    private Expression unwrap(Expression expr) {
+        while (true) {
+            if (expr instanceof Atomize || expr instanceof DynamicCardinalityCheck ||
+                    expr instanceof DynamicTypeCheck || expr instanceof UntypedValueCheck)
+                expr = expr.getSubExpression(0);
+            else if (isPath(expr) && ((PathExpr) expr).getLength() == 1)
+                expr = ((PathExpr) expr).getExpression(0);
+            else
+                return expr;
+        }
+    }
+
+    /**
+     * Functions are path expressions too, but the arguments are not steps.
+     */
+    private boolean isPath(Expression expr) {
+        return expr instanceof PathExpr && !(expr instanceof Function);
+    }
+
+    private void flatten(Expression expr, List<Expression> steps) {
+        if (isPath(expr)) {
+            final PathExpr path = (PathExpr) expr;
+            for (int i = 0; i < path.getLength(); i++) {
+                flatten(path.getExpression(i), steps);
+            }
+        } else
+            steps.add(expr);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.backup;
+
+import org.apache.avalon.excalibur.cli.CLArgsParser;
+import org.apache.avalon.excalibur.cli.CLOption;
+import org.apache.avalon.excalibur.cli.CLOptionDescriptor;
+import org.apache.avalon.excalibur.cli.CLUtil;
+
+import org.exist.EXistException;
+import org.exist.backup.restore.listener.DefaultRestoreListener;
+import org.exist.backup.restore.listener.RestoreListener;
+import org.exist.security.SecurityManager;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BulkLoader;
+import org.exist.storage.DBBroker;
+import org.exist.storage.btree.PageCompression;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xmldb.XmldbURI;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Restores a backup into an embedded database using the {@link BulkLoader}.
+ *
+ * Unlike {@link Restore}, which talks to a (possibly remote) database through the
+ * XML:DB API, the database is started in the same process and the structural index
+ * is built in one pass after all documents have been stored. This is meant to
+ * bootstrap a new database instance from a large backup. No other clients should
+ * access the database while the import is running.
+ *
+ * Combined with the page-compression option, the import converts a database to
+ * compressed pages: export the old database, then import the backup into an empty
+ * data directory.
+ */
+public class BulkImport {
+
+    // command-line options
+    private final static int HELP_OPT = 'h';
+    private final static int CONFIG_OPT = 'c';
+    private final static int RESTORE_OPT = 'r';
+    private final static int PASS_OPT = 'p';
+    private final static int DBA_PASS_OPT = 'P';
+    private final static int MEMORY_OPT = 'm';
+    private final static int VERBOSE_OPT = 'v';
+    private final static int COMPRESSION_OPT = 'z';
+
+    private final static CLOptionDescriptor[] OPTIONS = new CLOptionDescriptor[] {
+        new CLOptionDescriptor( "help", CLOptionDescriptor.ARGUMENT_DISALLOWED, HELP_OPT, "print help on command line options and exit." ),
+        new CLOptionDescriptor( "config", CLOptionDescriptor.ARGUMENT_REQUIRED, CONFIG_OPT, "the database configuration (conf.xml) file to use " + "for launching the db." ),
+        new CLOptionDescriptor( "restore", CLOptionDescriptor.ARGUMENT_REQUIRED, RESTORE_OPT, "the backup to import: a __contents__.xml file, " + "a backup directory or a zip file." ),
+        new CLOptionDescriptor( "password", CLOptionDescriptor.ARGUMENT_REQUIRED, PASS_OPT, "the password of the admin user." ),
+        new CLOptionDescriptor( "dba-password", CLOptionDescriptor.ARGUMENT_REQUIRED, DBA_PASS_OPT, "if the backup specifies a different password for the admin/dba user, use this option " + "to specify the new password." ),
+        new CLOptionDescriptor( "memory", CLOptionDescriptor.ARGUMENT_REQUIRED, MEMORY_OPT, "memory in megabytes used to sort index entries before " + "they are written to temporary files. Default: " + (BulkLoader.DEFAULT_MEMORY / 1024 / 1024) ),
+        new CLOptionDescriptor( "verbose", CLOptionDescriptor.ARGUMENT_DISALLOWED, VERBOSE_OPT, "print restored resources" ),
+        new CLOptionDescriptor( "page-compression", CLOptionDescriptor.ARGUMENT_REQUIRED, COMPRESSION_OPT, "compress the pages of all database files: " + PageCompression.NONE + " or " + PageCompression.DEFLATE + ". " + "Overrides the page-compression settings in conf.xml. Use with an empty data directory to convert " + "a database to compressed pages." )
+    };
+
+    protected static BrokerPool startDB( String configFile, String compression )
+    {
+        try {
+            Configuration config;
+
+            if( configFile == null ) {
+                config = new Configuration();
+            } else {
+                config = new Configuration( configFile, null );
+            }
+            if( compression != null ) {
+                config.setProperty( BrokerPool.PROPERTY_PAGE_COMPRESSION_DEFAULT, compression );
+                config.setProperty( BrokerPool.PROPERTY_PAGE_COMPRESSION, new HashMap<String, String>() );
+            }
+            BrokerPool.configure( 1, 5, config );
+            return( BrokerPool.getInstance() );
+        }
+        catch( final DatabaseConfigurationException e ) {
+            System.err.println( "ERROR: Failed to open database: " + e.getMessage() );
+        }
+        catch( final EXistException e ) {
+            System.err.println( "ERROR: Failed to open database: " + e.getMessage() );
+        }
+        return( null );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public static void main( String[] args )
+    {
+        final CLArgsParser optParser = new CLArgsParser( args, OPTIONS );
+
+        if( optParser.getErrorString() != null ) {
+            System.err.println( "ERROR: " + optParser.getErrorString() );
+            return;
+        }
+        String  dbConfig    = null;
+        String  restoreFile = null;
+        String  password    = "";
+        String  dbaPassword = null;
+        long    memory      = BulkLoader.DEFAULT_MEMORY;
+        boolean verbose     = false;
+        String  compression = null;
+
+        final List<CLOption> opts = optParser.getArguments();
+
+        for( final CLOption option : opts ) {
+
+            switch( option.getId() ) {
+
+                case HELP_OPT: {
+                    printUsage();
+                    System.exit( 0 );
+                    break;
+                }
+
+                case CONFIG_OPT: {
+                    dbConfig = option.getArgument();
+                    break;
+                }
+
+                case RESTORE_OPT: {
+                    restoreFile = option.getArgument();
+                    break;
+                }
+
+                case PASS_OPT: {
+                    password = option.getArgument();
+                    break;
+                }
+
+                case DBA_PASS_OPT: {
+                    dbaPassword = option.getArgument();
+                    break;
+                }
+
+                case MEMORY_OPT: {
+                    try {
+                        memory = Long.parseLong( option.getArgument() ) * 1024 * 1024;
+                    } catch( final NumberFormatException e ) {
+                        System.err.println( "ERROR: memory should be a number: " + option.getArgument() );
+                        System.exit( 1 );
+                    }
+                    break;
+                }
+
+                case VERBOSE_OPT: {
+                    verbose = true;
+                    break;
+                }
+
+                case COMPRESSION_OPT: {
+                    compression = option.getArgument();
+                    if( !PageCompression.isValidMode( compression ) ) {
+                        System.err.println( "ERROR: unknown page compression: " + compression );
+                        System.exit( 1 );
+                    }
+                    break;
+                }
+            }
+        }
+
+        if( restoreFile == null ) {
+            printUsage();
+            System.exit( 1 );
+        }
+        final File f = new File( restoreFile );
+        if( !f.canRead() ) {
+            System.err.println( "ERROR: Cannot read backup file " + f.getAbsolutePath() );
+            System.exit( 1 );
+        }
+
+        final BrokerPool pool = startDB( dbConfig, compression );
+
+        if( pool == null ) {
+            System.exit( 1 );
+        }
+        int retval = 0;
+        final BulkLoader loader = new BulkLoader( pool, memory );
+        DBBroker broker = null;
+        try {
+            loader.start();
+
+            final RestoreListener listener = verbose ? new DefaultRestoreListener() : new QuietRestoreListener();
+            final SystemImport restore = new SystemImport( pool );
+            restore.restore( listener, SecurityManager.DBA_USER, password, dbaPassword == null ? password : dbaPassword,
+                f, XmldbURI.EMBEDDED_SERVER_URI.toString() );
+
+            broker = pool.get( pool.getSecurityManager().getSystemSubject() );
+            System.out.println( "Building indexes ..." );
+            loader.finish( broker );
+
+            if( listener.hasProblems() ) {
+                System.err.println( listener.warningsAndErrorsAsString() );
+                retval = 1;
+            }
+        }
+        catch( final Exception e ) {
+            System.err.println( "ERROR: Bulk import failed: " + e.getMessage() );
+            e.printStackTrace();
+            retval = 2;
+            // index the documents which have been stored so far
+            if( loader.isActive() ) {
+                try {
+                    if( broker == null ) {
+                        broker = pool.get( pool.getSecurityManager().getSystemSubject() );
+                    }
+                    loader.finish( broker );
+                } catch( final Exception e2 ) {
+                    System.err.println( "ERROR: Failed to build indexes: " + e2.getMessage() );
+                }
+            }
+        }
+        finally {
+            pool.release( broker );
+            BrokerPool.stopAll( false );
+        }
+        if( compression != null && !PageCompression.NONE.equals( compression ) ) {
+            System.out.println( "Pages have been written with compression " + compression + ". Configure the " +
+                "page-compression element in conf.xml to compress pages written from now on." );
+        }
+        System.exit( retval );
+    }
+
+    private static void printUsage()
+    {
+        System.out.println( "Usage: java " + BulkImport.class.getName() + " [options]" );
+        System.out.println( CLUtil.describeOptions( OPTIONS ).toString() );
+    }
+
+    private static class QuietRestoreListener extends DefaultRestoreListener {
+
+        @Override
+        public void info( String message )
+        {
+            // only report warnings and errors
+        }
+    }
+}
@@ -1545,7 +1545,12 @@ public class ElementImpl extends NamedNode implements Element, ElementAtExist {
             }
             final NodePath path = getPath();
             broker.getIndexController().setDocument(ownerDocument, StreamListener.STORE);
-            final StreamListener listener = broker.getIndexController().getStreamListener();
+            // reindex the ancestor instead if an index depends on the new attributes
+            final StoredNode reindexRoot = broker.getIndexController().getReindexRoot(this, path, true, true);
+            broker.getIndexController().setMode(StreamListener.STORE);
+            StreamListener listener = null;
+            if (reindexRoot == null)
+                {listener = broker.getIndexController().getStreamListener();}
             if (children == 0) {
                 appendChildren(transaction, nodeId.newChild(), null,
                     new NodeImplRef(this), path, appendList, listener);
@@ -1568,6 +1573,7 @@ public class ElementImpl extends NamedNode implements Element, ElementAtExist {
             attributes += appendList.getLength();
 
             broker.updateNode(transaction, this, true);
+            broker.getIndexController().reindex(transaction, reindexRoot, StreamListener.STORE);
             broker.flush();
 
         } catch (final EXistException e) {
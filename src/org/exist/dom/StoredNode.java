@@ -33,6 +33,7 @@ import org.exist.stax.EmbeddedXMLStreamReader;
 import org.exist.stax.ExtendedXMLStreamReader;
 import org.exist.storage.DBBroker;
 import org.exist.storage.NodePath;
+import org.exist.storage.QueryStats;
 import org.exist.storage.Signatures;
 import org.exist.util.pool.NodePool;
 import org.exist.xquery.Constants;
@@ -143,6 +144,7 @@ public class StoredNode extends NodeImpl implements Visitable, NodeHandle {
      * @param doc
      */
     public static StoredNode deserialize(byte[] data, int start, int len, DocumentImpl doc, boolean pooled) {
+        QueryStats.nodeLoaded();
             final short type = Signatures.getType(data[start]);
         switch (type) {
         case Node.TEXT_NODE :
@@ -0,0 +1,28 @@
+package org.exist.indexing;
+
+import org.exist.storage.btree.DBException;
+
+/**
+ * Interface to be implemented by an index which can defer its updates while
+ * a large number of documents is loaded and build its files in one pass
+ * afterwards. Used by {@link org.exist.storage.BulkLoader}.
+ *
+ * Between {@link #startBulkLoad(long)} and {@link #finishBulkLoad()}, the
+ * entries for newly stored documents are not visible to queries.
+ */
+public interface BulkLoadSupport {
+
+    /**
+     * Start collecting the index entries of stored documents instead of
+     * writing them to the index.
+     *
+     * @param memory approximate number of bytes the index may use to buffer
+     *               entries before they are written to temporary files
+     */
+    void startBulkLoad(long memory) throws DBException;
+
+    /**
+     * Write the collected entries to the index.
+     */
+    void finishBulkLoad() throws DBException;
+}
@@ -239,4 +239,33 @@ public class IndexManager {
                 {((RawBackupSupport)index).backupToArchive(backup);}
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Switch all indexes implementing {@link BulkLoadSupport} into bulk load mode.
+     *
+     * @param memory number of bytes each index may use to buffer entries
+     * @throws DBException
+     */
+    public void startBulkLoad(long memory) throws DBException {
+        Index index;
+        for (final Iterator<Index> i = iterator(); i.hasNext();) {
+            index = i.next();
+            if (index instanceof BulkLoadSupport)
+                {((BulkLoadSupport)index).startBulkLoad(memory);}
+        }
+    }
+
+    /**
+     * Build the indexes from the entries collected since {@link #startBulkLoad(long)}.
+     *
+     * @throws DBException
+     */
+    public void finishBulkLoad() throws DBException {
+        Index index;
+        for (final Iterator<Index> i = iterator(); i.hasNext();) {
+            index = i.next();
+            if (index instanceof BulkLoadSupport)
+                {((BulkLoadSupport)index).finishBulkLoad();}
+        }
+    }
+}
@@ -27,6 +27,14 @@ public interface StructuralIndex {
 
     public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector, Expression parent);
 
+    /**
+     * Like {@link #findElementsByTagName(byte, DocumentSet, QName, NodeSelector, Expression)}, but the
+     * documents may be split into up to parallelism partitions, which are passed to the selector
+     * concurrently. The selector has to be safe for concurrent use.
+     */
+    public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector,
+        Expression parent, int parallelism);
+
     public NodeSet findDescendantsByTagName(byte type, QName qname, int axis,
         DocumentSet docs, NodeSet contextSet,  int contextId);
 
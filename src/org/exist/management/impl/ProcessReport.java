@@ -26,6 +26,7 @@ import org.exist.scheduler.ScheduledJobInfo;
 import org.exist.scheduler.Scheduler;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.ProcessMonitor;
+import org.exist.storage.QueryStats;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.XQueryWatchDog;
 import org.apache.log4j.Logger;
@@ -53,12 +54,22 @@ public class ProcessReport implements ProcessReportMBean {
     private static String[] pIndexNames = { "id" };
 
 
-    private static String[] qItemNames = { "id", "sourceType", "sourceKey", "terminating" };
+    private static String[] qItemNames = { "id", "sourceType", "sourceKey", "terminating",
+        "elapsed", "allocatedBytes", "pagesRead", "cacheHits", "cacheMisses", "indexLookups",
+        "nodesLoaded", "charsSerialized" };
     private static String[] qItemDescriptions = {
         "XQuery ID",
         "Type of the query source",
         "Description of the source",
-        "Is query terminating?"
+        "Is query terminating?",
+        "Milliseconds the query has been running",
+        "Bytes allocated by the query or -1 if not supported",
+        "Pages read from the database files",
+        "Page cache hits",
+        "Page cache misses",
+        "B+-tree lookups",
+        "Nodes loaded from the DOM file",
+        "Characters serialized"
     };
     private static String[] qIndexNames = { "id" };
 
@@ -126,7 +137,9 @@ public class ProcessReport implements ProcessReportMBean {
 
     @Override
     public TabularData getRunningQueries() {
-        final OpenType<?>[] itemTypes = { SimpleType.INTEGER, SimpleType.STRING, SimpleType.STRING, SimpleType.BOOLEAN };
+        final OpenType<?>[] itemTypes = { SimpleType.INTEGER, SimpleType.STRING, SimpleType.STRING, SimpleType.BOOLEAN,
+            SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+            SimpleType.LONG, SimpleType.LONG };
         CompositeType infoType;
         try {
             infoType = new CompositeType("runningQueries", "Lists currently running XQueries",
@@ -135,7 +148,12 @@ public class ProcessReport implements ProcessReportMBean {
             final TabularDataSupport data = new TabularDataSupport(tabularType);
             final XQueryWatchDog[] watchdogs = processMonitor.getRunningXQueries();
             for (XQueryWatchDog watchdog : watchdogs) {
-                final Object[] itemValues = {new Integer(watchdog.getContext().hashCode()), watchdog.getContext().getXacmlSource().getType(), watchdog.getContext().getXacmlSource().getKey(), Boolean.valueOf(watchdog.isTerminating())};
+                final QueryStats stats = watchdog.getQueryStats();
+                final Object[] itemValues = {new Integer(watchdog.getContext().hashCode()), watchdog.getContext().getXacmlSource().getType(), watchdog.getContext().getXacmlSource().getKey(), Boolean.valueOf(watchdog.isTerminating()),
+                    stats.getDuration(), stats.getAllocatedBytes(),
+                    stats.getTotalPagesRead(), stats.getCacheHits(),
+                    stats.getCacheMisses(), stats.getIndexLookups(),
+                    stats.getNodesLoaded(), stats.getCharsSerialized()};
                 data.put(new CompositeDataSupport(infoType, qItemNames, itemValues));
             }
             return data;
@@ -54,6 +54,7 @@ import org.exist.storage.btree.DBException;
 import org.exist.storage.lock.DeadlockDetection;
 import org.exist.storage.lock.FileLock;
 import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.QueuedReentrantLock;
 import org.exist.storage.lock.ReentrantReadWriteLock;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.sync.SyncTask;
@@ -67,6 +68,8 @@ import org.exist.util.hashtable.MapRWLock.LongOperation;
 import org.exist.xmldb.ShutdownListener;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.PerformanceStats;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.XQueryWatchDog;
 import org.expath.pkg.repo.PackageException;
 
 import java.io.File;
@@ -76,6 +79,8 @@ import java.io.StringWriter;
 import java.text.NumberFormat;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This class controls all available instances of the database.
@@ -119,6 +124,8 @@ public class BrokerPool implements Database {
     public static final String CONFIGURATION_POOL_ELEMENT_NAME = "pool";
     public static final String CONFIGURATION_SECURITY_ELEMENT_NAME = "security";
     public static final String CONFIGURATION_RECOVERY_ELEMENT_NAME = "recovery";
+    public static final String CONFIGURATION_FILE_LOCKS_ELEMENT_NAME = "file-locks";
+    public static final String CONFIGURATION_PAGE_COMPRESSION_ELEMENT_NAME = "page-compression";
     public static final String DISK_SPACE_MIN_ATTRIBUTE = "minDiskSpace";
 
     public static final String DATA_DIR_ATTRIBUTE = "files";
@@ -157,6 +164,19 @@ public class BrokerPool implements Database {
 
     public static final String DOC_ID_MODE_PROPERTY = "db-connection.doc-ids.mode";
 
+    /** lock implementation for database files: {@link ReentrantReadWriteLock} */
+    public static final String FILE_LOCK_MONITOR = "monitor";
+    /** lock implementation for database files: {@link QueuedReentrantLock} */
+    public static final String FILE_LOCK_QUEUED = "queued";
+
+    public static final String FILE_LOCKS_DEFAULT_ATTRIBUTE = "default";
+    public static final String PROPERTY_FILE_LOCKS_DEFAULT = "db-connection.file-locks.default";
+    public static final String PROPERTY_FILE_LOCKS = "db-connection.file-locks";
+
+    public static final String PAGE_COMPRESSION_DEFAULT_ATTRIBUTE = "default";
+    public static final String PROPERTY_PAGE_COMPRESSION_DEFAULT = "db-connection.page-compression.default";
+    public static final String PROPERTY_PAGE_COMPRESSION = "db-connection.page-compression";
+
     //TODO : inline the class ? or... make it configurable ?
     // WM: inline. I don't think users need to be able to overwrite this.
     // They can register their own shutdown hooks any time.
@@ -422,6 +442,10 @@ public class BrokerPool implements Database {
     public static final String PROPERTY_PAGE_SIZE = "db-connection.page-size";
     public static final int DEFAULT_PAGE_SIZE = 4096;
 
+    public static final String PROPERTY_PAGE_IO = "db-connection.page-io";
+
+    public static final String PROPERTY_READ_AHEAD = "db-connection.read-ahead";
+
     /**
      * <code>true</code> if the database instance is able to handle transactions.
      */
@@ -533,6 +557,11 @@ public class BrokerPool implements Database {
     private long majorSyncPeriod = DEFAULT_SYNCH_PERIOD;        //the period after which a major sync should occur
     private long lastMajorSync = System.currentTimeMillis();    //time the last major sync occurred
 
+    /**
+     * Writes fuzzy checkpoints in the background if enabled in the configuration.
+     */
+    private FuzzyCheckpointer fuzzyCheckpointer = null;
+
     private long diskSpaceMin = 64 * 1024L * 1024L;
 
     /**
@@ -577,6 +606,17 @@ public class BrokerPool implements Database {
      */
     private ProcessMonitor processMonitor;
 
+    /**
+     * The threads shared by all queries for parallel evaluation, or null if
+     * parallel evaluation is disabled.
+     */
+    private ExecutorService queryExecutor;
+
+    /**
+     * The cache for the results of queries which declare the exist:cache option.
+     */
+    private XQueryResultCache queryResultCache;
+
     /**
      * Global performance stats to gather function execution statistics
      * from all queries running on this database instance.
@@ -733,6 +773,13 @@ public class BrokerPool implements Database {
             throw new EXistException(e);
         }
 
+        final Boolean fuzzyCheckpoint = (Boolean) conf.getProperty(TransactionManager.PROPERTY_RECOVERY_FUZZY_CHECKPOINT);
+        if(fuzzyCheckpoint != null && fuzzyCheckpoint.booleanValue() && isTransactional()) {
+            fuzzyCheckpointer = new FuzzyCheckpointer(this);
+            fuzzyCheckpointer.start();
+            LOG.info("database instance '" + instanceName + "' will write fuzzy checkpoints");
+        }
+
         //TODO : move this to initialize ?
         //setup database synchronization job
         if(majorSyncPeriod > 0) {
@@ -829,6 +876,14 @@ public class BrokerPool implements Database {
                     xQueryPool = new XQueryPool(conf);
                     //REFACTOR : construct then... configure
                     processMonitor = new ProcessMonitor(maxShutdownWait);
+                    final Object slowQueryThreshold = conf.getProperty(XQueryWatchDog.PROPERTY_SLOW_QUERY_THRESHOLD);
+                    if (slowQueryThreshold != null) {
+                        processMonitor.setSlowQueryThreshold(((Long) slowQueryThreshold).longValue());
+                    }
+                    final int parallelThreads = conf.getInteger(XQueryContext.PROPERTY_PARALLEL_THREADS);
+                    if (parallelThreads > 1) {
+                        queryExecutor = new ForkJoinPool(parallelThreads);
+                    }
                     xqueryStats = new PerformanceStats(this);
 
                     //REFACTOR : construct then... configure
@@ -850,6 +905,8 @@ public class BrokerPool implements Database {
                     LOG.debug("Reserved memory: " + reservedMem + "; max: " + maxMem + "; min: " + minFree);
 
                     notificationService = new NotificationService();
+                    queryResultCache = new XQueryResultCache(this, conf);
+                    notificationService.subscribe(queryResultCache);
 
                     //REFACTOR : construct then... configure
                     //TODO : journal directory *may* be different from BrokerPool.PROPERTY_DATA_DIR
@@ -1002,6 +1059,9 @@ public class BrokerPool implements Database {
                             }
 
                             callStartupTriggers((List<StartupTriggerConfig>) conf.getProperty(BrokerPool.PROPERTY_STARTUP_TRIGGERS), broker);
+
+                            //compile the configured main modules before accepting requests
+                            xQueryPool.prewarm(broker);
                         } finally {
                             release(broker);
                         }
@@ -1424,6 +1484,27 @@ public class BrokerPool implements Database {
         return processMonitor;
     }
 
+    /**
+     * Returns the threads shared by all queries for the parallel evaluation
+     * of expressions. The number of threads is configured by the
+     * parallel-threads attribute of the xquery element in conf.xml.
+     *
+     * @return The executor or null if parallel evaluation is disabled
+     */
+    public ExecutorService getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    /**
+     * Returns the cache for the results of queries which declare the
+     * exist:cache option.
+     *
+     * @return The cache
+     */
+    public XQueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
     /**
      * Returns the global profiler used to gather execution statistics
      * from all XQueries running on this db instance.
@@ -1456,6 +1537,29 @@ public class BrokerPool implements Database {
         return globalXUpdateLock;
     }
 
+    /**
+     * Create the lock protecting a database file. The implementation can be
+     * selected per file in the file-locks section of conf.xml: "monitor" (the default)
+     * uses {@link ReentrantReadWriteLock}, "queued" uses {@link QueuedReentrantLock}.
+     *
+     * @param fileName the name of the database file, e.g. "values.dbx"
+     * @return a new lock
+     */
+    @SuppressWarnings("unchecked")
+    public Lock createFileLock(String fileName) {
+        String type = null;
+        if (conf != null) {
+            final Map<String, String> fileLocks = (Map<String, String>) conf.getProperty(PROPERTY_FILE_LOCKS);
+            if (fileLocks != null)
+                {type = fileLocks.get(fileName);}
+            if (type == null)
+                {type = (String) conf.getProperty(PROPERTY_FILE_LOCKS_DEFAULT);}
+        }
+        if (FILE_LOCK_QUEUED.equals(type))
+            {return new QueuedReentrantLock(fileName);}
+        return new ReentrantReadWriteLock(fileName);
+    }
+
     /**
      * Creates an inactive broker for the database instance.
      *
@@ -1773,6 +1877,21 @@ public class BrokerPool implements Database {
         return lastMajorSync;
     }
 
+    /**
+     * Called by the {@link FuzzyCheckpointer} after a checkpoint has been written.
+     */
+    void fuzzyCheckpointWritten() {
+        lastMajorSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the {@link FuzzyCheckpointer} of this instance or null if
+     * fuzzy checkpoints are disabled.
+     */
+    public FuzzyCheckpointer getFuzzyCheckpointer() {
+        return fuzzyCheckpointer;
+    }
+
     /**
      * Executes a waiting cache synchronization for the database instance.
      *
@@ -1928,6 +2047,10 @@ public class BrokerPool implements Database {
 
                 //Notify all running tasks that we are shutting down
 
+                if(queryExecutor != null) {
+                    queryExecutor.shutdownNow();
+                }
+
                 //Shutdown the scheduler
                 scheduler.shutdown(false);    //asynchronous
 
@@ -1940,6 +2063,11 @@ public class BrokerPool implements Database {
                     }
                 }
 
+                //Abandon a running fuzzy checkpoint. A regular checkpoint is written below
+                if(fuzzyCheckpointer != null) {
+                    fuzzyCheckpointer.shutdown();
+                }
+
                 //Notify all running XQueries that we are shutting down
                 processMonitor.killAll(500);
                 //TODO : close other objects using varying methods ? set them to null ?
@@ -2062,6 +2190,8 @@ public class BrokerPool implements Database {
             collectionCacheMgr = null;
             xQueryPool = null;
             processMonitor = null;
+            queryExecutor = null;
+            queryResultCache = null;
             collectionConfigurationManager = null;
             notificationService = null;
             indexManager = null;
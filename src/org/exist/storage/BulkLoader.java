@@ -0,0 +1,108 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import org.apache.log4j.Logger;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.sync.Sync;
+
+/**
+ * Loads a large number of documents without updating the B+-tree of the structural
+ * index (structure.dbx) key by key.
+ *
+ * While the loader is active, indexes implementing {@link org.exist.indexing.BulkLoadSupport}
+ * collect their entries in sorted runs, which are spilled to temporary files when the
+ * configured amount of memory is used up. {@link #finish(DBBroker)} merges the runs and
+ * writes the index pages bottom-up in one sequential pass, followed by a checkpoint.
+ * Documents are stored through the usual API in between:
+ *
+ * <pre>
+ * BulkLoader loader = new BulkLoader(pool, BulkLoader.DEFAULT_MEMORY);
+ * loader.start();
+ * ... store documents ...
+ * loader.finish(broker);
+ * </pre>
+ *
+ * The loader is meant for the initial load of a database, e.g. by
+ * {@link org.exist.backup.BulkImport}. Until the load is finished, queries do not see the
+ * structural index entries of the new documents, and documents stored during the
+ * load must not be removed before it is finished.
+ */
+public class BulkLoader {
+
+    private final static Logger LOG = Logger.getLogger(BulkLoader.class);
+
+    /** default number of bytes an index may use to buffer entries */
+    public final static long DEFAULT_MEMORY = 128 * 1024 * 1024;
+
+    private final BrokerPool pool;
+    private final long memory;
+    private long started = -1;
+
+    public BulkLoader(BrokerPool pool, long memory) {
+        this.pool = pool;
+        this.memory = memory;
+    }
+
+    /**
+     * Switch the indexes into bulk load mode.
+     *
+     * @throws DBException if an index is already in bulk load mode
+     */
+    public void start() throws DBException {
+        if (started > -1)
+            {throw new DBException("Bulk load already started");}
+        pool.getIndexManager().startBulkLoad(memory);
+        started = System.currentTimeMillis();
+        LOG.info("Bulk load started");
+    }
+
+    /**
+     * Build the indexes from the collected entries and write a checkpoint.
+     * Other brokers should not be active at this time.
+     *
+     * @param broker the broker used to sync the database
+     * @throws DBException if building an index failed
+     */
+    public void finish(DBBroker broker) throws DBException {
+        if (started < 0)
+            {throw new DBException("Bulk load has not been started");}
+        final long start = System.currentTimeMillis();
+        try {
+            pool.getIndexManager().finishBulkLoad();
+            LOG.info("Indexes built in " + (System.currentTimeMillis() - start) + "ms; bulk load took " +
+                (System.currentTimeMillis() - started) + "ms");
+        } finally {
+            started = -1;
+        }
+        // flush all files and write a checkpoint, so recovery will not go back
+        // to the journal entries written before the indexes were rebuilt
+        pool.sync(broker, Sync.MAJOR_SYNC);
+    }
+
+    /**
+     * Returns true if {@link #start()} has been called, but not {@link #finish(DBBroker)}.
+     */
+    public boolean isActive() {
+        return started > -1;
+    }
+}
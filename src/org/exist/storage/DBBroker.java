@@ -473,12 +473,13 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
      * 
      * @param collectionName
      * @throws PermissionDeniedException
+     * @throws EXistException if the collection could not be reindexed
      * 
      * public abstract void reindexCollection(String collectionName) throws
      * PermissionDeniedException;
      */
     public abstract void reindexCollection(XmldbURI collectionName)
-        throws PermissionDeniedException;
+        throws PermissionDeniedException, EXistException;
 
     /**
      * Repair indexes. Should delete all secondary indexes and rebuild them.
@@ -728,6 +729,18 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
 	 */
 	public abstract void sync(int syncEvent);
 
+	/**
+	 * Write at most <code>maxPages</code> dirty pages of each journalled
+	 * file (dom and collection data) to disk. The lock on a file is only
+	 * held while its pages are written, so other threads can continue to
+	 * work with the database.
+	 * 
+	 * @param maxPages
+	 *            maximum number of pages to write per file
+	 * @return the number of pages written
+	 */
+	public abstract int flushDirtyPages(int maxPages);
+
 	/**
 	 * Update a node's data. To keep nodes in a correct sequential order, it is
 	 * sometimes necessary to update a previous written node. Warning: don't use
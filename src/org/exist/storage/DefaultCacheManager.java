@@ -25,7 +25,10 @@ import org.apache.log4j.Logger;
 
 import org.exist.management.Agent;
 import org.exist.management.AgentFactory;
+import org.exist.storage.cache.BTreeCache;
 import org.exist.storage.cache.Cache;
+import org.exist.storage.cache.LRUCache;
+import org.exist.storage.cache.TwoQueueCache;
 import org.exist.util.DatabaseConfigurationException;
 
 import java.text.NumberFormat;
@@ -74,6 +77,14 @@ public class DefaultCacheManager implements CacheManager
     public static final String  SHRINK_THRESHOLD_ATTRIBUTE     		 	= "cacheShrinkThreshold";
     public static final String  SHRINK_THRESHOLD_PROPERTY      			= "db-connection.cache-shrink-threshold";
 
+    /** Replacement policy for the page caches: classic LRU ({@link LRUCache}, {@link BTreeCache}). */
+    public static final String  CACHE_POLICY_LRU                			= "lru";
+    /** Replacement policy for the page caches: scan-resistant 2Q ({@link TwoQueueCache}). */
+    public static final String  CACHE_POLICY_2Q                 			= "2q";
+    public static final String  DEFAULT_CACHE_POLICY            			= CACHE_POLICY_LRU;
+    public static final String  CACHE_POLICY_ATTRIBUTE          			= "cachePolicy";
+    public static final String  PROPERTY_CACHE_POLICY           			= "db-connection.cache-policy";
+
     /** Caches maintained by this class. */
     private List<Cache>         caches                          = new ArrayList<Cache>();
 
@@ -105,6 +116,8 @@ public class DefaultCacheManager implements CacheManager
 
     private String              instanceName;
 
+    private String              cachePolicy                     = DEFAULT_CACHE_POLICY;
+
     public DefaultCacheManager( BrokerPool pool )
     {
         this.instanceName = pool.getId();
@@ -122,6 +135,12 @@ public class DefaultCacheManager implements CacheManager
 
         shrinkThreshold = pool.getConfiguration().getInteger( SHRINK_THRESHOLD_PROPERTY );
 
+        final String policy = (String)pool.getConfiguration().getProperty( PROPERTY_CACHE_POLICY );
+
+        if( policy != null ) {
+            cachePolicy = policy;
+        }
+
         totalMem        = cacheSize * 1024L * 1024L;
         
         final Boolean checkMaxCache = (Boolean)pool.getConfiguration().getProperty( PROPERTY_CACHE_CHECK_MAX_SIZE );
@@ -150,12 +169,43 @@ public class DefaultCacheManager implements CacheManager
         
         LOG.info( "Cache settings: " + nf.format( totalMem / 1024L ) + "k; totalPages: " + nf.format( totalPageCount ) + 
         	      "; maxCacheSize: " + nf.format( maxCacheSize ) + 
-        	      "; cacheShrinkThreshold: " + nf.format( shrinkThreshold ) 
+        	      "; cacheShrinkThreshold: " + nf.format( shrinkThreshold ) +
+        	      "; cachePolicy: " + cachePolicy
         );
         
         registerMBean();
     }
 
+    /**
+     * Create a new page cache using the replacement policy configured for the database.
+     * The cache still needs to be registered with {@link #registerCache(Cache)}.
+     *
+     * @param  size             the initial number of pages
+     * @param  growthFactor     see {@link Cache#getGrowthFactor()}
+     * @param  growthThreshold  the amount of thrashing allowed before the cache requests to grow
+     * @param  type             either {@link CacheManager#BTREE_CACHE} or {@link CacheManager#DATA_CACHE}
+     *
+     * @return  the new cache
+     */
+    public Cache createCache( int size, double growthFactor, double growthThreshold, String type )
+    {
+        if( CACHE_POLICY_2Q.equals( cachePolicy ) ) {
+            return( new TwoQueueCache( size, growthFactor, growthThreshold, type ) );
+        }
+
+        if( BTREE_CACHE.equals( type ) ) {
+            return( new BTreeCache( size, growthFactor, growthThreshold, type ) );
+        }
+        return( new LRUCache( size, growthFactor, growthThreshold, type ) );
+    }
+
+
+    public String getCachePolicy()
+    {
+        return( cachePolicy );
+    }
+
+
     @Override
     public void registerCache( Cache cache )
     {
@@ -0,0 +1,178 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import org.apache.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.FuzzyCheckpoint;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.TransactionManager;
+
+/**
+ * Writes fuzzy checkpoints in a background thread.
+ *
+ * A regular checkpoint waits until no transaction is running and blocks new
+ * transactions until all dirty pages have been written to disk. A fuzzy
+ * checkpoint lets transactions continue: it records the next LSN of the journal
+ * and the running transactions (see {@link TransactionManager#beginFuzzyCheckpoint()}),
+ * then trickles the dirty pages of the journalled files to disk, a few pages
+ * at a time, so the lock on a file is only held for short periods. A final
+ * sync writes the pages dirtied in the meantime before the checkpoint record
+ * is logged. {@link org.exist.storage.recovery.RecoveryManager} starts to redo
+ * the journal at the recorded LSN.
+ *
+ * Enabled by setting the fuzzy-checkpoint attribute of the recovery element in
+ * conf.xml to "yes". The periodic major sync then triggers a fuzzy checkpoint
+ * instead of a regular one.
+ */
+public class FuzzyCheckpointer implements Runnable {
+
+    private final static Logger LOG = Logger.getLogger(FuzzyCheckpointer.class);
+
+    /** number of pages written per file while holding the lock on the file */
+    public final static int FLUSH_BATCH = 64;
+
+    /** pause in milliseconds between writing two portions of pages */
+    public final static long FLUSH_PAUSE = 10;
+
+    private final BrokerPool pool;
+
+    private Thread thread = null;
+    private boolean requested = false;
+    private volatile boolean active = false;
+    private volatile boolean stopped = false;
+
+    public FuzzyCheckpointer(BrokerPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Start the background thread.
+     */
+    public synchronized void start() {
+        if (thread != null)
+            {return;}
+        thread = new Thread(this, "fuzzy-checkpoint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Request a checkpoint. The request is ignored if a checkpoint is
+     * already being written.
+     */
+    public synchronized void trigger() {
+        if (stopped || active)
+            {return;}
+        requested = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns true while a checkpoint is being written by the background thread.
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                while (!requested && !stopped) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        //Nothing to do
+                    }
+                }
+                if (stopped)
+                    {return;}
+                requested = false;
+                active = true;
+            }
+            DBBroker broker = null;
+            try {
+                broker = pool.get(pool.getSecurityManager().getSystemSubject());
+                checkpoint(broker);
+            } catch (final EXistException e) {
+                LOG.warn("Failed to write fuzzy checkpoint: " + e.getMessage(), e);
+            } finally {
+                active = false;
+                pool.release(broker);
+            }
+        }
+    }
+
+    /**
+     * Write a fuzzy checkpoint in the calling thread.
+     *
+     * @param broker the broker used to write the dirty pages
+     * @return true if the checkpoint record has been written
+     */
+    public boolean checkpoint(DBBroker broker) {
+        final TransactionManager transact = pool.getTransactionManager();
+        final FuzzyCheckpoint checkpoint = transact.beginFuzzyCheckpoint();
+        if (checkpoint == null)
+            {return false;}
+        final long start = System.currentTimeMillis();
+        // pages may become dirty again while they are written, so the number of
+        // rounds is limited. The final sync writes the remaining pages.
+        final long maxRounds = pool.getCacheManager().getMaxTotal() / FLUSH_BATCH + 1;
+        int written = 0;
+        try {
+            for (long round = 0; round < maxRounds; round++) {
+                if (stopped)
+                    {return false;}
+                final int count = broker.flushDirtyPages(FLUSH_BATCH);
+                if (count == 0)
+                    {break;}
+                written += count;
+                Thread.sleep(FLUSH_PAUSE);
+            }
+            if (stopped)
+                {return false;}
+            broker.sync(Sync.MAJOR_SYNC);
+            transact.fuzzyCheckpoint(checkpoint);
+        } catch (final InterruptedException e) {
+            return false;
+        } catch (final TransactionException e) {
+            LOG.warn("Failed to write fuzzy checkpoint record: " + e.getMessage(), e);
+            return false;
+        }
+        pool.fuzzyCheckpointWritten();
+        if (LOG.isDebugEnabled())
+            {LOG.debug("Fuzzy checkpoint written in " + (System.currentTimeMillis() - start) +
+                "ms. Pages trickled to disk: " + written + ". " + checkpoint.dump());}
+        return true;
+    }
+
+    /**
+     * Stop the background thread. A checkpoint which is currently
+     * being written is abandoned.
+     */
+    public synchronized void shutdown() {
+        stopped = true;
+        notifyAll();
+    }
+}
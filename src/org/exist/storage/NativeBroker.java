@@ -121,9 +121,14 @@ public class NativeBroker extends DBBroker {
     //Note : no ID for symbols ? Too bad...
 
     public static final String PAGE_SIZE_ATTRIBUTE = "pageSize";
+    public static final String PAGE_IO_ATTRIBUTE = "pageIO";
+    public static final String READ_AHEAD_ATTRIBUTE = "readAhead";
     public static final String INDEX_DEPTH_ATTRIBUTE = "index-depth";
 
     public static final String PROPERTY_INDEX_DEPTH = "indexer.index-depth";
+
+    public static final String REINDEX_THREADS_ATTRIBUTE = "reindex-threads";
+    public static final String PROPERTY_REINDEX_THREADS = "indexer.reindex-threads";
     private static final byte[] ALL_STORAGE_FILES = {
         COLLECTIONS_DBX_ID, VALUES_DBX_ID, DOM_DBX_ID
     };
@@ -1693,7 +1698,7 @@ public class NativeBroker extends DBBroker {
     }
 
     @Override
-    public void reindexCollection(XmldbURI collectionName) throws PermissionDeniedException {
+    public void reindexCollection(XmldbURI collectionName) throws PermissionDeniedException, EXistException {
         if(pool.isReadOnly()) {
             throw new PermissionDeniedException(DATABASE_IS_READ_ONLY);
         }
@@ -1706,7 +1711,12 @@ public class NativeBroker extends DBBroker {
         reindexCollection(collection, NodeProcessor.MODE_STORE);
     }
 
-    public void reindexCollection(final Collection collection, final int mode) throws PermissionDeniedException {
+    public void reindexCollection(final Collection collection, final int mode) throws PermissionDeniedException, EXistException {
+        final int reindexThreads = pool.getConfiguration().getInteger(PROPERTY_REINDEX_THREADS);
+        if(reindexThreads > 1 && mode == NodeProcessor.MODE_STORE) {
+            newParallelReindex(collection, reindexThreads).run();
+            return;
+        }
         final TransactionManager transact = pool.getTransactionManager();
         final Txn transaction = transact.beginTransaction();
         long start = System.currentTimeMillis();
@@ -1717,9 +1727,14 @@ public class NativeBroker extends DBBroker {
             reindexCollection(transaction, collection, mode);
             transact.commit(transaction);
 
+        } catch(final PermissionDeniedException e) {
+            transact.abort(transaction);
+            throw e;
+
         } catch(final Exception e) {
             transact.abort(transaction);
             LOG.warn("An error occurred during reindex: " + e.getMessage(), e);
+            throw new EXistException("An error occurred during reindex of collection " + collection.getURI() + ": " + e.getMessage(), e);
 
         } finally {
             transact.close(transaction);
@@ -1729,6 +1744,14 @@ public class NativeBroker extends DBBroker {
         }
     }
 
+    /**
+     * Create a reindex of the collection which stores the index entries
+     * of its documents using the given number of threads.
+     */
+    ParallelReindex newParallelReindex(final Collection collection, final int threads) {
+        return new ParallelReindex(this, collection, NodeProcessor.MODE_STORE, threads);
+    }
+
     public void reindexCollection(final Txn transaction, final Collection collection, final int mode) throws PermissionDeniedException {
         final CollectionCache collectionsCache = pool.getCollectionsCache();
         synchronized(collectionsCache) {
@@ -2821,7 +2844,7 @@ public class NativeBroker extends DBBroker {
      * descendant nodes of the passed node, or all nodes below some level of
      * the document if node is null.
      */
-    private void reindexXMLResource(final Txn transaction, final DocumentImpl doc, final int mode) {
+    void reindexXMLResource(final Txn transaction, final DocumentImpl doc, final int mode) {
         if(doc.isCollectionConfig()) {
             doc.getCollection().setCollectionConfigEnabled(false);
         }
@@ -3598,6 +3621,40 @@ public class NativeBroker extends DBBroker {
         }
     }
 
+    @Override
+    public int flushDirtyPages(final int maxPages) {
+        if(isReadOnly()) {
+            return 0;
+        }
+        int written = 0;
+        final Integer domWritten = (Integer) new DOMTransaction(this, domDb, Lock.WRITE_LOCK) {
+            @Override
+            public Object start() {
+                try {
+                    return Integer.valueOf(domDb.flush(maxPages));
+                } catch(final DBException e) {
+                    LOG.warn("error while flushing dom.dbx", e);
+                    return Integer.valueOf(0);
+                }
+            }
+        }.run();
+        if(domWritten != null) {
+            written += domWritten.intValue();
+        }
+        final Lock lock = collectionsDb.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            written += collectionsDb.flush(maxPages);
+        } catch(final LockException e) {
+            LOG.warn("Failed to acquire lock on " + collectionsDb.getFile().getName(), e);
+        } catch(final DBException e) {
+            LOG.warn("error while flushing " + collectionsDb.getFile().getName(), e);
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+        }
+        return written;
+    }
+
     @Override
     public void shutdown() {
         try {
@@ -0,0 +1,374 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import org.apache.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.dom.DocumentImpl;
+import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reindexes a collection and its descendants using several threads.
+ *
+ * The indexes of all collections are dropped and the documents to reindex are
+ * collected first, in a single transaction and while holding the collections cache,
+ * as in the serial {@link NativeBroker#reindexCollection(Txn, Collection, int)}.
+ * The documents are then handed out to a number of worker threads. Each worker
+ * takes its own broker from the pool, so it has its own {@link org.exist.indexing.IndexController}
+ * and index worker buffers.
+ *
+ * The workers do not hold the collections cache. A worker reindexes up to {@link #BATCH_SIZE}
+ * documents in one transaction, holding a write lock on each of them, which is also taken
+ * when a document is updated, replaced or removed. The index workers only buffer the
+ * entries of one document, so these are written to the shared index files after every
+ * document, but the transaction is only committed, and the journal synced, once per batch.
+ * The locks are released after the commit. A worker does not wait for the lock of another
+ * document while holding the locks of a batch: if the lock is not available immediately,
+ * the batch is committed first. Documents which have been replaced or removed since they
+ * were collected are skipped: storing them has already indexed the new content.
+ *
+ * While running, the progress is visible through the running jobs of the
+ * {@link ProcessMonitor} (JMX and system:get-running-jobs()).
+ *
+ * Enabled by setting the reindex-threads attribute of the indexer element in conf.xml
+ * to a value larger than 1.
+ */
+public class ParallelReindex {
+
+    private final static Logger LOG = Logger.getLogger(ParallelReindex.class);
+
+    /** log progress every LOG_INTERVAL documents */
+    private final static int LOG_INTERVAL = 10000;
+
+    /** maximum number of documents a worker reindexes in one transaction */
+    private final static int BATCH_SIZE = 32;
+
+    private final NativeBroker broker;
+    private final BrokerPool pool;
+    private final Collection collection;
+    private final int mode;
+    private final int threads;
+
+    private final List<DocumentImpl> documents = new ArrayList<DocumentImpl>();
+    // last modification time of the documents when they were collected
+    private final List<Long> modified = new ArrayList<Long>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger workersUsed = new AtomicInteger();
+    private volatile boolean failed = false;
+
+    public ParallelReindex(NativeBroker broker, Collection collection, int mode, int threads) {
+        this.broker = broker;
+        this.pool = broker.getBrokerPool();
+        this.collection = collection;
+        this.mode = mode;
+        this.threads = threads;
+    }
+
+    /**
+     * Reindex the collection.
+     *
+     * @throws PermissionDeniedException if the user may not write to one of the collections
+     * @throws EXistException if the indexes could not be dropped or a document could not be reindexed
+     */
+    public void run() throws PermissionDeniedException, EXistException {
+        final long start = System.currentTimeMillis();
+        pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, this);
+        try {
+            LOG.info(String.format("Start indexing collection %s", collection.getURI().toString()));
+            dropIndexes();
+            final int workers = Math.max(1, Math.min(Math.min(threads, documents.size()),
+                pool.getMax() - pool.countActiveBrokers()));
+            LOG.info("Reindexing " + documents.size() + " documents using " + workers + " threads");
+
+            final ExecutorService executor = Executors.newFixedThreadPool(workers, new ReindexThreadFactory());
+            Throwable error = null;
+            try {
+                final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(workers);
+                for (int i = 0; i < workers; i++) {
+                    results.add(executor.submit(new Worker(broker.getSubject())));
+                }
+                for (final Future<Boolean> result : results) {
+                    try {
+                        result.get();
+                    } catch (final ExecutionException e) {
+                        failed = true;
+                        if (error == null)
+                            {error = e.getCause();}
+                    }
+                }
+            } catch (final InterruptedException e) {
+                failed = true;
+                Thread.currentThread().interrupt();
+                throw new EXistException("Interrupted while waiting for reindex of collection " +
+                    collection.getURI() + " to complete", e);
+            } finally {
+                executor.shutdownNow();
+            }
+            if (error != null)
+                {throw new EXistException("An error occurred during reindex of collection " +
+                    collection.getURI() + ": " + error.getMessage(), error);}
+        } finally {
+            pool.getProcessMonitor().endJob();
+            LOG.info(String.format("Finished indexing collection %s in %s ms.",
+                collection.getURI().toString(), System.currentTimeMillis() - start));
+        }
+    }
+
+    private void dropIndexes() throws PermissionDeniedException, EXistException {
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            synchronized (pool.getCollectionsCache()) {
+                dropIndexes(transaction, collection);
+            }
+            transact.commit(transaction);
+        } catch (final PermissionDeniedException e) {
+            transact.abort(transaction);
+            throw e;
+        } catch (final Exception e) {
+            transact.abort(transaction);
+            throw new EXistException("An error occurred while dropping the indexes of collection " +
+                collection.getURI() + ": " + e.getMessage(), e);
+        } finally {
+            transact.close(transaction);
+        }
+    }
+
+    private void dropIndexes(Txn transaction, Collection current) throws PermissionDeniedException {
+        if (!current.getPermissionsNoLock().validate(broker.getSubject(), Permission.WRITE)) {
+            throw new PermissionDeniedException("Account " + broker.getSubject().getName() +
+                " have insufficient privileges on collection " + current.getURI());
+        }
+        LOG.debug("Reindexing collection " + current.getURI());
+        broker.dropCollectionIndex(transaction, current, true);
+        // load the index configuration now, so the workers do not need to access the collections cache
+        current.getIndexConfiguration(broker);
+        for (final Iterator<DocumentImpl> i = current.iterator(broker); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            documents.add(doc);
+            modified.add(doc.getMetadata().getLastModified());
+        }
+        for (final Iterator<XmldbURI> i = current.collectionIterator(broker); i.hasNext(); ) {
+            final XmldbURI childName = i.next();
+            final Collection child = broker.getCollection(current.getURI().append(childName));
+            if (child == null) {
+                LOG.warn("Collection '" + childName + "' not found");
+            } else {
+                dropIndexes(transaction, child);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of documents reindexed so far.
+     */
+    public int getDocumentsDone() {
+        return done.get();
+    }
+
+    /**
+     * Returns the number of workers which reindexed at least one document.
+     */
+    public int getWorkersUsed() {
+        return workersUsed.get();
+    }
+
+    /**
+     * Returns the total number of documents to reindex.
+     */
+    public int getDocumentsTotal() {
+        return documents.size();
+    }
+
+    /**
+     * Shown as additional info of the running job.
+     */
+    @Override
+    public String toString() {
+        return collection.getURI() + ": " + done.get() + " of " + documents.size() + " documents";
+    }
+
+    private class Worker implements Callable<Boolean> {
+
+        private final Subject subject;
+        private final TransactionManager transact = pool.getTransactionManager();
+
+        // the transaction of the current batch and the documents locked by it
+        private Txn transaction = null;
+        private final List<DocumentImpl> locked = new ArrayList<DocumentImpl>(BATCH_SIZE);
+
+        Worker(Subject subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        public Boolean call() throws Exception {
+            final NativeBroker workerBroker = (NativeBroker) pool.get(subject);
+            try {
+                boolean used = false;
+                int i;
+                while (!failed && (i = next.getAndIncrement()) < documents.size()) {
+                    reindex(workerBroker, documents.get(i), modified.get(i));
+                    if (!used) {
+                        used = true;
+                        workersUsed.incrementAndGet();
+                    }
+                    final int count = done.incrementAndGet();
+                    if (count % LOG_INTERVAL == 0)
+                        {LOG.info("Reindex " + ParallelReindex.this);}
+                }
+                commit();
+            } catch (final Exception e) {
+                failed = true;
+                throw e;
+            } finally {
+                try {
+                    abort();
+                } finally {
+                    pool.release(workerBroker);
+                }
+            }
+            return Boolean.TRUE;
+        }
+
+        /**
+         * Reindex the document as part of the current batch, unless it has been
+         * replaced or removed since it was collected.
+         */
+        private void reindex(NativeBroker workerBroker, DocumentImpl doc, long lastModified)
+                throws LockException, PermissionDeniedException, TransactionException {
+            final DocumentImpl current = lock(workerBroker, doc);
+            if (current == null)
+                {return;}
+            if (current != doc || doc.getMetadata().getLastModified() != lastModified) {
+                current.getUpdateLock().release(Lock.WRITE_LOCK);
+                if (LOG.isDebugEnabled())
+                    {LOG.debug("Document " + doc.getURI() + " changed during reindex. Skipping it.");}
+                return;
+            }
+            locked.add(current);
+            if (transaction == null)
+                {transaction = transact.beginTransaction();}
+            workerBroker.reindexXMLResource(transaction, doc, mode);
+            if (locked.size() == BATCH_SIZE)
+                {commit();}
+        }
+
+        /**
+         * Returns the document with a write lock, or null if it has been removed.
+         * Locks the collection before the document, like store and remove.
+         */
+        private DocumentImpl lock(NativeBroker workerBroker, DocumentImpl doc)
+                throws LockException, PermissionDeniedException, TransactionException {
+            final Collection collection = doc.getCollection();
+            final Lock collectionLock = collection.getLock();
+            collectionLock.acquire(Lock.READ_LOCK);
+            try {
+                final DocumentImpl current =
+                    collection.getDocumentNoLock(workerBroker, doc.getFileURI().getRawCollectionPath());
+                if (current == null)
+                    {return null;}
+                if (!locked.isEmpty()) {
+                    if (current.getUpdateLock().attempt(Lock.WRITE_LOCK))
+                        {return current;}
+                    // another thread holds the lock and may wait for one of ours
+                    commit();
+                }
+                current.getUpdateLock().acquire(Lock.WRITE_LOCK);
+                return current;
+            } finally {
+                collectionLock.release(Lock.READ_LOCK);
+            }
+        }
+
+        /**
+         * Commit the current batch and release its locks.
+         */
+        private void commit() throws TransactionException {
+            if (transaction != null) {
+                try {
+                    transact.commit(transaction);
+                } finally {
+                    transact.close(transaction);
+                    transaction = null;
+                    unlock();
+                }
+            }
+        }
+
+        /**
+         * Abort the current batch, if any, and release its locks.
+         */
+        private void abort() {
+            try {
+                if (transaction != null) {
+                    transact.abort(transaction);
+                    transact.close(transaction);
+                }
+            } finally {
+                transaction = null;
+                unlock();
+            }
+        }
+
+        private void unlock() {
+            for (final DocumentImpl doc : locked) {
+                doc.getUpdateLock().release(Lock.WRITE_LOCK);
+            }
+            locked.clear();
+        }
+    }
+
+    private static class ReindexThreadFactory implements ThreadFactory {
+        private int id = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "reindex-" + getId());
+        }
+
+        private synchronized int getId() {
+            return id++;
+        }
+    }
+}
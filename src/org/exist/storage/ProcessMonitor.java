@@ -60,6 +60,8 @@ public class ProcessMonitor {
 
     private final static Logger LOG = Logger.getLogger(ProcessMonitor.class);
 
+    private final static Logger SLOW_QUERY_LOG = Logger.getLogger("xquery.slow-queries");
+
     private final static int MAX_QUERY_HISTORY = 16; //The maximum number of queries to record history for
 
     private final Set<XQueryWatchDog> runningQueries = new HashSet<XQueryWatchDog>();
@@ -69,10 +71,25 @@ public class ProcessMonitor {
 
     private long maxShutdownWait;
 
+    private long slowQueryThreshold = -1;
+
 	public ProcessMonitor(long maxShutdownWait) {
 		this.maxShutdownWait = maxShutdownWait;
 	}
 
+    /**
+     * Log the resources used by queries taking longer than the given number
+     * of milliseconds to the slow query log. A negative value disables the
+     * log.
+     */
+    public void setSlowQueryThreshold(long threshold) {
+        this.slowQueryThreshold = threshold;
+    }
+
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
     public void startJob(String action) {
         startJob(action, null);
     }
@@ -130,6 +147,7 @@ public class ProcessMonitor {
     }
 
     public void queryStarted(XQueryWatchDog watchdog) {
+        watchdog.startStats();
         synchronized (runningQueries) {
             runningQueries.add(watchdog);
         }
@@ -141,6 +159,10 @@ public class ProcessMonitor {
         }
 
         final String sourceKey = watchdog.getContext().getXacmlSource().getKey();
+        final QueryStats stats = watchdog.stopStats();
+        if (stats != null && slowQueryThreshold > -1 && stats.getDuration() >= slowQueryThreshold) {
+            SLOW_QUERY_LOG.warn(sourceKey + " - " + stats);
+        }
         synchronized(queryHistories) {
             QueryHistory qh = queryHistories.get(sourceKey);
             if(qh == null) {
@@ -0,0 +1,306 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resources used by a query: pages read from the .dbx files, cache hits and
+ * misses, B+-tree lookups, nodes loaded from the dom.dbx, characters
+ * serialized, CPU time and heap allocated by the thread.
+ *
+ * The stats are bound to the thread evaluating the query by {@link #start()}
+ * and released by {@link #stop()}, which is done by the {@link ProcessMonitor}
+ * when a query starts and completes. The storage classes report to the stats
+ * bound to the current thread through the static methods. A query started
+ * while another query is running on the same thread, e.g. by util:eval, adds
+ * its stats to the outer query when it completes. Work done by other threads,
+ * like the parallel evaluation of location steps, is not accounted.
+ *
+ * The counters are only updated by the thread running the query. They may be
+ * read by other threads to report on running queries, without
+ * synchronization: the values returned may be slightly behind.
+ */
+public class QueryStats {
+
+    private final static ThreadLocal<QueryStats> CURRENT = new ThreadLocal<QueryStats>();
+
+    private final static ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final static boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+
+    /**
+     * com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long) or null if the
+     * JVM does not provide it. Looked up by reflection, so eXist still runs on JVMs
+     * without the com.sun.management API.
+     */
+    private final static Method ALLOCATED_BYTES = getAllocatedBytesMethod();
+
+    private final QueryStats parent;
+    private final long threadId;
+
+    private final long startTime;
+    private final long startCpuTime;
+    private final long startAllocated;
+
+    private long duration = -1;
+    private long cpuTime = -1;
+    private long allocated = -1;
+
+    private final Map<String, AtomicLong> pagesRead = new ConcurrentHashMap<String, AtomicLong>();
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+    private long indexLookups = 0;
+    private long nodesLoaded = 0;
+    private long charsSerialized = 0;
+
+    private QueryStats(QueryStats parent) {
+        this.parent = parent;
+        this.threadId = Thread.currentThread().getId();
+        this.startTime = System.currentTimeMillis();
+        this.startCpuTime = CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : -1;
+        this.startAllocated = threadAllocatedBytes(threadId);
+    }
+
+    private static Method getAllocatedBytesMethod() {
+        try {
+            final Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (!beanClass.isInstance(THREADS))
+                {return null;}
+            final Object supported = beanClass.getMethod("isThreadAllocatedMemorySupported").invoke(THREADS);
+            if (!Boolean.TRUE.equals(supported))
+                {return null;}
+            return beanClass.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (final Exception e) {
+            return null;
+        } catch (final LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the thread or -1 if not available.
+     */
+    private static long threadAllocatedBytes(long threadId) {
+        if (ALLOCATED_BYTES == null)
+            {return -1;}
+        try {
+            return ((Long) ALLOCATED_BYTES.invoke(THREADS, Long.valueOf(threadId))).longValue();
+        } catch (final Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Create new stats and bind them to the current thread.
+     */
+    public static QueryStats start() {
+        final QueryStats stats = new QueryStats(CURRENT.get());
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    /**
+     * Returns the stats bound to the current thread or null.
+     */
+    public static QueryStats current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Release the stats from the current thread and add them to the stats
+     * which were bound before.
+     */
+    public void stop() {
+        if (duration > -1)
+            {return;}
+        duration = System.currentTimeMillis() - startTime;
+        if (startCpuTime > -1)
+            {cpuTime = THREADS.getCurrentThreadCpuTime() - startCpuTime;}
+        if (startAllocated > -1)
+            {allocated = allocatedSinceStart();}
+        if (CURRENT.get() == this) {
+            if (parent == null)
+                {CURRENT.remove();}
+            else
+                {CURRENT.set(parent);}
+        }
+        if (parent != null)
+            {parent.add(this);}
+    }
+
+    private void add(QueryStats other) {
+        for (final Map.Entry<String, AtomicLong> entry : other.pagesRead.entrySet()) {
+            pagesRead(entry.getKey()).addAndGet(entry.getValue().get());
+        }
+        cacheHits += other.cacheHits;
+        cacheMisses += other.cacheMisses;
+        indexLookups += other.indexLookups;
+        nodesLoaded += other.nodesLoaded;
+        charsSerialized += other.charsSerialized;
+    }
+
+    private AtomicLong pagesRead(String file) {
+        AtomicLong count = pagesRead.get(file);
+        if (count == null) {
+            count = new AtomicLong();
+            pagesRead.put(file, count);
+        }
+        return count;
+    }
+
+    public static void pageRead(String file) {
+        final QueryStats stats = CURRENT.get();
+        if (stats != null)
+            {stats.pagesRead(file).incrementAndGet();}
+    }
+
+    public static void cacheHit() {
+        final QueryStats stats = CURRENT.get();
+        if (stats != null)
+            {stats.cacheHits++;}
+    }
+
+    public static void cacheMiss() {
+        final QueryStats stats = CURRENT.get();
+        if (stats != null)
+            {stats.cacheMisses++;}
+    }
+
+    public static void indexLookup() {
+        final QueryStats stats = CURRENT.get();
+        if (stats != null)
+            {stats.indexLookups++;}
+    }
+
+    public static void nodeLoaded() {
+        final QueryStats stats = CURRENT.get();
+        if (stats != null)
+            {stats.nodesLoaded++;}
+    }
+
+    public void serialized(int chars) {
+        charsSerialized += chars;
+    }
+
+    public boolean isRunning() {
+        return duration < 0;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the time in milliseconds the query took or, while it is
+     * running, has been running.
+     */
+    public long getDuration() {
+        return duration < 0 ? System.currentTimeMillis() - startTime : duration;
+    }
+
+    /**
+     * Returns the CPU time in nanoseconds used by the query or -1 if not
+     * supported. Only available after the query completed.
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Returns the number of bytes allocated on the heap by the query or -1 if
+     * not supported by the JVM.
+     */
+    public long getAllocatedBytes() {
+        if (startAllocated < 0)
+            {return -1;}
+        if (duration < 0)
+            {return allocatedSinceStart();}
+        return allocated;
+    }
+
+    private long allocatedSinceStart() {
+        final long bytes = threadAllocatedBytes(threadId);
+        return bytes < 0 ? -1 : bytes - startAllocated;
+    }
+
+    /**
+     * Returns the number of pages read from disk for every .dbx file.
+     */
+    public Map<String, Long> getPagesRead() {
+        final Map<String, Long> pages = new TreeMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> entry : pagesRead.entrySet()) {
+            pages.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+        }
+        return pages;
+    }
+
+    public long getTotalPagesRead() {
+        long total = 0;
+        for (final AtomicLong count : pagesRead.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public long getIndexLookups() {
+        return indexLookups;
+    }
+
+    public long getNodesLoaded() {
+        return nodesLoaded;
+    }
+
+    public long getCharsSerialized() {
+        return charsSerialized;
+    }
+
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("duration: ").append(getDuration()).append("ms");
+        if (cpuTime > -1)
+            {buf.append("; cpu: ").append(cpuTime / 1000000).append("ms");}
+        if (startAllocated > -1)
+            {buf.append("; allocated: ").append(getAllocatedBytes()).append(" bytes");}
+        buf.append("; pages read: ").append(getPagesRead());
+        buf.append("; cache hits: ").append(cacheHits);
+        buf.append("; cache misses: ").append(cacheMisses);
+        buf.append("; index lookups: ").append(indexLookups);
+        buf.append("; nodes loaded: ").append(nodesLoaded);
+        buf.append("; chars serialized: ").append(charsSerialized);
+        return buf.toString();
+    }
+}
@@ -22,17 +22,26 @@
  */
 package org.exist.storage;
 
+import java.io.IOException;
+import java.net.URISyntaxException;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Logger;
 import org.exist.config.annotation.ConfigurationClass;
 import org.exist.config.annotation.ConfigurationFieldAsAttribute;
+import org.exist.dom.BinaryDocument;
+import org.exist.dom.DocumentImpl;
 import org.exist.security.Permission;
 import org.exist.security.PermissionDeniedException;
+import org.exist.security.xacml.AccessContext;
+import org.exist.source.DBSource;
 import org.exist.source.Source;
+import org.exist.storage.lock.Lock;
 import org.exist.util.Configuration;
-import org.exist.util.hashtable.Object2ObjectHashMap;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
 
 /**
@@ -41,12 +50,18 @@ import org.exist.xquery.*;
  * objects from which they were created. For each XQuery, a maximum of
  * {@link #MAX_STACK_SIZE} compiled expressions are kept in the pool. An XQuery
  * expression will be removed from the pool if it has not been used for a
- * pre-defined timeout. These settings can be configured in conf.xml.
+ * pre-defined timeout. If the pool is full, the least recently used XQuery is
+ * removed to make room for a new one. These settings can be configured in conf.xml.
+ *
+ * The compiled expressions of each source are kept in a separate shard with its own
+ * lock, so threads borrowing or returning different queries do not block each other.
+ * Main modules listed as prewarm paths in conf.xml are compiled once at startup, see
+ * {@link #prewarm(DBBroker)}.
  * 
  * @author wolf
  */
 @ConfigurationClass("query-pool")
-public class XQueryPool extends Object2ObjectHashMap {
+public class XQueryPool {
 
 	public final static int MAX_POOL_SIZE = 128;
 
@@ -58,8 +73,8 @@ public class XQueryPool extends Object2ObjectHashMap {
 
 	private final static Logger LOG = Logger.getLogger(XQueryPool.class);
 
-	private long lastTimeOutCheck;
-	private long lastTimeOfCleanup;
+	private volatile long lastTimeOutCheck;
+	private volatile long lastTimeOfCleanup;
 
 	@ConfigurationFieldAsAttribute("size")
 	private int maxPoolSize;
@@ -73,28 +88,36 @@ public class XQueryPool extends Object2ObjectHashMap {
 	@ConfigurationFieldAsAttribute("timeout-check-interval")
 	private long timeoutCheckInterval;
 
+	private final List<String> prewarmPaths;
+
+	private final ConcurrentMap<Source, Shard> shards = new ConcurrentHashMap<Source, Shard>(27);
+
 	public static final String CONFIGURATION_ELEMENT_NAME = "query-pool";
 	public static final String MAX_STACK_SIZE_ATTRIBUTE = "max-stack-size";
 	public static final String POOL_SIZE_ATTTRIBUTE = "size";
 	public static final String TIMEOUT_ATTRIBUTE = "timeout";
 	public static final String TIMEOUT_CHECK_INTERVAL_ATTRIBUTE = "timeout-check-interval";
+	public static final String PREWARM_ELEMENT_NAME = "prewarm";
+	public static final String PREWARM_PATH_ATTRIBUTE = "path";
 
 	public static final String PROPERTY_MAX_STACK_SIZE = "db-connection.query-pool.max-stack-size";
 	public static final String PROPERTY_POOL_SIZE = "db-connection.query-pool.size";
 	public static final String PROPERTY_TIMEOUT = "db-connection.query-pool.timeout";
 	public static final String PROPERTY_TIMEOUT_CHECK_INTERVAL = "db-connection.query-pool.timeout-check-interval";
+	public static final String PROPERTY_PREWARM = "db-connection.query-pool.prewarm";
 
 	/**
 	 * @param conf
 	 */
+	@SuppressWarnings("unchecked")
 	public XQueryPool(Configuration conf) {
-		super(27);
 		lastTimeOutCheck = lastTimeOfCleanup = System.currentTimeMillis();
 
 		final Integer maxStSz = (Integer) conf.getProperty(PROPERTY_MAX_STACK_SIZE);
 		final Integer maxPoolSz = (Integer) conf.getProperty(PROPERTY_POOL_SIZE);
 		final Long t = (Long) conf.getProperty(PROPERTY_TIMEOUT);
 		final Long tci = (Long) conf.getProperty(PROPERTY_TIMEOUT_CHECK_INTERVAL);
+		final List<String> prewarm = (List<String>) conf.getProperty(PROPERTY_PREWARM);
 		final NumberFormat nf = NumberFormat.getNumberInstance();
 
 		if (maxPoolSz != null)
@@ -117,11 +140,17 @@ public class XQueryPool extends Object2ObjectHashMap {
 		else
 			timeoutCheckInterval = TIMEOUT_CHECK_INTERVAL;
 
+		if (prewarm != null)
+			prewarmPaths = prewarm;
+		else
+			prewarmPaths = Collections.emptyList();
+
 		LOG.info("QueryPool: " +
 			"size = " + nf.format(maxPoolSize) + "; " +
 			"maxStackSize = " + nf.format(maxStackSize) + "; " +
 			"timeout = " + nf.format(timeout) + "; " +
-			"timeoutCheckInterval = " + nf.format(timeoutCheckInterval));
+			"timeoutCheckInterval = " + nf.format(timeoutCheckInterval) + "; " +
+			"prewarm = " + prewarmPaths.size());
 	}
 
 	public void returnCompiledXQuery(Source source, CompiledXQuery xquery) {
@@ -142,79 +171,69 @@ public class XQueryPool extends Object2ObjectHashMap {
 //		}
 //	}
 
-	private synchronized void returnObject(Source source, Object o) {
-		long ts = source.getCacheTimestamp();
-		if (ts == 0 || ts > lastTimeOfCleanup) {
-			if (size() >= maxPoolSize)
-				timeoutCheck();
-
-			if (size() < maxPoolSize) {
-				Stack stack = (Stack) get(source);
-				if (stack == null) {
-					stack = new Stack();
-					source.setCacheTimestamp(System.currentTimeMillis());
-					put(source, stack);
-				}
-				if (stack.size() < maxStackSize) {
-					for (int i = 0; i < stack.size(); i++) {
-						if (stack.get(i) == o)
-							// query already in pool. may happen for modules.
-							// don't add it a second time.
-							return;
-					}
-					stack.push(o);
-				}
-			}
+	private void returnObject(Source source, Object o) {
+		if (maxPoolSize <= 0 || maxStackSize <= 0)
+			return;
+		final long ts = source.getCacheTimestamp();
+		if (ts != 0 && ts <= lastTimeOfCleanup)
+			// compiled before the pool was cleared
+			return;
+
+		final long currentTime = System.currentTimeMillis();
+		if (currentTime - lastTimeOutCheck >= timeoutCheckInterval)
+			timeoutCheck();
+
+		Shard shard = shards.get(source);
+		if (shard == null) {
+			if (shards.size() >= maxPoolSize)
+				evictLeastRecentlyUsed();
+			if (ts == 0)
+				source.setCacheTimestamp(currentTime);
+			final Shard newShard = new Shard(source);
+			shard = shards.putIfAbsent(source, newShard);
+			if (shard == null)
+				shard = newShard;
 		}
+		shard.push(o, maxStackSize);
 	}
 
 	private Object borrowObject(DBBroker broker, Source source) {
+		final Shard shard = shards.get(source);
+		if (shard == null)
+			return null;
+
+		// isValid() may acquire document locks, so it must not be called while
+		// holding the lock of the shard
+		final Source key = shard.source;
+		int validity = key.isValid(broker);
+		if (validity == Source.UNKNOWN)
+			validity = key.isValid(source);
+
+		if (validity == Source.INVALID || validity == Source.UNKNOWN) {
+			shards.remove(source, shard);
+			LOG.debug(source.getKey() + " is invalid");
+			return null;
+		}
 
-        CompiledXQuery query = null;
-        Source key = null;
-
-        synchronized (this) {
-            final int idx = getIndex(source);
-            if (idx < 0) {
-                return null;
-            }
-            key = (Source) keys[idx];
-            int validity = key.isValid(broker);
-            if (validity == Source.UNKNOWN)
-                validity = key.isValid(source);
-
-            if (validity == Source.INVALID || validity == Source.UNKNOWN) {
-                keys[idx] = REMOVED;
-                values[idx] = null;
-                LOG.debug(source.getKey() + " is invalid");
-                return null;
-            }
-            final Stack stack = (Stack) values[idx];
-            if (stack == null || stack.isEmpty())
-                return null;
-
-            // now check if the compiled expression is valid
-            // it might become invalid if an imported module has changed.
-            query = (CompiledXQuery) stack.pop();
-            final XQueryContext context = query.getContext();
-            //context.setBroker(broker);
-        }
+		final Object o = shard.pop();
+		if (o == null)
+			return null;
 
         // query.isValid() may open collections which in turn tries to acquire
         // org.exist.storage.lock.ReentrantReadWriteLock. In order to avoid
         // deadlocks with concurrent queries holding that lock while borrowing
-        // we must not hold onto the XQueryPool while calling isValid().
+        // we must not hold onto a lock of the pool while calling isValid().
 
-		if (!query.isValid()) synchronized (this) {
+		if (o instanceof CompiledXQuery && !((CompiledXQuery) o).isValid()) {
 			// the compiled query is no longer valid: one of the imported
 			// modules may have changed
-			remove(key);
+			shards.remove(source, shard);
 			return null;
 		} else
-			return query;
+			return o;
 	}
 
-	public synchronized CompiledXQuery borrowCompiledXQuery(DBBroker broker, Source source) throws PermissionDeniedException {
+	public CompiledXQuery borrowCompiledXQuery(DBBroker broker, Source source) throws PermissionDeniedException {
 		final CompiledXQuery query = (CompiledXQuery) borrowObject(broker, source);
 		if (query == null)
 			return null;
@@ -222,35 +241,10 @@ public class XQueryPool extends Object2ObjectHashMap {
 		//check execution permission
 		source.validate(broker.getSubject(), Permission.EXECUTE);
 		
-		// now check if the compiled expression is valid
-		// it might become invalid if an imported module has changed.
-		//final XQueryContext context = query.getContext();
-		//context.setBroker(broker);
 		return query;
-		// if (!borrowModules(broker, context)) {
-		// // the compiled query is no longer valid: one of the imported
-		// // modules may have changed
-		// remove(source);
-		// return null;
-		// } else {
-		// if (query instanceof PathExpr) try {
-		// // This is necessary because eXist performs whole-expression
-		// analysis, so a function
-		// // can only be analyzed as part of the expression it's called from.
-		// It might be better
-		// // to make module functions more stand-alone, so they only need to be
-		// analyzed
-		// // once.
-		// context.analyzeAndOptimizeIfModulesChanged((PathExpr) query);
-		// } catch (XPathException e) {
-		// remove(source);
-		// return null;
-		// }
-		// return query;
-		// }
 	}
 
-	private synchronized boolean borrowModules(DBBroker broker, XQueryContext context) {
+	private boolean borrowModules(DBBroker broker, XQueryContext context) {
 		final Map<String, Module> borrowedModules = new TreeMap<String, Module>();
 		for (final Iterator<Module> it = context.getAllModules(); it.hasNext();) {
 			final Module module = it.next();
@@ -294,7 +288,7 @@ public class XQueryPool extends Object2ObjectHashMap {
 		return true;
 	}
 
-	public synchronized ExternalModule borrowModule(DBBroker broker, Source source, XQueryContext rootContext) {
+	public ExternalModule borrowModule(DBBroker broker, Source source, XQueryContext rootContext) {
 		final ExternalModule module = (ExternalModule) borrowObject(broker, source);
 		if (module == null)
 			{return null;}
@@ -302,7 +296,7 @@ public class XQueryPool extends Object2ObjectHashMap {
 		//context.setBroker(broker);
 		if (!module.moduleIsValid(broker)) {
 			LOG.debug("Module with URI " + module.getNamespaceURI() + " has changed and needs to be reloaded");
-			remove(source);
+			shards.remove(source);
 			return null;
 		} else {
 			// check all modules imported by the borrowed module and update them
@@ -319,13 +313,51 @@ public class XQueryPool extends Object2ObjectHashMap {
 		}
 	}
 
-    public synchronized void clear() {
+	/**
+	 * Compile the main modules configured as prewarm paths and add them to the
+	 * pool, so the first requests after a restart do not have to compile them.
+	 * Called by the {@link BrokerPool} at startup.
+	 *
+	 * @param broker a broker with the system subject
+	 */
+	public void prewarm(DBBroker broker) {
+		for (final String path : prewarmPaths) {
+			DocumentImpl doc = null;
+			try {
+				doc = broker.getXMLResource(XmldbURI.xmldbUriFor(path), Lock.READ_LOCK);
+				if (doc == null || doc.getResourceType() != DocumentImpl.BINARY_FILE) {
+					LOG.warn("Cannot prewarm query pool: " + path + " is not a stored XQuery");
+					continue;
+				}
+				final Source source = new DBSource(broker, (BinaryDocument) doc, true);
+				final XQuery xquery = broker.getXQueryService();
+				final XQueryContext context = xquery.newContext(AccessContext.REST);
+				context.setModuleLoadPath(XmldbURI.EMBEDDED_SERVER_URI.append(doc.getCollection().getURI()).toString());
+				final long start = System.currentTimeMillis();
+				final CompiledXQuery compiled = xquery.compile(context, source);
+				returnCompiledXQuery(source, compiled);
+				LOG.info("Compiled " + path + " for query pool in " + (System.currentTimeMillis() - start) + "ms");
+			} catch (final URISyntaxException e) {
+				LOG.warn("Cannot prewarm query pool: invalid path " + path);
+			} catch (final XPathException | IOException | PermissionDeniedException e) {
+				LOG.warn("Cannot prewarm query pool: failed to compile " + path + ": " + e.getMessage());
+			} finally {
+				if (doc != null)
+					doc.getUpdateLock().release(Lock.READ_LOCK);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of sources for which compiled expressions are pooled
+	 */
+	public int size() {
+		return shards.size();
+	}
+
+    public void clear() {
     	lastTimeOfCleanup = System.currentTimeMillis();
-        
-        for (final Iterator i = iterator(); i.hasNext();) {
-            final Source next = (Source) i.next();
-            remove(next);
-        }
+        shards.clear();
     }
 
 	private void timeoutCheck() {
@@ -333,17 +365,54 @@ public class XQueryPool extends Object2ObjectHashMap {
 			return;
 
 		final long currentTime = System.currentTimeMillis();
+		lastTimeOutCheck = currentTime;
 
-		if (currentTime - lastTimeOutCheck < timeoutCheckInterval)
-			return;
+		for (final Iterator<Shard> i = shards.values().iterator(); i.hasNext();) {
+			if (currentTime - i.next().lastAccess > timeout) {
+				i.remove();
+			}
+		}
+	}
 
-		for (final Iterator i = iterator(); i.hasNext();) {
-			final Source next = (Source) i.next();
-			if (currentTime - next.getCacheTimestamp() > timeout) {
-				remove(next);
+	private void evictLeastRecentlyUsed() {
+		Map.Entry<Source, Shard> eldest = null;
+		for (final Map.Entry<Source, Shard> entry : shards.entrySet()) {
+			if (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess)
+				eldest = entry;
+		}
+		if (eldest != null)
+			shards.remove(eldest.getKey(), eldest.getValue());
+	}
+
+	/**
+	 * The compiled expressions of one source.
+	 */
+	private static class Shard {
+
+		private final Source source;
+		private final ArrayDeque<Object> stack = new ArrayDeque<Object>();
+		private volatile long lastAccess = System.currentTimeMillis();
+
+		private Shard(Source source) {
+			this.source = source;
+		}
+
+		private synchronized void push(Object o, int maxStackSize) {
+			lastAccess = System.currentTimeMillis();
+			if (stack.size() >= maxStackSize)
+				return;
+			for (final Object pooled : stack) {
+				if (pooled == o)
+					// query already in pool. may happen for modules.
+					// don't add it a second time.
+					return;
 			}
+			stack.push(o);
+		}
+
+		private synchronized Object pop() {
+			lastAccess = System.currentTimeMillis();
+			return stack.poll();
 		}
-		
-		lastTimeOutCheck = currentTime;
 	}
 }
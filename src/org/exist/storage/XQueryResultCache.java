@@ -0,0 +1,381 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.exist.dom.DocumentImpl;
+import org.exist.dom.NewArrayNodeSet;
+import org.exist.dom.NodeProxy;
+import org.exist.dom.NodeSet;
+import org.exist.dom.QName;
+import org.exist.dom.StoredNode;
+import org.exist.http.servlets.RequestWrapper;
+import org.exist.management.Agent;
+import org.exist.management.AgentFactory;
+import org.exist.memtree.NodeImpl;
+import org.exist.numbering.NodeId;
+import org.exist.security.Subject;
+import org.exist.source.Source;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.Module;
+import org.exist.xquery.Option;
+import org.exist.xquery.Variable;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.JavaObjectValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+
+/**
+ * Global cache for the results of queries which declare the option
+ *
+ * <pre>declare option exist:cache "ttl=60000 collection=/db/data";</pre>
+ *
+ * A result is cached for the query source, the user, the statically known
+ * documents, the values of the external variables and the parameters of the
+ * HTTP request. Results are cached for ttl milliseconds at most, the default
+ * is configured in conf.xml. They are removed from the cache as soon as a
+ * document in one of the given collections or their descendants is stored,
+ * updated or removed. Without a collection parameter, any update in the
+ * database removes the result.
+ *
+ * Only deterministic queries should use the option: the query is not
+ * evaluated again while its result is cached, so side effects and calls to
+ * functions like current-dateTime() or request:get-data() are not repeated.
+ *
+ * Queries modify the stored nodes of their results, e.g. by adding context
+ * nodes and matches. The cache therefore keeps a copy of the result and hands
+ * out a new copy on every hit, see {@link #copy(Sequence)}.
+ */
+public class XQueryResultCache implements UpdateListener {
+
+    private final static Logger LOG = Logger.getLogger(XQueryResultCache.class);
+
+    public final static int DEFAULT_SIZE = 128;
+    public final static long DEFAULT_TTL = 300000L;
+
+    public final static QName CACHE_OPTION = new QName("cache", org.exist.Namespaces.EXIST_NS);
+
+    public static final String CONFIGURATION_ELEMENT_NAME = "query-result-cache";
+    public static final String SIZE_ATTRIBUTE = "size";
+    public static final String TTL_ATTRIBUTE = "ttl";
+
+    public static final String PROPERTY_SIZE = "db-connection.query-result-cache.size";
+    public static final String PROPERTY_TTL = "db-connection.query-result-cache.ttl";
+
+    private final int maxSize;
+    private final long defaultTTL;
+
+    private final LinkedHashMap<String, CachedResult> entries;
+
+    // incremented for every document update, so a query can tell if the
+    // data it read may have been modified while it was running
+    private long generation = 0;
+
+    private int hits = 0;
+    private int misses = 0;
+    private int invalidations = 0;
+
+    public XQueryResultCache(BrokerPool pool, Configuration conf) {
+        final Integer size = (Integer) conf.getProperty(PROPERTY_SIZE);
+        final Long ttl = (Long) conf.getProperty(PROPERTY_TTL);
+        this.maxSize = size == null ? DEFAULT_SIZE : size.intValue();
+        this.defaultTTL = ttl == null ? DEFAULT_TTL : ttl.longValue();
+        this.entries = new LinkedHashMap<String, CachedResult>(maxSize < 16 ? 16 : maxSize * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > XQueryResultCache.this.maxSize;
+            }
+        };
+        LOG.info("QueryResultCache: size = " + maxSize + "; ttl = " + defaultTTL);
+        registerMBean(pool.getId());
+    }
+
+    /**
+     * Returns the key under which the result of the query is cached, or null if
+     * the query does not declare the cache option or the cache is disabled.
+     * Has to be called before the query is evaluated.
+     */
+    public String getKey(XQueryContext context, Subject subject) throws XPathException {
+        if (maxSize <= 0 || context.getOption(CACHE_OPTION) == null)
+            {return null;}
+        final StringBuilder key = new StringBuilder();
+        key.append(context.getSource().getKey()).append('\u0000');
+        key.append(subject.getName()).append('\u0000');
+        final XmldbURI[] staticDocs = context.getStaticallyKnownDocumentPaths();
+        if (staticDocs != null) {
+            for (int i = 0; i < staticDocs.length; i++) {
+                key.append(staticDocs[i]).append(' ');
+            }
+        }
+        key.append('\u0000');
+        for (final Variable var : context.getGlobalVariables().values()) {
+            appendVariable(key, var);
+        }
+        for (final Iterator<Module> i = context.getModules(); i.hasNext(); ) {
+            final Module module = i.next();
+            if (!module.isInternalModule())
+                {continue;}
+            for (final Iterator<QName> j = module.getGlobalVariables(); j.hasNext(); ) {
+                appendVariable(key, module.resolveVariable(j.next()));
+            }
+        }
+        return key.toString();
+    }
+
+    private void appendVariable(StringBuilder key, Variable var) throws XPathException {
+        if (var == null || var.getValue() == null)
+            {return;}
+        key.append(var.getQName()).append('=');
+        for (final SequenceIterator i = var.getValue().iterate(); i.hasNext(); ) {
+            final Item item = i.nextItem();
+            if (item.getType() == Type.JAVA_OBJECT) {
+                final Object object = ((JavaObjectValue) item).getObject();
+                if (object instanceof RequestWrapper)
+                    {appendRequest(key, (RequestWrapper) object);}
+                // other objects like the response or session are ignored
+            } else {
+                key.append(item.getType()).append(':').append(item.getStringValue()).append(' ');
+            }
+        }
+        key.append('\u0000');
+    }
+
+    private void appendRequest(StringBuilder key, RequestWrapper request) {
+        key.append(request.getMethod()).append(' ').append(request.getRequestURI());
+        for (final Enumeration<String> e = request.getParameterNames(); e.hasMoreElements(); ) {
+            final String name = e.nextElement();
+            key.append(' ').append(name);
+            final String[] values = request.getParameterValues(name);
+            if (values != null) {
+                for (int i = 0; i < values.length; i++) {
+                    key.append('=').append(values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the cached result for the key or null.
+     */
+    public synchronized Sequence get(String key, DBBroker broker) throws XPathException {
+        final CachedResult entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis() || entry.source.isValid(broker) == Source.INVALID) {
+            entries.remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(entry.result);
+    }
+
+    /**
+     * Returns the current generation, to be passed to {@link #put(String, XQueryContext, Sequence, long)}.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache the result of a query. The result is not cached if documents have
+     * been modified since the query started, i.e. since the given generation,
+     * or if it contains nodes which depend on the query context.
+     */
+    public synchronized void put(String key, XQueryContext context, Sequence result, long startGeneration)
+            throws XPathException {
+        if (generation != startGeneration || !isCacheable(result))
+            {return;}
+        final Option option = context.getOption(CACHE_OPTION);
+        long ttl = defaultTTL;
+        final List<XmldbURI> collections = new ArrayList<XmldbURI>();
+        final String[] params = option.tokenizeContents();
+        for (int i = 0; i < params.length; i++) {
+            final String[] param = Option.parseKeyValuePair(params[i]);
+            if (param == null)
+                {throw new XPathException("Invalid parameter found in option exist:cache: " + params[i]);}
+            try {
+                if ("ttl".equals(param[0]))
+                    {ttl = Long.parseLong(param[1]);}
+                else if ("collection".equals(param[0]))
+                    {collections.add(XmldbURI.xmldbUriFor(param[1]));}
+                else
+                    {throw new XPathException("Unknown parameter found in option exist:cache: " + param[0]);}
+            } catch (final NumberFormatException e) {
+                throw new XPathException("Invalid ttl in option exist:cache: " + param[1]);
+            } catch (final URISyntaxException e) {
+                throw new XPathException("Invalid collection in option exist:cache: " + param[1]);
+            }
+        }
+        entries.put(key, new CachedResult(context.getSource(), copy(result),
+            collections.isEmpty() ? null : collections.toArray(new XmldbURI[collections.size()]),
+            System.currentTimeMillis() + ttl));
+    }
+
+    private static boolean isCacheable(Sequence result) throws XPathException {
+        for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+            final Item item = i.nextItem();
+            if (item.getType() == Type.JAVA_OBJECT || Type.subTypeOf(item.getType(), Type.FUNCTION_REFERENCE))
+                {return false;}
+            // in-memory nodes referencing stored nodes are expanded using the query context
+            if (item instanceof NodeImpl && ((NodeImpl) item).getDocument().hasReferenceNodes())
+                {return false;}
+        }
+        return true;
+    }
+
+    /**
+     * Copy the result so that the copy shares no mutable state with it. Stored
+     * nodes are replaced by new proxies with a copy of their matches, but
+     * without the context nodes of the query. Atomic values and in-memory nodes
+     * are not modified by a query and are shared.
+     */
+    private static Sequence copy(Sequence result) throws XPathException {
+        final Sequence copy = result instanceof NodeSet ?
+            new NewArrayNodeSet(result.getItemCount()) : new ValueSequence(result.getItemCount());
+        for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+            final Item item = i.nextItem();
+            if (item instanceof NodeProxy) {
+                final NodeProxy node = (NodeProxy) item;
+                final NodeProxy nodeCopy = new NodeProxy(node.getDocument(), node.getNodeId(),
+                    node.getNodeType(), node.getInternalAddress());
+                nodeCopy.addMatches(node);
+                copy.add(nodeCopy);
+            } else
+                {copy.add(item);}
+        }
+        return copy;
+    }
+
+    /**
+     * Remove all cached results.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        generation++;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getDefaultTTL() {
+        return defaultTTL;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized int getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized void documentUpdated(DocumentImpl document, int event) {
+        generation++;
+        if (entries.isEmpty())
+            {return;}
+        final XmldbURI collection = document.getURI().removeLastSegment();
+        for (final Iterator<CachedResult> i = entries.values().iterator(); i.hasNext(); ) {
+            if (i.next().dependsOn(collection)) {
+                i.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    @Override
+    public void nodeMoved(NodeId oldNodeId, StoredNode newNode) {
+        // node moves are preceded by an update of the document
+    }
+
+    @Override
+    public void unsubscribe() {
+        clear();
+    }
+
+    @Override
+    public void debug() {
+        LOG.debug("QueryResultCache: " + getSize() + " entries");
+    }
+
+    private void registerMBean(String instanceName) {
+        final Agent agent = AgentFactory.getInstance();
+        try {
+            agent.addMBean(instanceName, "org.exist.management." + instanceName +
+                ":type=XQueryResultCache", new org.exist.management.XQueryResultCache(this));
+        } catch (final DatabaseConfigurationException e) {
+            LOG.warn("Exception while registering query result cache mbean.", e);
+        }
+    }
+
+    private static class CachedResult {
+
+        final Source source;
+        final Sequence result;
+        final XmldbURI[] collections;
+        final long expires;
+
+        CachedResult(Source source, Sequence result, XmldbURI[] collections, long expires) {
+            this.source = source;
+            this.result = result;
+            this.collections = collections;
+            this.expires = expires;
+        }
+
+        boolean dependsOn(XmldbURI collection) {
+            if (collections == null)
+                {return true;}
+            for (int i = 0; i < collections.length; i++) {
+                if (collection.startsWith(collections[i]))
+                    {return true;}
+            }
+            return false;
+        }
+    }
+}
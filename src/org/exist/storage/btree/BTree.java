@@ -79,6 +79,7 @@ import org.exist.storage.BufferStats;
 import org.exist.storage.CacheManager;
 import org.exist.storage.DefaultCacheManager;
 import org.exist.storage.NativeBroker;
+import org.exist.storage.QueryStats;
 import org.exist.storage.cache.*;
 import org.exist.storage.journal.Journal;
 import org.exist.storage.journal.LogEntryTypes;
@@ -240,7 +241,7 @@ public class BTree extends Paged implements Lockable {
     }
 
     protected void initCache() {
-        cache = new BTreeCache(cacheManager.getDefaultInitialSize(), 1.5,
+        cache = cacheManager.createCache(cacheManager.getDefaultInitialSize(), 1.5,
             0, CacheManager.BTREE_CACHE);
         cache.setFileName(getFile().getName());
         cacheManager.registerCache(cache);
@@ -356,6 +357,7 @@ public class BTree extends Paged implements Lockable {
      *@exception  BTreeException  Description of the Exception
      */
     public long findValue(Value value) throws IOException, BTreeException {
+        QueryStats.indexLookup();
         return getRootNode().findValue(value);
     }
 
@@ -378,6 +380,7 @@ public class BTree extends Paged implements Lockable {
             data2[data2.length - 1] += 1;
             query = new IndexQuery(query.getOperator(), val1, new Value(data2));
         }
+        QueryStats.indexLookup();
         getRootNode().query(query, callback);
     }
 
@@ -396,6 +399,7 @@ public class BTree extends Paged implements Lockable {
      */
     public void query(IndexQuery query, Value prefix, BTreeCallback callback)
             throws IOException, BTreeException, TerminatedException {
+        QueryStats.indexLookup();
         getRootNode().query(query, prefix, callback);
     }
 
@@ -495,6 +499,193 @@ public class BTree extends Paged implements Lockable {
         return root.page.getPageNum();
     }
 
+    /**
+     * Replace the content of the tree with the entries of the given buffer,
+     * building the tree bottom-up instead of inserting key by key.
+     *
+     * The sorted entries are packed into leaf pages from left to right, which
+     * are written out as soon as they are full. For every level, only the
+     * rightmost node is kept in memory. All pages are allocated sequentially
+     * from the start of the file, the existing pages and the free list are
+     * discarded. Callers which want to keep the current entries have to add
+     * them to the buffer first, e.g. by running a {@link #query(IndexQuery, BTreeCallback)}
+     * with a null query.
+     *
+     * No log entries are written, so this is only supported for files which
+     * are not transactional. The caller should hold a write lock on the file.
+     *
+     * @param buffer the entries to load
+     * @param fillFactor fraction of a page to fill, between 0.5 and 1.0. Less than
+     *                   1.0 leaves room for later inserts without splitting pages.
+     * @throws IOException
+     * @throws BTreeException
+     */
+    public void bulkLoad(SortedRunBuffer buffer, double fillFactor) throws IOException, BTreeException {
+        if (isTransactional)
+            {throw new BTreeException("Bulk load is not supported for transactional file " + getFile().getName());}
+        if (fillFactor < 0.5 || fillFactor > 1.0)
+            {throw new IllegalArgumentException("fillFactor should be between 0.5 and 1.0");}
+        final SortedRunBuffer.Cursor cursor = buffer.sort();
+
+        // discard the cached nodes and all pages
+        final long pages = fileHeader.getTotalCount();
+        for (long i = 0; i < pages; i++) {
+            final Cacheable cached = cache.get(i);
+            if (cached != null)
+                {cache.remove(cached);}
+        }
+        fileHeader.setTotalCount(0);
+        fileHeader.setFirstFreePage(Page.NO_PAGE);
+        fileHeader.setLastFreePage(Page.NO_PAGE);
+
+        final BulkBuilder builder = new BulkBuilder((int) (fileHeader.getWorkSize() * fillFactor));
+        long count = 0;
+        while (cursor.next()) {
+            builder.add(cursor.getKey(), cursor.getPointer());
+            count++;
+        }
+        final BTreeNode root = builder.finish();
+        setRootNode(root);
+        LOG.debug(getFile().getName() + ": bulk loaded " + count + " keys into " +
+            fileHeader.getTotalCount() + " pages");
+    }
+
+    /**
+     * Builds the tree for {@link #bulkLoad(SortedRunBuffer, double)}, one level at a time.
+     * A finished node is only written once its parent is known.
+     */
+    private final class BulkBuilder {
+
+        private final int maxDataLen;
+        private final List<BulkLevel> levels = new ArrayList<BulkLevel>();
+
+        BulkBuilder(int maxDataLen) {
+            this.maxDataLen = maxDataLen;
+            levels.add(new BulkLevel(LEAF));
+        }
+
+        void add(Value key, long pointer) throws IOException {
+            final BulkLevel leaves = levels.get(0);
+            if (leaves.node == null)
+                {leaves.open(key);}
+            else {
+                final int prefixLen = leafPrefixLen(key, leaves.lastKey);
+                final int len = (fileHeader.getFixedKeyLen() < 0 ? 2 : 0) + 1 + key.getLength() - prefixLen + 8;
+                if (leaves.dataLen + len > maxDataLen) {
+                    final BTreeNode full = leaves.node;
+                    final Value fullKey = leaves.firstKey;
+                    leaves.open(key);
+                    full.pageHeader.setNextPage(leaves.node.page.getPageNum());
+                    finishNode(0, full, fullKey);
+                } else
+                    {leaves.dataLen += len;}
+            }
+            leaves.node.insertKey(key, leaves.node.nKeys);
+            leaves.node.insertPointer(pointer, leaves.node.nPtrs);
+            leaves.lastKey = key;
+        }
+
+        /**
+         * Add a finished node to the level above, creating the level if necessary.
+         */
+        private void finishNode(int level, BTreeNode node, Value firstKey) throws IOException {
+            if (level + 1 == levels.size()) {
+                final BulkLevel current = levels.get(level);
+                if (current.pending == null) {
+                    // might become the root
+                    current.pending = node;
+                    current.pendingKey = firstKey;
+                    return;
+                }
+                levels.add(new BulkLevel(BRANCH));
+                addChild(level + 1, current.pending, current.pendingKey);
+                current.pending = null;
+                current.pendingKey = null;
+            }
+            addChild(level + 1, node, firstKey);
+        }
+
+        private void addChild(int level, BTreeNode child, Value firstKey) throws IOException {
+            final BulkLevel branches = levels.get(level);
+            if (branches.node == null)
+                {branches.open(firstKey);}
+            else {
+                // upper bound: the common prefix of the keys is not subtracted
+                final int len = (fileHeader.getFixedKeyLen() < 0 ? 2 : 0) + firstKey.getLength() + 8;
+                if (branches.dataLen + len > maxDataLen && branches.node.nPtrs > 1) {
+                    final BTreeNode full = branches.node;
+                    final Value fullKey = branches.firstKey;
+                    branches.open(firstKey);
+                    finishNode(level, full, fullKey);
+                } else {
+                    branches.node.insertKey(firstKey, branches.node.nKeys);
+                    branches.dataLen += len;
+                }
+            }
+            branches.node.insertPointer(child.page.getPageNum(), branches.node.nPtrs);
+            child.setParent(branches.node);
+            child.write();
+        }
+
+        /**
+         * Finish all levels and return the root node, which has been written.
+         */
+        BTreeNode finish() throws IOException {
+            if (levels.get(0).node == null)
+                {levels.get(0).open(null);}
+            for (int i = 0; i < levels.size(); i++) {
+                final BulkLevel level = levels.get(i);
+                if (level.node != null) {
+                    finishNode(i, level.node, level.firstKey);
+                    level.node = null;
+                }
+            }
+            final BulkLevel top = levels.get(levels.size() - 1);
+            final BTreeNode root = top.pending;
+            root.setParent(null);
+            root.write();
+            return root;
+        }
+
+        private int leafPrefixLen(Value key, Value previous) {
+            final int prefixLen = key.commonPrefix(previous);
+            return prefixLen < 0 || prefixLen > Byte.MAX_VALUE ? 0 : prefixLen;
+        }
+    }
+
+    /**
+     * The rightmost node of one level of the tree during a bulk load.
+     */
+    private final class BulkLevel {
+
+        private final byte status;
+        /** the node currently being filled */
+        private BTreeNode node = null;
+        /** the smallest key below the current node */
+        private Value firstKey = null;
+        /** the last key added to the current leaf */
+        private Value lastKey = null;
+        private int dataLen;
+        /** a finished node of the top level, waiting for a parent */
+        private BTreeNode pending = null;
+        private Value pendingKey = null;
+
+        BulkLevel(byte status) {
+            this.status = status;
+        }
+
+        void open(Value firstKey) throws IOException {
+            node = new BTreeNode(getFreePage(false), true);
+            node.pageHeader.setStatus(status);
+            node.pageHeader.setLsn(Lsn.LSN_INVALID);
+            this.firstKey = firstKey;
+            if (status == LEAF)
+                {dataLen = firstKey == null ? 0 : (fileHeader.getFixedKeyLen() < 0 ? 2 : 0) + firstKey.getLength() + 8;}
+            else
+                {dataLen = 2 + 8;}
+        }
+    }
+
     /**
      * @return the root node.
      */
@@ -543,6 +734,21 @@ public class BTree extends Paged implements Lockable {
         return flushed;
     }
 
+    /**
+     * Write at most <code>maxPages</code> dirty pages to disk, so dirty
+     * pages can be written in small portions while the file is in use.
+     * The caller has to hold the lock on the file.
+     *
+     * @param maxPages maximum number of pages to write
+     * @return the number of pages written
+     * @throws DBException
+     */
+    public int flush(int maxPages) throws DBException {
+        if (isTransactional)
+            {logManager.flushToLog(true);}
+        return cache.flush(maxPages);
+    }
+
     /*
      * @see org.exist.storage.btree.Paged#close()
      */
@@ -0,0 +1,75 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link PageIO} implementation based on the positional read and write
+ * methods of {@link FileChannel}. Positional operations do not modify
+ * the channel's file pointer, so several threads can read different pages of
+ * the same file concurrently.
+ */
+public class ChannelPageIO extends PageIO {
+
+    protected final FileChannel channel;
+
+    public ChannelPageIO(RandomAccessFile raf) {
+        super(raf);
+        this.channel = raf.getChannel();
+    }
+
+    @Override
+    public void read(long position, byte[] buf, int off, int len) throws IOException {
+        final ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+        long pos = position;
+        while (bb.hasRemaining()) {
+            final int read = channel.read(bb, pos);
+            if (read < 0)
+                {break;}
+            pos += read;
+        }
+        zero(buf, bb.position(), off + len);
+    }
+
+    @Override
+    public void write(long position, byte[] buf, int off, int len) throws IOException {
+        final ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+        long pos = position;
+        while (bb.hasRemaining()) {
+            pos += channel.write(bb, pos);
+        }
+    }
+
+    @Override
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public String getMode() {
+        return CHANNEL;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * {@link PageIO} implementation which memory maps the database file in
+ * fixed-size regions. A region is mapped lazily, the first time it is accessed
+ * after the file has grown beyond its end. Reads and writes falling into
+ * a mapped region are served directly from the mapping, all other operations
+ * (e.g. on the tail of a growing file) fall back to positional channel I/O.
+ *
+ * The region size is a multiple of any supported page size, so a page never
+ * spans two regions. Note that Java provides no way to explicitly unmap a buffer:
+ * mappings are released when they are garbage collected. On some platforms
+ * (e.g. Windows), a file cannot be deleted while it is still mapped.
+ */
+public class MappedPageIO extends ChannelPageIO {
+
+    public final static int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+    private final int regionSize;
+    private final boolean readOnly;
+
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+    /** size of the file as far as we know, updated on every write */
+    private volatile long fileSize;
+
+    public MappedPageIO(RandomAccessFile raf, boolean readOnly) {
+        this(raf, readOnly, DEFAULT_REGION_SIZE);
+    }
+
+    public MappedPageIO(RandomAccessFile raf, boolean readOnly, int regionSize) {
+        super(raf);
+        this.readOnly = readOnly;
+        this.regionSize = regionSize;
+        try {
+            this.fileSize = channel.size();
+        } catch (final IOException e) {
+            this.fileSize = 0;
+        }
+    }
+
+    @Override
+    public void read(long position, byte[] buf, int off, int len) throws IOException {
+        final MappedByteBuffer region = getRegion(position, len);
+        if (region == null) {
+            super.read(position, buf, off, len);
+        } else {
+            final ByteBuffer view = region.duplicate();
+            view.position((int) (position % regionSize));
+            view.get(buf, off, len);
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] buf, int off, int len) throws IOException {
+        final MappedByteBuffer region = readOnly ? null : getRegion(position, len);
+        if (region == null) {
+            super.write(position, buf, off, len);
+            synchronized (this) {
+                if (position + len > fileSize)
+                    {fileSize = position + len;}
+            }
+        } else {
+            final ByteBuffer view = region.duplicate();
+            view.position((int) (position % regionSize));
+            view.put(buf, off, len);
+        }
+    }
+
+    @Override
+    public String getMode() {
+        return MAPPED;
+    }
+
+    /**
+     * Returns the number of regions which are currently mapped.
+     */
+    public int getMappedRegions() {
+        int count = 0;
+        for (final MappedByteBuffer region : regions) {
+            if (region != null)
+                {count++;}
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!readOnly) {
+            for (final MappedByteBuffer region : regions) {
+                if (region != null)
+                    {region.force();}
+            }
+        }
+        regions = new MappedByteBuffer[0];
+        super.close();
+    }
+
+    private MappedByteBuffer getRegion(long position, int len) throws IOException {
+        final long index = position / regionSize;
+        if (index >= Integer.MAX_VALUE)
+            {return null;}
+        final long regionStart = index * regionSize;
+        if (position + len > regionStart + regionSize)
+            // the requested range spans two regions
+            {return null;}
+        final MappedByteBuffer[] current = regions;
+        if (index < current.length && current[(int) index] != null)
+            {return current[(int) index];}
+        if (regionStart + regionSize > fileSize)
+            // region does not yet exist on disk
+            {return null;}
+        return mapRegion((int) index, regionStart);
+    }
+
+    private synchronized MappedByteBuffer mapRegion(int index, long regionStart) throws IOException {
+        MappedByteBuffer[] current = regions;
+        if (index < current.length && current[index] != null)
+            {return current[index];}
+        final MappedByteBuffer region = channel.map(
+            readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+            regionStart, regionSize);
+        current = index < current.length ? current.clone() : Arrays.copyOf(current, index + 1);
+        current[index] = region;
+        regions = current;
+        return region;
+    }
+}
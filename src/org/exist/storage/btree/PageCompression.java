@@ -0,0 +1,141 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the data of a page before {@link Paged} writes it to disk.
+ *
+ * A compressed page is stored as the page header followed by the compressed
+ * data. Only this prefix of the page is written, so the remainder of a page
+ * which has never been written uncompressed is not allocated on disk if the
+ * page size is a multiple of the file system block size (files become sparse).
+ * Pages are decompressed when they are read, i.e. the page caches hold
+ * uncompressed pages.
+ *
+ * Whether a page is compressed is recorded in its header, so compressed and
+ * uncompressed pages can be mixed in one file. Compression can be enabled
+ * or disabled for a file at any time, but space is only saved for pages written
+ * after the file has been created with compression enabled. Restore a backup
+ * into a new database to convert an existing one.
+ *
+ * Selected per file through the <code>page-compression</code> element in conf.xml:
+ *
+ * <ul>
+ *     <li>{@link #NONE}: pages are stored uncompressed. This is the default.</li>
+ *     <li>{@link #DEFLATE}: pages are compressed with {@link Deflater}, using the
+ *     fastest compression level.</li>
+ * </ul>
+ *
+ * Instances are not thread safe: {@link Paged} serializes page writes.
+ */
+public class PageCompression {
+
+    public final static String NONE = "none";
+    public final static String DEFLATE = "deflate";
+
+    public final static String DEFAULT_MODE = NONE;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    private PageCompression() {
+    }
+
+    /**
+     * Create a compressor for the given mode.
+     *
+     * @param mode one of {@link #NONE} or {@link #DEFLATE}. If null,
+     *  {@link #DEFAULT_MODE} is used.
+     * @return a new compressor or null if pages should not be compressed
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    public static PageCompression create(String mode) {
+        if (mode == null || NONE.equals(mode))
+            {return null;}
+        if (DEFLATE.equals(mode))
+            {return new PageCompression();}
+        throw new IllegalArgumentException("Unknown page compression: " + mode);
+    }
+
+    public static boolean isValidMode(String mode) {
+        return NONE.equals(mode) || DEFLATE.equals(mode);
+    }
+
+    /**
+     * Compress <code>length</code> bytes of <code>data</code>, starting at
+     * <code>offset</code>, into <code>out</code>.
+     *
+     * @return the length of the compressed data or -1 if the data could not be
+     *  compressed to less than <code>length</code> bytes
+     */
+    public int compress(byte[] data, int offset, int length, byte[] out) {
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        final int max = Math.min(length - 1, out.length);
+        int compressed = 0;
+        while (!deflater.finished() && compressed < max) {
+            compressed += deflater.deflate(out, compressed, max - compressed);
+        }
+        if (!deflater.finished())
+            {return -1;}
+        return compressed;
+    }
+
+    /**
+     * Decompress <code>length</code> bytes of <code>data</code>, starting at
+     * <code>offset</code>. The result has to fill <code>out</code> exactly.
+     *
+     * @throws IOException if the data is corrupt
+     */
+    public static void decompress(byte[] data, int offset, int length, byte[] out) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, length);
+            int read = 0;
+            while (read < out.length && !inflater.finished()) {
+                final int n = inflater.inflate(out, read, out.length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    {break;}
+                read += n;
+            }
+            if (read != out.length || !inflater.finished())
+                {throw new IOException("Compressed page is corrupt: expected " + out.length +
+                    " bytes, got " + read);}
+        } catch (final DataFormatException e) {
+            throw new IOException("Compressed page is corrupt: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Release the native resources of the compressor.
+     */
+    public void close() {
+        deflater.end();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Low-level I/O backend used by {@link Paged} to transfer pages from and to
+ * a database file. All operations are positional: callers pass the absolute
+ * file offset, so implementations do not need to track a shared file pointer.
+ *
+ * Three implementations are available, selected through the
+ * <code>pageIO</code> attribute of the <code>db-connection</code> element
+ * in conf.xml:
+ *
+ * <ul>
+ *     <li>{@link #RANDOM_ACCESS}: seek + read/write on a {@link RandomAccessFile}. All
+ *     access to a file is serialized. This is the default.</li>
+ *     <li>{@link #CHANNEL}: positional reads and writes on a {@link FileChannel}.
+ *     Concurrent readers do not contend for the file pointer.</li>
+ *     <li>{@link #MAPPED}: like {@link #CHANNEL}, but regions of the file are memory
+ *     mapped once they exist on disk and pages inside a mapped region are
+ *     copied directly from or to the mapping.</li>
+ * </ul>
+ *
+ * If less data than requested is available at the given offset, the
+ * remainder of the buffer is filled with zeros, which is what {@link Paged}
+ * expects when it reads a page that has just been appended to the file.
+ */
+public abstract class PageIO {
+
+    public final static String RANDOM_ACCESS = "random-access";
+    public final static String CHANNEL = "channel";
+    public final static String MAPPED = "mapped";
+
+    public final static String DEFAULT_MODE = RANDOM_ACCESS;
+
+    protected final RandomAccessFile raf;
+
+    protected PageIO(RandomAccessFile raf) {
+        this.raf = raf;
+    }
+
+    /**
+     * Create a page I/O backend for the given mode.
+     *
+     * @param mode one of {@link #RANDOM_ACCESS}, {@link #CHANNEL} or {@link #MAPPED}.
+     *  If null, {@link #DEFAULT_MODE} is used.
+     * @param raf the opened file. The backend takes ownership and will close it.
+     * @param readOnly true if the file has been opened in read-only mode
+     * @return a new backend
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    public static PageIO create(String mode, RandomAccessFile raf, boolean readOnly) {
+        if (mode == null || RANDOM_ACCESS.equals(mode))
+            {return new RandomAccessPageIO(raf);}
+        if (CHANNEL.equals(mode))
+            {return new ChannelPageIO(raf);}
+        if (MAPPED.equals(mode))
+            {return new MappedPageIO(raf, readOnly);}
+        throw new IllegalArgumentException("Unknown page I/O mode: " + mode);
+    }
+
+    /**
+     * Returns true if the given mode names a known backend.
+     *
+     * @param mode the mode
+     * @return true if the mode is valid
+     */
+    public static boolean isValidMode(String mode) {
+        return RANDOM_ACCESS.equals(mode) || CHANNEL.equals(mode) || MAPPED.equals(mode);
+    }
+
+    /**
+     * Read <code>len</code> bytes starting at file position <code>position</code>
+     * into <code>buf</code>. Bytes beyond the end of the file are returned as zeros.
+     */
+    public abstract void read(long position, byte[] buf, int off, int len) throws IOException;
+
+    /**
+     * Write <code>len</code> bytes from <code>buf</code> to the file, starting at
+     * file position <code>position</code>.
+     */
+    public abstract void write(long position, byte[] buf, int off, int len) throws IOException;
+
+    /**
+     * Returns the current size of the underlying file.
+     */
+    public long length() throws IOException {
+        return raf.length();
+    }
+
+    /**
+     * Returns the name of this backend as used in conf.xml.
+     */
+    public abstract String getMode();
+
+    /**
+     * Copy the entire file to the given output stream.
+     */
+    public void copyTo(OutputStream os) throws IOException {
+        final byte[] buf = new byte[4096];
+        final long length = length();
+        long position = 0;
+        while (position < length) {
+            final int len = (int) Math.min(buf.length, length - position);
+            read(position, buf, 0, len);
+            os.write(buf, 0, len);
+            position += len;
+        }
+    }
+
+    /**
+     * Close the backend and the underlying file.
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    protected final static void zero(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            buf[i] = 0;
+        }
+    }
+}
@@ -74,8 +74,10 @@ package org.exist.storage.btree;
 
 import org.apache.log4j.Logger;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.QueryStats;
 import org.exist.storage.journal.Lsn;
 import org.exist.util.ByteConversion;
+import org.exist.util.Configuration;
 import org.exist.xquery.Constants;
 
 import java.io.File;
@@ -86,6 +88,8 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  Paged is a paged file foundation that is used by the BTree class and
@@ -104,6 +108,7 @@ public abstract class Paged {
     public static int LENGTH_PAGE_HEADER_SIZE = 1; //sizeof byte	
     public static int LENGTH_MAX_KEY_SIZE = 2;  //sizeof short
     public static int LENGTH_RECORD_COUNT = 8; //sizeof long
+    public static int LENGTH_COMPRESSED_LENGTH = 4; //sizeof int
 
     public static int OFFSET_VERSION_ID = 0;
     public static int OFFSET_HEADER_SIZE = OFFSET_VERSION_ID + LENGTH_VERSION_ID; //2
@@ -125,23 +130,50 @@ public abstract class Paged {
 
     protected static int PAGE_SIZE = 4096;
 
-    private RandomAccessFile raf;
+    private PageIO io;
+    private String pageIOMode = PageIO.DEFAULT_MODE;
     private File file;
+    // name of the file reported to the QueryStats for every page read
+    private String fileName;
     private FileHeader fileHeader;
     private boolean readOnly = false;
     private boolean fileIsNew = false;
 
     private byte[] tempPageData = null;
-    private byte[] tempHeaderData = null;
+
+    private final Configuration config;
+
+    private PageCompression compression = null;
+    private byte[] compressBuffer = null;
+
+    // the compressed length of a page is stored in the last bytes of the page header,
+    // if they are not used by the page header of the subclass
+    private boolean canCompress = false;
+
+    // number of pages written, used to detect pages which changed while being read
+    private final AtomicLong pageWrites = new AtomicLong();
 	
     public Paged(BrokerPool pool) {
         fileHeader = createFileHeader(pool.getPageSize());
         tempPageData = new byte[fileHeader.pageSize];
-        tempHeaderData = new byte[fileHeader.pageHeaderSize];
+        config = pool.getConfiguration();
+        if (config != null) {
+            final String mode = (String) config.getProperty(BrokerPool.PROPERTY_PAGE_IO);
+            if (mode != null)
+                {pageIOMode = mode;}
+        }
     }
 
     public abstract short getFileVersion();
 
+    /**
+     * Returns the number of page writes since the file was opened. If the count
+     * did not change, no page has been written in the meantime.
+     */
+    protected final long getPageWriteCount() {
+        return pageWrites.get();
+    }
+
     public final static void setPageSize(int pageSize) {
         PAGE_SIZE = pageSize;
     }
@@ -154,6 +186,23 @@ public abstract class Paged {
         return readOnly;
     }
 
+    /**
+     * Returns the {@link PageIO} backend used to access the underlying file.
+     *
+     * @return the page I/O backend
+     */
+    public final PageIO getPageIO() {
+        return io;
+    }
+
+    /**
+     * Returns the compression applied to pages written to this file, or null
+     * if pages are stored uncompressed.
+     */
+    public final PageCompression getPageCompression() {
+        return compression;
+    }
+
     /**
      * Close the underlying files.
      * 
@@ -161,8 +210,10 @@ public abstract class Paged {
      * @throws DBException
      */
     public boolean close() throws DBException {
+        if (compression != null)
+            {compression.close();}
         try {
-            raf.close();
+            io.close();
         } catch (final IOException e) {
             throw new DBException("an error occurred while closing database file: " + e.getMessage());
         }
@@ -225,12 +276,7 @@ public abstract class Paged {
      * @throws IOException
      */
     public void backupToStream(OutputStream os) throws IOException {
-        raf.seek(0);
-        final byte[] buf = new byte[4096];
-        int len;
-        while ((len = raf.read(buf)) > 0) {
-            os.write(buf, 0, len);
-        }
+        io.copyTo(os);
     }
 
     /**
@@ -257,8 +303,10 @@ public abstract class Paged {
      *
      */
     public void closeAndRemove() {
+        if (compression != null)
+            {compression.close();}
         try {
-            raf.close();
+            io.close();
         } catch (final IOException e) {
             //TODO : forward the exception ? -pb
             LOG.error("Failed to close data file: " + file.getAbsolutePath());
@@ -381,7 +429,9 @@ public abstract class Paged {
      */
     protected final void setFile(final File file) throws DBException {
         this.file = file;
+        this.fileName = file.getName();
         fileIsNew = !file.exists();
+        RandomAccessFile raf = null;
         try {
             if ((!file.exists()) || file.canWrite()) {
                 try {
@@ -405,6 +455,40 @@ public abstract class Paged {
             LOG.warn("An exception occured while opening database file " +
                 file.getAbsolutePath() + ": " + e.getMessage(), e);
         }
+        if (raf != null) {
+            try {
+                io = PageIO.create(pageIOMode, raf, readOnly);
+            } catch (final IllegalArgumentException e) {
+                LOG.warn(e.getMessage() + ". Falling back to " + PageIO.DEFAULT_MODE);
+                io = PageIO.create(PageIO.DEFAULT_MODE, raf, readOnly);
+            }
+        }
+        try {
+            final int headerLength = createPageHeader().write(new byte[Byte.MAX_VALUE], 0);
+            canCompress = headerLength <= fileHeader.pageHeaderSize - LENGTH_COMPRESSED_LENGTH;
+        } catch (final IOException e) {
+            canCompress = false;
+        }
+        final String mode = getPageCompressionMode(file.getName());
+        if (mode != null && !PageCompression.NONE.equals(mode)) {
+            if (!canCompress) {
+                LOG.warn("Page compression is not supported by " + file.getName());
+            } else {
+                compression = PageCompression.create(mode);
+                compressBuffer = new byte[fileHeader.pageSize];
+                LOG.debug("Page compression for " + file.getName() + ": " + mode);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getPageCompressionMode(String fileName) {
+        if (config == null)
+            {return null;}
+        final Map<String, String> modes = (Map<String, String>) config.getProperty(BrokerPool.PROPERTY_PAGE_COMPRESSION);
+        if (modes != null && modes.containsKey(fileName))
+            {return modes.get(fileName);}
+        return (String) config.getProperty(BrokerPool.PROPERTY_PAGE_COMPRESSION_DEFAULT);
     }
 
     /**
@@ -683,8 +767,7 @@ public abstract class Paged {
         }
 
         public final synchronized void read() throws IOException {
-            raf.seek(0);
-            raf.read(buf);
+            io.read(0, buf, 0, buf.length);
             read(buf);
             calculateWorkSize();
             dirty = false;
@@ -820,9 +903,8 @@ public abstract class Paged {
         }
 
         public final synchronized void write() throws IOException {
-            raf.seek(0);
             write(buf);
-            raf.write(buf);
+            io.write(0, buf, 0, buf.length);
             dirty = false;
         }
 
@@ -916,17 +998,26 @@ public abstract class Paged {
         }
 
         public byte[] read() throws IOException {
+            QueryStats.pageRead(fileName);
             try {
-                if (raf.getFilePointer() != offset) {
-                    raf.seek(offset);
-                }
-                Arrays.fill(tempHeaderData, (byte)0);
-                raf.read(tempHeaderData);
+                // use a local buffer: pages of the same file may be read concurrently
+                final byte[] headerData = new byte[fileHeader.pageHeaderSize];
+                io.read(offset, headerData, 0, headerData.length);
                 // Read in the header
-                header.read(tempHeaderData, 0);
+                header.read(headerData, 0);
                 // Read the working data
                 final byte[] workData = new byte[header.dataLen];
-                raf.read(workData);
+                final int compressedLength = canCompress ?
+                    ByteConversion.byteToInt(headerData, headerData.length - LENGTH_COMPRESSED_LENGTH) : 0;
+                if (compressedLength > 0) {
+                    if (compressedLength > fileHeader.workSize)
+                        {throw new IOException("invalid length of compressed page: " + compressedLength);}
+                    final byte[] compressed = new byte[compressedLength];
+                    io.read(offset + headerData.length, compressed, 0, compressed.length);
+                    PageCompression.decompress(compressed, 0, compressed.length, workData);
+                } else {
+                    io.read(offset + headerData.length, workData, 0, workData.length);
+                }
                 return workData;
             } catch(final Exception e) {
                 LOG.warn("error while reading page: " + getPageInfo(), e);
@@ -960,9 +1051,25 @@ public abstract class Paged {
                     System.arraycopy(data, 0, tempPageData, fileHeader.pageHeaderSize, data.length);
                 }
             }
-            if (raf.getFilePointer() != offset)
-                {raf.seek(offset);}
-            raf.write(tempPageData);
+            int length = tempPageData.length;
+            if (canCompress) {
+                int compressedLength = -1;
+                if (compression != null) {
+                    final int dataLength = data == null ? Math.min(header.dataLen, fileHeader.workSize) : data.length;
+                    compressedLength = compression.compress(tempPageData, fileHeader.pageHeaderSize,
+                        dataLength, compressBuffer);
+                }
+                if (compressedLength > 0) {
+                    // only write the compressed data, leaving the rest of the page untouched
+                    System.arraycopy(compressBuffer, 0, tempPageData, fileHeader.pageHeaderSize, compressedLength);
+                    length = fileHeader.pageHeaderSize + compressedLength;
+                } else
+                    {compressedLength = 0;}
+                ByteConversion.intToByte(compressedLength, tempPageData,
+                    fileHeader.pageHeaderSize - LENGTH_COMPRESSED_LENGTH);
+            }
+            io.write(offset, tempPageData, 0, length);
+            pageWrites.incrementAndGet();
         }
 
         /* (non-Javadoc)
@@ -985,10 +1092,8 @@ public abstract class Paged {
         }
 
         public void dumpPage() throws IOException {
-            if (raf.getFilePointer() != offset)
-                {raf.seek(offset);}
             final byte[] data = new byte[fileHeader.pageSize];
-            raf.read(data);
+            io.read(offset, data, 0, data.length);
             LOG.debug("Contents of page " + pageNum + ": " + hexDump(data));
         }
     }
@@ -0,0 +1,63 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * {@link PageIO} implementation which uses seek + read/write on a
+ * {@link RandomAccessFile}. Since the file pointer is shared, all
+ * operations are serialized on the file.
+ */
+public class RandomAccessPageIO extends PageIO {
+
+    public RandomAccessPageIO(RandomAccessFile raf) {
+        super(raf);
+    }
+
+    @Override
+    public synchronized void read(long position, byte[] buf, int off, int len) throws IOException {
+        if (raf.getFilePointer() != position)
+            {raf.seek(position);}
+        int total = 0;
+        while (total < len) {
+            final int read = raf.read(buf, off + total, len - total);
+            if (read < 0)
+                {break;}
+            total += read;
+        }
+        zero(buf, off + total, off + len);
+    }
+
+    @Override
+    public synchronized void write(long position, byte[] buf, int off, int len) throws IOException {
+        if (raf.getFilePointer() != position)
+            {raf.seek(position);}
+        raf.write(buf, off, len);
+    }
+
+    @Override
+    public String getMode() {
+        return RANDOM_ACCESS;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.btree;
+
+import org.apache.log4j.Logger;
+import org.exist.util.io.TemporaryFileManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects key/pointer pairs for {@link BTree#bulkLoad(SortedRunBuffer, double)}.
+ *
+ * Entries are kept in memory until the configured amount of memory is used up.
+ * The buffer is then sorted and written to a temporary file as a sorted run.
+ * {@link #sort()} returns a cursor which merges all runs, so the keys are read
+ * back in ascending order, no matter how many entries were added.
+ *
+ * If the same key is added more than once, the pointer added last wins. Instances
+ * are not thread-safe.
+ */
+public class SortedRunBuffer {
+
+    private final static Logger LOG = Logger.getLogger(SortedRunBuffer.class);
+
+    /** estimated memory used by an entry, not counting the key data */
+    private final static int ENTRY_OVERHEAD = 64;
+
+    private final static int IO_BUFFER_SIZE = 65536;
+
+    private final long maxMemory;
+
+    private List<Entry> entries = new ArrayList<Entry>();
+    private long memory = 0;
+    private long sequence = 0;
+
+    private final List<File> runs = new ArrayList<File>();
+
+    /**
+     * @param maxMemory approximate number of bytes to keep in memory before a
+     *                  sorted run is written to disk
+     */
+    public SortedRunBuffer(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Add a key and its pointer.
+     */
+    public void add(Value key, long pointer) throws IOException {
+        final Entry entry = new Entry(new Value(key.getData()), pointer, sequence++);
+        entries.add(entry);
+        memory += ENTRY_OVERHEAD + key.getLength();
+        if (memory > maxMemory)
+            {spill();}
+    }
+
+    /**
+     * Returns the number of entries added so far, including duplicates.
+     */
+    public long getCount() {
+        return sequence;
+    }
+
+    /**
+     * Returns the number of sorted runs written to disk so far.
+     */
+    public int getRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Returns a cursor over all entries in ascending key order. No
+     * entries should be added after this method has been called.
+     */
+    public Cursor sort() throws IOException {
+        if (runs.isEmpty()) {
+            Collections.sort(entries);
+            return new MemoryCursor(entries);
+        }
+        spill();
+        return new MergeCursor(runs);
+    }
+
+    /**
+     * Release all resources and delete the temporary files.
+     */
+    public void close() {
+        entries = new ArrayList<Entry>();
+        memory = 0;
+        final TemporaryFileManager temp = TemporaryFileManager.getInstance();
+        for (final File run : runs) {
+            temp.returnTemporaryFile(run);
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        if (entries.isEmpty())
+            {return;}
+        Collections.sort(entries);
+        final File file = TemporaryFileManager.getInstance().getTemporaryFile();
+        runs.add(file);
+        final DataOutputStream os = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+        try {
+            final MemoryCursor cursor = new MemoryCursor(entries);
+            while (cursor.next()) {
+                final Value key = cursor.getKey();
+                os.writeInt(key.getLength());
+                os.write(key.data(), key.start(), key.getLength());
+                os.writeLong(cursor.getPointer());
+            }
+        } finally {
+            os.close();
+        }
+        if (LOG.isDebugEnabled())
+            {LOG.debug("Wrote sorted run " + runs.size() + " with " + entries.size() + " entries");}
+        entries = new ArrayList<Entry>();
+        memory = 0;
+    }
+
+    /**
+     * Iterates over the entries in key order.
+     */
+    public interface Cursor {
+
+        /**
+         * Move to the next entry.
+         *
+         * @return false if there are no more entries
+         */
+        boolean next() throws IOException;
+
+        Value getKey();
+
+        long getPointer();
+    }
+
+    private static class Entry implements Comparable<Entry> {
+
+        final Value key;
+        final long pointer;
+        final long sequence;
+
+        Entry(Value key, long pointer, long sequence) {
+            this.key = key;
+            this.pointer = pointer;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            final int cmp = key.compareTo(other.key);
+            if (cmp != 0)
+                {return cmp;}
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Iterates over a sorted list, skipping all but the last of equal keys.
+     */
+    private static class MemoryCursor implements Cursor {
+
+        private final List<Entry> entries;
+        private int pos = -1;
+
+        MemoryCursor(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean next() {
+            pos++;
+            while (pos + 1 < entries.size() && entries.get(pos).key.equals(entries.get(pos + 1).key)) {
+                pos++;
+            }
+            return pos < entries.size();
+        }
+
+        @Override
+        public Value getKey() {
+            return entries.get(pos).key;
+        }
+
+        @Override
+        public long getPointer() {
+            return entries.get(pos).pointer;
+        }
+    }
+
+    private static class RunReader {
+
+        final int run;
+        final DataInputStream is;
+        Value key;
+        long pointer;
+
+        RunReader(int run, File file) throws IOException {
+            this.run = run;
+            this.is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+        }
+
+        boolean advance() throws IOException {
+            final int len;
+            try {
+                len = is.readInt();
+            } catch (final EOFException e) {
+                is.close();
+                return false;
+            }
+            final byte[] data = new byte[len];
+            is.readFully(data);
+            key = new Value(data);
+            pointer = is.readLong();
+            return true;
+        }
+    }
+
+    /**
+     * Merges the sorted runs. On equal keys, the entry from the later run wins.
+     */
+    private static class MergeCursor implements Cursor {
+
+        private final PriorityQueue<RunReader> queue;
+        private Value key;
+        private long pointer;
+
+        MergeCursor(List<File> runs) throws IOException {
+            queue = new PriorityQueue<RunReader>(runs.size(), new Comparator<RunReader>() {
+                @Override
+                public int compare(RunReader r1, RunReader r2) {
+                    final int cmp = r1.key.compareTo(r2.key);
+                    if (cmp != 0)
+                        {return cmp;}
+                    return r2.run - r1.run;
+                }
+            });
+            for (int i = 0; i < runs.size(); i++) {
+                final RunReader reader = new RunReader(i, runs.get(i));
+                if (reader.advance())
+                    {queue.add(reader);}
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            final RunReader top = queue.poll();
+            if (top == null)
+                {return false;}
+            key = top.key;
+            pointer = top.pointer;
+            if (top.advance())
+                {queue.add(top);}
+            // drop older entries with the same key
+            while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+                final RunReader reader = queue.poll();
+                if (reader.advance())
+                    {queue.add(reader);}
+            }
+            return true;
+        }
+
+        @Override
+        public Value getKey() {
+            return key;
+        }
+
+        @Override
+        public long getPointer() {
+            return pointer;
+        }
+    }
+}
@@ -22,6 +22,7 @@
 package org.exist.storage.cache;
 
 import org.apache.log4j.Logger;
+import org.exist.storage.QueryStats;
 import org.exist.util.hashtable.SequencedLongHashMap;
 
 /**
@@ -91,6 +92,7 @@ public class Accounting {
      */
     public void hitIncrement() {
         ++hits;
+        QueryStats.cacheHit();
     }
     
     /**
@@ -108,6 +110,7 @@ public class Accounting {
      */
     public void missesIncrement() {
         ++misses;
+        QueryStats.cacheMiss();
     }
     
     /**
@@ -97,6 +97,16 @@ public interface Cache {
      */
     public boolean flush();
 
+    /**
+     * Write at most <code>max</code> dirty items to disk, starting
+     * with the items which have been in the cache for the longest time.
+     * Used to write out dirty pages in small portions.
+     *
+     * @param max maximum number of items to write
+     * @return the number of items written
+     */
+    public int flush(int max);
+
     /**
      * Get the size of this cache.
      * 
@@ -133,6 +133,15 @@ public class GClockCache implements Cache {
 		return flushed;
 	}
 
+	public int flush(int max) {
+	    int written = 0;
+		for (int i = 0; i < count && written < max; i++) {
+			if (items[i] != null && items[i].sync(false))
+			    {++written;}
+		}
+		return written;
+	}
+
 	public boolean hasDirtyItems() {
 	    for(int i = 0; i < count; i++) {
 			if(items[i] != null && items[i].isDirty())
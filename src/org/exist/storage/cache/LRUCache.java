@@ -124,6 +124,23 @@ public class LRUCache implements Cache {
 		return flushed;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.exist.storage.cache.Cache#flush(int)
+	 */
+	public int flush(int max) {
+		int written = 0;
+		Cacheable cacheable;
+		SequencedLongHashMap.Entry<Cacheable> next = map.getFirstEntry();
+		while(next != null && written < max) {
+			cacheable = next.getValue();
+			if(cacheable.isDirty() && cacheable.sync(false)) {
+				++written;
+			}
+			next = next.getNext();
+		}
+		return written;
+	}
+
 	
     /* (non-Javadoc)
      * @see org.exist.storage.cache.Cache#hasDirtyItems()
@@ -0,0 +1,353 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.cache;
+
+import org.exist.storage.CacheManager;
+import org.exist.util.hashtable.SequencedLongHashMap;
+
+/**
+ * A scan-resistant cache implementing the 2Q replacement policy
+ * (Johnson/Shasha, "2Q: A Low Overhead High Performance Buffer Management
+ * Replacement Algorithm").
+ *
+ * Pages loaded for the first time enter a small FIFO queue (A1in). If they
+ * are evicted from there, only their key is remembered in a ghost queue (A1out).
+ * A page which is requested again while its key is in the ghost queue has proven
+ * to be hot and is admitted to the main LRU queue (Am). Pages read once by a large
+ * scan thus pass through A1in without displacing the pages in Am. Inner pages of a
+ * B+-tree ({@link BTreeCacheable#isInnerPage()}) are admitted to Am directly and
+ * are replaced last, as in {@link BTreeCache}.
+ *
+ * Like the other page caches, the cache is not thread-safe and does not provide
+ * lock-free access to pages: callers must hold the lock of the file owning the
+ * cache, as {@link org.exist.storage.btree.BTree} and the other paged files do.
+ *
+ * Selected for all page caches by setting <code>cachePolicy="2q"</code>
+ * on the db-connection element in conf.xml.
+ */
+public class TwoQueueCache implements Cache {
+
+    /** fraction of the cache reserved for the A1in queue */
+    public final static double IN_QUEUE_RATIO = 0.25;
+
+    /** number of keys kept in the ghost queue, relative to the cache size */
+    public final static double GHOST_QUEUE_RATIO = 0.5;
+
+    private int max;
+    private int maxIn;
+    private int maxGhosts;
+
+    /** A1in: pages seen once, in FIFO order */
+    private SequencedLongHashMap<Cacheable> in;
+    /** Am: hot pages, in LRU order */
+    private SequencedLongHashMap<Cacheable> hot;
+    /** A1out: keys of pages recently evicted from A1in */
+    private SequencedLongHashMap<Object> ghosts;
+
+    private final Accounting accounting;
+
+    private int hitsOld = -1;
+
+    private final double growthFactor;
+
+    private String fileName;
+
+    private CacheManager cacheManager = null;
+
+    private final String type;
+
+    public TwoQueueCache(int size, double growthFactor, double growthThreshold, String type) {
+        this.growthFactor = growthFactor;
+        this.type = type;
+        this.accounting = new Accounting(growthThreshold);
+        setSize(size);
+        in = new SequencedLongHashMap<Cacheable>(size);
+        hot = new SequencedLongHashMap<Cacheable>(size * 2);
+        ghosts = new SequencedLongHashMap<Object>(size);
+    }
+
+    private void setSize(int size) {
+        max = size;
+        maxIn = Math.max(1, (int) (size * IN_QUEUE_RATIO));
+        maxGhosts = Math.max(1, (int) (size * GHOST_QUEUE_RATIO));
+        accounting.setTotalSize(max);
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void add(Cacheable item, int initialRefCount) {
+        add(item);
+    }
+
+    @Override
+    public void add(Cacheable item) {
+        final long key = item.getKey();
+        if (hot.get(key) != null) {
+            hot.put(key, item);
+            return;
+        }
+        final Cacheable first = in.get(key);
+        if (first != null) {
+            // correlated reference: a page stays in A1in in the order it was
+            // first loaded, so it is not promoted by repeated hits within a scan
+            if (first != item)
+                {in.replace(key, item);}
+            return;
+        }
+        final boolean admit = ghosts.remove(key) != null || isInnerPage(item);
+        if (in.size() + hot.size() >= max)
+            {removeOne(item);}
+        if (admit)
+            {hot.put(key, item);}
+        else
+            {in.put(key, item);}
+    }
+
+    @Override
+    public Cacheable get(Cacheable item) {
+        return get(item.getKey());
+    }
+
+    @Override
+    public Cacheable get(long key) {
+        Cacheable obj = hot.get(key);
+        if (obj != null)
+            {hot.put(key, obj);}
+        else
+            {obj = in.get(key);}
+        if (obj == null)
+            {accounting.missesIncrement();}
+        else
+            {accounting.hitIncrement();}
+        return obj;
+    }
+
+    @Override
+    public void remove(Cacheable item) {
+        final long key = item.getKey();
+        if (hot.remove(key) == null)
+            {in.remove(key);}
+    }
+
+    @Override
+    public boolean hasDirtyItems() {
+        return hasDirtyItems(in) || hasDirtyItems(hot);
+    }
+
+    @Override
+    public boolean flush() {
+        final boolean flushed = flush(in);
+        return flush(hot) | flushed;
+    }
+
+    @Override
+    public int flush(int max) {
+        final int written = flush(in, max);
+        return written + flush(hot, max - written);
+    }
+
+    @Override
+    public int getBuffers() {
+        return max;
+    }
+
+    @Override
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    @Override
+    public void resize(int newSize) {
+        if (newSize < max) {
+            // evict pages until the cache fits into its new size
+            while (in.size() + hot.size() > newSize) {
+                if (!evictFrom(in, -1, true, false) && !evictFrom(hot, -1, true, true))
+                    {break;}
+            }
+            ghosts.clear();
+        } else {
+            // the hash tables do not grow by themselves
+            in = copy(in, newSize);
+            hot = copy(hot, newSize * 2);
+        }
+        setSize(newSize);
+        accounting.reset();
+    }
+
+    @Override
+    public void setCacheManager(CacheManager manager) {
+        this.cacheManager = manager;
+    }
+
+    @Override
+    public int getUsedBuffers() {
+        return in.size() + hot.size();
+    }
+
+    /**
+     * Returns the number of pages in the main (hot) queue.
+     */
+    public int getHotBuffers() {
+        return hot.size();
+    }
+
+    @Override
+    public int getHits() {
+        return accounting.getHits();
+    }
+
+    @Override
+    public int getFails() {
+        return accounting.getMisses();
+    }
+
+    public int getThrashing() {
+        return accounting.getThrashing();
+    }
+
+    @Override
+    public int getLoad() {
+        if (hitsOld == 0) {
+            hitsOld = accounting.getHits();
+            return Integer.MAX_VALUE;
+        }
+        final int load = accounting.getHits() - hitsOld;
+        hitsOld = accounting.getHits();
+        return load;
+    }
+
+    @Override
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Make room for the given item. Evict from A1in if it exceeds its share,
+     * otherwise the least recently used page in Am, preferring leaf pages.
+     * If no page can be unloaded, the cache temporarily exceeds its size.
+     */
+    private void removeOne(Cacheable item) {
+        final long key = item.getKey();
+        boolean removed;
+        if (in.size() > maxIn || hot.size() == 0)
+            {removed = evictFrom(in, key, true, false) || evictFrom(hot, key, false, true);}
+        else
+            {removed = evictFrom(hot, key, false, true) || evictFrom(in, key, true, false);}
+        if (!removed)
+            {LOG.debug("Unable to remove entry from cache " + fileName);}
+        accounting.replacedPage(item);
+        if (growthFactor > 1.0 && accounting.resizeNeeded())
+            {cacheManager.requestMem(this);}
+    }
+
+    /**
+     * Evict the first page from the given queue which can be unloaded.
+     *
+     * @param queue the queue to evict from
+     * @param exclude key of a page which must not be evicted
+     * @param remember true if the key of the evicted page should go into the ghost queue
+     * @param keepInner true if inner B+-tree pages should only be evicted if there's no other candidate
+     * @return true if a page was evicted
+     */
+    private boolean evictFrom(SequencedLongHashMap<Cacheable> queue, long exclude, boolean remember,
+            boolean keepInner) {
+        boolean mustRemoveInner = !keepInner;
+        while (true) {
+            SequencedLongHashMap.Entry<Cacheable> next = queue.getFirstEntry();
+            while (next != null) {
+                final Cacheable cached = next.getValue();
+                if (cached.getKey() != exclude && cached.allowUnload() &&
+                        (mustRemoveInner || !isInnerPage(cached))) {
+                    cached.sync(true);
+                    queue.remove(cached.getKey());
+                    if (remember) {
+                        if (ghosts.size() >= maxGhosts)
+                            {ghosts.removeFirst();}
+                        ghosts.put(cached.getKey(), Boolean.TRUE);
+                    }
+                    return true;
+                }
+                next = next.getNext();
+            }
+            if (mustRemoveInner)
+                {return false;}
+            mustRemoveInner = true;
+        }
+    }
+
+    private static SequencedLongHashMap<Cacheable> copy(SequencedLongHashMap<Cacheable> queue, int size) {
+        final SequencedLongHashMap<Cacheable> newQueue = new SequencedLongHashMap<Cacheable>(size);
+        SequencedLongHashMap.Entry<Cacheable> next = queue.getFirstEntry();
+        while (next != null) {
+            newQueue.put(next.getKey(), next.getValue());
+            next = next.getNext();
+        }
+        return newQueue;
+    }
+
+    private static boolean isInnerPage(Cacheable item) {
+        return item instanceof BTreeCacheable && ((BTreeCacheable) item).isInnerPage();
+    }
+
+    private static boolean hasDirtyItems(SequencedLongHashMap<Cacheable> queue) {
+        SequencedLongHashMap.Entry<Cacheable> next = queue.getFirstEntry();
+        while (next != null) {
+            if (next.getValue().isDirty())
+                {return true;}
+            next = next.getNext();
+        }
+        return false;
+    }
+
+    private static boolean flush(SequencedLongHashMap<Cacheable> queue) {
+        boolean flushed = false;
+        SequencedLongHashMap.Entry<Cacheable> next = queue.getFirstEntry();
+        while (next != null) {
+            final Cacheable cacheable = next.getValue();
+            if (cacheable.isDirty())
+                {flushed = flushed | cacheable.sync(false);}
+            next = next.getNext();
+        }
+        return flushed;
+    }
+
+    private static int flush(SequencedLongHashMap<Cacheable> queue, int max) {
+        int written = 0;
+        SequencedLongHashMap.Entry<Cacheable> next = queue.getFirstEntry();
+        while (next != null && written < max) {
+            final Cacheable cacheable = next.getValue();
+            if (cacheable.isDirty() && cacheable.sync(false))
+                {written++;}
+            next = next.getNext();
+        }
+        return written;
+    }
+}
@@ -83,6 +83,10 @@ public class AddLinkLoggable extends AbstractLoggable {
         return 14;
     }
     
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoAddLink(this);
     }
@@ -86,6 +86,10 @@ public class AddValueLoggable extends AbstractLoggable {
 		return 8 + value.length;
 	}
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoAddValue(this);
     }
@@ -84,6 +84,10 @@ public class CreatePageLoggable extends AbstractLoggable {
         return 14;
     }
 	
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoCreatePage(this);
     }
@@ -58,16 +58,15 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
 import org.exist.storage.journal.LogEntryTypes;
 import org.exist.storage.journal.Loggable;
 import org.exist.storage.journal.Lsn;
 import org.exist.storage.lock.Lock;
-import org.exist.storage.lock.ReentrantReadWriteLock;
 import org.exist.storage.txn.TransactionException;
 import org.exist.storage.txn.Txn;
 import org.exist.util.ByteConversion;
 import org.exist.util.Configuration;
+import org.exist.util.LockException;
 import org.exist.util.Lockable;
 import org.exist.util.ReadOnlyException;
 import org.exist.util.hashtable.Object2LongIdentityHashMap;
@@ -188,13 +187,15 @@ public class DOMFile extends BTree implements Lockable {
 
     private final AddValueLoggable addValueLog = new AddValueLoggable();
 
+    private PageReadAhead readAhead = null;
+
     public DOMFile(BrokerPool pool, byte id, String dataDir, Configuration config) throws DBException {
         super(pool, id, true, pool.getCacheManager(), 0.01);
-        lock = new ReentrantReadWriteLock(getFileName());
+        lock = pool.createFileLock(getFileName());
         fileHeader = (BTreeFileHeader)getFileHeader();
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
-        dataCache = new LRUCache(256, 0.0, 1.0, CacheManager.DATA_CACHE);
+        dataCache = cacheManager.createCache(256, 0.0, 1.0, CacheManager.DATA_CACHE);
         dataCache.setFileName(getFileName());
         cacheManager.registerCache(dataCache);
         final File file = new File(dataDir + File.separatorChar + getFileName());
@@ -206,6 +207,12 @@ public class DOMFile extends BTree implements Lockable {
                 {LOG.debug("Creating data file: " + file.getName());}
             create();
         }
+        final Integer readAheadPages = (Integer) config.getProperty(BrokerPool.PROPERTY_READ_AHEAD);
+        if (readAheadPages != null && readAheadPages.intValue() > 0) {
+            readAhead = new PageReadAhead(this, readAheadPages.intValue());
+            if (LOG.isDebugEnabled())
+                {LOG.debug("Read-ahead enabled for " + getFileName() + ": " + readAheadPages + " pages");}
+        }
         config.setProperty(getConfigKeyForFile(), this);
     }
 
@@ -257,6 +264,73 @@ public class DOMFile extends BTree implements Lockable {
         return page;
     }
 
+    /**
+     * Move to the next page in a chain of data pages. Reports the step to the
+     * read-ahead, if enabled, so pages further down the chain can be prefetched.
+     * 
+     * @param page the current page
+     * @param nextPageNum the next data page of <code>page</code>
+     * @return the next page
+     */
+    protected final DOMPage getNextDOMPage(DOMPage page, long nextPageNum) {
+        final DOMPage nextPage = getDOMPage(nextPageNum);
+        addToBuffer(nextPage);
+        if (readAhead != null) {
+            readAhead.follow(page.getPageNum(), nextPageNum,
+                nextPage.getPageHeader().getNextDataPage());
+        }
+        return nextPage;
+    }
+
+    /**
+     * Read up to <code>count</code> pages of a chain of data pages into the
+     * page cache, starting at page <code>pageNum</code>. Pages are read from
+     * disk without holding the lock on the file. A page is only added to the
+     * cache if no other page has been written to the file in the meantime, so a
+     * page which was changed and written while it was read is never cached.
+     * 
+     * @param pageNum the first page to read
+     * @param count the maximum number of pages to read
+     * @return the number of pages read from disk
+     * @throws LockException if the lock on the file could not be acquired
+     * @throws IOException if a page could not be read
+     */
+    protected int prefetch(long pageNum, int count) throws LockException, IOException {
+        int read = 0;
+        for (int i = 0; i < count && pageNum != Page.NO_PAGE; i++) {
+            final long writes;
+            lock.acquire(Lock.READ_LOCK);
+            try {
+                final DOMPage cached = (DOMPage) dataCache.get(pageNum);
+                if (cached != null) {
+                    pageNum = cached.getPageHeader().getNextDataPage();
+                    continue;
+                }
+                writes = getPageWriteCount();
+            } finally {
+                lock.release(Lock.READ_LOCK);
+            }
+            final DOMPage page = new DOMPage(getPage(pageNum));
+            read++;
+            lock.acquire(Lock.READ_LOCK);
+            try {
+                final DOMPage cached = (DOMPage) dataCache.get(pageNum);
+                if (cached != null) {
+                    pageNum = cached.getPageHeader().getNextDataPage();
+                } else if (writes == getPageWriteCount()) {
+                    addToBuffer(page);
+                    pageNum = page.getPageHeader().getNextDataPage();
+                } else {
+                    // pages were written while reading: the chain may have changed
+                    return read;
+                }
+            } finally {
+                lock.release(Lock.READ_LOCK);
+            }
+        }
+        return read;
+    }
+
     /**
      * Open the file.
      * 
@@ -304,6 +378,8 @@ public class DOMFile extends BTree implements Lockable {
     }
 
     public boolean close() throws DBException {
+        if (readAhead != null)
+            {readAhead.shutdown();}
         if (!isReadOnly())
             {flush();}
         super.close();
@@ -313,6 +389,8 @@ public class DOMFile extends BTree implements Lockable {
     public void closeAndRemove() {
         if (!lock.isLockedForWrite())
             {LOG.warn("The file doesn't own a write lock");}
+        if (readAhead != null)
+            {readAhead.shutdown();}
         super.closeAndRemove();
         cacheManager.deregisterCache(dataCache);
     }
@@ -1340,6 +1418,14 @@ public class DOMFile extends BTree implements Lockable {
         return flushed;
     }
 
+    @Override
+    public int flush(int maxPages) throws DBException {
+        if (BrokerPool.FORCE_CORRUPTION)
+            {return 0;}
+        final int written = super.flush(maxPages);
+        return written + dataCache.flush(maxPages - written);
+    }
+
     public void printStatistics() {
         super.printStatistics();
         final NumberFormat nf1 = NumberFormat.getPercentInstance();
@@ -1951,8 +2037,7 @@ public class DOMFile extends BTree implements Lockable {
                     //TODO : throw exception ? -pb
                     return;
                 }
-                rec.setPage(getDOMPage(nextPage));
-                dataCache.add(rec.getPage());
+                rec.setPage(getNextDOMPage(rec.getPage(), nextPage));
                 rec.offset = LENGTH_TID;
             }
             //Position the stream at the very beginning of the record
@@ -100,6 +100,10 @@ public class InsertValueLoggable extends AbstractLoggable {
         return 13 + value.length;
     }
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoInsertValue(this);
     }
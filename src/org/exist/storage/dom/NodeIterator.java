@@ -130,8 +130,7 @@ public final class NodeIterator implements Iterator<StoredNode> {
                             return null;
                         }
                         pageNum = nextPageNum;
-                        page = db.getDOMPage(nextPageNum);
-                        db.addToBuffer(page);
+                        page = db.getNextDOMPage(page, nextPageNum);
                         offset = 0;
                     }
                     //Extract the tuple ID
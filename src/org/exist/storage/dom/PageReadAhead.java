@@ -0,0 +1,155 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.dom;
+
+import org.apache.log4j.Logger;
+import org.exist.storage.btree.Paged.Page;
+import org.exist.util.hashtable.SequencedLongHashMap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefetches the data pages of a document in the background while the
+ * document is read sequentially.
+ *
+ * The pages of a document are linked through the next data page field
+ * of the page header. Every time a reader follows such a link, {@link DOMFile}
+ * reports the step to {@link #follow(long, long, long)}. If a reader has
+ * followed a chain of links for some pages, the next pages of the chain
+ * are read into the page cache of the DOMFile by a background thread, so the
+ * reader finds them in the cache instead of waiting for the disk.
+ *
+ * Enabled by setting the readAhead attribute of the db-connection element
+ * in conf.xml to the number of pages to prefetch.
+ */
+public class PageReadAhead {
+
+    private final static Logger LOG = Logger.getLogger(PageReadAhead.class);
+
+    /** number of consecutive links a reader must follow before pages are prefetched */
+    public final static int SEQUENTIAL_THRESHOLD = 2;
+
+    /** number of chains of pages being tracked */
+    private final static int MAX_TRACKED = 64;
+
+    /** maximum number of pending prefetch requests */
+    private final static int MAX_PENDING = 16;
+
+    private final DOMFile file;
+    private final int pages;
+    private final int interval;
+
+    /** last page reached by following a link, mapped to the number of links followed so far */
+    private final SequencedLongHashMap<Integer> chains = new SequencedLongHashMap<Integer>(MAX_TRACKED * 2);
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param file the file to prefetch pages for
+     * @param pages the number of pages to prefetch
+     */
+    public PageReadAhead(DOMFile file, int pages) {
+        this.file = file;
+        this.pages = pages;
+        this.interval = Math.max(1, pages / 2);
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_PENDING), new ReadAheadThreadFactory(),
+            new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Returns the number of pages prefetched ahead of a sequential reader.
+     */
+    public int getPages() {
+        return pages;
+    }
+
+    /**
+     * Called when a reader moves from one page of a document to the next.
+     * Schedules a prefetch if the reader is traversing the document
+     * sequentially.
+     *
+     * @param from the page the reader leaves
+     * @param to the page the reader moves to
+     * @param next the page following <code>to</code>
+     */
+    public void follow(long from, long to, long next) {
+        if (next == Page.NO_PAGE)
+            {return;}
+        final int followed;
+        synchronized (chains) {
+            final Integer previous = chains.remove(from);
+            followed = previous == null ? 1 : previous.intValue() + 1;
+            if (chains.size() >= MAX_TRACKED)
+                {chains.removeFirst();}
+            chains.put(to, Integer.valueOf(followed));
+        }
+        if (followed >= SEQUENTIAL_THRESHOLD && (followed - SEQUENTIAL_THRESHOLD) % interval == 0) {
+            executor.execute(new Prefetch(next));
+        }
+    }
+
+    /**
+     * Stop the background thread.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            //Nothing to do
+        }
+    }
+
+    private class Prefetch implements Runnable {
+
+        private final long start;
+
+        Prefetch(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final int read = file.prefetch(start, pages);
+                if (LOG.isTraceEnabled())
+                    {LOG.trace("Prefetched " + read + " pages starting at page " + start);}
+            } catch (final Exception e) {
+                LOG.debug("Prefetch failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class ReadAheadThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "dom-read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
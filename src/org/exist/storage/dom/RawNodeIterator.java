@@ -134,8 +134,7 @@ public class RawNodeIterator {
                         return null;
                     }
                     pageNum = nextPage;
-                    page = db.getDOMPage(nextPage);
-                    db.addToBuffer(page);
+                    page = db.getNextDOMPage(page, nextPage);
                     offset = 0;
                 }
                 //Extract the tuple id
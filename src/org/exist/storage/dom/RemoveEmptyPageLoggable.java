@@ -83,6 +83,10 @@ public class RemoveEmptyPageLoggable extends AbstractLoggable {
         return 12;
     }
     
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoRemoveEmptyPage(this);
     }
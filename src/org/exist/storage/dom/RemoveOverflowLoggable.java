@@ -81,6 +81,10 @@ public class RemoveOverflowLoggable extends AbstractLoggable {
         return 10 + oldData.length;
     }
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoRemoveOverflow(this);
     }
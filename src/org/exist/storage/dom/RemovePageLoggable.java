@@ -105,6 +105,10 @@ public class RemovePageLoggable extends AbstractLoggable {
         return 18 + oldLen;
     }
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoRemovePage(this);
     }
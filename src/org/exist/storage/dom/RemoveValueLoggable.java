@@ -103,6 +103,10 @@ public class RemoveValueLoggable extends AbstractLoggable {
         return 11 + oldData.length + (ItemId.isRelocated(tid) ? 8 : 0);
     }
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoRemoveValue(this);
     }
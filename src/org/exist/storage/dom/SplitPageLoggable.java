@@ -89,6 +89,10 @@ public class SplitPageLoggable extends AbstractLoggable implements Loggable {
         return 10 + oldLen;
     }
     
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoSplitPage(this);
     }
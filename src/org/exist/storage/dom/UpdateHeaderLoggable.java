@@ -96,6 +96,10 @@ public class UpdateHeaderLoggable extends AbstractLoggable {
         return 20;
     }
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoUpdateHeader(this);
     }
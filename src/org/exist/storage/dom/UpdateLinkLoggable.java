@@ -68,6 +68,10 @@ public class UpdateLinkLoggable extends AbstractLoggable {
         return 22;
     }
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoUpdateLink(this);
     }
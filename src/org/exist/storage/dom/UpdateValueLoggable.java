@@ -79,6 +79,10 @@ public class UpdateValueLoggable extends AbstractLoggable {
         return 10 + (value.length * 2);
     }
     
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public void redo() throws LogException {
         domDb.redoUpdateValue(this);
     }
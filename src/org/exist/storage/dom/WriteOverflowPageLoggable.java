@@ -91,6 +91,10 @@ public class WriteOverflowPageLoggable extends AbstractLoggable {
 		return 10 + value.getLength();
 	}
 
+	public byte getFileId() {
+		return NativeBroker.DOM_DBX_ID;
+	}
+
 	public void redo() throws LogException {
 		domDb.redoWriteOverflow(this);
 	}
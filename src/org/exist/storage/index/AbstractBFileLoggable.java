@@ -75,6 +75,10 @@ public abstract class AbstractBFileLoggable extends AbstractLoggable {
         return 1;
     }
     
+    public byte getFileId() {
+        return fileId;
+    }
+
     protected BFile getIndexFile() {
         return (BFile) broker.getStorage(fileId);
     }
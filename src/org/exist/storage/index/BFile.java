@@ -36,7 +36,6 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
 import org.exist.storage.io.VariableByteArrayInput;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
@@ -44,7 +43,6 @@ import org.exist.storage.journal.LogEntryTypes;
 import org.exist.storage.journal.Loggable;
 import org.exist.storage.journal.Lsn;
 import org.exist.storage.lock.Lock;
-import org.exist.storage.lock.ReentrantReadWriteLock;
 import org.exist.storage.txn.TransactionException;
 import org.exist.storage.txn.Txn;
 import org.exist.util.ByteArray;
@@ -155,11 +153,11 @@ public class BFile extends BTree {
             double cacheGrowth, double thresholdBTree, double thresholdData) throws DBException {
         super(pool, fileId, transactional, cacheManager, file, thresholdBTree);
         fileHeader = (BFileHeader) getFileHeader();
-        dataCache = new LRUCache(64, cacheGrowth, thresholdData, CacheManager.DATA_CACHE);
+        dataCache = cacheManager.createCache(64, cacheGrowth, thresholdData, CacheManager.DATA_CACHE);
         dataCache.setFileName(file.getName());
         cacheManager.registerCache(dataCache);
         minFree = PAGE_MIN_FREE;
-        lock = new ReentrantReadWriteLock(file.getName());
+        lock = pool.createFileLock(file.getName());
         maxValueSize = fileHeader.getWorkSize() / 2;
         
         if(exists()) {
@@ -405,6 +403,12 @@ public class BFile extends BTree {
         return flushed;
     }
 
+    @Override
+    public int flush(int maxPages) throws DBException {
+        final int written = super.flush(maxPages);
+        return written + dataCache.flush(maxPages - written);
+    }
+
     public BufferStats getDataBufferStats() {
         if (dataCache == null)
             {return null;}
@@ -499,6 +503,37 @@ public class BFile extends BTree {
         }
     }
 
+    /**
+     * Get the length of the value stored for the given key without
+     * reading the value data. This is a cheap way to estimate the size
+     * of a value before it is read.
+     *
+     * @param key
+     * @return the length of the value in bytes or -1 if the key was not found
+     * @throws IOException
+     */
+    public int getValueLength(Value key) throws IOException {
+        try {
+            final long p = findValue(key);
+            if (p == KEY_NOT_FOUND) {return -1;}
+            final DataPage page = getDataPage(StorageAddress.pageFromPointer(p));
+            switch (page.getPageHeader().getStatus()) {
+                case MULTI_PAGE:
+                    // only read the first page of the chain: it starts with tid and length
+                    return ByteConversion.byteToInt(page.getFirstPage().getData(), 2);
+                default:
+                    final int offset = page.findValuePosition(StorageAddress.tidFromPointer(p));
+                    if (offset < 0)
+                        {throw new IOException("no data found at tid " + StorageAddress.tidFromPointer(p) +
+                            "; page " + page.getPageNum());}
+                    return ByteConversion.byteToInt(page.getData(), offset);
+            }
+        } catch (final BTreeException e) {
+            LOG.warn("An exception occurred while trying to retrieve key " + key + ": " + e.getMessage(), e);
+        }
+        return -1;
+    }
+
     private VariableByteInput getAsStream(DataPage page, long pointer) throws IOException {
         dataCache.add(page.getFirstPage(), 2);
         final short tid = StorageAddress.tidFromPointer(pointer);
@@ -616,7 +651,7 @@ public class BFile extends BTree {
     }
 
     public boolean open() throws DBException {
-        return super.open(FILE_FORMAT_VERSION_ID);
+        return super.open(getFileVersion());
     }
 
     /**
@@ -5,7 +5,6 @@ import org.exist.storage.DefaultCacheManager;
 import org.exist.storage.btree.BTree;
 import org.exist.storage.btree.DBException;
 import org.exist.storage.lock.Lock;
-import org.exist.storage.lock.ReentrantReadWriteLock;
 
 import java.io.File;
 
@@ -17,7 +16,7 @@ public class BTreeStore extends BTree {
 
     public BTreeStore(BrokerPool pool, byte fileId, boolean transactional, File file, DefaultCacheManager cacheManager, double growthThreshold) throws DBException {
         super(pool, fileId, transactional, cacheManager, file, growthThreshold);
-        lock = new ReentrantReadWriteLock(file.getName());
+        lock = pool.createFileLock(file.getName());
 
         if(exists()) {
             open(FILE_FORMAT_VERSION_ID);
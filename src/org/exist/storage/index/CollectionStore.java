@@ -81,6 +81,13 @@ public class CollectionStore extends BFile {
         return flushed;
     }
 
+    @Override
+    public int flush(int maxPages) throws DBException {
+        if (BrokerPool.FORCE_CORRUPTION)
+            {return 0;}
+        return super.flush(maxPages);
+    }
+
     public void freeResourceId(int id) {
         final Lock lock = getLock();
         try {
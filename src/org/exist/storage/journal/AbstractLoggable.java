@@ -64,6 +64,10 @@ public abstract class AbstractLoggable implements Loggable {
         return lsn;
     }
 	
+    public byte getFileId() {
+        return NO_FILE;
+    }
+
     public void redo() throws LogException {
         // do nothing
     }
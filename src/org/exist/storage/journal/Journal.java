@@ -39,6 +39,7 @@ import org.exist.storage.BrokerPool;
 import org.exist.storage.lock.FileLock;
 import org.exist.storage.txn.Checkpoint;
 import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.TransactionManager;
 import org.exist.util.FileUtils;
 import org.exist.util.ReadOnlyException;
 import org.exist.util.sanity.SanityCheck;
@@ -53,6 +54,12 @@ import org.exist.util.sanity.SanityCheck;
  * A buffer is used to temporarily buffer journal entries. To guarantee consistency, the buffer will be flushed
  * and the journal is synched after every commit or whenever a db page is written to disk.
  * 
+ * If group commit is enabled, committing transactions do not sync the journal themselves. Instead they
+ * call {@link #waitForSync(long)} with the LSN of their commit record and block until a single
+ * file sync has covered that LSN. The first thread to arrive becomes the leader for the next sync:
+ * it waits until either a configurable number of commits have queued up or a maximum delay has passed,
+ * then flushes the buffer and forces the file for all waiting transactions.
+ * 
  * Each entry has the structure:
  * 
  * <pre>[byte: entryType, long: transactionId, short length, byte[] data, short backLink]</pre>
@@ -79,10 +86,14 @@ public class Journal {
     public final static String RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE = "sync-on-commit";
     public final static String RECOVERY_JOURNAL_DIR_ATTRIBUTE = "journal-dir";
     public final static String RECOVERY_SIZE_LIMIT_ATTRIBUTE = "size"; 
+    public final static String RECOVERY_GROUP_COMMIT_MAX_WAIT_ATTRIBUTE = "group-commit-max-wait";
+    public final static String RECOVERY_GROUP_COMMIT_MAX_BATCH_ATTRIBUTE = "group-commit-max-batch";
 
     public final static String PROPERTY_RECOVERY_SIZE_LIMIT = "db-connection.recovery.size-limit";
     public final static String PROPERTY_RECOVERY_JOURNAL_DIR = "db-connection.recovery.journal-dir";
     public final static String PROPERTY_RECOVERY_SYNC_ON_COMMIT = "db-connection.recovery.sync-on-commit";
+    public final static String PROPERTY_RECOVERY_GROUP_COMMIT_MAX_WAIT = "db-connection.recovery.group-commit-max-wait";
+    public final static String PROPERTY_RECOVERY_GROUP_COMMIT_MAX_BATCH = "db-connection.recovery.group-commit-max-batch";
 
     public final static String LOG_FILE_SUFFIX = "log";
     public final static String BAK_FILE_SUFFIX = ".bak";
@@ -98,6 +109,12 @@ public class Journal {
     /** default maximum journal size */
     public final static int DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
 
+    /** default time (in milliseconds) the leader of a group commit waits for other commits to join */
+    public final static int DEFAULT_GROUP_COMMIT_MAX_WAIT = 5;
+
+    /** default number of waiting commits which triggers a group commit sync immediately */
+    public final static int DEFAULT_GROUP_COMMIT_MAX_BATCH = 32;
+
     /** minimal size the journal needs to have to be replaced by a new file during a checkpoint */
     private static final long MIN_REPLACE = 1024 * 1024;
 
@@ -157,6 +174,26 @@ public class Journal {
 
     private File fsJournalDir;
 
+    /** maximum time the group commit leader waits before syncing */
+    @ConfigurationFieldAsAttribute("group-commit-max-wait")
+    private int groupCommitMaxWait = DEFAULT_GROUP_COMMIT_MAX_WAIT;
+
+    /** number of waiting commits which triggers a group commit sync */
+    @ConfigurationFieldAsAttribute("group-commit-max-batch")
+    private int groupCommitMaxBatch = DEFAULT_GROUP_COMMIT_MAX_BATCH;
+
+    /** monitor used to coordinate group commits */
+    private final Object groupCommitLatch = new Object();
+
+    // guarded by groupCommitLatch: LSN up to which the journal is known to be forced to disk
+    private long syncedLsn = Lsn.LSN_INVALID;
+
+    // guarded by groupCommitLatch: true while a leader is collecting commits or syncing
+    private boolean groupSyncInProgress = false;
+
+    // guarded by groupCommitLatch: number of transactions waiting for the next sync
+    private int groupCommitWaiting = 0;
+
     public Journal(BrokerPool pool, File directory) throws EXistException {
         this.dir = directory;
         this.pool = pool;
@@ -205,6 +242,13 @@ public class Journal {
         final Integer sizeOpt = (Integer) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_SIZE_LIMIT);
         if (sizeOpt != null)
             {journalSizeLimit = sizeOpt.intValue() * 1024 * 1024;}
+
+        final Integer maxWaitOpt = (Integer) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_MAX_WAIT);
+        if (maxWaitOpt != null)
+            {groupCommitMaxWait = maxWaitOpt.intValue();}
+        final Integer maxBatchOpt = (Integer) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_MAX_BATCH);
+        if (maxBatchOpt != null)
+            {groupCommitMaxBatch = maxBatchOpt.intValue();}
     }
 
     public void initialize() throws EXistException, ReadOnlyException {
@@ -258,6 +302,18 @@ public class Journal {
         return lastLsnWritten;
     }
 
+    /**
+     * Returns the LSN which will be assigned to the next entry
+     * written to the journal.
+     * 
+     * @return the next LSN or {@link Lsn#LSN_INVALID} if the journal is closed
+     */
+    public synchronized long nextLsn() {
+        if (currentBuffer == null)
+            {return Lsn.LSN_INVALID;}
+        return Lsn.create(currentFile, inFilePos + currentBuffer.position() + 1);
+    }
+
     /**
      * Flush the current buffer to disk. If fsync is true, a sync will
      * be called on the file to force all changes to disk.
@@ -291,6 +347,118 @@ public class Journal {
         }
     }
 
+    /**
+     * Returns true if commits should be forced to disk, i.e. if
+     * sync-on-commit is enabled.
+     *
+     * @return true if sync-on-commit is enabled
+     */
+    public boolean isSyncOnCommit() {
+        return syncOnCommit;
+    }
+
+    /**
+     * Group commit: block the calling thread until the journal has been forced
+     * to disk up to (at least) the given LSN. If no sync is in progress, the calling
+     * thread becomes the leader: it waits up to group-commit-max-wait milliseconds
+     * or until group-commit-max-batch transactions are waiting, then flushes the
+     * buffer and syncs the file once for all of them. The leader does not wait if
+     * no other transaction is active, i.e. none could join the group. Other threads
+     * just wait until the leader has finished and check if their LSN has been covered.
+     *
+     * Must not be called while holding the transaction manager lock, or no other
+     * commit could join the group.
+     *
+     * @param lsn the LSN of the commit record which needs to be durable
+     * @throws TransactionException if the journal could not be forced to disk up to
+     * the given LSN. Threads waiting for the same sync retry on their own.
+     */
+    public void waitForSync(long lsn) throws TransactionException {
+        if (inRecovery || lsn == Lsn.LSN_INVALID)
+            {return;}
+        synchronized (groupCommitLatch) {
+            if (lsn <= syncedLsn)
+                {return;}
+            groupCommitWaiting++;
+            groupCommitLatch.notifyAll();
+            try {
+                while (lsn > syncedLsn) {
+                    if (!groupSyncInProgress) {
+                        groupSyncInProgress = true;
+                        try {
+                            collectGroup();
+                            final long synced = syncGroup();
+                            if (synced > syncedLsn)
+                                {syncedLsn = synced;}
+                            if (lsn > syncedLsn)
+                                // the record has not been written
+                                {throw new TransactionException("Group commit could not sync journal up to " + Lsn.dump(lsn));}
+                        } finally {
+                            groupSyncInProgress = false;
+                            groupCommitLatch.notifyAll();
+                        }
+                    } else {
+                        try {
+                            groupCommitLatch.wait();
+                        } catch (final InterruptedException e) {
+                            //Nothing to do
+                        }
+                    }
+                }
+            } finally {
+                groupCommitWaiting--;
+            }
+        }
+    }
+
+    /**
+     * Called by the group commit leader: wait for other commits to join.
+     * Stops waiting as soon as there is no other active transaction, which
+     * could still commit. Committed transactions are no longer active, so
+     * this also holds for the leader's own one.
+     * Releases the monitor on groupCommitLatch while waiting.
+     */
+    private void collectGroup() {
+        final TransactionManager transact = pool.getTransactionManager();
+        final long deadline = System.currentTimeMillis() + groupCommitMaxWait;
+        long remaining = groupCommitMaxWait;
+        while (remaining > 0 && groupCommitWaiting < groupCommitMaxBatch &&
+                transact.getActiveTransactions() > 0) {
+            try {
+                groupCommitLatch.wait(remaining);
+            } catch (final InterruptedException e) {
+                //Nothing to do
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Flush the buffer and force the journal file to disk.
+     *
+     * @return the LSN of the last record covered by the sync
+     * @throws TransactionException if the journal could not be forced to disk
+     */
+    private long syncGroup() throws TransactionException {
+        final long lsn;
+        synchronized (this) {
+            flushBuffer();
+            lsn = lastLsnWritten;
+            if (lsn > lastSyncLsn)
+                {lastSyncLsn = lsn;}
+        }
+        synchronized (latch) {
+            if (channel == null || !channel.isOpen())
+                {throw new TransactionException("Journal is closed. Group commit could not sync journal.");}
+            try {
+                channel.force(false);
+            } catch (final IOException e) {
+                throw new TransactionException("Failed to sync journal during group commit: " + e.getMessage(), e);
+            }
+        }
+        return lsn;
+    }
+
     /**
      * 
      */
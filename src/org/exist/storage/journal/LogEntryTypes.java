@@ -26,6 +26,7 @@ import java.lang.reflect.Constructor;
 
 import org.exist.storage.DBBroker;
 import org.exist.storage.txn.Checkpoint;
+import org.exist.storage.txn.FuzzyCheckpoint;
 import org.exist.storage.txn.TxnAbort;
 import org.exist.storage.txn.TxnCommit;
 import org.exist.storage.txn.TxnStart;
@@ -66,6 +67,7 @@ public class LogEntryTypes {
     public final static byte TXN_COMMIT = 1;
     public final static byte CHECKPOINT = 2;
     public final static byte TXN_ABORT = 3;
+    public final static byte FUZZY_CHECKPOINT = 4;
 
     private final static Int2ObjectHashMap<LogEntry> entryTypes = new Int2ObjectHashMap<LogEntry>();
 
@@ -75,6 +77,7 @@ public class LogEntryTypes {
         addEntryType(TXN_COMMIT, TxnCommit.class);
         addEntryType(CHECKPOINT, Checkpoint.class);
         addEntryType(TXN_ABORT, TxnAbort.class);
+        addEntryType(FUZZY_CHECKPOINT, FuzzyCheckpoint.class);
     }
 
     /**
@@ -30,6 +30,12 @@ import java.nio.ByteBuffer;
  * @author wolf
  */
 public interface Loggable {
+
+    /**
+     * Returned by {@link #getFileId()} if the entry does not change a
+     * paged database file.
+     */
+    public final static byte NO_FILE = -1;
     
 	/**
 	 * Returns the type id of the log entry. This is the type registered
@@ -84,6 +90,17 @@ public interface Loggable {
      * @return size of the work load of this entry.
      */
     public int getLogSize();
+
+    /**
+     * Returns the id of the database file changed by this entry, as
+     * passed to {@link org.exist.storage.NativeBroker#getStorage(byte)}, or
+     * {@link #NO_FILE} for transaction records and changes outside the
+     * paged files. Entries of different files are independent of each
+     * other, so recovery may redo them concurrently.
+     *
+     * @return file id or {@link #NO_FILE}
+     */
+    public byte getFileId();
 	
     /**
      * Redo the underlying operation. This method is
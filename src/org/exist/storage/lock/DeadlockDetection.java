@@ -160,7 +160,7 @@ public class DeadlockDetection {
             }
             final Lock l = waitForCollection.get(owner);
             if (l != null) {
-                final Thread t = ((ReentrantReadWriteLock) l).getOwner();
+                final Thread t = getOwner(l);
                 if (t == owner) {
                     return false;
                 }
@@ -174,6 +174,15 @@ public class DeadlockDetection {
         }
     }
 
+    /**
+     * Returns the owner of an exclusive (collection or file) lock.
+     */
+    private static Thread getOwner(Lock lock) {
+        if (lock instanceof QueuedReentrantLock)
+            {return ((QueuedReentrantLock) lock).getOwner();}
+        return ((ReentrantReadWriteLock) lock).getOwner();
+    }
+
     /**
      * Register a thread as waiting for a resource lock.
      *
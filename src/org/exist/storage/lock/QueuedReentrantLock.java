@@ -0,0 +1,371 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.lock;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+import org.apache.log4j.Logger;
+import org.exist.util.LockException;
+
+/**
+ * A reentrant lock with the same semantics as {@link ReentrantReadWriteLock}, but
+ * built on {@link AbstractQueuedSynchronizer} instead of a Java monitor: an uncontended
+ * acquire or release is a single CAS, waiting threads are queued in FIFO order and parked
+ * instead of polling with wait/notify.
+ *
+ * Like {@link ReentrantReadWriteLock}, read and write locks are both exclusive: the
+ * data structures of the database files protected by this lock (caches, page buffers)
+ * are not safe for concurrent readers. Deadlock resolution is kept as well: if the thread
+ * owning the lock is itself waiting for a resource lock held by the thread requesting
+ * this lock, the owner is suspended and the requesting thread temporarily "borrows" the lock.
+ * Once it has released all its holds, the suspended owner is resumed.
+ *
+ * Selected for a database file via the <code>file-locks</code> element in conf.xml.
+ */
+public class QueuedReentrantLock implements Lock {
+
+    private final static Logger LOG = Logger.getLogger(QueuedReentrantLock.class);
+
+    /** the time in milliseconds a waiting thread sleeps before rerunning deadlock detection */
+    private static final long WAIT_CHECK_PERIOD = 200;
+
+    private final Object id;
+
+    private final Sync sync = new Sync();
+
+    /** stack of lock modes held by the current holder. Only modified by the holder. */
+    private int[] modeStack = new int[4];
+    private int modeStackSize = 0;
+
+    private volatile int mode = Lock.NO_LOCK;
+    private volatile int writeLocks = 0;
+
+    /** Threads which borrowed the lock from a suspended owner. Guarded by this. */
+    private final List<Borrower> borrowers = new ArrayList<Borrower>(2);
+    private volatile boolean borrowed = false;
+
+    public QueuedReentrantLock(Object id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getId() {
+        return id.toString();
+    }
+
+    /* @deprecated Use other method
+     * @see org.exist.storage.lock.Lock#acquire()
+     */
+    @Override
+    public boolean acquire() throws LockException {
+        return acquire(Lock.READ_LOCK);
+    }
+
+    @Override
+    public boolean acquire(int mode) throws LockException {
+        if (mode == Lock.NO_LOCK) {
+            LOG.warn("acquired with no lock !");
+            return true;
+        }
+        if (Thread.interrupted())
+            {throw new LockException();}
+        final Thread caller = Thread.currentThread();
+        if (borrowed && reenterBorrowed(caller, mode))
+            {return true;}
+        if (sync.tryAcquire(1)) {
+            pushMode(mode);
+            return true;
+        }
+        if (tryBorrow(caller, mode))
+            {return true;}
+        DeadlockDetection.addCollectionWaiter(caller, this);
+        try {
+            for (;;) {
+                if (sync.tryAcquireNanos(1, TimeUnit.MILLISECONDS.toNanos(WAIT_CHECK_PERIOD))) {
+                    pushMode(mode);
+                    return true;
+                }
+                if (tryBorrow(caller, mode))
+                    {return true;}
+            }
+        } catch (final InterruptedException e) {
+            throw new LockException("Interrupted while waiting for lock");
+        } finally {
+            DeadlockDetection.clearCollectionWaiter(caller);
+        }
+    }
+
+    @Override
+    public boolean attempt(int mode) {
+        final Thread caller = Thread.currentThread();
+        if (borrowed && reenterBorrowed(caller, mode))
+            {return true;}
+        if (sync.tryAcquire(1)) {
+            pushMode(mode);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void release(int mode) {
+        final Thread caller = Thread.currentThread();
+        if (borrowed && releaseBorrowed(caller, mode))
+            {return;}
+        if (!sync.isHeldExclusively()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.warn("Possible lock problem: thread " + caller +
+                    " Released a lock on " + getId() + " it didn't hold." +
+                    " Either the thread was interrupted or it never acquired the lock." +
+                    " The lock was owned by: " + sync.getOwner());
+            }
+            return;
+        }
+        popMode(mode);
+        sync.release(1);
+    }
+
+    @Override
+    public void release(int mode, int count) {
+        throw new UnsupportedOperationException(getClass().getName() +
+                " does not support releasing multiple locks");
+    }
+
+    @Override
+    public boolean isLockedForWrite() {
+        return writeLocks > 0;
+    }
+
+    @Override
+    public boolean isLockedForRead(Thread owner) {
+        // always returns false for this lock
+        return false;
+    }
+
+    @Override
+    public boolean hasLock() {
+        return borrowed || sync.isLocked();
+    }
+
+    @Override
+    public boolean hasLock(Thread owner) {
+        return getOwner() == owner;
+    }
+
+    /**
+     * Returns the thread currently holding the lock, which is either the owner or,
+     * if the owner has been suspended, the thread which borrowed the lock.
+     *
+     * @return the thread holding the lock or null
+     */
+    public Thread getOwner() {
+        if (borrowed) {
+            synchronized (this) {
+                if (!borrowers.isEmpty())
+                    {return borrowers.get(borrowers.size() - 1).thread;}
+            }
+        }
+        return sync.getOwner();
+    }
+
+    /**
+     * Return the number of unreleased acquires performed
+     * by the current thread.
+     * Returns zero if current thread does not hold lock.
+     **/
+    public long holds() {
+        final Thread caller = Thread.currentThread();
+        if (borrowed) {
+            synchronized (this) {
+                final Borrower top = topBorrower();
+                if (top != null && top.thread == caller)
+                    {return top.holds;}
+            }
+        }
+        return sync.isHeldExclusively() ? sync.getHolds() : 0;
+    }
+
+    @Override
+    public void wakeUp() {
+        // waiting threads recheck for deadlocks periodically: nothing to do
+    }
+
+    @Override
+    public LockInfo getLockInfo() {
+        final String lockType = mode == Lock.WRITE_LOCK ? LockInfo.WRITE_LOCK : LockInfo.READ_LOCK;
+        final Thread owner = getOwner();
+        final LockInfo info = new LockInfo(LockInfo.COLLECTION_LOCK, lockType, getId(),
+            new String[] { owner == null ? "" : owner.getName() });
+        final Collection<Thread> queued = sync.getQueuedThreads();
+        final String[] waiting = new String[queued.size()];
+        int i = 0;
+        for (final Thread thread : queued) {
+            if (i < waiting.length)
+                {waiting[i++] = thread.getName();}
+        }
+        info.setWaitingForWrite(waiting);
+        return info;
+    }
+
+    @Override
+    public void debug(PrintStream out) {
+        getLockInfo().debug(out);
+    }
+
+    /**
+     * Check if the current owner is waiting for a resource lock held by the caller.
+     * If yes, suspend the owner and let the caller borrow the lock.
+     */
+    private synchronized boolean tryBorrow(Thread caller, int mode) {
+        final Thread owner = getOwner();
+        if (owner == null || owner == caller)
+            {return false;}
+        final WaitingThread waitingOnResource = DeadlockDetection.deadlockCheckResource(caller, owner);
+        if (waitingOnResource == null)
+            {return false;}
+        waitingOnResource.suspendWaiting();
+        borrowers.add(new Borrower(caller, waitingOnResource));
+        borrowed = true;
+        pushMode(mode);
+        return true;
+    }
+
+    private synchronized boolean reenterBorrowed(Thread caller, int mode) {
+        final Borrower top = topBorrower();
+        if (top == null || top.thread != caller)
+            {return false;}
+        top.holds++;
+        pushMode(mode);
+        return true;
+    }
+
+    private synchronized boolean releaseBorrowed(Thread caller, int mode) {
+        final Borrower top = topBorrower();
+        if (top == null || top.thread != caller)
+            {return false;}
+        popMode(mode);
+        if (--top.holds == 0) {
+            borrowers.remove(borrowers.size() - 1);
+            borrowed = !borrowers.isEmpty();
+            top.listener.lockReleased();
+        }
+        return true;
+    }
+
+    private Borrower topBorrower() {
+        return borrowers.isEmpty() ? null : borrowers.get(borrowers.size() - 1);
+    }
+
+    private void pushMode(int mode) {
+        if (modeStackSize == modeStack.length) {
+            final int[] newStack = new int[modeStack.length * 2];
+            System.arraycopy(modeStack, 0, newStack, 0, modeStackSize);
+            modeStack = newStack;
+        }
+        modeStack[modeStackSize++] = mode;
+        if (mode == Lock.WRITE_LOCK)
+            {writeLocks++;}
+        this.mode = mode;
+    }
+
+    private void popMode(int mode) {
+        if (modeStackSize == 0)
+            {return;}
+        final int top = modeStack[--modeStackSize];
+        if (top != mode) {
+            LOG.warn("Released lock of different type. Expected " + top +
+                " got " + mode, new Throwable());
+        }
+        if (top == Lock.WRITE_LOCK)
+            {writeLocks--;}
+        this.mode = modeStackSize == 0 ? Lock.NO_LOCK : modeStack[modeStackSize - 1];
+    }
+
+    private final static class Borrower {
+        final Thread thread;
+        final LockListener listener;
+        int holds = 1;
+
+        Borrower(Thread thread, LockListener listener) {
+            this.thread = thread;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Synchronizer: the state counts the holds of the owning thread.
+     */
+    private final static class Sync extends AbstractQueuedSynchronizer {
+
+        private static final long serialVersionUID = -1374283440307396476L;
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            final Thread current = Thread.currentThread();
+            final int c = getState();
+            if (c == 0) {
+                if (compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    return true;
+                }
+            } else if (current == getExclusiveOwnerThread()) {
+                setState(c + acquires);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int releases) {
+            if (Thread.currentThread() != getExclusiveOwnerThread())
+                {throw new IllegalMonitorStateException();}
+            final int c = getState() - releases;
+            final boolean free = c == 0;
+            if (free)
+                {setExclusiveOwnerThread(null);}
+            setState(c);
+            return free;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        boolean isLocked() {
+            return getState() != 0;
+        }
+
+        int getHolds() {
+            return getState();
+        }
+
+        Thread getOwner() {
+            return getState() == 0 ? null : getExclusiveOwnerThread();
+        }
+    }
+}
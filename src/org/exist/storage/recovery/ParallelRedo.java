@@ -0,0 +1,210 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.recovery;
+
+import org.apache.log4j.Logger;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.journal.Loggable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redoes journal entries in several threads during recovery.
+ *
+ * Entries are partitioned by the database file they change (see
+ * {@link Loggable#getFileId()}). All entries of a file are passed to the same
+ * worker thread and are redone in the order they were read from the journal,
+ * so the changes to every page are applied in LSN order. Different files
+ * share no pages, caches or file headers, so their entries can be redone
+ * concurrently. Entries which do not change a paged file, i.e. transaction
+ * records and binary resources, are redone by the thread reading the journal.
+ *
+ * A file is never split between threads: the pages of a file share its page
+ * cache, free list and file header, which are not safe for concurrent use
+ * without the locks normal operation acquires.
+ */
+class ParallelRedo {
+
+    private final static Logger LOG = Logger.getLogger(ParallelRedo.class);
+
+    /** maximum number of entries queued for a worker */
+    private final static int QUEUE_SIZE = 4096;
+
+    /** time in milliseconds to wait for a full or empty queue before checking for errors */
+    private final static long POLL_TIMEOUT = 100;
+
+    private final Worker[] workers;
+    private final Map<Byte, Worker> partitions = new HashMap<Byte, Worker>();
+    private int nextWorker = 0;
+
+    private volatile boolean closed = false;
+    private volatile Throwable error = null;
+    private volatile Loggable failedEntry = null;
+
+    /**
+     * @param threads the maximum number of worker threads
+     */
+    ParallelRedo(int threads) {
+        workers = new Worker[threads];
+    }
+
+    /**
+     * Redo the entry in the worker thread of its file. Blocks if the
+     * worker has too many entries queued.
+     *
+     * @throws LogException if a worker failed to redo an entry
+     */
+    void redo(Loggable entry) throws LogException {
+        checkError();
+        final byte fileId = entry.getFileId();
+        if (fileId == Loggable.NO_FILE) {
+            entry.redo();
+            return;
+        }
+        Worker worker = partitions.get(Byte.valueOf(fileId));
+        if (worker == null) {
+            // files are assigned to the workers in the order they appear in the journal
+            final int index = nextWorker++ % workers.length;
+            worker = workers[index];
+            if (worker == null) {
+                worker = new Worker(index);
+                workers[index] = worker;
+                worker.start();
+            }
+            partitions.put(Byte.valueOf(fileId), worker);
+        }
+        try {
+            while (!worker.queue.offer(entry, POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                checkError();
+            }
+        } catch (final InterruptedException e) {
+            throw new LogException("Interrupted while waiting for redo threads");
+        }
+    }
+
+    /**
+     * Returns the number of entries waiting to be redone.
+     */
+    int getPending() {
+        int pending = 0;
+        for (final Worker worker : workers) {
+            if (worker != null)
+                {pending += worker.queue.size();}
+        }
+        return pending;
+    }
+
+    /**
+     * Wait until all entries have been redone and stop the worker threads.
+     *
+     * @throws LogException if a worker failed to redo an entry
+     */
+    void finish() throws LogException {
+        closed = true;
+        for (final Worker worker : workers) {
+            if (worker == null)
+                {continue;}
+            try {
+                worker.join();
+            } catch (final InterruptedException e) {
+                throw new LogException("Interrupted while waiting for redo threads");
+            }
+        }
+        checkError();
+    }
+
+    /**
+     * Stop the worker threads without waiting for queued entries.
+     */
+    void abort() {
+        closed = true;
+        for (final Worker worker : workers) {
+            if (worker != null) {
+                worker.queue.clear();
+                worker.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the entry which caused a worker to fail or null.
+     */
+    Loggable getFailedEntry() {
+        return failedEntry;
+    }
+
+    private void checkError() throws LogException {
+        if (error != null)
+            {throw new LogException("Redo failed: " + error.getMessage(), error);}
+    }
+
+    private synchronized void failed(Throwable e, Loggable entry) {
+        if (error == null) {
+            failedEntry = entry;
+            error = e;
+        }
+    }
+
+    private class Worker extends Thread {
+
+        private final BlockingQueue<Loggable> queue = new ArrayBlockingQueue<Loggable>(QUEUE_SIZE);
+
+        Worker(int index) {
+            super("recovery-redo-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final List<Loggable> batch = new ArrayList<Loggable>();
+            try {
+                while (error == null) {
+                    final Loggable next = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        if (closed && queue.isEmpty())
+                            {break;}
+                        continue;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch);
+                    for (final Loggable entry : batch) {
+                        try {
+                            entry.redo();
+                        } catch (final Throwable e) {
+                            failed(e, entry);
+                            return;
+                        }
+                    }
+                    batch.clear();
+                }
+            } catch (final InterruptedException e) {
+                LOG.debug("Redo thread " + getName() + " interrupted");
+            }
+        }
+    }
+}
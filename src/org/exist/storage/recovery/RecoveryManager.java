@@ -34,6 +34,8 @@ import org.exist.storage.journal.Loggable;
 import org.exist.storage.journal.Lsn;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.txn.Checkpoint;
+import org.exist.storage.txn.FuzzyCheckpoint;
+import org.exist.storage.txn.TxnStart;
 import org.exist.util.ProgressBar;
 import org.exist.util.hashtable.Long2ObjectHashMap;
 import org.exist.util.sanity.SanityCheck;
@@ -56,12 +58,23 @@ public class RecoveryManager {
 	private Journal logManager;
 	private DBBroker broker;
     private boolean restartOnError;
+    private int redoThreads;
 
 	public RecoveryManager(DBBroker broker, Journal log, boolean restartOnError) {
+        this(broker, log, restartOnError, 1);
+	}
+
+    /**
+     * @param redoThreads number of threads redoing the journal. If larger
+     *  than 1, the entries of different database files are redone
+     *  concurrently, see {@link ParallelRedo}.
+     */
+    public RecoveryManager(DBBroker broker, Journal log, boolean restartOnError, int redoThreads) {
         this.broker = broker;
-		this.logManager = log;
+        this.logManager = log;
         this.restartOnError = restartOnError;
-	}
+        this.redoThreads = redoThreads;
+    }
 	
 	/**
 	 * Checks if the database is in a consistent state. If not, start a recovery run.
@@ -110,6 +123,7 @@ public class RecoveryManager {
     				reader.position(1);
     				final Long2ObjectHashMap<Loggable> txnsStarted = new Long2ObjectHashMap<Loggable>();
 	    			Checkpoint lastCheckpoint = null;
+	    			FuzzyCheckpoint lastFuzzyCheckpoint = null;
 	    			long lastLsn = Lsn.LSN_INVALID;
 	                Loggable next;
 	                try {
@@ -126,6 +140,10 @@ public class RecoveryManager {
 				            } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
 				            	txnsStarted.clear();
 	        					lastCheckpoint = (Checkpoint) next;
+	        					lastFuzzyCheckpoint = null;
+				            } else if (next.getLogType() == LogEntryTypes.FUZZY_CHECKPOINT) {
+				            	// transactions may still be running: keep the transactions table
+				            	lastFuzzyCheckpoint = (FuzzyCheckpoint) next;
 				            }
 	        				lastLsn = next.getLsn();
 	        			}
@@ -142,7 +160,15 @@ public class RecoveryManager {
 	    					txnsStarted.size() > 0) {
 	    				LOG.info("Dirty transactions: " + txnsStarted.size());
 	    				// starting recovery: reposition the log reader to the last checkpoint
-						if (lastCheckpoint == null)
+						// or, if all pages changed before a later fuzzy checkpoint have been written,
+						// to the LSN recorded by the fuzzy checkpoint
+						long[] checkpointTxns = null;
+						if (lastFuzzyCheckpoint != null && isValidRedoLsn(lastFuzzyCheckpoint, lastCheckpoint, lastNum)) {
+						    LOG.info("Redo starts at fuzzy checkpoint of " + lastFuzzyCheckpoint.getDateString() +
+						        ": " + Lsn.dump(lastFuzzyCheckpoint.getRedoLsn()));
+						    reader.position(lastFuzzyCheckpoint.getRedoLsn());
+						    checkpointTxns = lastFuzzyCheckpoint.getTransactions();
+						} else if (lastCheckpoint == null)
 						    {reader.position(1);}
 						else {
 						    reader.position(lastCheckpoint.getLsn());
@@ -152,7 +178,7 @@ public class RecoveryManager {
                         try {
                             LOG.info("Running recovery...");
                             broker.getBrokerPool().reportStatus("Running recovery...");
-                            doRecovery(txnsStarted.size(), last, reader, lastLsn);
+                            doRecovery(txnsStarted.size(), last, reader, lastLsn, checkpointTxns);
                         } catch (final LogException e) {
                             // if restartOnError == true, we try to bring up the database even if there
                             // are errors. Otherwise, an exception is thrown, which will stop the db initialization
@@ -186,14 +212,29 @@ public class RecoveryManager {
         return recoveryRun;
 	}
 
+    /**
+     * Check if the redo LSN of a fuzzy checkpoint points to an entry
+     * in the journal file being recovered, which follows the last regular
+     * checkpoint.
+     */
+    private boolean isValidRedoLsn(FuzzyCheckpoint checkpoint, Checkpoint lastCheckpoint, int fileNumber) {
+        final long redoLsn = checkpoint.getRedoLsn();
+        return redoLsn != Lsn.LSN_INVALID && Lsn.getFileNumber(redoLsn) == fileNumber &&
+            redoLsn <= checkpoint.getLsn() &&
+            (lastCheckpoint == null || redoLsn > lastCheckpoint.getLsn());
+    }
+
     /**
      * Called by {@link #recover()} to do the actual recovery.
      * 
      * @param reader
      * @param lastLsn
+     * @param checkpointTxns transactions which were running at the fuzzy checkpoint
+     *  redo starts from or null
      * @throws LogException
      */
-    private void doRecovery(int txnCount, File last, JournalReader reader, long lastLsn) throws LogException {
+    private void doRecovery(int txnCount, File last, JournalReader reader, long lastLsn,
+            long[] checkpointTxns) throws LogException {
         if (LOG.isInfoEnabled())
             {LOG.info("Running recovery ...");}
         logManager.setInRecovery(true);
@@ -201,13 +242,23 @@ public class RecoveryManager {
         try {
             // map to track running transactions
             final Long2ObjectHashMap<Loggable> runningTxns = new Long2ObjectHashMap<Loggable>();
+            if (checkpointTxns != null) {
+                // transactions started before the fuzzy checkpoint: they
+                // have to be undone if they did not commit
+                for (int i = 0; i < checkpointTxns.length; i++) {
+                    runningTxns.put(checkpointTxns[i], new TxnStart(checkpointTxns[i]));
+                }
+            }
 
             // ------- REDO ---------
             if (LOG.isInfoEnabled())
-                {LOG.info("First pass: redoing " + txnCount + " transactions...");}
+                {LOG.info("First pass: redoing " + txnCount + " transactions" +
+                    (redoThreads > 1 ? " in " + redoThreads + " threads..." : "..."));}
             final ProgressBar progress = new ProgressBar("Redo ", last.length());
+            final ParallelRedo parallel = redoThreads > 1 ? new ParallelRedo(redoThreads) : null;
             Loggable next = null;
             int redoCnt = 0;
+            int reported = 0;
             try {
                 while ((next = reader.nextEntry()) != null) {
                     SanityCheck.ASSERT(next.getLogType() != LogEntryTypes.CHECKPOINT,
@@ -225,14 +276,35 @@ public class RecoveryManager {
                     }
         //            LOG.debug("Redo: " + next.dump());
                     // redo the log entry
-                    next.redo();
+                    if (parallel == null)
+                        {next.redo();}
+                    else
+                        {parallel.redo(next);}
                     progress.set(Lsn.getOffset(next.getLsn()));
+                    final int percent = (int) (Lsn.getOffset(next.getLsn()) * 100 / Math.max(1, last.length()));
+                    if (percent >= reported + 10) {
+                        reported = percent - percent % 10;
+                        broker.getBrokerPool().reportStatus("Running recovery: redo " + reported + "%");
+                    }
                     if (next.getLsn() == lastLsn)
                         {break;} // last readable entry reached. Stop here.
                 }
+                if (parallel != null) {
+                    final int pending = parallel.getPending();
+                    if (pending > 0) {
+                        LOG.info("Journal read. Waiting for redo threads to process " + pending + " entries...");
+                        broker.getBrokerPool().reportStatus("Running recovery: waiting for redo threads");
+                    }
+                    parallel.finish();
+                }
             } catch (final Exception e) {
                 LOG.error("Exception caught while redoing transactions. Aborting recovery to avoid possible damage. " +
                     "Before starting again, make sure to run a check via the emergency export tool.", e);
+                if (parallel != null) {
+                    parallel.abort();
+                    if (parallel.getFailedEntry() != null)
+                        {next = parallel.getFailedEntry();}
+                }
                 if (next != null)
                     {LOG.info("Log entry that caused the exception: " + next.dump());}
                 throw new LogException("Recovery aborted. ");
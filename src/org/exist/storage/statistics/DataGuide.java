@@ -89,6 +89,24 @@ public class DataGuide {
         return temp.getMaxDepth();
     }
 
+    /**
+     * Returns the number of elements with the given name, summed over
+     * all paths in which the name occurs.
+     */
+    public int getNodeCount(QName qname) {
+        return getChildCount(null, qname);
+    }
+
+    /**
+     * Returns the number of elements with the given name whose parent
+     * element is named <code>parentName</code>.
+     */
+    public int getChildCount(QName parentName, QName qname) {
+        final NodeStats temp = new NodeStats(qname);
+        root.getNodeCount(parentName, qname, temp);
+        return temp.getNodeCount();
+    }
+
     public String toString() {
         final List<StringBuilder> paths = new ArrayList<StringBuilder>();
         root.dump(new StringBuilder(), paths);
@@ -51,6 +51,22 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
         return dataGuide.getMaxParentDepth(qname);
     }
 
+    /**
+     * Returns the number of elements with the given name stored in the
+     * database, as far as recorded by the statistics.
+     */
+    public int getNodeCount(QName qname) {
+        return dataGuide.getNodeCount(qname);
+    }
+
+    /**
+     * Returns the number of elements with the given name which are children
+     * of an element named <code>parentName</code>.
+     */
+    public int getChildCount(QName parentName, QName qname) {
+        return dataGuide.getChildCount(parentName, qname);
+    }
+
     protected void mergeStats(DataGuide other) {
         dataGuide = other.mergeInto(dataGuide);
     }
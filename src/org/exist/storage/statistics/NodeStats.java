@@ -118,6 +118,31 @@ class NodeStats {
         }
     }
 
+    /**
+     * Add the number of elements named <code>name</code> in this subtree to
+     * the count of <code>total</code>. If <code>parentName</code> is not null,
+     * only elements whose parent has that name are counted.
+     */
+    protected void getNodeCount(QName parentName, QName name, NodeStats total) {
+        if (qname != null && qname.equalsSimple(name)) {
+            if (parentName == null ||
+                    (parent != null && parent.qname != null && parent.qname.equalsSimple(parentName)))
+                {total.nodeCount += nodeCount;}
+        }
+        // the statistics may be updated concurrently
+        final NodeStats[] current = children;
+        if (current != null) {
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] != null)
+                    {current[i].getNodeCount(parentName, name, total);}
+            }
+        }
+    }
+
+    protected int getNodeCount() {
+        return nodeCount;
+    }
+
     protected void write(ByteBuffer buffer, SymbolTable symbols) {
         buffer.putShort(symbols.getNSSymbol(qname.getNamespaceURI()));
         buffer.putShort(symbols.getSymbol(qname.getLocalName()));
@@ -8,18 +8,24 @@ import org.apache.log4j.Logger;
 import org.exist.backup.RawDataBackup;
 import org.exist.dom.SymbolTable;
 import org.exist.indexing.AbstractIndex;
+import org.exist.indexing.BulkLoadSupport;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
+import org.exist.storage.btree.BTreeCallback;
+import org.exist.storage.btree.BTreeException;
 import org.exist.storage.btree.DBException;
+import org.exist.storage.btree.SortedRunBuffer;
+import org.exist.storage.btree.Value;
 import org.exist.storage.index.BTreeStore;
 import org.exist.storage.lock.Lock;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.LockException;
+import org.exist.xquery.TerminatedException;
 import org.w3c.dom.Element;
 
-public class NativeStructuralIndex extends AbstractIndex implements RawBackupSupport {
+public class NativeStructuralIndex extends AbstractIndex implements RawBackupSupport, BulkLoadSupport {
 
     protected static final Logger LOG = Logger.getLogger(NativeStructuralIndex.class);
 
@@ -34,9 +40,15 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
 
     public static final byte STRUCTURAL_INDEX_ID = 1;
 
+    /** fill factor of the pages written by a bulk load */
+    public static final double BULK_LOAD_FILL_FACTOR = 0.9;
+
     /** The datastore for this node index */
     protected BTreeStore btree;
 
+    /** collects the new entries during a bulk load, null otherwise. Guarded by the btree lock. */
+    protected SortedRunBuffer bulkBuffer = null;
+
     protected SymbolTable symbols;
 
     public NativeStructuralIndex() {
@@ -108,4 +120,66 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
         btree.backupToStream(os);
         backup.closeEntry();
 	}
+
+    @Override
+    public void startBulkLoad(long memory) throws DBException {
+        final Lock lock = btree.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            if (bulkBuffer != null)
+                {throw new DBException("Bulk load of " + FILE_NAME + " already started");}
+            bulkBuffer = new SortedRunBuffer(memory);
+        } catch (final LockException e) {
+            throw new DBException("Failed to acquire lock for '" + btree.getFile().getName() + "'");
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+        }
+    }
+
+    @Override
+    public void finishBulkLoad() throws DBException {
+        final Lock lock = btree.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            if (bulkBuffer == null)
+                {return;}
+            final SortedRunBuffer buffer = bulkBuffer;
+            final IOException[] error = new IOException[1];
+            // copy the existing entries, the tree is rebuilt from scratch
+            btree.query(null, new BTreeCallback() {
+                @Override
+                public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+                    try {
+                        buffer.add(value, pointer);
+                        return true;
+                    } catch (final IOException e) {
+                        error[0] = e;
+                        return false;
+                    }
+                }
+            });
+            if (error[0] != null)
+                {throw error[0];}
+            LOG.info("Building " + FILE_NAME + " from " + buffer.getCount() + " entries in " +
+                buffer.getRuns() + " sorted runs");
+            btree.bulkLoad(buffer, BULK_LOAD_FILL_FACTOR);
+            btree.flush();
+        } catch (final LockException e) {
+            throw new DBException("Failed to acquire lock for '" + btree.getFile().getName() + "'");
+        } catch (final IOException e) {
+            LOG.error(e.getMessage(), e);
+            throw new DBException("Bulk load of " + FILE_NAME + " failed: " + e.getMessage());
+        } catch (final BTreeException e) {
+            LOG.error(e.getMessage(), e);
+            throw new DBException("Bulk load of " + FILE_NAME + " failed: " + e.getMessage());
+        } catch (final TerminatedException e) {
+            throw new DBException("Bulk load of " + FILE_NAME + " was terminated");
+        } finally {
+            if (bulkBuffer != null) {
+                bulkBuffer.close();
+                bulkBuffer = null;
+            }
+            lock.release(Lock.WRITE_LOCK);
+        }
+    }
 }
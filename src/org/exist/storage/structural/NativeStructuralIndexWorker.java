@@ -8,6 +8,7 @@ import org.exist.storage.*;
 import org.exist.storage.btree.BTree;
 import org.exist.storage.btree.BTreeCallback;
 import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.SortedRunBuffer;
 import org.exist.storage.btree.Value;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.txn.Txn;
@@ -21,6 +22,10 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.exist.security.PermissionDeniedException;
 
 /**
@@ -66,9 +71,77 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     }
 
     public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector, Expression parent) {
-        final Lock lock = index.btree.getLock();
         final NewArrayNodeSet result = new NewArrayNodeSet(docs.getDocumentCount(), 256);
         final FindElementsCallback callback = new FindElementsCallback(type, result, docs, selector, parent);
+        scanDocuments(type, docs, qname, callback);
+        return result;
+    }
+
+    /**
+     * Parallel version of {@link #findElementsByTagName(byte, DocumentSet, QName, NodeSelector, Expression)}.
+     * The index is scanned by the calling thread. The nodes found are then grouped by document and
+     * passed to the selector by up to parallelism threads of the executor returned by
+     * {@link BrokerPool#getQueryExecutor()}, which is shared by all queries. Falls back to a sequential
+     * scan if no executor is configured or if a partition fails, so partial results are never returned.
+     *
+     * The selector has to be safe for concurrent use, i.e. it must not modify its context set.
+     */
+    public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector,
+            Expression parent, int parallelism) {
+        final ExecutorService executor = index.getBrokerPool().getQueryExecutor();
+        if (selector == null || executor == null || parallelism < 2 || docs.getDocumentCount() < 2)
+            {return findElementsByTagName(type, docs, qname, selector, parent);}
+        // collect the index entries first: the lock of the btree is exclusive,
+        // so only the selector can run in parallel
+        final CollectEntriesCallback callback = new CollectEntriesCallback(docs, parent);
+        scanDocuments(type, docs, qname, callback);
+        final List<DocumentEntries> entries = callback.entries;
+        if (callback.count == 0)
+            {return NodeSet.EMPTY_SET;}
+
+        // split the documents into partitions with about the same number of nodes
+        final List<SelectTask> tasks = new ArrayList<SelectTask>(parallelism);
+        final int partitionSize = callback.count / parallelism + 1;
+        int start = 0;
+        int size = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            size += entries.get(i).size;
+            if (size >= partitionSize || i == entries.size() - 1) {
+                tasks.add(new SelectTask(type, entries.subList(start, i + 1), selector));
+                start = i + 1;
+                size = 0;
+            }
+        }
+        final NewArrayNodeSet result = new NewArrayNodeSet(docs.getDocumentCount(), 256);
+        try {
+            // documents are ordered by id within and across partitions, so
+            // adding the partial results in order keeps document order
+            for (final Future<NodeSet> future : executor.invokeAll(tasks)) {
+                result.addAll(future.get());
+            }
+            return result;
+        } catch (final InterruptedException e) {
+            // the result is incomplete: invokeAll has cancelled the remaining partitions
+            NativeStructuralIndex.LOG.warn("Interrupted while searching structural index in parallel. " +
+                "Falling back to a sequential scan.", e);
+            try {
+                return findElementsByTagName(type, docs, qname, selector, parent);
+            } finally {
+                Thread.currentThread().interrupt();
+            }
+        } catch (final ExecutionException e) {
+            NativeStructuralIndex.LOG.warn("Error while searching structural index in parallel: " +
+                e.getCause().getMessage() + ". Falling back to a sequential scan.", e.getCause());
+            return findElementsByTagName(type, docs, qname, selector, parent);
+        }
+    }
+
+    /**
+     * Scan the index for all nodes with the given name in the documents. The document set is
+     * split into ranges of consecutive document ids and the index is queried once per range.
+     */
+    private void scanDocuments(byte type, DocumentSet docs, QName qname, BTreeCallback callback) {
+        final Lock lock = index.btree.getLock();
         // scan the document set to find document id ranges to query
         final List<Range> ranges = new ArrayList<Range>();
         Range next = null;
@@ -104,7 +177,6 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 lock.release(Lock.READ_LOCK);
             }
         }
-        return result;
     }
 
     /**
@@ -291,6 +363,94 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         }
     }
 
+    /**
+     * The index entries found for one document by {@link CollectEntriesCallback}.
+     */
+    private static class DocumentEntries {
+        final DocumentImpl doc;
+        NodeId[] nodeIds = new NodeId[16];
+        long[] pointers = new long[16];
+        int size = 0;
+
+        DocumentEntries(DocumentImpl doc) {
+            this.doc = doc;
+        }
+
+        void add(NodeId nodeId, long pointer) {
+            if (size == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, size * 2);
+                pointers = Arrays.copyOf(pointers, size * 2);
+            }
+            nodeIds[size] = nodeId;
+            pointers[size++] = pointer;
+        }
+    }
+
+    /**
+     * Collects the index entries found by a scan, grouped by document.
+     */
+    private class CollectEntriesCallback implements BTreeCallback {
+        final DocumentSet docs;
+        final Expression parent;
+        final List<DocumentEntries> entries = new ArrayList<DocumentEntries>();
+        DocumentEntries current = null;
+        int count = 0;
+
+        CollectEntriesCallback(DocumentSet docs, Expression parent) {
+            this.docs = docs;
+            this.parent = parent;
+        }
+
+        public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+            if (parent != null) {
+                parent.getContext().proceed(parent);
+            }
+            final byte[] key = value.getData();
+            final int docId = readDocId(key);
+            if (current == null || current.doc.getDocId() != docId) {
+                final DocumentImpl doc = docs.getDoc(docId);
+                if (doc == null)
+                    {return true;}
+                current = new DocumentEntries(doc);
+                entries.add(current);
+            }
+            current.add(readNodeId(key, pointer), pointer);
+            count++;
+            return true;
+        }
+    }
+
+    /**
+     * Passes the index entries of a partition of the documents to a selector.
+     */
+    private static class SelectTask implements Callable<NodeSet> {
+        final byte type;
+        final List<DocumentEntries> entries;
+        final NodeSelector selector;
+
+        SelectTask(byte type, List<DocumentEntries> entries, NodeSelector selector) {
+            this.type = type;
+            this.entries = entries;
+            this.selector = selector;
+        }
+
+        public NodeSet call() {
+            final NewArrayNodeSet result = new NewArrayNodeSet(entries.size(), 256);
+            final short nodeType = type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE;
+            for (final DocumentEntries docEntries : entries) {
+                for (int i = 0; i < docEntries.size; i++) {
+                    final NodeProxy storedNode = selector.match(docEntries.doc, docEntries.nodeIds[i]);
+                    if (storedNode != null) {
+                        storedNode.setNodeType(nodeType);
+                        storedNode.setInternalAddress(docEntries.pointers[i]);
+                        result.add(storedNode);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
     private class FindDescendantsCallback implements BTreeCallback {
         int axis;
         byte type;
@@ -622,14 +782,21 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 final QName qname = entry.getKey();
                 try {
                     lock.acquire(Lock.WRITE_LOCK);
+                    final SortedRunBuffer bulkBuffer = index.bulkBuffer;
                     final List<NodeProxy> nodes = entry.getValue();
                     for (final NodeProxy proxy : nodes) {
                         final NodeId nodeId = proxy.getNodeId();
                         final byte[] key = computeKey(qname.getNameType(), qname, document.getDocId(), nodeId);
-                        index.btree.addValue(new Value(key), computeValue(proxy));
+                        if (bulkBuffer != null)
+                            {bulkBuffer.add(new Value(key), computeValue(proxy));}
+                        else
+                            {index.btree.addValue(new Value(key), computeValue(proxy));}
                     }
                     final Value docKey = new Value(computeDocKey(qname.getNameType(), document.getDocId(), qname));
-                    if (index.btree.findValue(docKey) == -1) {
+                    if (bulkBuffer != null) {
+                        // duplicate keys are merged when the buffer is sorted
+                        bulkBuffer.add(docKey, 0);
+                    } else if (index.btree.findValue(docKey) == -1) {
                         index.btree.addValue(docKey, 0);
                     }
                 } catch (final LockException e) {
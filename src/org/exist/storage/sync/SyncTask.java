@@ -27,6 +27,7 @@ import java.util.Properties;
 import org.exist.EXistException;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
+import org.exist.storage.FuzzyCheckpointer;
 import org.exist.storage.SystemTask;
 import org.exist.util.Configuration;
 
@@ -78,7 +79,12 @@ public class SyncTask implements SystemTask {
         }
         if(System.currentTimeMillis() - pool.getLastMajorSync() >
                 pool.getMajorSyncPeriod()) {
-            pool.sync(broker, Sync.MAJOR_SYNC);
+            final FuzzyCheckpointer checkpointer = pool.getFuzzyCheckpointer();
+            if (checkpointer != null)
+                // written in the background while transactions continue
+                {checkpointer.trigger();}
+            else
+                {pool.sync(broker, Sync.MAJOR_SYNC);}
         } else {
             pool.sync(broker, Sync.MINOR_SYNC);
         }
@@ -0,0 +1,122 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.txn;
+
+import java.nio.ByteBuffer;
+import java.text.DateFormat;
+import java.util.Date;
+
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.Lsn;
+
+/**
+ * Journal record written at the end of a fuzzy checkpoint.
+ *
+ * Unlike a {@link Checkpoint}, a fuzzy checkpoint is taken while transactions
+ * are running. When the checkpoint starts, the LSN of the last journal entry
+ * and the ids of the running transactions are recorded. All pages which were
+ * dirty at that time are written to disk before this record is logged, so
+ * recovery can start to redo the journal from the recorded LSN. The running
+ * transactions may have changed pages before the checkpoint, so they still
+ * have to be undone if they did not commit.
+ */
+public class FuzzyCheckpoint extends AbstractLoggable {
+
+    /** maximum number of running transactions which can be recorded */
+    public final static int MAX_TRANSACTIONS = 1024;
+
+    private long timestamp;
+    private long redoLsn = Lsn.LSN_INVALID;
+    private long[] transactions = new long[0];
+
+    private final static DateFormat df =
+        DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
+
+    public FuzzyCheckpoint(long transactionId, long redoLsn, long[] transactions) {
+        this(null, transactionId);
+        this.redoLsn = redoLsn;
+        this.transactions = transactions;
+    }
+
+    public FuzzyCheckpoint(DBBroker broker, long transactionId) {
+        super(LogEntryTypes.FUZZY_CHECKPOINT, transactionId);
+        timestamp = new Date().getTime();
+    }
+
+    /* (non-Javadoc)
+     * @see org.exist.storage.log.Loggable#write(java.nio.ByteBuffer)
+     */
+    public void write(ByteBuffer out) {
+        out.putLong(redoLsn);
+        out.putLong(timestamp);
+        out.putShort((short) transactions.length);
+        for (int i = 0; i < transactions.length; i++) {
+            out.putLong(transactions[i]);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.exist.storage.log.Loggable#read(java.nio.ByteBuffer)
+     */
+    public void read(ByteBuffer in) {
+        redoLsn = in.getLong();
+        timestamp = in.getLong();
+        transactions = new long[in.getShort()];
+        for (int i = 0; i < transactions.length; i++) {
+            transactions[i] = in.getLong();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.exist.storage.log.Loggable#getLogSize()
+     */
+    public int getLogSize() {
+        return 18 + transactions.length * 8;
+    }
+
+    /**
+     * Returns the LSN from which the journal has to be redone
+     * during recovery.
+     */
+    public long getRedoLsn() {
+        return redoLsn;
+    }
+
+    /**
+     * Returns the ids of the transactions which were running
+     * when the checkpoint started.
+     */
+    public long[] getTransactions() {
+        return transactions;
+    }
+
+    public String getDateString() {
+        return df.format(new Date(timestamp));
+    }
+
+    public String dump() {
+        return super.dump() + " - fuzzy checkpoint at " + df.format(new Date(timestamp)) +
+            "; redo from " + Lsn.dump(redoLsn) + "; running transactions: " + transactions.length;
+    }
+}
@@ -32,14 +32,15 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.SystemTask;
 import org.exist.storage.SystemTaskManager;
 import org.exist.storage.journal.Journal;
+import org.exist.storage.journal.Lsn;
 import org.exist.storage.recovery.RecoveryManager;
 import org.exist.util.ReadOnlyException;
 import org.exist.xmldb.XmldbURI;
 
 import java.io.File;
 import java.io.PrintStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -60,6 +61,10 @@ public class TransactionManager {
 	public final static String PROPERTY_RECOVERY_GROUP_COMMIT = "db-connection.recovery.group-commit";
     public final static String RECOVERY_FORCE_RESTART_ATTRIBUTE = "force-restart";
     public final static String PROPERTY_RECOVERY_FORCE_RESTART = "db-connection.recovery.force-restart";
+    public final static String RECOVERY_FUZZY_CHECKPOINT_ATTRIBUTE = "fuzzy-checkpoint";
+    public final static String PROPERTY_RECOVERY_FUZZY_CHECKPOINT = "db-connection.recovery.fuzzy-checkpoint";
+    public final static String RECOVERY_REDO_THREADS_ATTRIBUTE = "redo-threads";
+    public final static String PROPERTY_RECOVERY_REDO_THREADS = "db-connection.recovery.redo-threads";
 
     /**
      * Timeout for inactive transactions. A transaction which has not processed
@@ -85,7 +90,11 @@ public class TransactionManager {
     @ConfigurationFieldAsAttribute("force-restart")
     private boolean forceRestart = false;
 
-    private Map<Long, TxnCounter> transactions = new HashMap<Long, TxnCounter>();
+    @ConfigurationFieldAsAttribute("redo-threads")
+    private int redoThreads = 1;
+
+    // modified while holding the lock, but its size is also read without the lock
+    private Map<Long, TxnCounter> transactions = new ConcurrentHashMap<Long, TxnCounter>();
 
     private Lock lock = new ReentrantLock();
 
@@ -119,6 +128,12 @@ public class TransactionManager {
             if (LOG.isDebugEnabled())
                 {LOG.debug("ForceRestart = " + forceRestart);}
         }
+        final Integer redoOpt = (Integer) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_REDO_THREADS);
+        if (redoOpt != null) {
+            redoThreads = Math.max(1, redoOpt.intValue());
+            if (LOG.isDebugEnabled())
+                {LOG.debug("RedoThreads = " + redoThreads);}
+        }
         taskManager = new SystemTaskManager(pool);
     }
     
@@ -140,7 +155,7 @@ public class TransactionManager {
      * @throws EXistException
      */
 	public boolean runRecovery(DBBroker broker) throws EXistException {
-		final RecoveryManager recovery = new RecoveryManager(broker, journal, forceRestart);
+		final RecoveryManager recovery = new RecoveryManager(broker, journal, forceRestart, redoThreads);
 		return recovery.recover();
 	}
 	
@@ -173,19 +188,28 @@ public class TransactionManager {
     /**
      * Commit a transaction.
      * 
+     * If group commit is enabled together with sync-on-commit, the commit record
+     * is written while holding the transaction manager lock, but the calling thread
+     * waits for the journal sync after the lock has been released. Concurrent
+     * commits can thus share a single file sync. The method does not return before
+     * the commit record has been forced to disk.
+     * 
      * @param txn
-     * @throws TransactionException
+     * @throws TransactionException if the commit record could not be forced to disk
      */
     public void commit(final Txn txn) throws TransactionException {
         if (!enabled || txn.getState() != Txn.State.STARTED) {
             return;
         }
 
-        new RunWithLock<Object>() {
-        	public Object execute() {
+        final Long commitLsn = new RunWithLock<Long>() {
+        	public Long execute() {
+                long lsn = Lsn.LSN_INVALID;
                 if (enabled) {
+                    final TxnCommit commit = new TxnCommit(txn.getId());
                     try {
-						journal.writeToLog(new TxnCommit(txn.getId()));
+						journal.writeToLog(commit);
+                        lsn = commit.getLsn();
 					} catch (final TransactionException e) {
 						LOG.error("transaction manager caught exception while committing", e);
 					}
@@ -197,9 +221,12 @@ public class TransactionManager {
                 transactions.remove(txn.getId());
                 processSystemTasks();
                 LOG.debug("Committed transaction: " + txn.getId());
-                return null;
+                return lsn;
         	}
         }.run();
+
+        if (groupCommit && commitLsn != null && journal.isSyncOnCommit())
+            {journal.waitForSync(commitLsn);}
     }
 	
     public void abort(final Txn txn) {
@@ -276,6 +303,53 @@ public class TransactionManager {
 		journal.checkpoint(txnId, switchFiles);
 	}
 	
+    /**
+     * Start a fuzzy checkpoint. Records the LSN of the next journal entry and
+     * the transactions currently running. Other transactions can continue while
+     * the caller writes all dirty pages to disk. Afterwards, the returned record
+     * has to be passed to {@link #fuzzyCheckpoint(FuzzyCheckpoint)}.
+     * 
+     * @return the checkpoint record or null if no checkpoint can be taken
+     */
+    public FuzzyCheckpoint beginFuzzyCheckpoint() {
+        if (!enabled)
+            {return null;}
+        return new RunWithLock<FuzzyCheckpoint>() {
+            public FuzzyCheckpoint execute() {
+                if (transactions.size() > FuzzyCheckpoint.MAX_TRANSACTIONS) {
+                    LOG.warn("Too many running transactions for a fuzzy checkpoint: " + transactions.size());
+                    return null;
+                }
+                final long redoLsn = journal.nextLsn();
+                if (redoLsn == Lsn.LSN_INVALID)
+                    {return null;}
+                final long[] running = new long[transactions.size()];
+                int i = 0;
+                for (final Long id : transactions.keySet()) {
+                    running[i++] = id.longValue();
+                }
+                return new FuzzyCheckpoint(nextTxnId++, redoLsn, running);
+            }
+        }.run();
+    }
+
+    /**
+     * Complete a fuzzy checkpoint started by {@link #beginFuzzyCheckpoint()}.
+     * Must only be called after all pages which were dirty when the checkpoint
+     * started have been written to disk. Writes the checkpoint record and
+     * forces the journal to disk. Unlike {@link #checkpoint(boolean)}, the
+     * journal file is never switched.
+     * 
+     * @param checkpoint the record returned by {@link #beginFuzzyCheckpoint()}
+     * @throws TransactionException
+     */
+    public void fuzzyCheckpoint(FuzzyCheckpoint checkpoint) throws TransactionException {
+        if (!enabled)
+            {return;}
+        journal.writeToLog(checkpoint);
+        journal.flushToLog(true, true);
+    }
+
 	public Journal getJournal() {
 		return journal;
 	}
@@ -290,6 +364,9 @@ public class TransactionManager {
         } catch (final PermissionDeniedException e) {
             LOG.warn("Exception during reindex: " + e.getMessage(), e);
             
+        } catch (final EXistException e) {
+            LOG.warn("Exception during reindex: " + e.getMessage(), e);
+            
         } finally {
         	broker.setSubject(currentUser);
         }
@@ -345,6 +422,14 @@ public class TransactionManager {
     	}.run();
     }
 
+    /**
+     * Returns the number of transactions which have been started but not yet
+     * committed or aborted. Does not acquire the transaction manager lock.
+     */
+    public int getActiveTransactions() {
+        return transactions.size();
+    }
+
 	public void debug(PrintStream out) {
 		out.println("Active transactions: "+ transactions.size());
 	}
@@ -54,6 +54,9 @@ import org.exist.storage.NativeBroker;
 import org.exist.storage.NativeValueIndex;
 import org.exist.storage.TextSearchEngine;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.XQueryResultCache;
+import org.exist.storage.btree.PageCompression;
+import org.exist.storage.btree.PageIO;
 import org.exist.storage.journal.Journal;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
 import org.exist.storage.serializers.Serializer;
@@ -338,6 +341,32 @@ public class Configuration implements ErrorHandler
         config.put( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL, Configuration.parseBoolean( raiseErrorOnFailedRetrieval, XQueryContext.XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT ) );
         LOG.debug( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL + ": " + config.get( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL ) );
 
+        final String aggregationMemory = getConfigAttributeValue( xquery, XQueryContext.AGGREGATION_MEMORY_ATTRIBUTE );
+
+        if( ( aggregationMemory != null ) && ( aggregationMemory.length() > 0 ) ) {
+
+            try {
+                config.put( XQueryContext.PROPERTY_AGGREGATION_MEMORY, Integer.valueOf( aggregationMemory ) );
+                LOG.debug( XQueryContext.PROPERTY_AGGREGATION_MEMORY + ": " + config.get( XQueryContext.PROPERTY_AGGREGATION_MEMORY ) + "m" );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "aggregation-memory attribute in xquery section needs to be a number" ) );
+            }
+        }
+
+        final String parallelThreads = getConfigAttributeValue( xquery, XQueryContext.PARALLEL_THREADS_ATTRIBUTE );
+
+        if( ( parallelThreads != null ) && ( parallelThreads.length() > 0 ) ) {
+
+            try {
+                config.put( XQueryContext.PROPERTY_PARALLEL_THREADS, Integer.valueOf( parallelThreads ) );
+                LOG.debug( XQueryContext.PROPERTY_PARALLEL_THREADS + ": " + config.get( XQueryContext.PROPERTY_PARALLEL_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "parallel-threads attribute in xquery section needs to be a number" ) );
+            }
+        }
+
         final String trace = getConfigAttributeValue( xquery, PerformanceStats.CONFIG_ATTR_TRACE );
         config.put( PerformanceStats.CONFIG_PROPERTY_TRACE, trace );
 
@@ -797,6 +826,18 @@ public class Configuration implements ErrorHandler
         config.put( DefaultCacheManager.PROPERTY_CACHE_CHECK_MAX_SIZE, parseBoolean( checkMaxCache, true ) );
         LOG.debug( DefaultCacheManager.PROPERTY_CACHE_CHECK_MAX_SIZE + ": " + config.get( DefaultCacheManager.PROPERTY_CACHE_CHECK_MAX_SIZE ) );
 
+        final String cachePolicy = getConfigAttributeValue( con, DefaultCacheManager.CACHE_POLICY_ATTRIBUTE );
+
+        if( cachePolicy != null ) {
+
+            if( DefaultCacheManager.CACHE_POLICY_LRU.equals( cachePolicy ) || DefaultCacheManager.CACHE_POLICY_2Q.equals( cachePolicy ) ) {
+                config.put( DefaultCacheManager.PROPERTY_CACHE_POLICY, cachePolicy );
+                LOG.debug( DefaultCacheManager.PROPERTY_CACHE_POLICY + ": " + config.get( DefaultCacheManager.PROPERTY_CACHE_POLICY ) );
+            } else {
+                LOG.warn( "Unknown value for " + DefaultCacheManager.CACHE_POLICY_ATTRIBUTE + ": " + cachePolicy + ". Using default: " + DefaultCacheManager.DEFAULT_CACHE_POLICY );
+            }
+        }
+
         String cacheShrinkThreshold = getConfigAttributeValue( con, DefaultCacheManager.SHRINK_THRESHOLD_ATTRIBUTE );
 
         if( cacheShrinkThreshold == null ) {
@@ -844,6 +885,31 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String pageIO = getConfigAttributeValue( con, NativeBroker.PAGE_IO_ATTRIBUTE );
+
+        if( pageIO != null ) {
+
+            if( PageIO.isValidMode( pageIO ) ) {
+                config.put( BrokerPool.PROPERTY_PAGE_IO, pageIO );
+                LOG.debug( BrokerPool.PROPERTY_PAGE_IO + ": " + config.get( BrokerPool.PROPERTY_PAGE_IO ) );
+            } else {
+                LOG.warn( "Unknown value for " + NativeBroker.PAGE_IO_ATTRIBUTE + ": " + pageIO + ". Using default: " + PageIO.DEFAULT_MODE );
+            }
+        }
+
+        final String readAhead = getConfigAttributeValue( con, NativeBroker.READ_AHEAD_ATTRIBUTE );
+
+        if( readAhead != null ) {
+
+            try {
+                config.put( BrokerPool.PROPERTY_READ_AHEAD, Integer.valueOf(readAhead) );
+                LOG.debug( BrokerPool.PROPERTY_READ_AHEAD + ": " + config.get( BrokerPool.PROPERTY_READ_AHEAD ) );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
         //Not clear : rather looks like a buffers count
         final String collCacheSize = getConfigAttributeValue( con, BrokerPool.COLLECTION_CACHE_SIZE_ATTRIBUTE );
 
@@ -1012,6 +1078,12 @@ public class Configuration implements ErrorHandler
             configureXQueryPool( (Element)queryPoolConf.item( 0 ) );
         }
 
+        final NodeList resultCacheConf = con.getElementsByTagName( XQueryResultCache.CONFIGURATION_ELEMENT_NAME );
+
+        if( resultCacheConf.getLength() > 0 ) {
+            configureXQueryResultCache( (Element)resultCacheConf.item( 0 ) );
+        }
+
         final NodeList watchConf = con.getElementsByTagName( XQueryWatchDog.CONFIGURATION_ELEMENT_NAME );
 
         if( watchConf.getLength() > 0 ) {
@@ -1023,6 +1095,92 @@ public class Configuration implements ErrorHandler
         if( recoveries.getLength() > 0 ) {
             configureRecovery( dbHome, (Element)recoveries.item( 0 ) );
         }
+
+        final NodeList fileLocks = con.getElementsByTagName( BrokerPool.CONFIGURATION_FILE_LOCKS_ELEMENT_NAME );
+
+        if( fileLocks.getLength() > 0 ) {
+            configureFileLocks( (Element)fileLocks.item( 0 ) );
+        }
+
+        final NodeList pageCompression = con.getElementsByTagName( BrokerPool.CONFIGURATION_PAGE_COMPRESSION_ELEMENT_NAME );
+
+        if( pageCompression.getLength() > 0 ) {
+            configurePageCompression( (Element)pageCompression.item( 0 ) );
+        }
+    }
+
+
+    private void configurePageCompression( Element pageCompression ) throws DatabaseConfigurationException
+    {
+        final String defaultMode = getConfigAttributeValue( pageCompression, BrokerPool.PAGE_COMPRESSION_DEFAULT_ATTRIBUTE );
+
+        if( defaultMode != null ) {
+            checkPageCompression( defaultMode );
+            setProperty( BrokerPool.PROPERTY_PAGE_COMPRESSION_DEFAULT, defaultMode );
+            LOG.debug( BrokerPool.PROPERTY_PAGE_COMPRESSION_DEFAULT + ": " + defaultMode );
+        }
+
+        final Map<String, String> modes = new HashMap<String, String>();
+        final NodeList files = pageCompression.getElementsByTagName( "file" );
+
+        for( int i = 0; i < files.getLength(); i++ ) {
+            final Element file = (Element)files.item( i );
+            final String name = getConfigAttributeValue( file, "name" );
+            final String mode = getConfigAttributeValue( file, "compression" );
+
+            if( name == null || mode == null ) {
+                throw( new DatabaseConfigurationException( "file element in page-compression section needs attributes name and compression" ) );
+            }
+            checkPageCompression( mode );
+            modes.put( name, mode );
+            LOG.debug( BrokerPool.PROPERTY_PAGE_COMPRESSION + ": " + name + " = " + mode );
+        }
+        setProperty( BrokerPool.PROPERTY_PAGE_COMPRESSION, modes );
+    }
+
+
+    private void checkPageCompression( String mode ) throws DatabaseConfigurationException
+    {
+        if( !PageCompression.isValidMode( mode ) ) {
+            throw( new DatabaseConfigurationException( "Unknown compression in page-compression section: " + mode ) );
+        }
+    }
+
+
+    private void configureFileLocks( Element fileLocks ) throws DatabaseConfigurationException
+    {
+        final String defaultLock = getConfigAttributeValue( fileLocks, BrokerPool.FILE_LOCKS_DEFAULT_ATTRIBUTE );
+
+        if( defaultLock != null ) {
+            checkFileLockType( defaultLock );
+            setProperty( BrokerPool.PROPERTY_FILE_LOCKS_DEFAULT, defaultLock );
+            LOG.debug( BrokerPool.PROPERTY_FILE_LOCKS_DEFAULT + ": " + defaultLock );
+        }
+
+        final Map<String, String> locks = new HashMap<String, String>();
+        final NodeList files = fileLocks.getElementsByTagName( "file" );
+
+        for( int i = 0; i < files.getLength(); i++ ) {
+            final Element file = (Element)files.item( i );
+            final String name = getConfigAttributeValue( file, "name" );
+            final String lock = getConfigAttributeValue( file, "lock" );
+
+            if( name == null || lock == null ) {
+                throw( new DatabaseConfigurationException( "file element in file-locks section needs attributes name and lock" ) );
+            }
+            checkFileLockType( lock );
+            locks.put( name, lock );
+            LOG.debug( BrokerPool.PROPERTY_FILE_LOCKS + ": " + name + " = " + lock );
+        }
+        setProperty( BrokerPool.PROPERTY_FILE_LOCKS, locks );
+    }
+
+
+    private void checkFileLockType( String type ) throws DatabaseConfigurationException
+    {
+        if( !BrokerPool.FILE_LOCK_MONITOR.equals( type ) && !BrokerPool.FILE_LOCK_QUEUED.equals( type ) ) {
+            throw( new DatabaseConfigurationException( "Unknown lock type in file-locks section: " + type ) );
+        }
     }
 
 
@@ -1040,6 +1198,32 @@ public class Configuration implements ErrorHandler
         setProperty( TransactionManager.PROPERTY_RECOVERY_GROUP_COMMIT, parseBoolean( option, false ) );
         LOG.debug( TransactionManager.PROPERTY_RECOVERY_GROUP_COMMIT + ": " + config.get( TransactionManager.PROPERTY_RECOVERY_GROUP_COMMIT ) );
 
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_GROUP_COMMIT_MAX_WAIT_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                setProperty( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_WAIT, Integer.valueOf( option ) );
+                LOG.debug( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_WAIT + ": " + config.get( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_WAIT ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "group-commit-max-wait attribute in recovery section needs to be a number" ) );
+            }
+        }
+
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_GROUP_COMMIT_MAX_BATCH_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                setProperty( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_BATCH, Integer.valueOf( option ) );
+                LOG.debug( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_BATCH + ": " + config.get( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_BATCH ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "group-commit-max-batch attribute in recovery section needs to be a number" ) );
+            }
+        }
+
         option = getConfigAttributeValue( recovery, Journal.RECOVERY_JOURNAL_DIR_ATTRIBUTE );
 
         if( option != null ) {
@@ -1089,6 +1273,23 @@ public class Configuration implements ErrorHandler
         }
         setProperty( BrokerPool.PROPERTY_RECOVERY_CHECK, new Boolean( value ) );
         LOG.debug( BrokerPool.PROPERTY_RECOVERY_CHECK + ": " + config.get( BrokerPool.PROPERTY_RECOVERY_CHECK ) );
+
+        option = getConfigAttributeValue( recovery, TransactionManager.RECOVERY_FUZZY_CHECKPOINT_ATTRIBUTE );
+        setProperty( TransactionManager.PROPERTY_RECOVERY_FUZZY_CHECKPOINT, parseBoolean( option, false ) );
+        LOG.debug( TransactionManager.PROPERTY_RECOVERY_FUZZY_CHECKPOINT + ": " + config.get( TransactionManager.PROPERTY_RECOVERY_FUZZY_CHECKPOINT ) );
+
+        option = getConfigAttributeValue( recovery, TransactionManager.RECOVERY_REDO_THREADS_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                setProperty( TransactionManager.PROPERTY_RECOVERY_REDO_THREADS, Integer.valueOf( option ) );
+                LOG.debug( TransactionManager.PROPERTY_RECOVERY_REDO_THREADS + ": " + config.get( TransactionManager.PROPERTY_RECOVERY_REDO_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "redo-threads attribute in recovery section needs to be a number" ) );
+            }
+        }
     }
 
     /**
@@ -1123,6 +1324,19 @@ public class Configuration implements ErrorHandler
                 LOG.warn( e );
             }
         }
+
+        final String slowQueryThreshold = getConfigAttributeValue( watchDog, "slow-query-threshold" );
+
+        if( slowQueryThreshold != null ) {
+
+            try {
+                config.put( XQueryWatchDog.PROPERTY_SLOW_QUERY_THRESHOLD, Long.valueOf(slowQueryThreshold) );
+                LOG.debug( XQueryWatchDog.PROPERTY_SLOW_QUERY_THRESHOLD + ": " + config.get( XQueryWatchDog.PROPERTY_SLOW_QUERY_THRESHOLD ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
     }
 
 
@@ -1184,6 +1398,51 @@ public class Configuration implements ErrorHandler
                 LOG.warn( e );
             }
         }
+
+        final NodeList prewarmConf = queryPool.getElementsByTagName( XQueryPool.PREWARM_ELEMENT_NAME );
+
+        if( prewarmConf.getLength() > 0 ) {
+            final List<String> paths = new ArrayList<String>();
+
+            for( int i = 0; i < prewarmConf.getLength(); i++ ) {
+                final String path = getConfigAttributeValue( (Element)prewarmConf.item( i ), XQueryPool.PREWARM_PATH_ATTRIBUTE );
+
+                if( path != null ) {
+                    paths.add( path );
+                }
+            }
+            config.put( XQueryPool.PROPERTY_PREWARM, paths );
+            LOG.debug( XQueryPool.PROPERTY_PREWARM + ": " + paths );
+        }
+    }
+    
+    private void configureXQueryResultCache( Element resultCache )
+    {
+        final String size = getConfigAttributeValue( resultCache, XQueryResultCache.SIZE_ATTRIBUTE );
+
+        if( size != null ) {
+
+            try {
+                config.put( XQueryResultCache.PROPERTY_SIZE, Integer.valueOf(size) );
+                LOG.debug( XQueryResultCache.PROPERTY_SIZE + ": " + config.get( XQueryResultCache.PROPERTY_SIZE ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String ttl = getConfigAttributeValue( resultCache, XQueryResultCache.TTL_ATTRIBUTE );
+
+        if( ttl != null ) {
+
+            try {
+                config.put( XQueryResultCache.PROPERTY_TTL, Long.valueOf(ttl) );
+                LOG.debug( XQueryResultCache.PROPERTY_TTL + ": " + config.get( XQueryResultCache.PROPERTY_TTL ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
     }
     
     public class StartupTriggerConfig {
@@ -1401,6 +1660,19 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String reindexThreads = getConfigAttributeValue( indexer, NativeBroker.REINDEX_THREADS_ATTRIBUTE );
+
+        if( reindexThreads != null ) {
+
+            try {
+                config.put( NativeBroker.PROPERTY_REINDEX_THREADS, Integer.valueOf( reindexThreads ) );
+                LOG.debug( NativeBroker.PROPERTY_REINDEX_THREADS + ": " + config.get( NativeBroker.PROPERTY_REINDEX_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
         final String suppressWS = getConfigAttributeValue( indexer, Indexer.SUPPRESS_WHITESPACE_ATTRIBUTE );
 
         if( suppressWS != null ) {
@@ -178,6 +178,31 @@ public class SequencedLongHashMap<V> extends AbstractHashtable<Long, V> {
         return null;
 	}
 	
+    /**
+     * Replace the value for key without changing the position
+     * of the entry in the sequence.
+     * 
+     * @param key
+     * @param value
+     * @return false if the key is not in the map
+     */
+	public boolean replace(long key, V value) {
+		if (value == null)
+			{throw new IllegalArgumentException("Illegal value: null");}
+		int idx = hash(key) % tabSize;
+		if(idx < 0)
+			{idx *= -1;}
+		Entry<V> next = values[idx];
+        while (next != null) {
+            if (next.key == key) {
+                next.value = value;
+                return true;
+            }
+            next = next.nextDup;
+        }
+        return false;
+	}
+	
     /**
      * Returns the first entry added to the map.
      */
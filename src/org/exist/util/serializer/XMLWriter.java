@@ -26,6 +26,7 @@ import java.util.Properties;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.TransformerException;
 import org.exist.dom.QName;
+import org.exist.storage.QueryStats;
 import org.exist.util.XMLString;
 import org.exist.util.serializer.encodings.CharacterSet;
 
@@ -95,7 +96,7 @@ public class XMLWriter {
 
     public XMLWriter(Writer writer) {
         this();
-        this.writer = writer;
+        this.writer = countingWriter(writer);
     }
 
     /**
@@ -136,9 +137,17 @@ public class XMLWriter {
      * @param writer
      */
     public void setWriter(final Writer writer) {
-        this.writer = writer;
+        this.writer = countingWriter(writer);
         resetObjectState();
     }
+
+    /**
+     * Output written while a query is running is accounted to the query.
+     */
+    private static Writer countingWriter(final Writer writer) {
+        final QueryStats stats = QueryStats.current();
+        return stats == null || writer == null ? writer : new CountingWriter(writer, stats);
+    }
     
     protected Writer getWriter() {
         return writer;
@@ -566,4 +575,52 @@ public class XMLWriter {
         charref[o++] = ';';
         writer.write(charref, 0, o);
     }
+
+    /**
+     * Counts the characters written for the query stats.
+     */
+    private final static class CountingWriter extends Writer {
+
+        private final Writer writer;
+        private final QueryStats stats;
+
+        CountingWriter(Writer writer, QueryStats stats) {
+            this.writer = writer;
+            this.stats = stats;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            stats.serialized(1);
+            writer.write(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            stats.serialized(len);
+            writer.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            stats.serialized(len);
+            writer.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+
+        @Override
+        public String toString() {
+            // callers read the output of a StringWriter from getWriter()
+            return writer.toString();
+        }
+    }
 }
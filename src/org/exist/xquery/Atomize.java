@@ -25,6 +25,7 @@ package org.exist.xquery;
 import org.exist.dom.DocumentSet;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NumericSequence;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.Type;
@@ -76,6 +77,9 @@ public class Atomize extends AbstractExpression {
             {return Sequence.EMPTY_SEQUENCE;}
         if (input.hasOne())
             {return input.itemAt(0).atomize();}
+        // atomic values atomize to themselves
+        if (input instanceof NumericSequence)
+            {return input;}
         Item next;
         final ValueSequence result = new ValueSequence();
         for(final SequenceIterator i = input.iterate(); i.hasNext(); ) {
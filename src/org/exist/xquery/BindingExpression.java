@@ -62,6 +62,8 @@ public abstract class BindingExpression extends AbstractExpression implements Re
 	protected Expression whereExpr;
 	protected OrderSpec orderSpecs[] = null;
 	protected int actualReturnType = Type.ITEM;
+	// if > 0, only the first resultLimit items of the result are used
+	protected int resultLimit = -1;
 
 	/* bv : variables for group by 
 	    group toGroupVarName as groupVarName as groupSpecs... return groupReturnExpr */ 
@@ -145,6 +147,62 @@ public abstract class BindingExpression extends AbstractExpression implements Re
 		toGroupVarName = qname;
 	}
 
+	/**
+	 * Tell the expression that only the first <code>limit</code> items of its
+	 * result will be used, e.g. because the result is passed to fn:subsequence
+	 * or filtered by a positional predicate. If there's an "order by" clause,
+	 * only the first items in sort order are kept while the result is sorted.
+	 * Otherwise, the iteration stops as soon as the result has enough items.
+	 *
+	 * The limit is determined at compile time, and only for the direct
+	 * consumers listed in {@link #setResultLimit(Expression, int)}. This is
+	 * early termination, not streaming: the input sequence and every return
+	 * expression are still evaluated into complete sequences.
+	 *
+	 * @param limit the number of items used
+	 */
+	public void setResultLimit(int limit) {
+		this.resultLimit = limit;
+		// nested clauses add their items to the same result sequence, so
+		// they can stop early as well, unless the items are sorted or grouped
+		if (orderSpecs == null && groupSpecs == null && !unordered &&
+				returnExpr instanceof BindingExpression)
+			{((BindingExpression) returnExpr).setResultLimit(limit);}
+	}
+
+	/**
+	 * Call {@link #setResultLimit(int)} if the expression is a "for" or "let"
+	 * expression, possibly wrapped into a path expression or an argument check.
+	 * Only called by the consumers which use a known number of leading items:
+	 * a positional predicate, fn:subsequence with literal bounds, fn:head,
+	 * fn:exists and fn:empty. The limit is never passed through a function
+	 * call, see {@link Function#unwrapArgument(Expression)}.
+	 *
+	 * @param expr the expression whose result is limited
+	 * @param limit the number of items used
+	 */
+	public static void setResultLimit(Expression expr, int limit) {
+		expr = Function.unwrapArgument(expr);
+		if (expr instanceof BindingExpression)
+			{((BindingExpression) expr).setResultLimit(limit);}
+	}
+
+	/**
+	 * Returns true if the result of an unordered FLWOR expression already has
+	 * all the items needed by the caller, so the remaining iterations can be
+	 * skipped.
+	 *
+	 * @param result the result sequence items are added to
+	 */
+	protected boolean isLimitReached(Sequence result) {
+		if (resultLimit <= 0 || orderSpecs != null || unordered || result == null)
+			{return false;}
+		// ValueSequence.getItemCount() would remove duplicate nodes
+		final int count = result instanceof ValueSequence ?
+			((ValueSequence) result).size() : result.getItemCount();
+		return count >= resultLimit;
+	}
+
 	/* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.Expression, int)
      */
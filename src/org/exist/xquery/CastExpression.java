@@ -54,10 +54,25 @@ public class CastExpression extends AbstractExpression {
         setExpression(expr);
 	}
 
-	protected Expression getInnerExpression() {
+	public Expression getInnerExpression() {
 		return expression;
 	}
 
+	/**
+	 * Returns the type the value is cast to.
+	 */
+	public int getCastType() {
+		return requiredType;
+	}
+
+	/**
+	 * Returns true if the empty sequence may be cast, as by
+	 * "cast as xs:double?" or a constructor function.
+	 */
+	public boolean allowsEmpty() {
+		return (cardinality & Cardinality.ZERO) != 0;
+	}
+
     public void setExpression(Expression expr) {
         this.expression = expr;
         if(!Type.subTypeOf(expression.returnsType(), Type.ATOMIC))
@@ -0,0 +1,313 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery;
+
+import java.util.List;
+
+import org.exist.dom.QName;
+import org.exist.storage.ElementValue;
+import org.exist.storage.statistics.IndexStatistics;
+import org.exist.xquery.functions.fn.FunLast;
+import org.exist.xquery.functions.fn.FunPosition;
+import org.exist.xquery.value.Type;
+
+/**
+ * Estimates the cost of evaluating location steps and predicates from the
+ * element counts collected by {@link IndexStatistics}. The estimates are used
+ *
+ * <ul>
+ *     <li>by the {@link Optimizer} to evaluate the cheapest and most selective
+ *     predicates of a step first,</li>
+ *     <li>by the {@link org.exist.xquery.pragmas.Optimize} pragma to choose
+ *     between an index lookup followed by an ancestor join and the normal
+ *     structural evaluation of a step,</li>
+ *     <li>by {@link GeneralComparison} to decide if a range index lookup is
+ *     cheaper than comparing a small node set directly.</li>
+ * </ul>
+ *
+ * Costs are given as the estimated number of index entries or nodes to be
+ * read. The statistics are collected for the whole database and only cover
+ * elements, so the estimates are rough: methods return {@link #UNKNOWN} if
+ * the statistics module is not configured or does not know a node name,
+ * and callers should keep their default behaviour in this case.
+ */
+public class CostModel {
+
+    public final static double UNKNOWN = -1;
+
+    /** cost of comparing a node's value without index, relative to reading an index entry */
+    public final static double NODE_COMPARE_COST = 4;
+
+    /** cost of evaluating an arbitrary predicate expression for a node */
+    public final static double EXPRESSION_COST = 8;
+
+    /** estimated fraction of index entries matching an equality comparison */
+    public final static double EQ_SELECTIVITY = 0.01;
+
+    /** estimated fraction of index entries matching a range comparison */
+    public final static double RANGE_SELECTIVITY = 0.33;
+
+    /** estimated fraction of entries matching a prefix search or full text query */
+    public final static double PREFIX_SELECTIVITY = 0.1;
+
+    public final static double DEFAULT_SELECTIVITY = 0.5;
+
+    private final IndexStatistics stats;
+
+    public CostModel(XQueryContext context) {
+        this.stats = (IndexStatistics) context.getBroker().getBrokerPool().
+            getIndexManager().getIndexById(IndexStatistics.ID);
+    }
+
+    /**
+     * Returns true if statistics are available.
+     */
+    public boolean isAvailable() {
+        return stats != null;
+    }
+
+    /**
+     * Returns the estimated number of elements selected by the node test of
+     * the step in the whole database.
+     */
+    public double getNodeCount(LocationStep step) {
+        final NodeTest test = step.getTest();
+        if (test.isWildcardTest() || test.getType() != Type.ELEMENT)
+            {return UNKNOWN;}
+        return getNodeCount(test.getName());
+    }
+
+    /**
+     * Returns the estimated number of elements with the given name.
+     */
+    public double getNodeCount(QName qname) {
+        if (stats == null || qname == null || qname.getNameType() != ElementValue.ELEMENT)
+            {return UNKNOWN;}
+        return stats.getNodeCount(qname);
+    }
+
+    /**
+     * Returns the estimated fraction of the values which match a comparison
+     * with the given operator and truncation.
+     */
+    public static double getSelectivity(int relation, int truncation) {
+        switch (truncation) {
+        case Constants.TRUNC_NONE:
+        case Constants.TRUNC_EQUALS:
+            break;
+        case Constants.TRUNC_RIGHT:
+            return PREFIX_SELECTIVITY;
+        default:
+            // suffix and substring searches have to scan all keys
+            return 1.0;
+        }
+        switch (relation) {
+        case Constants.EQ:
+        case Constants.IN:
+            return EQ_SELECTIVITY;
+        case Constants.NEQ:
+            return 1.0;
+        default:
+            return RANGE_SELECTIVITY;
+        }
+    }
+
+    /**
+     * Returns the estimated number of range index entries read to evaluate
+     * the comparison with an index lookup.
+     */
+    public double getLookupCost(GeneralComparison comparison) {
+        final double count = getNodeCount(comparison.getContextQName());
+        if (count == UNKNOWN)
+            {return UNKNOWN;}
+        return count * getSelectivity(comparison.getRelation(), comparison.getTruncation());
+    }
+
+    /**
+     * Returns true if comparing the given number of nodes directly is cheaper
+     * than looking up the comparison in the range index.
+     */
+    public boolean preferScan(int nodeCount, GeneralComparison comparison) {
+        final double lookupCost = getLookupCost(comparison);
+        return lookupCost != UNKNOWN && nodeCount * NODE_COMPARE_COST < lookupCost;
+    }
+
+    /**
+     * Returns true if looking up the given optimizable expressions in the
+     * index and joining the result with the ancestors selected by the step
+     * is cheaper than evaluating the step and its predicates on all its nodes.
+     * If no estimate is possible, the index is preferred.
+     */
+    public boolean preferIndex(LocationStep step, Optimizable[] optimizables) {
+        final double stepCount = getNodeCount(step);
+        if (stepCount == UNKNOWN)
+            {return true;}
+        double indexCost = 0;
+        for (int i = 0; i < optimizables.length; i++) {
+            if (!(optimizables[i] instanceof GeneralComparison))
+                {return true;}
+            final double lookupCost = getLookupCost((GeneralComparison) optimizables[i]);
+            if (lookupCost == UNKNOWN)
+                {return true;}
+            // the index lookup, plus the ancestor join on its result
+            indexCost += 2 * lookupCost;
+        }
+        return indexCost <= stepCount * NODE_COMPARE_COST;
+    }
+
+    /**
+     * Returns true if the predicate filters the context nodes independently
+     * of their position and of the size of the context, so it can be evaluated
+     * before or after the other predicates of a step without changing the result.
+     */
+    public static boolean isReorderable(Predicate predicate) {
+        if (predicate.getLength() != 1)
+            {return false;}
+        final Expression inner = predicate.getExpression(0);
+        if (dependsOnContext(inner))
+            {return false;}
+        switch (predicate.getExecutionMode()) {
+        case Predicate.NODE:
+            return true;
+        case Predicate.POSITIONAL:
+            return false;
+        default:
+            // boolean predicates, or new predicates created by the optimizer
+            // which have not been analyzed yet. A predicate returning a number
+            // at runtime is positional.
+            final int type = inner.returnsType();
+            return Type.subTypeOf(type, Type.BOOLEAN) || Type.subTypeOf(type, Type.NODE);
+        }
+    }
+
+    /**
+     * Returns true if the result of the expression, when used in a predicate, may
+     * depend on the position of the context item or on the size of the context.
+     */
+    public static boolean dependsOnContext(Expression expr) {
+        return Dependency.dependsOn(expr, Dependency.CONTEXT_POSITION) || dependsOnContextSize(expr);
+    }
+
+    /**
+     * Returns true if the expression may call fn:last() or fn:position() on the
+     * context of the predicate. Within a predicate, fn:last() only reports a
+     * dependency on the context set, which every relative path has, so the
+     * expression tree is inspected instead. Expressions which are not known
+     * to be independent of the context are assumed to depend on it.
+     */
+    private static boolean dependsOnContextSize(Expression expr) {
+        // the predicates of a step are evaluated against the nodes selected by the step
+        if (expr instanceof LocationStep || expr instanceof LiteralValue || expr instanceof VariableReference)
+            {return false;}
+        if (expr instanceof FunLast || expr instanceof FunPosition)
+            {return true;}
+        if (expr instanceof InternalFunctionCall)
+            {return dependsOnContextSize(((InternalFunctionCall) expr).getFunction());}
+        // the body of a user-defined function is not analyzed
+        if (expr instanceof FunctionCall)
+            {return true;}
+        if (expr instanceof CastExpression)
+            {return dependsOnContextSize(((CastExpression) expr).getInnerExpression());}
+        if (expr instanceof Atomize || expr instanceof DynamicCardinalityCheck ||
+                expr instanceof DynamicTypeCheck || expr instanceof UntypedValueCheck)
+            {return dependsOnContextSize(expr.getSubExpression(0));}
+        if (expr instanceof PathExpr) {
+            // also covers the arguments of built-in functions, comparisons and operators
+            final PathExpr path = (PathExpr) expr;
+            for (int i = 0; i < path.getLength(); i++) {
+                if (dependsOnContextSize(path.getExpression(i)))
+                    {return true;}
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Estimate the cost and selectivity of a predicate of the step. Returns
+     * null if no estimate is possible.
+     */
+    public Estimate estimate(LocationStep step, Predicate predicate) {
+        final double stepCount = getNodeCount(step);
+        if (stepCount == UNKNOWN || stepCount == 0)
+            {return null;}
+        final Expression inner = predicate.getExpression(0);
+        if (inner instanceof GeneralComparison) {
+            final GeneralComparison comparison = (GeneralComparison) inner;
+            final double selectivity = getSelectivity(comparison.getRelation(), comparison.getTruncation());
+            double cost = getLookupCost(comparison);
+            if (cost == UNKNOWN)
+                // e.g. an attribute: assume one value per context node
+                {cost = stepCount * selectivity;}
+            return new Estimate(cost, selectivity);
+        }
+        if (inner instanceof Optimizable || inner instanceof InternalFunctionCall &&
+                ((InternalFunctionCall) inner).getFunction() instanceof Optimizable)
+            // full text or other index lookup
+            {return new Estimate(stepCount * PREFIX_SELECTIVITY, PREFIX_SELECTIVITY);}
+        if (predicate.getExecutionMode() == Predicate.NODE) {
+            final List<LocationStep> steps = BasicExpressionVisitor.findLocationSteps(inner);
+            if (steps.size() > 0 && steps.get(0) != null) {
+                final LocationStep first = steps.get(0);
+                final NodeTest test = first.getTest();
+                if (first.getAxis() == Constants.CHILD_AXIS && !test.isWildcardTest() &&
+                        test.getType() == Type.ELEMENT && stats != null) {
+                    // existence of a child element: assume the children are
+                    // spread evenly over the parents
+                    final double childCount = stats.getChildCount(step.getTest().getName(), test.getName());
+                    return new Estimate(childCount, Math.min(1.0, childCount / stepCount));
+                }
+            }
+        }
+        return new Estimate(stepCount * EXPRESSION_COST, DEFAULT_SELECTIVITY);
+    }
+
+    /**
+     * The estimated cost and selectivity of a predicate.
+     */
+    public static class Estimate {
+
+        private final double cost;
+        private final double selectivity;
+
+        public Estimate(double cost, double selectivity) {
+            this.cost = cost;
+            this.selectivity = selectivity;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+
+        public double getSelectivity() {
+            return selectivity;
+        }
+
+        /**
+         * Predicates should be evaluated in ascending order of their rank:
+         * cheap predicates which remove many nodes first.
+         */
+        public double getRank() {
+            return cost / (1.0 - Math.min(selectivity, 0.99));
+        }
+    }
+}
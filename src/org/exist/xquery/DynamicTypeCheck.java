@@ -59,6 +59,9 @@ public class DynamicTypeCheck extends AbstractExpression {
 		Item contextItem)
 		throws XPathException {
 		final Sequence seq = expression.eval(contextSequence, contextItem);
+        if (seq instanceof NumericSequence && Type.subTypeOf(seq.getItemType(), requiredType))
+            // all items have the same type
+            {return seq;}
         Sequence result = null;
         if (Type.subTypeOf(requiredType, Type.ATOMIC) && !Type.subTypeOf(seq.getItemType(), requiredType)) {
             result = new ValueSequence();
@@ -80,6 +80,11 @@ public class FilteredExpression extends AbstractExpression {
             for (final Predicate pred : predicates) {
                 pred.analyze(newContext);
             }
+            // if the first predicate selects the first n items, an "order by"
+            // only needs to keep those
+            final int limit = predicates.get(0).getPositionLimit();
+            if (limit > 0)
+                {BindingExpression.setResultLimit(expression, limit);}
         }
     }
 
@@ -26,10 +26,12 @@ import org.exist.dom.NodeProxy;
 import org.exist.dom.NodeSet;
 import org.exist.dom.QName;
 import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.DoubleSequence;
 import org.exist.xquery.value.GroupedValueSequence;
 import org.exist.xquery.value.GroupedValueSequenceTable;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.LongSequence;
 import org.exist.xquery.value.OrderedValueSequence;
 import org.exist.xquery.value.PreorderedValueSequence;
 import org.exist.xquery.value.Sequence;
@@ -37,7 +39,6 @@ import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
 
-import java.util.Iterator;
 
 /**
  * Represents an XQuery "for" expression.
@@ -48,6 +49,8 @@ public class ForExpr extends BindingExpression {
 
     private String positionalVariable = null;
 
+    private IndexedOrderBy indexedOrderBy = null;
+
     public ForExpr(XQueryContext context) {
         super(context);
     }
@@ -62,6 +65,20 @@ public class ForExpr extends BindingExpression {
         positionalVariable = var;
     }
 
+    public String getPositionalVariable() {
+        return positionalVariable;
+    }
+
+    /**
+     * Set by the optimizer if the "order by" clause can be answered
+     * from an index.
+     * 
+     * @param orderBy
+     */
+    public void setIndexedOrderBy(IndexedOrderBy orderBy) {
+        indexedOrderBy = orderBy;
+    }
+
     public void analyze(AnalyzeContextInfo contextInfo, OrderSpec orderBy[]) throws XPathException { 
         analyze(contextInfo, orderBy, null); 
     } 
@@ -244,15 +261,33 @@ public class ForExpr extends BindingExpression {
             if (fastOrderBy) {
                 in = new PreorderedValueSequence(orderSpecs, in, getExpressionId());
             }
+            // If an index can answer the order by clause, the input sequence is
+            // ordered in advance and the items are returned in iteration order.
+            // The positional variable refers to the unordered input, so it
+            // prevents this.
+            if (indexedOrderBy != null && orderSpecs != null && !fastOrderBy &&
+                    resultSequence == null && groupSpecs == null && at == null &&
+                    in.isPersistentSet() && Type.subTypeOf(in.getItemType(), Type.NODE)) {
+                final Sequence ordered = indexedOrderBy.order(in.toNodeSet());
+                if (ordered != null) {
+                    in = ordered;
+                    fastOrderBy = true;
+                }
+            }
             // Otherwise, if there's an order by clause, wrap the result into
             // an OrderedValueSequence. OrderedValueSequence will compute
             // order expressions for every item when it is added to the result sequence.
+            boolean packResults = false;
             if (resultSequence == null) {
                 if (orderSpecs != null && !fastOrderBy) {
-                    resultSequence = new OrderedValueSequence(orderSpecs, in.getItemCount());
+                    resultSequence = new OrderedValueSequence(orderSpecs, in.getItemCount(),
+                        context.getAggregationMemory());
+                    if (resultLimit > 0)
+                        {((OrderedValueSequence)resultSequence).setLimit(resultLimit);}
                 } else {
                     resultSequence = new ValueSequence();
                     ((ValueSequence)resultSequence).keepUnOrdered(unordered);
+                    packResults = groupSpecs == null && !(returnExpr instanceof BindingExpression);
                 }
             }
             Sequence val = null;
@@ -305,7 +340,10 @@ public class ForExpr extends BindingExpression {
                     // otherwise call the return expression and add results to resultSequence 
                     } else {
                         val = returnExpr.eval(null);
-                        resultSequence.addAll(val);
+                        if (packResults)
+                            {resultSequence = addPacked(resultSequence, val);}
+                        else
+                            {resultSequence.addAll(val);}
                     } 
                 } else {
                     /* bv : special processing for groupby :
@@ -321,7 +359,15 @@ public class ForExpr extends BindingExpression {
                 }
                 // free resources
                 var.destroy(context, resultSequence);
+                // skip the remaining items if the caller does not use them
+                if (groupedSequence == null && isLimitReached(resultSequence))
+                    {break;}
             }
+        } catch (final XPathException e) {
+            // delete temporary files of the group table
+            if (groupSpecs != null)
+                {groupedSequence.close();}
+            throw e;
         } finally {
             // restore the local variable stack 
             context.popLocalVariables(mark, resultSequence);
@@ -344,28 +390,34 @@ public class ForExpr extends BindingExpression {
             }
 
             int p = 0;
-            for (final Iterator<String> it = groupedSequence.iterate(); it.hasNext(); ) {
-                final GroupedValueSequence currentGroup = groupedSequence.get(it.next());
-                context.proceed(this);
-                // set binding variable to current group
-                var.setValue(currentGroup);
-                var.checkType();
-                //set value of grouping keys for the current group 
-                for (int i=0; i< groupKeyVar.length ; i ++) {
-                    groupKeyVar[i].setValue(currentGroup.getGroupKey().itemAt(i).toSequence());
-                }
-                if (positionalVariable != null) {
-                    final ValueSequence ps = new ValueSequence();
-                    for (int i = 0; i < currentGroup.getItemCount(); i++) {
-                        ps.add(new IntegerValue(p + i + 1));
+            try {
+                for (final GroupedValueSequenceTable.GroupIterator it = groupedSequence.iterate(); it.hasNext(); ) {
+                    final GroupedValueSequence currentGroup = it.next();
+                    context.proceed(this);
+                    // set binding variable to current group
+                    var.setValue(currentGroup);
+                    var.checkType();
+                    //set value of grouping keys for the current group 
+                    for (int i=0; i< groupKeyVar.length ; i ++) {
+                        groupKeyVar[i].setValue(currentGroup.getGroupKey().itemAt(i).toSequence());
                     }
-                    at.setValue(ps);
-                }
-                //evaluate real return expression 
-                final Sequence val = groupReturnExpr.eval(null); 
-                resultSequence.addAll(val);
+                    if (positionalVariable != null) {
+                        final ValueSequence ps = new ValueSequence();
+                        for (int i = 0; i < currentGroup.getItemCount(); i++) {
+                            ps.add(new IntegerValue(p + i + 1));
+                        }
+                        at.setValue(ps);
+                    }
+                    //evaluate real return expression 
+                    final Sequence val = groupReturnExpr.eval(null); 
+                    resultSequence.addAll(val);
 
-                p += currentGroup.getItemCount();
+                    p += currentGroup.getItemCount();
+                    if (isLimitReached(resultSequence))
+                        {break;}
+                }
+            } finally {
+                groupedSequence.close();
             }
             //Reset the context position
             context.setContextSequencePosition(0, null);
@@ -405,6 +457,42 @@ public class ForExpr extends BindingExpression {
         return resultSequence;
     }
 
+    /**
+     * Adds the value returned for one iteration to the result. As long as every
+     * iteration returns a single xs:integer or a single xs:double, the values are
+     * collected into a {@link LongSequence} or {@link DoubleSequence}, which store
+     * primitive values. The packed sequence is copied into a ValueSequence as soon
+     * as another value is returned.
+     *
+     * @return the result sequence, which may have been replaced
+     */
+    private Sequence addPacked(Sequence resultSequence, Sequence val) throws XPathException {
+        if (val.isEmpty())
+            {return resultSequence;}
+        if (val.hasOne()) {
+            final Item item = val.itemAt(0);
+            if (resultSequence.isEmpty() && resultSequence instanceof ValueSequence) {
+                if (LongSequence.accepts(item))
+                    {resultSequence = new LongSequence();}
+                else if (DoubleSequence.accepts(item))
+                    {resultSequence = new DoubleSequence();}
+            }
+            if ((resultSequence instanceof LongSequence && LongSequence.accepts(item)) ||
+                    (resultSequence instanceof DoubleSequence && DoubleSequence.accepts(item))) {
+                resultSequence.add(item);
+                return resultSequence;
+            }
+        }
+        if (!(resultSequence instanceof ValueSequence)) {
+            final ValueSequence boxed = new ValueSequence(resultSequence.getItemCount() + val.getItemCount());
+            boxed.keepUnOrdered(unordered);
+            boxed.addAll(resultSequence);
+            resultSequence = boxed;
+        }
+        resultSequence.addAll(val);
+        return resultSequence;
+    }
+
     /* (non-Javadoc)
      * @see org.exist.xquery.Expression#returnsType()
      */
@@ -398,6 +398,27 @@ public abstract class Function extends PathExpr {
         return localName.equals(mySignature.getName().getLocalName());
     }
 
+    /**
+     * Returns the expression wrapped by the checks added in
+     * {@link #checkArgument(Expression, SequenceType, int)} and by path
+     * expressions with a single step. Subclasses of PathExpr, like function
+     * calls or unary and binary operators, are returned as they are: they
+     * store their operands as steps, but their value is not the value of
+     * the operand.
+     */
+    public static Expression unwrapArgument(Expression expr) {
+        while (true) {
+            if (expr instanceof DynamicCardinalityCheck || expr instanceof DynamicTypeCheck ||
+                    expr instanceof UntypedValueCheck)
+                {expr = expr.getSubExpression(0);}
+            else if (expr != null && expr.getClass() == PathExpr.class &&
+                    ((PathExpr) expr).getLength() == 1)
+                {expr = ((PathExpr) expr).getExpression(0);}
+            else
+                {return expr;}
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.exist.xquery.AbstractExpression#getDependencies()
      */
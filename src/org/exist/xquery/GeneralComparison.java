@@ -309,6 +309,14 @@ public class GeneralComparison extends BinaryOp implements Optimizable, IndexUse
         return truncation;
     }
 
+    /**
+     * Returns the name of the nodes compared by this expression, which is
+     * used to look up a range index, or null if it is not known.
+     */
+    public QName getContextQName() {
+        return contextQName;
+    }
+
     public NodeSet preSelect( Sequence contextSequence, boolean useContext ) throws XPathException
     {
         // the expression can be called multiple times, so we need to clear the previous preselectResult
@@ -718,6 +726,17 @@ public class GeneralComparison extends BinaryOp implements Optimizable, IndexUse
                 LOG.trace( "found an index of type: " + Type.getTypeName( indexType ) );
             }
 
+            // comparing a small node set directly is cheaper than an index lookup
+            // which reads all matching entries of the documents
+            if( !( nodes instanceof VirtualNodeSet ) && hasKeysOfIndexType( rightSeq, indexType ) &&
+                    new CostModel( context ).preferScan( nodes.getLength(), this ) ) {
+
+                if( context.getProfiler().isEnabled() ) {
+                    context.getProfiler().message( this, Profiler.OPTIMIZATION_FLAGS, "OPTIMIZATION CHOICE", "nodeSetCompare is estimated to be cheaper than index lookup" );
+                }
+                return( nodeSetCompare( getIndexedNodes( nodes, indexType ), contextSequence ) );
+            }
+
             boolean indexScan = false;
             boolean indexMixed = false;
             QName myContextQName = contextQName;
@@ -920,6 +939,59 @@ public class GeneralComparison extends BinaryOp implements Optimizable, IndexUse
     }
 
 
+    /**
+     * Returns true if the keys do not need to be converted to the type of the index,
+     * so comparing the nodes directly gives the same result as an index lookup.
+     */
+    /**
+     * Returns the nodes whose value can be converted to the type of their range index.
+     * The index does not contain the other nodes, so comparing only the returned nodes
+     * gives the same result as an index lookup instead of raising a conversion error.
+     *
+     * @param   nodes      the nodes to compare
+     * @param   indexType  the type of the range index defined on the nodes
+     *
+     * @return  the nodes which are in the index
+     */
+    private NodeSet getIndexedNodes( NodeSet nodes, int indexType )
+    {
+        if( Type.subTypeOf( indexType, Type.STRING ) ) {
+            return( nodes );
+        }
+        final NodeSet indexed = new NewArrayNodeSet();
+
+        for( final NodeProxy node : nodes ) {
+
+            try {
+                new StringValue( node.getStringValue() ).convertTo( indexType );
+                indexed.add( node );
+            }
+            catch( final XPathException e ) {
+                // the value was not added to the index
+            }
+        }
+        return( indexed );
+    }
+
+
+    private boolean hasKeysOfIndexType( Sequence keys, int indexType ) throws XPathException
+    {
+        for( final SequenceIterator i = keys.iterate(); i.hasNext(); ) {
+            final int type = i.nextItem().atomize().getType();
+
+            if( Type.subTypeOf( indexType, Type.STRING ) ) {
+
+                if( !Type.subTypeOf( type, Type.STRING ) && ( type != Type.UNTYPED_ATOMIC ) ) {
+                    return( false );
+                }
+            } else if( ( truncation != Constants.TRUNC_NONE ) || !Type.subTypeOf( indexType, Type.NUMBER ) || !Type.subTypeOf( type, Type.NUMBER ) ) {
+                return( false );
+            }
+        }
+        return( true );
+    }
+
+
     private int getMatchType( int truncation ) throws XPathException
     {
         int matchType;
@@ -0,0 +1,46 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery;
+
+import org.exist.dom.NodeSet;
+import org.exist.xquery.value.Sequence;
+
+/**
+ * Answers the "order by" clause of a "for" expression from an index. Instances are
+ * created by a {@link QueryRewriter} and attached to the {@link ForExpr} by the
+ * optimizer. Instead of evaluating the order expressions for every item and comparing
+ * the values, the "for" expression then passes its input node set to {@link #order(NodeSet)}
+ * and iterates over the result.
+ */
+public interface IndexedOrderBy {
+
+    /**
+     * Returns the given nodes in the order specified by the order specs of the
+     * "for" expression, or null if the index cannot determine the order of all nodes,
+     * in which case the order expressions are evaluated as usual.
+     *
+     * @param nodes the input sequence of the "for" expression
+     * @return the ordered nodes or null
+     * @throws XPathException
+     */
+    Sequence order(NodeSet nodes) throws XPathException;
+}
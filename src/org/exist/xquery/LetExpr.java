@@ -22,7 +22,6 @@
  */
 package org.exist.xquery;
 
-import java.util.Iterator;
 
 import org.exist.dom.QName;
 import org.exist.xquery.util.ExpressionDumper;
@@ -175,8 +174,12 @@ public class LetExpr extends BindingExpression {
                 //an OrderedValueSequence. OrderedValueSequence will compute
                 //order expressions for every item when it is added to the result sequence.
                 if (resultSequence == null) {
-                    if(orderSpecs != null && !fastOrderBy)
-                        {resultSequence = new OrderedValueSequence(orderSpecs, in.getItemCount());}
+                    if(orderSpecs != null && !fastOrderBy) {
+                        resultSequence = new OrderedValueSequence(orderSpecs, in.getItemCount(),
+                            context.getAggregationMemory());
+                        if (resultLimit > 0)
+                            {((OrderedValueSequence)resultSequence).setLimit(resultLimit);}
+                    }
                 }
                 if (groupedSequence==null){
                     if (returnExpr instanceof BindingExpression) {
@@ -240,6 +243,11 @@ public class LetExpr extends BindingExpression {
                                 Type.getTypeName(var.getValue().getItemType()), in);}
                     }
                 }
+            } catch (final XPathException e) {
+                // delete temporary files of the group table
+                if (groupSpecs != null)
+                    {groupedSequence.close();}
+                throw e;
             } finally {
                 // Restore the local variable stack
                 context.popLocalVariables(mark, resultSequence);
@@ -248,19 +256,25 @@ public class LetExpr extends BindingExpression {
             if (groupSpecs!=null) {
                 mark = context.markLocalVariables(false);
                 context.declareVariableBinding(var);
-                for (final Iterator<String> it = groupedSequence.iterate(); it.hasNext();){ 
-                    final GroupedValueSequence currentGroup = groupedSequence.get(it.next()); 
-                    context.proceed(this);
-                    // set binding variable to current group
-                    var.setValue(currentGroup);
-                    var.checkType();
-                    // Set value of grouping keys for the current group
-                    for (int i=0 ; i< groupKeyVar.length ; i ++) {
-                        groupKeyVar[i].setValue(currentGroup.getGroupKey().itemAt(i).toSequence());
+                try {
+                    for (final GroupedValueSequenceTable.GroupIterator it = groupedSequence.iterate(); it.hasNext();){ 
+                        final GroupedValueSequence currentGroup = it.next(); 
+                        context.proceed(this);
+                        // set binding variable to current group
+                        var.setValue(currentGroup);
+                        var.checkType();
+                        // Set value of grouping keys for the current group
+                        for (int i=0 ; i< groupKeyVar.length ; i ++) {
+                            groupKeyVar[i].setValue(currentGroup.getGroupKey().itemAt(i).toSequence());
+                        }
+                        //Evaluate real return expression
+                        final Sequence val = groupReturnExpr.eval(null); 
+                        resultSequence.addAll(val);
+                        if (isLimitReached(resultSequence))
+                            {break;}
                     }
-                    //Evaluate real return expression
-                    final Sequence val = groupReturnExpr.eval(null); 
-                    resultSequence.addAll(val);
+                } finally {
+                    groupedSequence.close();
                 }
                 context.popLocalVariables(mark);
            }
@@ -25,6 +25,7 @@ package org.exist.xquery;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.AtomicValue;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.Type;
 
@@ -51,6 +52,22 @@ public class LiteralValue extends AbstractExpression {
 	public void setValue(AtomicValue value) {
 		this.value = value;
 	}
+
+	/**
+	 * Returns the value of the expression if it is a numeric literal,
+	 * possibly wrapped as described in {@link Function#unwrapArgument(Expression)}.
+	 * Returns NaN otherwise, also for function calls and operators whose
+	 * operand is a literal.
+	 */
+	public static double getNumber(Expression expr) throws XPathException {
+		expr = Function.unwrapArgument(expr);
+		if (expr instanceof LiteralValue) {
+			final AtomicValue value = ((LiteralValue) expr).getValue();
+			if (Type.subTypeOf(value.getType(), Type.NUMBER))
+				{return ((NumericValue) value).getDouble();}
+		}
+		return Double.NaN;
+	}
 	
     /* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.AnalyzeContextInfo)
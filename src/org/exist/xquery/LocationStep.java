@@ -658,7 +658,8 @@ public class LocationStep extends Step {
 					throw new IllegalArgumentException(
 							"Unsupported axis specified");
 				}
-				return index.findElementsByTagName(ElementValue.ATTRIBUTE, docs, test.getName(), selector, this);
+				return index.findElementsByTagName(ElementValue.ATTRIBUTE, docs, test.getName(), selector, this,
+						getParallelism(contextSet));
 			}
 		}
 	}
@@ -745,7 +746,7 @@ public class LocationStep extends Step {
 				// ((VirtualNodeSet)contextSet).realize();
 				final NodeSelector selector = new ChildSelector(contextSet, contextId);
 				return index.findElementsByTagName(ElementValue.ELEMENT, docs,
-						test.getName(), selector, this);
+						test.getName(), selector, this, getParallelism(contextSet));
 			}
 		}
 	}
@@ -840,12 +841,28 @@ public class LocationStep extends Step {
 							"Unsupported axis specified");
 				}
 				return index.findElementsByTagName(ElementValue.ELEMENT, docs,
-						test.getName(), selector, this);
+						test.getName(), selector, this, getParallelism(contextSet));
 			}
 
 		}
 	}
 
+	/**
+	 * Returns the number of partitions into which an index scan with a
+	 * selector on the context set may be split, see
+	 * {@link StructuralIndex#findElementsByTagName(byte, DocumentSet, QName, NodeSelector, Expression, int)}.
+	 * Returns 1 if parallel evaluation is not enabled by the exist:parallel
+	 * pragma or if the context set does not support concurrent access.
+	 */
+	private int getParallelism(NodeSet contextSet) {
+		if (context.getParallelism() < 2 || !(contextSet instanceof NewArrayNodeSet))
+			{return 1;}
+		// the selectors look up nodes in the context set from several
+		// threads: sort it now, so it is not modified concurrently
+		((NewArrayNodeSet) contextSet).sort();
+		return context.getParallelism();
+	}
+
 	/**
 	 * The method <code>getSiblings</code>
 	 * 
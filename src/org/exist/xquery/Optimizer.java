@@ -27,7 +27,11 @@ import org.exist.xquery.functions.fn.ExtFulltext;
 import org.exist.xquery.util.ExpressionDumper;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Analyzes the query and marks optimizable expressions for the query engine.
@@ -37,6 +41,10 @@ import java.util.List;
  * The pragma may also decide that the optimization is not applicable and just execute
  * the expression without any optimization.
  *
+ * If index statistics are available, the optimizer also changes the order of the
+ * predicates of a location step, so cheap and selective predicates are evaluated first
+ * (see {@link CostModel}).
+ *
  * Currently, the optimizer is disabled by default. To enable it, set attribute enable-query-rewriting
  * to yes in conf.xml:
  *
@@ -59,9 +67,12 @@ public class Optimizer extends DefaultExpressionVisitor {
 
     private List<QueryRewriter> rewriters = new ArrayList<QueryRewriter>(5);
 
+    private final CostModel costModel;
+
     public Optimizer(XQueryContext context) {
         this.context = context;
         this.rewriters = context.getBroker().getIndexController().getQueryRewriters(context);
+        this.costModel = new CostModel(context);
     }
 
     public boolean hasOptimized() {
@@ -70,6 +81,7 @@ public class Optimizer extends DefaultExpressionVisitor {
 
     public void visitLocationStep(LocationStep locationStep) {
         super.visitLocationStep(locationStep);
+        orderPredicates(locationStep);
         // check query rewriters if they want to rewrite the location step
         Pragma optimizePragma = null;
         for (QueryRewriter rewriter : rewriters) {
@@ -86,13 +98,22 @@ public class Optimizer extends DefaultExpressionVisitor {
         }
 
         boolean optimize = false;
+        boolean positional = false;
         // only location steps with predicates can be optimized:
         if (locationStep.hasPredicates()) {
             final List<Predicate> preds = locationStep.getPredicates();
+            for (final Predicate pred : preds) {
+                if (!CostModel.isReorderable(pred))
+                    {positional = true;}
+            }
             // walk through the predicates attached to the current location step.
             // try to find a predicate containing an expression which is an instance
             // of Optimizable.
             for (final Predicate pred : preds) {
+                // an index lookup cannot replace a predicate which is evaluated
+                // against the nodes left by a preceding positional predicate
+                if (!CostModel.isReorderable(pred))
+                    {break;}
                 final FindOptimizable find = new FindOptimizable();
                 pred.accept(find);
                 final List<Optimizable> list = find.getOptimizables();
@@ -129,10 +150,11 @@ public class Optimizer extends DefaultExpressionVisitor {
                 
                 // Check if there are additional steps before the optimizable expression and
                 // rewrite them to use the ancestor axis. This will change //a/b//c[d = "D"] into
-                // //c[d = "D"][ancestor::b/parent::a]
+                // //c[d = "D"][ancestor::b/parent::a]. Not done for positional predicates,
+                // which would then count the nodes of the new axis.
                 int reverseAxis = reverseAxis(locationStep.getAxis());
                 Expression previous = path.getPrevious(extension);
-                if (previous != null && reverseAxis != Constants.UNKNOWN_AXIS) {
+                if (previous != null && reverseAxis != Constants.UNKNOWN_AXIS && !positional) {
                 	final List<Step> prevSteps = new ArrayList<Step>();
                 	while (previous != null && previous != path.getFirst() && previous instanceof Step) {
                 		final Step prevStep = (Step) previous;
@@ -180,6 +202,26 @@ public class Optimizer extends DefaultExpressionVisitor {
         }
     }
 
+    public void visitForExpression(ForExpr forExpr) {
+        super.visitForExpression(forExpr);
+        if (forExpr.getOrderSpecs().length == 0)
+            {return;}
+        // check query rewriters if they can answer the order by clause from an index
+        for (QueryRewriter rewriter : rewriters) {
+            try {
+                final IndexedOrderBy orderBy = rewriter.rewriteOrderBy(forExpr);
+                if (orderBy != null) {
+                    // the expression tree is not changed, so there's no need to
+                    // analyze the query again
+                    forExpr.setIndexedOrderBy(orderBy);
+                    break;
+                }
+            } catch (XPathException e) {
+                LOG.warn("Exception called while rewriting order by clause: " + e.getMessage(), e);
+            }
+        }
+    }
+
     public void visitFilteredExpr(FilteredExpression filtered) {
         super.visitFilteredExpr(filtered);
         boolean optimize = false;
@@ -246,6 +288,12 @@ public class Optimizer extends DefaultExpressionVisitor {
                 }
                 predicate = (Predicate) parent;
             }
+            // the right operand would be evaluated against the nodes selected by the left one
+            if (CostModel.dependsOnContext(and.getRight())) {
+                if (LOG.isTraceEnabled())
+                    {LOG.trace("Boolean operator depends on the context position or size: " + ExpressionDumper.dump(and));}
+                return;
+            }
             if (LOG.isTraceEnabled())
                 {LOG.trace("Rewriting boolean expression: " + ExpressionDumper.dump(and));}
             hasOptimized = true;
@@ -293,6 +341,41 @@ public class Optimizer extends DefaultExpressionVisitor {
         --predicates;
     }
 
+    /**
+     * Sort the predicates of the step by the rank estimated by the cost model,
+     * so cheap and selective predicates reduce the context for the others.
+     * The order is kept if any of the predicates depends on the position of
+     * the context item or on the size of the context.
+     */
+    private void orderPredicates(LocationStep locationStep) {
+        final List<Predicate> preds = locationStep.getPredicates();
+        if (preds.size() < 2 || !costModel.isAvailable())
+            {return;}
+        final List<Predicate> sorted = new ArrayList<Predicate>(preds);
+        final Map<Predicate, Double> ranks = new HashMap<Predicate, Double>();
+        for (final Predicate pred : sorted) {
+            if (!CostModel.isReorderable(pred))
+                {return;}
+            final CostModel.Estimate estimate = costModel.estimate(locationStep, pred);
+            if (estimate == null)
+                {return;}
+            ranks.put(pred, estimate.getRank());
+        }
+        // stable sort: predicates with the same rank keep their order
+        Collections.sort(sorted, new Comparator<Predicate>() {
+            @Override
+            public int compare(Predicate p1, Predicate p2) {
+                return Double.compare(ranks.get(p1), ranks.get(p2));
+            }
+        });
+        if (sorted.equals(preds))
+            {return;}
+        if (LOG.isTraceEnabled())
+            {LOG.trace("Reordering predicates of step: " + ExpressionDumper.dump(locationStep));}
+        locationStep.setPredicates(sorted);
+        hasOptimized = true;
+    }
+
     private boolean canOptimize(List<Optimizable> list) {
         for (final Optimizable optimizable : list) {
             final int axis = optimizable.getOptimizeAxis();
@@ -27,6 +27,7 @@ import org.exist.dom.NewArrayNodeSet;
 import org.exist.dom.NodeProxy;
 import org.exist.dom.NodeSet;
 import org.exist.dom.VirtualNodeSet;
+import org.exist.xquery.functions.fn.FunPosition;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.NumericValue;
@@ -654,6 +655,44 @@ public class Predicate extends PathExpr {
         return executionMode;
     }
 
+    /**
+     * Returns n if the predicate selects at most the first n items of the
+     * context sequence, i.e. for the predicates [n], [position() le n],
+     * [position() lt n] and [position() = n] with a numeric literal n.
+     * Returns -1 otherwise.
+     *
+     * @throws XPathException
+     */
+    public int getPositionLimit() throws XPathException {
+        if (getLength() != 1)
+            {return -1;}
+        double limit = LiteralValue.getNumber(getExpression(0));
+        final Expression inner = Function.unwrapArgument(getExpression(0));
+        if (Double.isNaN(limit) && inner instanceof GeneralComparison) {
+            final GeneralComparison comparison = (GeneralComparison) inner;
+            Expression left = Function.unwrapArgument(comparison.getLeft());
+            if (left instanceof InternalFunctionCall)
+                {left = ((InternalFunctionCall) left).getFunction();}
+            if (left instanceof FunPosition) {
+                final double n = LiteralValue.getNumber(comparison.getRight());
+                switch (comparison.getRelation()) {
+                case Constants.EQ:
+                case Constants.LTEQ:
+                    limit = Math.floor(n);
+                    break;
+                case Constants.LT:
+                    limit = Math.ceil(n) - 1;
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+        if (Double.isNaN(limit) || limit < 1 || limit >= Integer.MAX_VALUE)
+            {return -1;}
+        return (int) limit;
+    }
+
     /*
      * (non-Javadoc)
      * 
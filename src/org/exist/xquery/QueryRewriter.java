@@ -48,6 +48,20 @@ public class QueryRewriter {
         return null;
     }
 
+    /**
+     * Try to answer the "order by" clause of the given "for" expression from an index.
+     * The method is only called for "for" expressions which have order specs. If the order
+     * specs can be answered by the index, return an {@link IndexedOrderBy}, which will be
+     * asked to order the input sequence at evaluation time.
+     *
+     * @param forExpr the "for" expression
+     * @return an object to order the input sequence or null
+     * @throws XPathException
+     */
+    public IndexedOrderBy rewriteOrderBy(ForExpr forExpr) throws XPathException {
+        return null;
+    }
+
     protected XQueryContext getContext() {
         return context;
     }
@@ -1,25 +1,27 @@
 package org.exist.xquery;
 
-import org.apache.log4j.Logger;
-import org.exist.dom.NodeSet;
-import org.exist.xquery.value.AbstractSequence;
+import java.math.BigInteger;
+
+import org.exist.xquery.value.AbstractNumericSequence;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.ComputableValue;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
-import org.exist.xquery.value.MemoryNodeSet;
 import org.exist.xquery.value.Sequence;
-import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.Type;
 
-public class RangeSequence extends AbstractSequence {
+/**
+ * The result of a range expression. Items are only created when the
+ * sequence is iterated; sum, min and max are computed from the bounds.
+ */
+public class RangeSequence extends AbstractNumericSequence {
 
-	private final static Logger LOG = Logger.getLogger(AbstractSequence.class);
-	
-	private IntegerValue start;
-	private IntegerValue end;
+	private final long start;
+	private final long end;
 	
-	public RangeSequence(IntegerValue start, IntegerValue end) {
-		this.start = start;
-		this.end = end;
+	public RangeSequence(IntegerValue start, IntegerValue end) throws XPathException {
+		this.start = start.getLong();
+		this.end = end.getLong();
 	}
 
 	public void add(Item item) throws XPathException {
@@ -34,86 +36,44 @@ public class RangeSequence extends AbstractSequence {
 		return Type.INTEGER;
 	}
 
-	public SequenceIterator iterate() throws XPathException {
-		return new RangeSequenceIterator(start.getLong());
-	}
-
-	public SequenceIterator unorderedIterator() throws XPathException {
-		return new RangeSequenceIterator(start.getLong());
-	}
-
-	private class RangeSequenceIterator implements SequenceIterator {
-
-		long current;
-
-		public RangeSequenceIterator(long start) {
-			this.current = start;
-		}
-
-		public Item nextItem() {
-			try {
-				if (current <= end.getLong())
-					{return new IntegerValue(current++);}
-			} catch (final XPathException e) {
-				LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
-			}
-			return null;
-		}
-
-		public boolean hasNext() {
-			try {
-				return current <= end.getLong();
-			} catch (final XPathException e) {
-				LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
-				return false;
-			}
-		}
-		
-	}
-	
 	public int getItemCount() {
-		if (start.compareTo(end) > 0)
+		if (start > end)
 			{return 0;}
-		try {
-			return ((IntegerValue) end.minus(start)).getInt() + 1;
-		} catch (final XPathException e) {
-			LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
-			return 0;
-		}
+		final long count = end - start + 1;
+		return count > Integer.MAX_VALUE || count <= 0 ? Integer.MAX_VALUE : (int) count;
 	}
 
-	public boolean isEmpty() {
-		return getItemCount() == 0;
+	public long getLong(int pos) {
+		return start + pos;
 	}
 
-	public boolean hasOne() {
-		return getItemCount() == 1;
+	public double getDouble(int pos) {
+		return start + pos;
 	}
 
-	public boolean hasMany() {
-		return getItemCount() > 1;
+	public ComputableValue sum() throws XPathException {
+		// (start + end) * count / 2, the range may have more than Integer.MAX_VALUE items
+		return new IntegerValue(BigInteger.valueOf(start).add(BigInteger.valueOf(end))
+			.multiply(count()).shiftRight(1));
 	}
 
-	public Item itemAt(int pos) {
-		if (pos <= getItemCount())
-			try {
-				return new IntegerValue(start.getLong() + pos);
-			} catch (final XPathException e) {
-				LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
-			}
-		return null;
+	public ComputableValue avg() throws XPathException {
+		return sum().div(new IntegerValue(count()));
 	}
 
-	public NodeSet toNodeSet() throws XPathException {
-		throw new XPathException("Type error: the sequence cannot be converted into" +
-				" a node set. Item type is xs:integer");
+	public AtomicValue min() throws XPathException {
+		return new IntegerValue(start);
 	}
 
-	public MemoryNodeSet toMemNodeSet() throws XPathException {
-		throw new XPathException("Type error: the sequence cannot be converted into" +
-			" a node set. Item type is xs:integer");
+	public AtomicValue max() throws XPathException {
+		return new IntegerValue(end);
 	}
 
-	public void removeDuplicates() {
+	/**
+	 * The number of items in the range, which is not limited by the int
+	 * returned from {@link #getItemCount()}.
+	 */
+	private BigInteger count() {
+		return BigInteger.valueOf(end).subtract(BigInteger.valueOf(start)).add(BigInteger.ONE);
 	}
 }
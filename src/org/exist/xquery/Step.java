@@ -71,6 +71,15 @@ public abstract class Step extends AbstractExpression {
         predicates.add(idx + 1, (Predicate) predicate);
     }
 
+    /**
+     * Replace the predicates of the step, e.g. by the same predicates
+     * in a different order.
+     */
+    public void setPredicates(List<Predicate> newPredicates) {
+        predicates.clear();
+        predicates.addAll(newPredicates);
+    }
+
     public boolean hasPredicates() {
         return predicates.size() > 0;
     }
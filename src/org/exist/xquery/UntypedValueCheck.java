@@ -81,7 +81,10 @@ public class UntypedValueCheck extends AbstractExpression {
         
 		final Sequence seq = expression.eval(contextSequence, contextItem);
         Sequence result = null;
-        if (seq.hasOne()) {
+        if (seq instanceof NumericSequence && Type.subTypeOf(seq.getItemType(), requiredType)) {
+            // all items have the same type, no conversion needed
+            result = seq;
+        } else if (seq.hasOne()) {
             final Item item = convert(seq.itemAt(0));
             if (item != null)
                 {result = item.toSequence();}
@@ -46,6 +46,7 @@ import org.exist.source.Source;
 import org.exist.source.StringSource;
 import org.exist.storage.DBBroker;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.XQueryResultCache;
 import org.exist.xquery.parser.XQueryLexer;
 import org.exist.xquery.parser.XQueryParser;
 import org.exist.xquery.parser.XQueryTreeParser;
@@ -294,7 +295,30 @@ public class XQuery {
             context.getProfiler().traceQueryStart();
             broker.getBrokerPool().getProcessMonitor().queryStarted(context.getWatchDog());
             try {
+                //queries declaring exist:cache may be answered from the result cache
+                final XQueryResultCache resultCache = broker.getBrokerPool().getQueryResultCache();
+                String cacheKey = null;
+                if(resultCache != null && contextSequence == null) {
+                    cacheKey = resultCache.getKey(context, callingUser);
+                }
+                if(cacheKey != null) {
+                    final Sequence cached = resultCache.get(cacheKey, broker);
+                    if(cached != null) {
+                        if(LOG.isDebugEnabled()) {
+                            LOG.debug("Returning cached result for " + context.getSource().getKey());
+                        }
+                        if(outputProperties != null) {
+                            context.checkOptions(outputProperties);
+                        }
+                        return cached;
+                    }
+                }
+                final long generation = cacheKey == null ? 0 : resultCache.getGeneration();
+
                 final Sequence result = expression.eval(contextSequence);
+                if(cacheKey != null) {
+                    resultCache.put(cacheKey, context, result, generation);
+                }
                 if(LOG.isDebugEnabled()) {
                     final NumberFormat nf = NumberFormat.getNumberInstance();
                     LOG.debug("Execution took "  +  nf.format(System.currentTimeMillis() - start) + " ms");
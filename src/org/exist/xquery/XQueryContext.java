@@ -109,6 +109,8 @@ public class XQueryContext implements BinaryValueManager, Context
     public static final String                         XQUERY_BACKWARD_COMPATIBLE_ATTRIBUTE             = "backwardCompatible";
     public static final String                         XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_ATTRIBUTE = "raise-error-on-failed-retrieval";
     public static final String						   ENFORCE_INDEX_USE_ATTRIBUTE					    = "enforce-index-use";
+    public static final String                         AGGREGATION_MEMORY_ATTRIBUTE                     = "aggregation-memory";
+    public static final String                         PARALLEL_THREADS_ATTRIBUTE                       = "parallel-threads";
 
     //TODO : move elsewhere ?
     public static final String                         BUILT_IN_MODULE_URI_ATTRIBUTE                    = "uri";
@@ -120,6 +122,10 @@ public class XQueryContext implements BinaryValueManager, Context
     public static final String                         PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL  = "xquery.raise-error-on-failed-retrieval";
     public static final boolean                        XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT   = false;
     public static final String						   PROPERTY_ENFORCE_INDEX_USE						= "xquery.enforce-index-use";
+    public static final String                         PROPERTY_AGGREGATION_MEMORY                      = "xquery.aggregation-memory";
+    /** default memory budget of a group by or distinct-values in megabytes */
+    public static final int                            AGGREGATION_MEMORY_DEFAULT                       = 64;
+    public static final String                         PROPERTY_PARALLEL_THREADS                        = "xquery.parallel-threads";
 
     //TODO : move elsewhere ?
     public static final String                         PROPERTY_BUILT_IN_MODULES                        = "xquery.modules";
@@ -302,6 +308,10 @@ public class XQueryContext implements BinaryValueManager, Context
 
     private boolean                                    raiseErrorOnFailedRetrieval   = XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT;
 
+    private long                                       aggregationMemory             = AGGREGATION_MEMORY_DEFAULT * 1024L * 1024L;
+
+    private int                                        parallelism                   = 1;
+
     private boolean                                    isShared                      = false;
 
     private Source source = null;
@@ -1084,6 +1094,16 @@ public class XQueryContext implements BinaryValueManager, Context
     }
 
 
+    /**
+     * Returns the paths of the statically known documents and collections as set by
+     * {@link #setStaticallyKnownDocuments(XmldbURI[])}, or null if none were set.
+     */
+    public XmldbURI[] getStaticallyKnownDocumentPaths()
+    {
+        return( staticDocumentPaths );
+    }
+
+
     public void setStaticallyKnownDocuments( DocumentSet set )
     {
         staticDocuments = set;
@@ -1383,6 +1403,7 @@ public class XQueryContext implements BinaryValueManager, Context
         fragmentStack = new Stack<MemTreeBuilder>();
         callStack.clear();
         protectedDocuments = null;
+        parallelism = 1;
 
         if( !keepGlobals ) {
             globalVariables.clear();
@@ -2111,6 +2132,39 @@ public class XQueryContext implements BinaryValueManager, Context
     }
 
 
+    /**
+     * Returns the number of bytes a "group by" clause or fn:distinct-values may
+     * use for its hash table before values are written to temporary files.
+     */
+    public long getAggregationMemory()
+    {
+        return( aggregationMemory );
+    }
+
+
+    public void setAggregationMemory( long bytes )
+    {
+        this.aggregationMemory = bytes;
+    }
+
+
+    /**
+     * Returns the number of partitions the current expression may be split into
+     * for parallel evaluation. 1 if the expression should be evaluated by the
+     * calling thread only.
+     */
+    public int getParallelism()
+    {
+        return( parallelism );
+    }
+
+
+    public void setParallelism( int parallelism )
+    {
+        this.parallelism = parallelism;
+    }
+
+
     public Database getDatabase() {
     	return db;
     }
@@ -3237,6 +3291,10 @@ public class XQueryContext implements BinaryValueManager, Context
             if( NoIndexPragma.NO_INDEX_PRAGMA.equalsSimple( qname ) ) {
                 return( new NoIndexPragma( qname, contents ) );
             }
+
+            if( ParallelPragma.PARALLEL_PRAGMA.equalsSimple( qname ) ) {
+                return( new ParallelPragma( qname, contents ) );
+            }
         }
         return( null );
     }
@@ -3348,6 +3406,12 @@ public class XQueryContext implements BinaryValueManager, Context
         final Boolean option = ( (Boolean)config.getProperty( PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL ) );
         raiseErrorOnFailedRetrieval = ( option != null ) && option.booleanValue();
 
+        // Memory budget of hash aggregation
+        final Integer aggregationOpt = (Integer)config.getProperty( PROPERTY_AGGREGATION_MEMORY );
+        if( aggregationOpt != null ) {
+            aggregationMemory = aggregationOpt.longValue() * 1024L * 1024L;
+        }
+
         // Get map of built-in modules
         final Map<String, Class<Module>> builtInModules = (Map)config.getProperty( PROPERTY_BUILT_IN_MODULES );
 
@@ -28,6 +28,7 @@ import org.exist.config.annotation.ConfigurationClass;
 import org.exist.config.annotation.ConfigurationFieldAsAttribute;
 import org.exist.memtree.MemTreeBuilder;
 import org.exist.storage.DBBroker;
+import org.exist.storage.QueryStats;
 import org.exist.util.Configuration;
 import org.exist.xquery.util.ExpressionDumper;
 
@@ -44,6 +45,7 @@ public class XQueryWatchDog {
     
     public final static String PROPERTY_QUERY_TIMEOUT = "db-connection.watchdog.query-timeout";
     public final static String PROPERTY_OUTPUT_SIZE_LIMIT = "db-connection.watchdog.output-size-limit";
+    public final static String PROPERTY_SLOW_QUERY_THRESHOLD = "db-connection.watchdog.slow-query-threshold";
 
     private final XQueryContext context;
     
@@ -56,6 +58,9 @@ public class XQueryWatchDog {
     private long startTime;
     
     private boolean terminate = false;
+
+    private QueryStats stats = null;
+    private int statsDepth = 0;
     
     /**
      * 
@@ -171,6 +176,36 @@ public class XQueryWatchDog {
 		 return startTime;
 	 }
     
+    /**
+     * Start recording the resources used by the query. A query evaluated with
+     * the context of another query, e.g. by util:eval, shares its watchdog:
+     * only the outermost call starts new stats.
+     */
+    public void startStats() {
+        if (statsDepth++ == 0)
+            {stats = QueryStats.start();}
+    }
+
+    /**
+     * Stop recording the resources used by the query.
+     *
+     * @return the stats if the outermost call completed, null otherwise
+     */
+    public QueryStats stopStats() {
+        if (statsDepth == 0 || --statsDepth > 0)
+            {return null;}
+        stats.stop();
+        return stats;
+    }
+
+    /**
+     * Returns the resources used by the running or the most recent execution
+     * of the query, or null if it has not been executed yet.
+     */
+    public QueryStats getQueryStats() {
+        return stats;
+    }
+
     public void reset() {
         startTime = System.currentTimeMillis();
         terminate = false;
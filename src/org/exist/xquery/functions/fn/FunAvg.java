@@ -39,6 +39,7 @@ import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NumericSequence;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
@@ -91,6 +92,9 @@ public class FunAvg extends Function {
         final Sequence inner = getArgument(0).eval(contextSequence, contextItem);
         if (inner.isEmpty()) {
             result = Sequence.EMPTY_SEQUENCE;
+        } else if (inner instanceof NumericSequence) {
+            // packed xs:integer or xs:double values
+            result = ((NumericSequence) inner).avg();
         } else {
             final SequenceIterator iter = inner.iterate();
             Item item = iter.nextItem();
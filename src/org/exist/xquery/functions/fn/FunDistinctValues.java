@@ -25,7 +25,6 @@ import org.apache.log4j.Logger;
 
 import java.text.Collator;
 import java.util.Comparator;
-import java.util.TreeSet;
 
 import org.exist.dom.QName;
 import org.exist.xquery.Cardinality;
@@ -38,15 +37,14 @@ import org.exist.xquery.ValueComparison;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.DistinctValueSet;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.Item;
-import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
-import org.exist.xquery.value.ValueSequence;
 
 /**
  * Implements the fn:distinct-values standard library function.
@@ -115,33 +113,16 @@ public class FunDistinctValues extends CollatingFunction {
         }
         final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
         final Collator collator = getCollator(contextSequence, contextItem, 2);		
-        final TreeSet<AtomicValue> set = new TreeSet<AtomicValue>(new ValueComparator(collator));
-        final ValueSequence result = new ValueSequence();
-        Item item;
-        AtomicValue value;
-        boolean hasAlreadyNaN = false;
-        for (final SequenceIterator i = seq.iterate(); i.hasNext();) {
-            item = i.nextItem();
-            value = item.atomize();
-            if (!set.contains(value)) {
-                if (Type.subTypeOf(value.getType(), Type.NUMBER)) {
-                    if (((NumericValue)value).isNaN()) {
-                        //although NaN does not equal itself, if $arg 
-                        //contains multiple NaN values a single NaN is returned.
-                        if (!hasAlreadyNaN) {
-                            set.add(value);
-                            result.add(value);	
-                            hasAlreadyNaN = true;
-                        }
-                    } else {
-                        set.add(value);
-                        result.add(value);
-                    }
-                } else {
-                    set.add(value);
-                    result.add(value);
-                }
+        final DistinctValueSet set = new DistinctValueSet(collator, new ValueComparator(collator),
+            context.getAggregationMemory());
+        final Sequence result;
+        try {
+            for (final SequenceIterator i = seq.iterate(); i.hasNext();) {
+                set.add(i.nextItem().atomize());
             }
+            result = set.getResult();
+        } finally {
+            set.close();
         }
         if (context.getProfiler().isEnabled())
             {context.getProfiler().end(this, "", result);}
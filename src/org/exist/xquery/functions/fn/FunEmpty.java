@@ -22,6 +22,8 @@
 package org.exist.xquery.functions.fn;
 
 import org.exist.dom.QName;
+import org.exist.xquery.AnalyzeContextInfo;
+import org.exist.xquery.BindingExpression;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.Dependency;
 import org.exist.xquery.Function;
@@ -57,6 +59,13 @@ public class FunEmpty extends Function {
         super(context, signature);
     }
 
+    @Override
+    public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
+        super.analyze(contextInfo);
+        // only the first item of the argument is needed
+        BindingExpression.setResultLimit(getArgument(0), 1);
+    }
+
     /* (non-Javadoc)
      * @see org.exist.xquery.Expression#eval(org.exist.dom.DocumentSet, org.exist.xquery.value.Sequence, org.exist.xquery.value.Item)
      */
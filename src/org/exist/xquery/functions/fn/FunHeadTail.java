@@ -5,6 +5,7 @@ import org.exist.dom.NodeSet;
 import org.exist.dom.QName;
 import org.exist.xquery.AnalyzeContextInfo;
 import org.exist.xquery.BasicFunction;
+import org.exist.xquery.BindingExpression;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.Function;
@@ -49,6 +50,8 @@ public class FunHeadTail extends BasicFunction {
 			throw new XPathException(this, ErrorCodes.EXXQDY0003, "Function " + 
 					getSignature().getName() + " is only supported for xquery version \"3.0\" and later.");
 		}
+		if (isCalledAs("head"))
+			{BindingExpression.setResultLimit(getArgument(0), 1);}
 	}
 	
 	@Override
@@ -42,6 +42,7 @@ import org.exist.xquery.value.FloatValue;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NumericSequence;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.QNameValue;
 import org.exist.xquery.value.Sequence;
@@ -142,6 +143,13 @@ public class FunMax extends CollatingFunction {
         	boolean computableProcessing = false;
         	//TODO : test if a range index is defined *iff* it is compatible with the collator
     		final Collator collator = getCollator(contextSequence, contextItem, 2);
+    		if (arg instanceof NumericSequence) {
+    			// packed xs:integer or xs:double values, the collation does not apply
+    			result = ((NumericSequence) arg).max();
+    			if (context.getProfiler().isEnabled()) 
+    				{context.getProfiler().end(this, "", result);}
+    			return result;
+    		}
     		final SequenceIterator iter = arg.unorderedIterator();
     		AtomicValue max = null;
     		while (iter.hasNext()) {
@@ -41,6 +41,7 @@ import org.exist.xquery.value.FloatValue;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NumericSequence;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.QNameValue;
 import org.exist.xquery.value.Sequence;
@@ -144,6 +145,13 @@ public class FunMin extends CollatingFunction {
         else {
         	//TODO : test if a range index is defined *iff* it is compatible with the collator
     		final Collator collator = getCollator(contextSequence, contextItem, 2);
+    		if (arg instanceof NumericSequence) {
+    			// packed xs:integer or xs:double values, the collation does not apply
+    			result = ((NumericSequence) arg).min();
+    			if (context.getProfiler().isEnabled()) 
+    				{context.getProfiler().end(this, "", result);}
+    			return result;
+    		}
     		final SequenceIterator iter = arg.unorderedIterator();
     		AtomicValue min = null;
     		while (iter.hasNext()) {
@@ -87,6 +87,17 @@ public class FunSubSequence extends Function {
             if (i == 0)
                 {contextInfo.setStaticReturnType(argContextInfo.getStaticReturnType());}
         }
+        // only the items up to start + length - 1 are used: an "order by" in
+        // the source expression does not need to keep more
+        if (getArgumentCount() == 3) {
+            final double start = LiteralValue.getNumber(getArgument(1));
+            final double length = LiteralValue.getNumber(getArgument(2));
+            if (!Double.isNaN(start) && !Double.isNaN(length)) {
+                final double limit = Math.floor(start + 0.5) + Math.floor(length + 0.5) - 1;
+                if (limit >= 1 && limit < Integer.MAX_VALUE)
+                    {BindingExpression.setResultLimit(getArgument(0), (int) limit);}
+            }
+        }
     }
 
     /*
@@ -38,6 +38,7 @@ import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NumericSequence;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
@@ -97,6 +98,9 @@ public class FunSum extends Function {
 			if(getSignature().getArgumentCount() == 2)
 				{zero = getArgument(1).eval(contextSequence, contextItem);}
 			result = zero;
+		} else if (inner instanceof NumericSequence) {
+			// packed xs:integer or xs:double values
+			result = ((NumericSequence) inner).sum();
 		} else {
     		final SequenceIterator iter = inner.iterate();
     		Item item = iter.nextItem();
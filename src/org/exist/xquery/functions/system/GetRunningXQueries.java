@@ -23,9 +23,11 @@
 package org.exist.xquery.functions.system;
 
 import java.util.Date;
+import java.util.Map;
 import org.apache.log4j.Logger;
 import org.exist.dom.QName;
 import org.exist.memtree.MemTreeBuilder;
+import org.exist.storage.QueryStats;
 import org.exist.xquery.BasicFunction;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.FunctionSignature;
@@ -54,7 +56,9 @@ public class GetRunningXQueries extends BasicFunction
 	public final static FunctionSignature signature =
 		new FunctionSignature(
 			new QName( "get-running-xqueries", SystemModule.NAMESPACE_URI, SystemModule.PREFIX ),
-			"Get a list of running XQueries (dba role only).",
+			"Get a list of running XQueries (dba role only). For each query, the resources used so far are " +
+			"reported: pages read from every database file, cache hits and misses, index lookups, nodes loaded, " +
+			"characters serialized and, if supported by the JVM, the bytes allocated.",
 			null,
 			new FunctionReturnSequenceType( Type.ITEM, Cardinality.EXACTLY_ONE, "a node containing the list of running XQueries" )
 		);
@@ -120,8 +124,35 @@ public class GetRunningXQueries extends BasicFunction
 		builder.startElement( new QName( "xqueryExpression", NAMESPACE_URI, PREFIX ), null );
 		builder.characters( context.getRootExpression().toString() );
 		builder.endElement();
+
+		final QueryStats stats = watchdog.getQueryStats();
+		if( stats != null ) {
+			getResources( builder, stats );
+		}
 		
 		builder.endElement();
 	}
+
+	private void getResources( MemTreeBuilder builder, QueryStats stats )
+	{
+		builder.startElement( new QName( "resources", NAMESPACE_URI, PREFIX ), null );
+
+		builder.addAttribute( new QName( "elapsed", null, null ), "" + stats.getDuration() );
+		builder.addAttribute( new QName( "allocatedBytes", null, null ), "" + stats.getAllocatedBytes() );
+		builder.addAttribute( new QName( "cacheHits", null, null ), "" + stats.getCacheHits() );
+		builder.addAttribute( new QName( "cacheMisses", null, null ), "" + stats.getCacheMisses() );
+		builder.addAttribute( new QName( "indexLookups", null, null ), "" + stats.getIndexLookups() );
+		builder.addAttribute( new QName( "nodesLoaded", null, null ), "" + stats.getNodesLoaded() );
+		builder.addAttribute( new QName( "charsSerialized", null, null ), "" + stats.getCharsSerialized() );
+
+		for( final Map.Entry<String, Long> pages : stats.getPagesRead().entrySet() ) {
+			builder.startElement( new QName( "pagesRead", NAMESPACE_URI, PREFIX ), null );
+			builder.addAttribute( new QName( "file", null, null ), pages.getKey() );
+			builder.addAttribute( new QName( "count", null, null ), pages.getValue().toString() );
+			builder.endElement();
+		}
+
+		builder.endElement();
+	}
 	
 }
@@ -0,0 +1,190 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery.functions.util;
+
+import org.apache.log4j.Logger;
+import org.exist.dom.QName;
+import org.exist.memtree.MemTreeBuilder;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.xacml.AccessContext;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.Constants;
+import org.exist.xquery.CostModel;
+import org.exist.xquery.DefaultExpressionVisitor;
+import org.exist.xquery.Expression;
+import org.exist.xquery.FilteredExpression;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.GeneralComparison;
+import org.exist.xquery.LocationStep;
+import org.exist.xquery.NodeTest;
+import org.exist.xquery.PathExpr;
+import org.exist.xquery.Predicate;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+
+/**
+ * Compiles a query and describes the plan chosen by the optimizer.
+ */
+public class Explain extends BasicFunction {
+
+    protected static final Logger logger = Logger.getLogger(Explain.class);
+
+    public final static FunctionSignature signature =
+        new FunctionSignature(
+            new QName("explain", UtilModule.NAMESPACE_URI, UtilModule.PREFIX),
+            "Compiles the XQuery expression given in parameter $expression without executing it " +
+            "and returns a description of the query plan: the optimized expression and, for every " +
+            "location step with predicates, the order in which the predicates are evaluated, whether " +
+            "the step is marked for index lookup by the optimizer and the cost estimated from the " +
+            "index statistics. Costs are the estimated number of index entries or nodes to be read; " +
+            "they are only given if statistics are available.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("expression", Type.STRING, Cardinality.EXACTLY_ONE, "The XPath/XQuery expression.")
+            },
+            new FunctionReturnSequenceType(Type.ELEMENT, Cardinality.EXACTLY_ONE, "the query plan"));
+
+    private static final QName EXPLAIN_ELEMENT = new QName("explain");
+    private static final QName EXPRESSION_ELEMENT = new QName("expression");
+    private static final QName STEP_ELEMENT = new QName("step");
+    private static final QName PREDICATE_ELEMENT = new QName("predicate");
+    private static final QName OPTIMIZE_ATTR = new QName("optimize");
+    private static final QName STATISTICS_ATTR = new QName("statistics");
+    private static final QName AXIS_ATTR = new QName("axis");
+    private static final QName NAME_ATTR = new QName("name");
+    private static final QName NODES_ATTR = new QName("nodes");
+    private static final QName INDEX_ATTR = new QName("index-lookup");
+    private static final QName COST_ATTR = new QName("cost");
+    private static final QName SELECTIVITY_ATTR = new QName("selectivity");
+    private static final QName LOOKUP_COST_ATTR = new QName("lookup-cost");
+
+    public Explain(XQueryContext context) {
+        super(context, signature);
+    }
+
+    public Sequence eval(Sequence[] args, Sequence contextSequence) throws XPathException {
+        final String expr = args[0].getStringValue();
+        final XQueryContext pContext =
+            new XQueryContext(context.getBroker().getBrokerPool(), AccessContext.VALIDATION_INTERNAL);
+        pContext.setModuleLoadPath(context.getModuleLoadPath());
+        CompiledXQuery compiled;
+        try {
+            compiled = context.getBroker().getXQueryService().compile(pContext, expr);
+        } catch (final PermissionDeniedException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        }
+        final CostModel costModel = new CostModel(context);
+
+        context.pushDocumentContext();
+        try {
+            final MemTreeBuilder builder = context.getDocumentBuilder();
+            builder.startElement(EXPLAIN_ELEMENT, null);
+            builder.addAttribute(OPTIMIZE_ATTR, pContext.optimizationsEnabled() ? "yes" : "no");
+            builder.addAttribute(STATISTICS_ATTR, costModel.isAvailable() ? "yes" : "no");
+            builder.startElement(EXPRESSION_ELEMENT, null);
+            builder.characters(ExpressionDumper.dump((Expression) compiled));
+            builder.endElement();
+            ((Expression) compiled).accept(new PlanVisitor(builder, costModel));
+            builder.endElement();
+            return builder.getDocument().getNode(1);
+        } finally {
+            context.popDocumentContext();
+            pContext.reset();
+        }
+    }
+
+    /**
+     * Writes a step element for every location step with predicates.
+     */
+    private static class PlanVisitor extends DefaultExpressionVisitor {
+
+        private final MemTreeBuilder builder;
+        private final CostModel costModel;
+        private boolean indexLookup = false;
+
+        private PlanVisitor(MemTreeBuilder builder, CostModel costModel) {
+            this.builder = builder;
+            this.costModel = costModel;
+        }
+
+        @Override
+        public void visit(Expression expression) {
+            // called with the inner expression of an extension expression. The
+            // optimizer wraps the steps it marks for index lookup into an
+            // (#exist:optimize#) extension expression.
+            if (expression instanceof LocationStep || expression instanceof FilteredExpression) {
+                indexLookup = true;
+                expression.accept(this);
+                indexLookup = false;
+            } else if (expression instanceof PathExpr) {
+                expression.accept(this);
+            }
+        }
+
+        @Override
+        public void visitLocationStep(LocationStep locationStep) {
+            if (locationStep.hasPredicates()) {
+                builder.startElement(STEP_ELEMENT, null);
+                builder.addAttribute(AXIS_ATTR, Constants.AXISSPECIFIERS[locationStep.getAxis()]);
+                final NodeTest test = locationStep.getTest();
+                builder.addAttribute(NAME_ATTR, test.isWildcardTest() || test.getName() == null ?
+                    test.toString() : test.getName().getStringValue());
+                final double nodes = costModel.getNodeCount(locationStep);
+                if (nodes != CostModel.UNKNOWN)
+                    {builder.addAttribute(NODES_ATTR, format(nodes));}
+                builder.addAttribute(INDEX_ATTR, indexLookup ? "yes" : "no");
+                indexLookup = false;
+                for (final Predicate pred : locationStep.getPredicates()) {
+                    builder.startElement(PREDICATE_ELEMENT, null);
+                    final CostModel.Estimate estimate = costModel.estimate(locationStep, pred);
+                    if (estimate != null) {
+                        builder.addAttribute(COST_ATTR, format(estimate.getCost()));
+                        builder.addAttribute(SELECTIVITY_ATTR, format(estimate.getSelectivity()));
+                    }
+                    final Expression inner = pred.getExpression(0);
+                    if (inner instanceof GeneralComparison) {
+                        final double lookupCost = costModel.getLookupCost((GeneralComparison) inner);
+                        if (lookupCost != CostModel.UNKNOWN)
+                            {builder.addAttribute(LOOKUP_COST_ATTR, format(lookupCost));}
+                    }
+                    builder.characters(ExpressionDumper.dump(inner));
+                    builder.endElement();
+                }
+                builder.endElement();
+            }
+            super.visitLocationStep(locationStep);
+        }
+
+        private static String format(double value) {
+            if (value == Math.rint(value))
+                {return Long.toString((long) value);}
+            return Double.toString(Math.round(value * 1000) / 1000.0);
+        }
+    }
+}
@@ -80,6 +80,7 @@ public class UtilModule extends AbstractInternalModule {
         new FunctionDef(Compile.signatures[0], Compile.class),
         new FunctionDef(Compile.signatures[1], Compile.class),
         new FunctionDef(Compile.signatures[2], Compile.class),
+        new FunctionDef(Explain.signature, Explain.class),
         new FunctionDef(DocumentNameOrId.docIdSignature, DocumentNameOrId.class),
         new FunctionDef(DocumentNameOrId.docNameSignature, DocumentNameOrId.class),
         new FunctionDef(DocumentNameOrId.absoluteResourceIdSignature, DocumentNameOrId.class),
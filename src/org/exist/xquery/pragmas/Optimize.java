@@ -55,6 +55,10 @@ public class Optimize extends Pragma {
     private NodeSet cachedContext = null;
     private int cachedTimestamp;
     private boolean cachedOptimize;
+
+    // result of the cost based choice between index lookup and structural
+    // evaluation, null if not yet computed
+    private Boolean preferIndex = null;
     
     public Optimize(XQueryContext context, QName pragmaName, String contents, boolean explicit) throws XPathException {
         super(pragmaName, contents);
@@ -106,6 +110,11 @@ public class Optimize extends Pragma {
                         }
                     }
                 }
+                if (optimize && contextStep != null && !preferIndex()) {
+                    if (LOG.isTraceEnabled())
+                        {LOG.trace("exist:optimize: structural evaluation is estimated to be cheaper than index lookup.");}
+                    optimize = false;
+                }
             }
         }
         if (optimize) {
@@ -191,6 +200,9 @@ public class Optimize extends Pragma {
             public void visitLocationStep(LocationStep locationStep) {
                 final List<Predicate> predicates = locationStep.getPredicates();
                 for (final Predicate pred : predicates) {
+                    // predicates following a positional one see a different context
+                    if (!CostModel.isReorderable(pred))
+                        {break;}
                     pred.accept(this);
                 }
             }
@@ -202,6 +214,8 @@ public class Optimize extends Pragma {
 
                 final List<Predicate> predicates = filtered.getPredicates();
                 for (final Predicate pred : predicates) {
+                    if (!CostModel.isReorderable(pred))
+                        {break;}
                     pred.accept(this);
                 }
             }
@@ -247,6 +261,16 @@ public class Optimize extends Pragma {
     public void after(XQueryContext context, Expression expression) throws XPathException {
     }
 
+    /**
+     * Ask the cost model if the index lookup is cheaper than evaluating the
+     * context step on all its nodes.
+     */
+    private boolean preferIndex() {
+        if (preferIndex == null)
+            {preferIndex = new CostModel(context).preferIndex(contextStep, optimizables);}
+        return preferIndex;
+    }
+
     private void addOptimizable(Optimizable optimizable) {final int axis = optimizable.getOptimizeAxis();
         if (!(axis == Constants.CHILD_AXIS || axis == Constants.SELF_AXIS || axis == Constants.DESCENDANT_AXIS ||
                 axis == Constants.DESCENDANT_SELF_AXIS || axis == Constants.ATTRIBUTE_AXIS ||
@@ -268,6 +292,7 @@ public class Optimize extends Pragma {
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
         cachedContext = null;
+        preferIndex = null;
     }
 
     /**
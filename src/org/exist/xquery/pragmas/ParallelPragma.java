@@ -0,0 +1,89 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery.pragmas;
+
+import java.util.Stack;
+
+import org.apache.log4j.Logger;
+import org.exist.Namespaces;
+import org.exist.dom.QName;
+import org.exist.xquery.*;
+import org.exist.xquery.value.Sequence;
+
+/**
+ * Enables the parallel evaluation of the enclosed expression:
+ *
+ * <pre>(# exist:parallel threads=8 #) { collection('/db/data')//entry[author = 'xyz'] }</pre>
+ *
+ * Location steps selecting elements or attributes by name through the structural
+ * index then distribute the documents of their context over the threads configured
+ * by the parallel-threads attribute in conf.xml. The optional threads parameter
+ * limits the number of partitions used by the query, it defaults to the number of
+ * configured threads. If parallel evaluation is not configured, the pragma is ignored.
+ */
+public class ParallelPragma extends Pragma {
+
+    private final static Logger LOG = Logger.getLogger(ParallelPragma.class);
+
+    public final static QName PARALLEL_PRAGMA = new QName("parallel", Namespaces.EXIST_NS, "exist");
+
+    private int threads = -1;
+
+    // parallelism of the context before the pragma was entered, needed
+    // for recursive calls
+    private final Stack<Integer> saved = new Stack<Integer>();
+
+    public ParallelPragma(QName qname, String contents) throws XPathException {
+        super(qname, contents);
+        if (contents != null && contents.length() > 0) {
+            final String param[] = Option.parseKeyValuePair(contents);
+            if (param == null || !"threads".equals(param[0]))
+                {throw new XPathException("Invalid content found for pragma exist:parallel: " + contents);}
+            try {
+                threads = Integer.parseInt(param[1]);
+            } catch (final NumberFormatException e) {
+                throw new XPathException("Invalid number of threads for pragma exist:parallel: " + param[1]);
+            }
+        }
+    }
+
+    public void before(XQueryContext context, Expression expression, Sequence contextSequence) throws XPathException {
+        saved.push(Integer.valueOf(context.getParallelism()));
+        if (context.getBroker().getBrokerPool().getQueryExecutor() == null) {
+            if (LOG.isDebugEnabled())
+                {LOG.debug("Parallel evaluation is not configured. Ignoring pragma.");}
+            return;
+        }
+        final int configured = context.getBroker().getConfiguration().getInteger(XQueryContext.PROPERTY_PARALLEL_THREADS);
+        context.setParallelism(threads > 0 ? Math.min(threads, configured) : configured);
+    }
+
+    public void after(XQueryContext context, Expression expression) throws XPathException {
+        if (!saved.isEmpty())
+            {context.setParallelism(saved.pop().intValue());}
+    }
+
+    public void resetState(boolean postOptimization) {
+        super.resetState(postOptimization);
+        saved.clear();
+    }
+}
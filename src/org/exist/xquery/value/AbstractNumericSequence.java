@@ -0,0 +1,152 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery.value;
+
+import java.math.BigInteger;
+
+import org.exist.dom.NodeSet;
+import org.exist.xquery.XPathException;
+
+/**
+ * Base class for the implementations of {@link NumericSequence}. Aggregates
+ * are computed on the primitive values returned by {@link #getLong(int)}
+ * or {@link #getDouble(int)}.
+ */
+public abstract class AbstractNumericSequence extends AbstractSequence implements NumericSequence {
+
+    public SequenceIterator iterate() throws XPathException {
+        return new NumericSequenceIterator();
+    }
+
+    public SequenceIterator unorderedIterator() throws XPathException {
+        return new NumericSequenceIterator();
+    }
+
+    public boolean isEmpty() {
+        return getItemCount() == 0;
+    }
+
+    public boolean hasOne() {
+        return getItemCount() == 1;
+    }
+
+    public boolean hasMany() {
+        return getItemCount() > 1;
+    }
+
+    public Item itemAt(int pos) {
+        if (pos < 0 || pos >= getItemCount())
+            {return null;}
+        if (getItemType() == Type.INTEGER)
+            {return new IntegerValue(getLong(pos));}
+        return new DoubleValue(getDouble(pos));
+    }
+
+    public ComputableValue sum() throws XPathException {
+        final int count = getItemCount();
+        if (getItemType() == Type.INTEGER) {
+            // xs:integer has arbitrary precision: values which do not fit
+            // into the long sum are moved into a BigInteger
+            BigInteger overflow = null;
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                final long value = getLong(i);
+                final long r = sum + value;
+                if (((sum ^ r) & (value ^ r)) < 0) {
+                    overflow = overflow == null ? BigInteger.valueOf(sum) : overflow.add(BigInteger.valueOf(sum));
+                    sum = value;
+                } else
+                    {sum = r;}
+            }
+            if (overflow == null)
+                {return new IntegerValue(sum);}
+            return new IntegerValue(overflow.add(BigInteger.valueOf(sum)));
+        }
+        double sum = getDouble(0);
+        for (int i = 1; i < count; i++) {
+            sum += getDouble(i);
+        }
+        return new DoubleValue(sum);
+    }
+
+    public ComputableValue avg() throws XPathException {
+        return sum().div(new IntegerValue(getItemCount()));
+    }
+
+    public AtomicValue min() throws XPathException {
+        final int count = getItemCount();
+        if (getItemType() == Type.INTEGER) {
+            long min = getLong(0);
+            for (int i = 1; i < count; i++) {
+                min = Math.min(min, getLong(i));
+            }
+            return new IntegerValue(min);
+        }
+        double min = getDouble(0);
+        for (int i = 1; i < count; i++) {
+            min = Math.min(min, getDouble(i));
+        }
+        return new DoubleValue(min);
+    }
+
+    public AtomicValue max() throws XPathException {
+        final int count = getItemCount();
+        if (getItemType() == Type.INTEGER) {
+            long max = getLong(0);
+            for (int i = 1; i < count; i++) {
+                max = Math.max(max, getLong(i));
+            }
+            return new IntegerValue(max);
+        }
+        double max = getDouble(0);
+        for (int i = 1; i < count; i++) {
+            max = Math.max(max, getDouble(i));
+        }
+        return new DoubleValue(max);
+    }
+
+    public NodeSet toNodeSet() throws XPathException {
+        throw new XPathException("Type error: the sequence cannot be converted into" +
+            " a node set. Item type is " + Type.getTypeName(getItemType()));
+    }
+
+    public MemoryNodeSet toMemNodeSet() throws XPathException {
+        throw new XPathException("Type error: the sequence cannot be converted into" +
+            " a node set. Item type is " + Type.getTypeName(getItemType()));
+    }
+
+    public void removeDuplicates() {
+    }
+
+    private class NumericSequenceIterator implements SequenceIterator {
+
+        private int pos = 0;
+
+        public boolean hasNext() {
+            return pos < getItemCount();
+        }
+
+        public Item nextItem() {
+            return itemAt(pos++);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery.value;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.Collator;
+import java.util.Arrays;
+
+import org.exist.xquery.XPathException;
+
+/**
+ * Hash key for an atomic value, used for hash based grouping and duplicate
+ * elimination. Two keys are equal if the values are equal according to
+ * the eq operator, so values of different types which compare as equal
+ * share a key:
+ *
+ * <ul>
+ *     <li>numeric values with an integral value that fits into a long are
+ *     stored as a long, other integral values as a BigInteger, whatever
+ *     their type, so 1, 1.0 and 1.0e0 have the same key, and so have
+ *     100000000000000000000 and 1e20. Other numeric values are stored as a
+ *     double: decimals are compared after conversion to double, like in a
+ *     comparison of a decimal with a double.</li>
+ *     <li>xs:string, xs:anyURI and xs:untypedAtomic values are stored as the
+ *     collation key of the string or, for the codepoint collation, as the
+ *     string itself.</li>
+ *     <li>booleans are stored as a long.</li>
+ * </ul>
+ *
+ * Values of other types, e.g. dates and durations, are not supported by
+ * {@link #create(AtomicValue, Collator)}; use {@link #isHashable(int)} to check.
+ * {@link #createGeneric(AtomicValue, Collator)} creates a key from the type and
+ * string value of such values.
+ */
+public final class AtomicKey {
+
+    private final static byte EMPTY = 0;
+    private final static byte LONG = 1;
+    private final static byte DOUBLE = 2;
+    private final static byte NAN = 3;
+    private final static byte BIG_INTEGER = 4;
+    private final static byte STRING = 5;
+    private final static byte COLLATION_KEY = 6;
+    private final static byte BOOLEAN = 7;
+    private final static byte GENERIC = 8;
+
+    /** estimated size of a key object without string or array data */
+    private final static int OVERHEAD = 40;
+
+    public final static AtomicKey EMPTY_KEY = new AtomicKey(EMPTY, 0, null);
+
+    private final byte kind;
+    private final long primitive;
+    private final Object object;
+    private final int hash;
+
+    private AtomicKey(byte kind, long primitive, Object object) {
+        this.kind = kind;
+        this.primitive = primitive;
+        this.object = object;
+        int h = kind * 31 + (int) (primitive ^ (primitive >>> 32));
+        if (object instanceof byte[])
+            {h = h * 31 + Arrays.hashCode((byte[]) object);}
+        else if (object != null)
+            {h = h * 31 + object.hashCode();}
+        this.hash = h;
+    }
+
+    /**
+     * Returns true if {@link #create(AtomicValue, Collator)} supports values
+     * of the given type.
+     */
+    public static boolean isHashable(int type) {
+        return Type.subTypeOf(type, Type.NUMBER) || isStringType(type) ||
+            type == Type.BOOLEAN || type == Type.EMPTY;
+    }
+
+    private static boolean isStringType(int type) {
+        return Type.subTypeOf(type, Type.STRING) || type == Type.UNTYPED_ATOMIC ||
+            type == Type.ANY_URI;
+    }
+
+    /**
+     * Create the key for a value of a type supported by {@link #isHashable(int)}.
+     *
+     * @param value the value
+     * @param collator the collator used to compare strings or null for
+     *  the codepoint collation
+     * @throws XPathException if the type of the value is not supported
+     */
+    public static AtomicKey create(AtomicValue value, Collator collator) throws XPathException {
+        if (value.isEmpty())
+            {return EMPTY_KEY;}
+        final int type = value.getType();
+        if (Type.subTypeOf(type, Type.INTEGER))
+            {return forInteger(value.toJavaObject(BigInteger.class));}
+        if (Type.subTypeOf(type, Type.DECIMAL)) {
+            final BigDecimal decimal = ((DecimalValue) value).getValue();
+            try {
+                return forInteger(decimal.toBigIntegerExact());
+            } catch (final ArithmeticException e) {
+                return forDouble(decimal.doubleValue());
+            }
+        }
+        if (Type.subTypeOf(type, Type.NUMBER))
+            {return forDouble(((NumericValue) value).getDouble());}
+        if (isStringType(type)) {
+            final String string = value.getStringValue();
+            if (collator == null)
+                {return new AtomicKey(STRING, 0, string);}
+            return new AtomicKey(COLLATION_KEY, 0, collator.getCollationKey(string).toByteArray());
+        }
+        if (type == Type.BOOLEAN)
+            {return new AtomicKey(BOOLEAN, value.effectiveBooleanValue() ? 1 : 0, null);}
+        throw new XPathException("Values of type " + Type.getTypeName(type) + " cannot be hashed");
+    }
+
+    /**
+     * Create a key for any atomic value. Values of types not supported by
+     * {@link #create(AtomicValue, Collator)} are keyed by their type and
+     * string value.
+     */
+    public static AtomicKey createGeneric(AtomicValue value, Collator collator) throws XPathException {
+        if (value.isEmpty() || isHashable(value.getType()))
+            {return create(value, collator);}
+        return new AtomicKey(GENERIC, value.getType(), value.getStringValue());
+    }
+
+    private static AtomicKey forInteger(BigInteger integer) {
+        if (integer.bitLength() < 64)
+            {return new AtomicKey(LONG, integer.longValue(), null);}
+        return new AtomicKey(BIG_INTEGER, 0, integer);
+    }
+
+    private static AtomicKey forDouble(double d) {
+        if (Double.isNaN(d))
+            {return new AtomicKey(NAN, 0, null);}
+        if (d == Math.rint(d) && !Double.isInfinite(d)) {
+            if (d >= Long.MIN_VALUE && d < Long.MAX_VALUE)
+                // also maps -0.0 to 0
+                {return new AtomicKey(LONG, (long) d, null);}
+            // integral doubles out of the range of a long are exact integers
+            return forInteger(new BigDecimal(d).toBigIntegerExact());
+        }
+        return new AtomicKey(DOUBLE, Double.doubleToLongBits(d), null);
+    }
+
+    /**
+     * Returns the estimated number of bytes used by this key.
+     */
+    public int getMemorySize() {
+        if (object instanceof String)
+            {return OVERHEAD + 2 * ((String) object).length();}
+        if (object instanceof byte[])
+            {return OVERHEAD + ((byte[]) object).length;}
+        if (object != null)
+            {return OVERHEAD * 2;}
+        return OVERHEAD;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            {return true;}
+        if (!(obj instanceof AtomicKey))
+            {return false;}
+        final AtomicKey other = (AtomicKey) obj;
+        if (kind != other.kind || primitive != other.primitive || hash != other.hash)
+            {return false;}
+        if (object instanceof byte[])
+            {return Arrays.equals((byte[]) object, (byte[]) other.object);}
+        return object == null ? other.object == null : object.equals(other.object);
+    }
+}
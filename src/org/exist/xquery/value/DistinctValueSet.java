@@ -0,0 +1,160 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery.value;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.exist.xquery.XPathException;
+
+/**
+ * Eliminates duplicate atomic values using a hash set of {@link AtomicKey}s.
+ * Used by fn:distinct-values.
+ *
+ * Values are added to the result in the order they are first seen until the
+ * estimated size of the keys exceeds the memory budget. After that, values
+ * which are not yet in the set are written to temporary files, partitioned
+ * by key. When the result is requested, the partitions are processed one
+ * by one, each with a new hash set, and their distinct values are appended
+ * to the result. Their order is then given by the partitions rather than by
+ * their first occurrence.
+ *
+ * Values of types without a hash key, e.g. dates, are kept in a sorted set
+ * ordered by the comparator passed to the constructor, as before.
+ *
+ * The memory budget only limits the hash set. The distinct values themselves
+ * are returned as a {@link ValueSequence} and are thus always kept in memory,
+ * so writing to temporary files only helps if the input has many duplicates.
+ */
+public class DistinctValueSet {
+
+    private final static Logger LOG = Logger.getLogger(DistinctValueSet.class);
+
+    /** estimated size of a hash set entry without the key */
+    private final static int ENTRY_SIZE = 32;
+
+    private final Collator collator;
+    private final long maxMemory;
+
+    private Set<AtomicKey> keys = new HashSet<AtomicKey>();
+    private final Set<AtomicValue> others;
+    private final ValueSequence result = new ValueSequence();
+    private long memory = 0;
+    private SpillPartitions partitions = null;
+
+    /**
+     * @param collator the collator used to compare strings
+     * @param comparator compares values which cannot be hashed
+     * @param maxMemory the number of bytes the hash set may use before
+     *  values are written to temporary files
+     */
+    public DistinctValueSet(Collator collator, Comparator<AtomicValue> comparator, long maxMemory) {
+        this.collator = collator;
+        this.others = new TreeSet<AtomicValue>(comparator);
+        this.maxMemory = maxMemory;
+    }
+
+    public void add(AtomicValue value) throws XPathException {
+        if (!AtomicKey.isHashable(value.getType())) {
+            if (others.add(value))
+                {result.add(value);}
+            return;
+        }
+        final AtomicKey key = AtomicKey.create(value, collator);
+        if (partitions == null) {
+            if (keys.add(key)) {
+                result.add(value);
+                memory += ENTRY_SIZE + key.getMemorySize();
+                if (memory > maxMemory) {
+                    LOG.debug("distinct-values exceeded its memory budget of " + maxMemory +
+                        " bytes. Writing values to temporary files.");
+                    partitions = new SpillPartitions(SpillPartitions.DEFAULT_PARTITIONS);
+                }
+            }
+        } else if (!keys.contains(key)) {
+            final DataOutput out = partitions.getOutput(key.hashCode());
+            SpillPartitions.writeValue(out, value);
+        }
+    }
+
+    public void addAll(Sequence values) throws XPathException {
+        for (final SequenceIterator i = values.iterate(); i.hasNext(); ) {
+            add(i.nextItem().atomize());
+        }
+    }
+
+    /**
+     * Returns the distinct values. Processes and deletes the temporary files.
+     */
+    public Sequence getResult() throws XPathException {
+        if (partitions != null) {
+            keys = null;
+            try {
+                for (int i = 0; i < partitions.getPartitions(); i++) {
+                    readPartition(i);
+                }
+            } finally {
+                close();
+            }
+        }
+        return result;
+    }
+
+    private void readPartition(int partition) throws XPathException {
+        final int count = partitions.getCount(partition);
+        final DataInputStream in = partitions.openInput(partition);
+        if (in == null)
+            {return;}
+        final Set<AtomicKey> partitionKeys = new HashSet<AtomicKey>();
+        try {
+            for (int i = 0; i < count; i++) {
+                final AtomicValue value = SpillPartitions.readValue(in);
+                if (partitionKeys.add(AtomicKey.create(value, collator)))
+                    {result.add(value);}
+            }
+        } finally {
+            try {
+                in.close();
+            } catch (final IOException e) {
+                LOG.debug("Failed to close temporary file: " + e.getMessage());
+            }
+            partitions.release(partition);
+        }
+    }
+
+    /**
+     * Delete temporary files if the result is not requested.
+     */
+    public void close() {
+        if (partitions != null) {
+            partitions.close();
+            partitions = null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery.value;
+
+import org.exist.xquery.XPathException;
+
+/**
+ * A sequence of xs:double values backed by a double array.
+ */
+public class DoubleSequence extends AbstractNumericSequence {
+
+    private double[] values;
+    private int size = 0;
+
+    public DoubleSequence() {
+        this(16);
+    }
+
+    public DoubleSequence(int initialSize) {
+        values = new double[initialSize < 1 ? 1 : initialSize];
+    }
+
+    /**
+     * Returns true if the item is an xs:double.
+     */
+    public static boolean accepts(Item item) {
+        return item.getType() == Type.DOUBLE;
+    }
+
+    public void add(Item item) throws XPathException {
+        if (!accepts(item))
+            {throw new XPathException("Internal error: cannot add an item of type " +
+                Type.getTypeName(item.getType()) + " to a sequence of xs:double values");}
+        add(((DoubleValue) item).getValue());
+    }
+
+    public void add(double value) {
+        if (size == values.length) {
+            final double[] newValues = new double[size * 2];
+            System.arraycopy(values, 0, newValues, 0, size);
+            values = newValues;
+        }
+        values[size++] = value;
+    }
+
+    public int getItemType() {
+        return Type.DOUBLE;
+    }
+
+    public int getItemCount() {
+        return size;
+    }
+
+    public long getLong(int pos) {
+        return (long) values[pos];
+    }
+
+    public double getDouble(int pos) {
+        return values[pos];
+    }
+}
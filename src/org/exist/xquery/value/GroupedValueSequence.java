@@ -28,7 +28,6 @@ import org.exist.dom.NodeSet;
 import org.exist.xquery.GroupSpec;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
-import org.exist.xquery.util.ExpressionDumper;
 
 
 /** 
@@ -208,17 +207,14 @@ public class GroupedValueSequence extends AbstractSequence {
         AtomicValue values[]; 
         public Entry(Item item) throws XPathException { 
             this.item = item; 
+            // all items of the group share its key: the group expressions
+            // are not evaluated again, as the variables they depend on may
+            // no longer be bound to the item when it is added (e.g. when
+            // the item is read back from a temporary file)
             values = new AtomicValue[groupSpecs.length]; 
             for(int i = 0; i < groupSpecs.length; i++) { 
-                final Sequence seq = groupSpecs[i].getGroupExpression().eval(null); 
-                values[i] = AtomicValue.EMPTY_VALUE; 
-                //TODO : get rid of getLength() 
-                if(seq.hasOne()) { 
-                    values[i] = seq.itemAt(0).atomize(); 
-                } else if(seq.hasMany()) 
-                    {throw new XPathException("expected a single value for group by expression " + 
-                        ExpressionDumper.dump(groupSpecs[i].getGroupExpression()) +  
-                        " ; found: " + seq.getItemCount());} 
+                values[i] = i < groupKey.getItemCount() ?
+                    groupKey.itemAt(i).atomize() : AtomicValue.EMPTY_VALUE;
             } 
         } 
  
@@ -22,38 +22,76 @@
  */
 package org.exist.xquery.value;
 
-import java.util.Hashtable;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.log4j.Logger;
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.GroupSpec;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 
 /**
- * An Hashtable that containts a GroupedValueSequence for each group. Groups are
+ * A hash table that containts a GroupedValueSequence for each group. Groups are
  * specified by the group specs of a "group by" clause. Used by
  * {@link org.exist.xquery.ForExpr} et al.
- * 
+ *
+ * Groups are keyed by the {@link AtomicKey}s of the atomized grouping keys,
+ * using the collation of the group spec for strings. Once the estimated size
+ * of the table exceeds the memory budget of the query context, the keys and
+ * items of new groups are written to temporary files (see {@link SpillPartitions})
+ * instead of being kept in memory. Stored nodes are written as references and
+ * loaded again when their group is read back. The groups of every partition
+ * are loaded and returned one partition after the other by {@link #iterate()},
+ * followed by the groups kept in memory. An item is kept in memory if it or one
+ * of its keys is an in-memory node or a stored node with full text matches.
+ *
+ * Groups are returned in the order of their first occurrence only as long as
+ * nothing has been written to temporary files. After that, the order is given
+ * by the partitions, which XQuery allows: the order of the groups is
+ * implementation-dependent.
+ *
  * WARNING : don't use except for experimental "group by" clause
  * 
  * @author Boris Verhaegen (boris.verhaegen@gmail.com)
  */
 
-public class GroupedValueSequenceTable extends
-		Hashtable<String, GroupedValueSequence> {
+public class GroupedValueSequenceTable {
+
+	private final static Logger LOG = Logger.getLogger(GroupedValueSequenceTable.class);
 
-	private static final long serialVersionUID = 1324942298919800292L;
+	/** estimated size of a group without its key */
+	private final static int GROUP_SIZE = 120;
+	/** estimated size of an item of a group */
+	private final static int ITEM_SIZE = 48;
 
 	private GroupSpec groupSpecs[];
+	private Collator collators[];
 	private String toGroupVarName;
 	private XQueryContext context;
 
-	public GroupedValueSequenceTable(GroupSpec groupSpecs[], String varName, XQueryContext aContext) {
-		super(11, (float) 0.75); // Hashtable parameters
+	private final Map<List<AtomicKey>, GroupedValueSequence> groups =
+		new LinkedHashMap<List<AtomicKey>, GroupedValueSequence>();
+	private long memory = 0;
+	private SpillPartitions partitions = null;
+
+	public GroupedValueSequenceTable(GroupSpec groupSpecs[], String varName, XQueryContext aContext)
+			throws XPathException {
 		this.groupSpecs = groupSpecs;
 		this.toGroupVarName = varName;
 		this.context = aContext; //UNDERSTAND: do we need context here??? -shabanovd
+		this.collators = new Collator[groupSpecs.length];
+		for (int i = 0; i < groupSpecs.length; i++) {
+			collators[i] = context.getCollator(groupSpecs[i].getCollation());
+		}
 	}
 
 	public void setToGroupVarName(String varName) {
@@ -64,8 +102,27 @@ public class GroupedValueSequenceTable extends
 		return toGroupVarName;
 	}
 
-	public Iterator<String> iterate() {
-        return this.keySet().iterator();
+	/**
+	 * Returns the number of groups kept in memory.
+	 */
+	public int size() {
+		return groups.size();
+	}
+
+	/**
+	 * Returns true if items have been written to temporary files.
+	 */
+	public boolean isSpilled() {
+		return partitions != null;
+	}
+
+	/**
+	 * Returns an iterator over all groups. Groups written to temporary
+	 * files are read back partition by partition, the temporary files are
+	 * deleted once they have been read.
+	 */
+	public GroupIterator iterate() {
+		return new GroupIterator();
 	}
 
 	/**
@@ -91,17 +148,32 @@ public class GroupedValueSequenceTable extends
 				{throw new XPathException(groupSpecs[i].getGroupExpression(), ErrorCodes.XPTY0004, "More that one key values", specEvaluation[i]);}
 		}
 
-		final String hashKey = keySequence.getHashKey();
-
-		if (this.containsKey(hashKey)) {
-			final GroupedValueSequence currentGroup = super.get(hashKey);
+		final List<AtomicKey> key = createKey(keySequence);
+		final GroupedValueSequence currentGroup = groups.get(key);
+		if (currentGroup != null) {
 			currentGroup.add(item);
+			memory += ITEM_SIZE;
+		} else if (partitions != null && isSpillable(keySequence, item)) {
+			final DataOutput out = partitions.getOutput(key.hashCode());
+			for (int i = 0; i < keySequence.getItemCount(); i++) {
+				partitions.writeItem(out, keySequence.itemAt(i));
+			}
+			partitions.writeItem(out, item);
 		} else {
 			// this group doesn't exists, then creates this group
 			final GroupedValueSequence newGroup = new GroupedValueSequence(
 					groupSpecs, 1, keySequence, context);
 			newGroup.add(item);
-			super.put(hashKey, newGroup);
+			groups.put(key, newGroup);
+			memory += GROUP_SIZE + ITEM_SIZE;
+			for (final AtomicKey k : key) {
+				memory += k.getMemorySize();
+			}
+			if (partitions == null && memory > context.getAggregationMemory()) {
+				LOG.debug("group by exceeded its memory budget of " + context.getAggregationMemory() +
+					" bytes. Writing groups to temporary files.");
+				partitions = new SpillPartitions(SpillPartitions.DEFAULT_PARTITIONS);
+			}
 		}
 	}
 
@@ -116,4 +188,98 @@ public class GroupedValueSequenceTable extends
 			this.add(i.nextItem());
 		}
 	}
+
+	/**
+	 * Delete the temporary files, if any.
+	 */
+	public void close() {
+		if (partitions != null) {
+			partitions.close();
+			partitions = null;
+		}
+	}
+
+	private List<AtomicKey> createKey(Sequence keySequence) throws XPathException {
+		final AtomicKey keys[] = new AtomicKey[keySequence.getItemCount()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = AtomicKey.createGeneric(keySequence.itemAt(i).atomize(), collators[i]);
+		}
+		return Arrays.asList(keys);
+	}
+
+	private boolean isSpillable(Sequence keySequence, Item item) {
+		if (!SpillPartitions.isSpillable(item))
+			{return false;}
+		for (int i = 0; i < keySequence.getItemCount(); i++) {
+			if (!SpillPartitions.isSpillable(keySequence.itemAt(i)))
+				{return false;}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the entries of a partition. Items of groups which are kept in memory
+	 * are added to these groups, the other groups of the partition are returned.
+	 */
+	private Collection<GroupedValueSequence> readPartition(int partition) throws XPathException {
+		final Map<List<AtomicKey>, GroupedValueSequence> partitionGroups =
+			new LinkedHashMap<List<AtomicKey>, GroupedValueSequence>();
+		final int count = partitions.getCount(partition);
+		final DataInputStream in = partitions.openInput(partition);
+		if (in == null)
+			{return partitionGroups.values();}
+		try {
+			for (int i = 0; i < count; i++) {
+				final ValueSequence keySequence = new ValueSequence();
+				for (int j = 0; j < groupSpecs.length; j++) {
+					keySequence.add(partitions.readItem(in));
+				}
+				final Item item = partitions.readItem(in);
+				final List<AtomicKey> key = createKey(keySequence);
+				GroupedValueSequence group = groups.get(key);
+				if (group == null)
+					{group = partitionGroups.get(key);}
+				if (group == null) {
+					group = new GroupedValueSequence(groupSpecs, 1, keySequence, context);
+					partitionGroups.put(key, group);
+				}
+				group.add(item);
+			}
+		} finally {
+			try {
+				in.close();
+			} catch (final IOException e) {
+				LOG.debug("Failed to close temporary file: " + e.getMessage());
+			}
+			partitions.release(partition);
+		}
+		return partitionGroups.values();
+	}
+
+	/**
+	 * Iterates over the groups of a {@link GroupedValueSequenceTable}.
+	 */
+	public class GroupIterator {
+
+		private Iterator<GroupedValueSequence> current = null;
+		private int partition = 0;
+		private boolean inMemory = false;
+
+		public boolean hasNext() throws XPathException {
+			while (current == null || !current.hasNext()) {
+				if (partitions != null && partition < partitions.getPartitions())
+					{current = readPartition(partition++).iterator();}
+				else if (!inMemory) {
+					inMemory = true;
+					current = groups.values().iterator();
+				} else
+					{return false;}
+			}
+			return true;
+		}
+
+		public GroupedValueSequence next() {
+			return current.next();
+		}
+	}
 }
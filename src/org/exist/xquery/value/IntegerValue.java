@@ -236,6 +236,13 @@ public class IntegerValue extends NumericValue {
 		this.value = BigInteger.valueOf(value);
 	}
 
+	/**
+	 * @return true if the value can be represented as a long without loss
+	 */
+	public boolean fitsInLong() {
+		return value.bitLength() < 64;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.Item#getStringValue()
 	 */
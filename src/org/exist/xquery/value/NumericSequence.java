@@ -0,0 +1,64 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery.value;
+
+import org.exist.xquery.XPathException;
+
+/**
+ * A sequence of xs:integer or xs:double values which are stored as primitive
+ * values. Items are only created when the sequence is iterated, aggregate
+ * functions read the primitive values directly.
+ *
+ * {@link #getItemType()} returns {@link Type#INTEGER} or {@link Type#DOUBLE}.
+ */
+public interface NumericSequence extends Sequence {
+
+    /**
+     * Returns the value at the given position as long.
+     */
+    public long getLong(int pos);
+
+    /**
+     * Returns the value at the given position as double.
+     */
+    public double getDouble(int pos);
+
+    /**
+     * Returns the sum of the values, as computed by fn:sum for a non-empty sequence.
+     */
+    public ComputableValue sum() throws XPathException;
+
+    /**
+     * Returns the average of the values, as computed by fn:avg for a non-empty sequence.
+     */
+    public ComputableValue avg() throws XPathException;
+
+    /**
+     * Returns the smallest value, as computed by fn:min for a non-empty sequence.
+     */
+    public AtomicValue min() throws XPathException;
+
+    /**
+     * Returns the largest value, as computed by fn:max for a non-empty sequence.
+     */
+    public AtomicValue max() throws XPathException;
+}
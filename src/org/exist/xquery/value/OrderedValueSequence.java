@@ -21,6 +21,19 @@
  */
 package org.exist.xquery.value;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
 import org.exist.dom.AVLTreeNodeSet;
 import org.exist.dom.NodeProxy;
 import org.exist.dom.NodeSet;
@@ -28,6 +41,7 @@ import org.exist.memtree.DocumentImpl;
 import org.exist.memtree.NodeImpl;
 import org.exist.numbering.NodeId;
 import org.exist.util.FastQSort;
+import org.exist.util.io.TemporaryFileManager;
 import org.exist.xquery.Constants;
 import org.exist.xquery.OrderSpec;
 import org.exist.xquery.XPathException;
@@ -42,25 +56,80 @@ import org.w3c.dom.Node;
  * all order expressions are evaluated once for each item in the sequence 
  * <b>while</b> items are added.
  * 
+ * The items themselves always stay in memory, but the computed order keys
+ * can be moved out: if the estimated size of the keys exceeds the memory limit,
+ * the entries added so far are sorted and their keys written to a temporary
+ * file as a sorted run. {@link #sort()} merges the runs with the remaining
+ * entries.
+ * 
+ * If only the first items of the sorted sequence are needed (see
+ * {@link #setLimit(int)}), entries which cannot be among them are dropped
+ * while items are added, so only about twice the limit is kept in memory.
+ * 
  * @author wolf
  */
 public class OrderedValueSequence extends AbstractSequence {
 
+    private final static Logger LOG = Logger.getLogger(OrderedValueSequence.class);
+
+    /** estimated size of an entry without its order keys */
+    private final static int ENTRY_SIZE = 48;
+
+    /** estimated size of an order key without string data */
+    private final static int VALUE_SIZE = 32;
+
     private OrderSpec orderSpecs[];
 	private Entry[] items = null;
 	private int count = 0;
 	private int state = 0;
 
+    // number of items added, used as the original position of an item
+    private int position = 0;
+
+    // keep only the first limit entries in sort order, if > 0
+    private int limit = -1;
+
+    private final long maxMemory;
+    private long memory = 0;
+    // entries before runStart are written to a run and have no order keys in memory
+    private int runStart = 0;
+    private List<File> runs = null;
+    // false if an order key cannot be written to a run
+    private boolean spillable = true;
+
     // used to keep track of the type of added items.
     private int itemType = Type.ANY_TYPE;
     
 	public OrderedValueSequence(OrderSpec orderSpecs[], int size) {
+		this(orderSpecs, size, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param orderSpecs the order specs of the "order by" clause
+	 * @param size the expected number of items
+	 * @param maxMemory the number of bytes the order keys may use before
+	 *  they are written to temporary files
+	 */
+	public OrderedValueSequence(OrderSpec orderSpecs[], int size, long maxMemory) {
 		this.orderSpecs = orderSpecs;
+		this.maxMemory = maxMemory;
         if (size == 0)
             {size = 1;}
 		this.items = new Entry[size];
 	}
 
+	/**
+	 * Keep only the first <code>limit</code> items in sort order. Must be
+	 * called before items are added.
+	 *
+	 * @param limit the number of items to keep
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+		if (limit > 0 && items.length > 2 * limit)
+			{items = new Entry[2 * limit];}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.Sequence#iterate()
 	 */
@@ -99,6 +168,14 @@ public class OrderedValueSequence extends AbstractSequence {
 		if (isEmpty)
 			{hasOne = true;}
         isEmpty = false;
+		if (limit > 0 && count == 2 * limit) {
+			// drop the entries which cannot be among the first limit items
+			FastQSort.sort(items, 0, count - 1);
+			for (int i = limit; i < count; i++) {
+				items[i] = null;
+			}
+			count = limit;
+		}
 		if(count == 0 && items.length == 1) {
 			items = new Entry[2];
 		} else if (count == items.length) {
@@ -106,7 +183,13 @@ public class OrderedValueSequence extends AbstractSequence {
 			System.arraycopy(items, 0, newItems, 0, count);
 			items = newItems;
 		}
-		items[count] = new Entry(item, count++);
+		final Entry entry = new Entry(item, position++);
+		items[count++] = entry;
+		if (limit <= 0 && spillable) {
+			memory += entry.getMemorySize();
+			if (memory > maxMemory)
+				{writeRun();}
+		}
 		checkItemType(item.getType());
         setHasChanged();
     }
@@ -126,8 +209,110 @@ public class OrderedValueSequence extends AbstractSequence {
 		} 
 	}
 	
-	public void sort() {
-		FastQSort.sort(items, 0, count - 1);
+	public void sort() throws XPathException {
+		if (runs == null) {
+			FastQSort.sort(items, 0, count - 1);
+			if (limit > 0 && count > limit) {
+				for (int i = limit; i < count; i++) {
+					items[i] = null;
+				}
+				count = limit;
+				hasOne = count == 1;
+			}
+		} else {
+			mergeRuns();
+		}
+	}
+
+	/**
+	 * Sort the entries added since the last run and write their order keys
+	 * to a temporary file. The keys are removed from the entries.
+	 */
+	private void writeRun() throws XPathException {
+		FastQSort.sort(items, runStart, count - 1);
+		File file = null;
+		DataOutputStream os = null;
+		try {
+			file = TemporaryFileManager.getInstance().getTemporaryFile();
+			os = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 8192));
+			os.writeInt(count - runStart);
+			for (int i = runStart; i < count; i++) {
+				final Entry entry = items[i];
+				os.writeInt(entry.pos);
+				for (int j = 0; j < entry.values.length; j++) {
+					SpillPartitions.writeValue(os, entry.values[j]);
+				}
+			}
+			os.close();
+			os = null;
+		} catch (final IOException e) {
+			if (file != null)
+				{TemporaryFileManager.getInstance().returnTemporaryFile(file);}
+			throw new XPathException("Failed to write temporary file for order by: " + e.getMessage(), e);
+		} finally {
+			if (os != null) {
+				try {
+					os.close();
+				} catch (final IOException e) {
+					LOG.debug("Failed to close temporary file: " + e.getMessage());
+				}
+			}
+		}
+		if (runs == null) {
+			LOG.debug("order by exceeded its memory budget of " + maxMemory +
+				" bytes. Writing sorted runs to temporary files.");
+			runs = new ArrayList<File>();
+		}
+		runs.add(file);
+		// put the entries back into the order they were added in, so the
+		// entry at index i has position i and can be found by the merge
+		final Entry run[] = new Entry[count - runStart];
+		System.arraycopy(items, runStart, run, 0, run.length);
+		for (final Entry entry : run) {
+			entry.values = null;
+			items[entry.pos] = entry;
+		}
+		runStart = count;
+		memory = 0;
+	}
+
+	/**
+	 * Merge the sorted runs and the entries added after the last run. Only
+	 * one entry per run is read into memory at a time. Deletes the runs.
+	 */
+	private void mergeRuns() throws XPathException {
+		final PriorityQueue<MergeSource> queue = new PriorityQueue<MergeSource>(runs.size() + 1);
+		try {
+			for (final File file : runs) {
+				final MergeSource source = new RunSource(file);
+				if (source.next())
+					{queue.add(source);}
+			}
+			final MergeSource tail = new TailSource();
+			if (tail.next())
+				{queue.add(tail);}
+			final Entry[] sorted = new Entry[count];
+			int n = 0;
+			while (!queue.isEmpty()) {
+				final MergeSource source = queue.poll();
+				// entries read from a run only have the position of the item
+				final Entry entry = source.current;
+				sorted[n++] = entry.item == null ? items[entry.pos] : entry;
+				if (source.next())
+					{queue.add(source);}
+			}
+			items = sorted;
+		} finally {
+			for (final MergeSource source : queue) {
+				source.close();
+			}
+			for (final File file : runs) {
+				TemporaryFileManager.getInstance().returnTemporaryFile(file);
+			}
+			runs = null;
+			runStart = 0;
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -313,9 +498,32 @@ public class OrderedValueSequence extends AbstractSequence {
 					{throw new XPathException("expected a single value for order expression " +
 						ExpressionDumper.dump(orderSpecs[i].getSortExpression()) + 
 						" ; found: " + seq.getItemCount());}
+				if (spillable && !isSpillable(values[i]))
+					{spillable = false;}
 			}
 		}
 
+		/**
+		 * Create an entry from the order keys read from a run.
+		 */
+		Entry(int position, AtomicValue values[]) {
+			this.pos = position;
+			this.values = values;
+		}
+
+		/**
+		 * Returns the estimated number of bytes used by the entry.
+		 */
+		int getMemorySize() throws XPathException {
+			int size = ENTRY_SIZE;
+			for (int i = 0; i < values.length; i++) {
+				size += VALUE_SIZE;
+				if (Type.subTypeOf(values[i].getType(), Type.STRING))
+					{size += 2 * values[i].getStringValue().length();}
+			}
+			return size;
+		}
+
 		/* (non-Javadoc)
 		 * @see java.lang.Comparable#compareTo(java.lang.Object)
 		 */
@@ -330,8 +538,8 @@ public class OrderedValueSequence extends AbstractSequence {
                     final boolean bIsEmpty = (b.isEmpty() || (Type.subTypeOf(b.getType(), Type.NUMBER) && ((NumericValue) b).isNaN()));
                     if (aIsEmpty) {
                         if (bIsEmpty)
-                            // both values are empty
-                            {return Constants.EQUAL;}
+                            // both values are empty: compare the next key
+                            {continue;}
                         else if ((orderSpecs[i].getModifiers() & OrderSpec.EMPTY_LEAST) != 0)
 							{cmp = Constants.INFERIOR;}
                         else
@@ -381,6 +589,104 @@ public class OrderedValueSequence extends AbstractSequence {
 		}
 	}
 	
+	/**
+	 * Returns true if the order key can be written to a run and read back
+	 * without changing its value.
+	 */
+	private static boolean isSpillable(AtomicValue value) {
+		if (value.isEmpty())
+			{return true;}
+		final int type = value.getType();
+		return AtomicKey.isHashable(type) || Type.subTypeOf(type, Type.DATE_TIME) ||
+			Type.subTypeOf(type, Type.DATE) || Type.subTypeOf(type, Type.TIME) ||
+			Type.subTypeOf(type, Type.DURATION);
+	}
+
+	private abstract class MergeSource implements Comparable<MergeSource> {
+
+		Entry current = null;
+
+		/**
+		 * Advance to the next entry. Returns false if there are no more entries.
+		 */
+		abstract boolean next() throws XPathException;
+
+		void close() {
+		}
+
+		public int compareTo(MergeSource other) {
+			return current.compareTo(other.current);
+		}
+	}
+
+	/**
+	 * Reads the order keys of a run written by {@link OrderedValueSequence#writeRun()}.
+	 */
+	private class RunSource extends MergeSource {
+
+		private final DataInputStream is;
+		private int remaining;
+
+		RunSource(File file) throws XPathException {
+			try {
+				is = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 8192));
+				remaining = is.readInt();
+			} catch (final IOException e) {
+				throw new XPathException("Failed to read temporary file for order by: " + e.getMessage(), e);
+			}
+		}
+
+		boolean next() throws XPathException {
+			if (remaining == 0) {
+				current = null;
+				return false;
+			}
+			remaining--;
+			try {
+				final int pos = is.readInt();
+				final AtomicValue values[] = new AtomicValue[orderSpecs.length];
+				for (int i = 0; i < values.length; i++) {
+					values[i] = SpillPartitions.readValue(is);
+				}
+				current = new Entry(pos, values);
+			} catch (final IOException e) {
+				throw new XPathException("Failed to read temporary file for order by: " + e.getMessage(), e);
+			}
+			return true;
+		}
+
+		void close() {
+			try {
+				is.close();
+			} catch (final IOException e) {
+				LOG.debug("Failed to close temporary file: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns the entries added after the last run, in sort order.
+	 */
+	private class TailSource extends MergeSource {
+
+		private int next;
+
+		TailSource() {
+			FastQSort.sort(items, runStart, count - 1);
+			next = runStart;
+		}
+
+		boolean next() {
+			if (next == count) {
+				current = null;
+				return false;
+			}
+			current = items[next++];
+			return true;
+		}
+	}
+
 	private class OrderedValueSequenceIterator implements SequenceIterator {
 		
 		int pos = 0;
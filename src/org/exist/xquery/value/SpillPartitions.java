@@ -0,0 +1,256 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xquery.value;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.exist.dom.DocumentImpl;
+import org.exist.dom.NodeProxy;
+import org.exist.numbering.NodeId;
+import org.exist.util.io.TemporaryFileManager;
+import org.exist.xquery.XPathException;
+
+/**
+ * Temporary files used by the hash aggregation of {@link DistinctValueSet} and
+ * {@link GroupedValueSequenceTable} once their memory budget is exhausted.
+ * Entries are distributed over the partitions by the hash code of their key,
+ * so all entries with the same key end up in the same partition, which can be
+ * processed in memory on its own.
+ *
+ * Atomic values of the types supported by {@link AtomicKey#isHashable(int)}
+ * are written by {@link #writeValue(DataOutput, AtomicValue)}, which is also
+ * used for the order keys written by {@link OrderedValueSequence}. Stored nodes
+ * are written by {@link #writeItem(DataOutput, Item)} as a reference, i.e. the
+ * document id and the node id, and are read back as a new {@link NodeProxy}.
+ * The documents of these nodes are kept in memory until the partitions are
+ * closed. Nodes with full text matches or a context and in-memory nodes
+ * cannot be written.
+ */
+class SpillPartitions {
+
+    private final static Logger LOG = Logger.getLogger(SpillPartitions.class);
+
+    public final static int DEFAULT_PARTITIONS = 16;
+
+    private final static int BUFFER_SIZE = 8192;
+
+    private final File[] files;
+    private final DataOutputStream[] outputs;
+    private final int[] counts;
+    private final Map<Integer, DocumentImpl> documents = new HashMap<Integer, DocumentImpl>();
+
+    SpillPartitions(int partitions) {
+        files = new File[partitions];
+        outputs = new DataOutputStream[partitions];
+        counts = new int[partitions];
+    }
+
+    int getPartitions() {
+        return files.length;
+    }
+
+    /**
+     * Returns the number of entries written to the partition.
+     */
+    int getCount(int partition) {
+        return counts[partition];
+    }
+
+    /**
+     * Returns the output for an entry whose key has the given hash code.
+     * The caller has to write exactly one entry.
+     */
+    DataOutput getOutput(int hash) throws XPathException {
+        final int partition = (hash & 0x7fffffff) % files.length;
+        try {
+            if (outputs[partition] == null) {
+                files[partition] = TemporaryFileManager.getInstance().getTemporaryFile();
+                outputs[partition] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(files[partition]), BUFFER_SIZE));
+            }
+        } catch (final IOException e) {
+            throw new XPathException("Failed to create temporary file for aggregation: " + e.getMessage(), e);
+        }
+        counts[partition]++;
+        return outputs[partition];
+    }
+
+    /**
+     * Close the output of the partition and open it for reading.
+     * Returns null if nothing has been written to the partition.
+     */
+    DataInputStream openInput(int partition) throws XPathException {
+        if (files[partition] == null)
+            {return null;}
+        try {
+            if (outputs[partition] != null) {
+                outputs[partition].close();
+                outputs[partition] = null;
+            }
+            return new DataInputStream(new BufferedInputStream(
+                new FileInputStream(files[partition]), BUFFER_SIZE));
+        } catch (final IOException e) {
+            throw new XPathException("Failed to read temporary aggregation file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Delete the temporary file of the partition.
+     */
+    void release(int partition) {
+        if (outputs[partition] != null) {
+            try {
+                outputs[partition].close();
+            } catch (final IOException e) {
+                LOG.debug("Failed to close temporary file: " + e.getMessage());
+            }
+            outputs[partition] = null;
+        }
+        if (files[partition] != null) {
+            TemporaryFileManager.getInstance().returnTemporaryFile(files[partition]);
+            files[partition] = null;
+        }
+        counts[partition] = 0;
+    }
+
+    /**
+     * Delete all temporary files.
+     */
+    void close() {
+        for (int i = 0; i < files.length; i++) {
+            release(i);
+        }
+        documents.clear();
+    }
+
+    /**
+     * Returns true if the item can be written by {@link #writeItem(DataOutput, Item)}.
+     */
+    static boolean isSpillable(Item item) {
+        if (item instanceof NodeProxy) {
+            final NodeProxy node = (NodeProxy) item;
+            return node.getMatches() == null && node.getContext() == null;
+        }
+        if (!Type.subTypeOf(item.getType(), Type.ATOMIC))
+            {return false;}
+        return ((AtomicValue) item).isEmpty() || AtomicKey.isHashable(item.getType());
+    }
+
+    /**
+     * Write an atomic value or a reference to a stored node. The item has
+     * to be accepted by {@link #isSpillable(Item)}.
+     */
+    void writeItem(DataOutput out, Item item) throws XPathException {
+        if (!(item instanceof NodeProxy)) {
+            writeValue(out, (AtomicValue) item);
+            return;
+        }
+        final NodeProxy node = (NodeProxy) item;
+        final DocumentImpl doc = node.getDocument();
+        documents.put(Integer.valueOf(doc.getDocId()), doc);
+        final NodeId nodeId = node.getNodeId();
+        final byte[] data = new byte[nodeId.size()];
+        nodeId.serialize(data, 0);
+        try {
+            out.writeInt(node.getType());
+            out.writeInt(doc.getDocId());
+            out.writeShort(node.getNodeType());
+            out.writeLong(node.getInternalAddress());
+            out.writeInt(nodeId.units());
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (final IOException e) {
+            throw new XPathException("Failed to write temporary aggregation file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read an item written by {@link #writeItem(DataOutput, Item)}.
+     */
+    Item readItem(DataInput in) throws XPathException {
+        try {
+            final int type = in.readInt();
+            if (!Type.subTypeOf(type, Type.NODE))
+                {return readValue(in, type);}
+            final DocumentImpl doc = documents.get(Integer.valueOf(in.readInt()));
+            final short nodeType = in.readShort();
+            final long address = in.readLong();
+            final int units = in.readInt();
+            final byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            final NodeId nodeId = doc.getBrokerPool().getNodeFactory().createFromData(units, data, 0);
+            return new NodeProxy(doc, nodeId, nodeType, address);
+        } catch (final IOException e) {
+            throw new XPathException("Failed to read temporary aggregation file: " + e.getMessage(), e);
+        }
+    }
+
+    static void writeValue(DataOutput out, AtomicValue value) throws XPathException {
+        try {
+            if (value.isEmpty()) {
+                out.writeInt(Type.EMPTY);
+                return;
+            }
+            out.writeInt(value.getType());
+            final byte[] data = value.getStringValue().getBytes("UTF-8");
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (final IOException e) {
+            throw new XPathException("Failed to write temporary aggregation file: " + e.getMessage(), e);
+        }
+    }
+
+    static AtomicValue readValue(DataInput in) throws XPathException {
+        try {
+            return readValue(in, in.readInt());
+        } catch (final IOException e) {
+            throw new XPathException("Failed to read temporary aggregation file: " + e.getMessage(), e);
+        }
+    }
+
+    private static AtomicValue readValue(DataInput in, int type) throws XPathException {
+        try {
+            if (type == Type.EMPTY)
+                {return AtomicValue.EMPTY_VALUE;}
+            final byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            final String string = new String(data, "UTF-8");
+            if (type == Type.UNTYPED_ATOMIC)
+                {return new UntypedAtomicValue(string);}
+            return new StringValue(string).convertTo(type);
+        } catch (final IOException e) {
+            throw new XPathException("Failed to read temporary aggregation file: " + e.getMessage(), e);
+        }
+    }
+}
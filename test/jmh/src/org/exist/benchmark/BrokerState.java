@@ -0,0 +1,40 @@
+package org.exist.benchmark;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A broker held by a benchmark thread for the whole trial. Brokers are bound
+ * to the thread which acquired them, so the state has thread scope: JMH runs
+ * its setup and tear down methods on the owning thread.
+ */
+@State(Scope.Thread)
+public class BrokerState {
+
+    private BrokerPool pool;
+    private DBBroker broker;
+
+    @Setup
+    public void acquire(DatabaseState database) throws Exception {
+        pool = database.getPool();
+        broker = pool.get(pool.getSecurityManager().getSystemSubject());
+    }
+
+    @TearDown
+    public void release() {
+        pool.release(broker);
+        broker = null;
+    }
+
+    public BrokerPool getPool() {
+        return pool;
+    }
+
+    public DBBroker getBroker() {
+        return broker;
+    }
+}
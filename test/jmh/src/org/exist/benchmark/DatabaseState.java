@@ -0,0 +1,120 @@
+package org.exist.benchmark;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Embedded database shared by all threads of a benchmark. The database is
+ * configured from conf.xml in exist.home and filled with generated documents
+ * in {@link #COLLECTION_URI}, which is removed again when the trial ends.
+ *
+ * Every document is a catalog of items:
+ *
+ * <pre>
+ * &lt;catalog n="0"&gt;
+ *     &lt;item id="0.0" category="c0"&gt;
+ *         &lt;name&gt;item 0&lt;/name&gt;
+ *         &lt;price&gt;10&lt;/price&gt;
+ *         &lt;tags&gt;&lt;tag&gt;t0&lt;/tag&gt;&lt;tag&gt;t1&lt;/tag&gt;&lt;/tags&gt;
+ *     &lt;/item&gt;
+ *     ...
+ * &lt;/catalog&gt;
+ * </pre>
+ */
+@State(Scope.Benchmark)
+public class DatabaseState {
+
+    public final static XmldbURI COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("benchmark");
+
+    public final static int DOCUMENTS = 20;
+    public final static int ITEMS = 500;
+    public final static int CATEGORIES = 10;
+
+    private BrokerPool pool;
+
+    @Setup
+    public void startDatabase() throws Exception {
+        BrokerPool.configure(1, 5, new Configuration());
+        pool = BrokerPool.getInstance();
+        final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+        try {
+            store(broker);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @TearDown
+    public void stopDatabase() throws Exception {
+        final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+        try {
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            try {
+                final Collection collection = broker.getCollection(COLLECTION_URI);
+                if (collection != null)
+                    {broker.removeCollection(transaction, collection);}
+                transact.commit(transaction);
+            } catch (final Exception e) {
+                transact.abort(transaction);
+                throw e;
+            }
+        } finally {
+            pool.release(broker);
+        }
+        BrokerPool.stopAll(false);
+        pool = null;
+    }
+
+    public BrokerPool getPool() {
+        return pool;
+    }
+
+    private void store(DBBroker broker) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            for (int d = 0; d < DOCUMENTS; d++) {
+                final String xml = generate(d);
+                final IndexInfo info = collection.validateXMLResource(transaction, broker,
+                    XmldbURI.create("catalog" + d + ".xml"), xml);
+                collection.store(transaction, broker, info, xml, false);
+            }
+            transact.commit(transaction);
+        } catch (final Exception e) {
+            transact.abort(transaction);
+            throw e;
+        }
+    }
+
+    private static String generate(int d) {
+        final StringBuilder xml = new StringBuilder();
+        xml.append("<catalog n=\"").append(d).append("\">");
+        for (int i = 0; i < ITEMS; i++) {
+            xml.append("<item id=\"").append(d).append('.').append(i);
+            xml.append("\" category=\"c").append(i % CATEGORIES).append("\">");
+            xml.append("<name>item ").append(i).append("</name>");
+            xml.append("<price>").append(10 + (i * 7) % 90).append("</price>");
+            xml.append("<tags>");
+            for (int t = 0; t < i % 4; t++) {
+                xml.append("<tag>t").append(t).append("</tag>");
+            }
+            xml.append("</tags>");
+            xml.append("</item>");
+        }
+        xml.append("</catalog>");
+        return xml.toString();
+    }
+}
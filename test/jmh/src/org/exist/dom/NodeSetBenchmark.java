@@ -0,0 +1,101 @@
+package org.exist.dom;
+
+import java.util.concurrent.TimeUnit;
+
+import org.exist.benchmark.DatabaseState;
+import org.exist.numbering.NodeId;
+import org.exist.xquery.Expression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Node;
+
+/**
+ * Set operations on node sets as used by location steps, union and
+ * intersect expressions. The nodes are generated in memory, the database is
+ * only started to create the documents they belong to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeSetBenchmark {
+
+    private final static int DOCUMENTS = 10;
+    private final static int CHILDREN = 20;
+
+    /** Number of nodes per document. */
+    @Param({"1000", "20000"})
+    public int nodes;
+
+    private NewArrayNodeSet all;
+    private NewArrayNodeSet even;
+    private NewArrayNodeSet third;
+    private NewArrayNodeSet parents;
+
+    @Setup
+    public void generate(DatabaseState database) {
+        all = new NewArrayNodeSet();
+        even = new NewArrayNodeSet();
+        third = new NewArrayNodeSet();
+        parents = new NewArrayNodeSet();
+        for (int d = 0; d < DOCUMENTS; d++) {
+            final DocumentImpl doc = new DocumentImpl(database.getPool());
+            doc.setDocId(d + 1);
+            final NodeId root = doc.getBrokerPool().getNodeFactory().createInstance();
+            int count = 0;
+            NodeId parent = root.newChild();
+            while (count < nodes) {
+                parents.add(new NodeProxy(doc, parent, Node.ELEMENT_NODE));
+                NodeId child = parent.newChild();
+                for (int i = 0; i < CHILDREN && count < nodes; i++, count++) {
+                    final NodeProxy p = new NodeProxy(doc, child, Node.ELEMENT_NODE);
+                    all.add(p);
+                    if (count % 2 == 0)
+                        {even.add(new NodeProxy(p));}
+                    if (count % 3 == 0)
+                        {third.add(new NodeProxy(p));}
+                    child = child.nextSibling();
+                }
+                parent = parent.nextSibling();
+            }
+        }
+        all.sort();
+        even.sort();
+        third.sort();
+        parents.sort();
+    }
+
+    @Benchmark
+    public NodeSet union() {
+        return even.union(third);
+    }
+
+    @Benchmark
+    public NodeSet intersection() {
+        return even.intersection((NodeSet) third);
+    }
+
+    @Benchmark
+    public NodeSet except() {
+        return even.except(third);
+    }
+
+    @Benchmark
+    public NodeSet selectParentChild() {
+        return all.selectParentChild(parents, NodeSet.DESCENDANT, Expression.NO_CONTEXT_ID);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        boolean found = true;
+        for (final NodeProxy p : third) {
+            found &= all.contains(p);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,78 @@
+package org.exist.dom;
+
+import java.util.concurrent.TimeUnit;
+
+import org.exist.Namespaces;
+import org.exist.benchmark.DatabaseState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Node;
+
+/**
+ * Lookups in the symbol table of the database, which are done for every
+ * element and attribute stored or selected by name. All methods of the
+ * table are synchronized, run with several threads (-t) to see the effect of
+ * contention.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SymbolTableBenchmark {
+
+    private final static String[] NAMES = {
+        "catalog", "item", "name", "price", "tags", "tag", "@id", "@category", "@n"
+    };
+
+    private SymbolTable symbols;
+    private short[] ids;
+
+    @Setup
+    public void lookup(DatabaseState database) {
+        symbols = database.getPool().getSymbols();
+        ids = new short[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            ids[i] = symbols.getSymbol(NAMES[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(9)
+    public int getSymbol() {
+        int sum = 0;
+        for (int i = 0; i < NAMES.length; i++) {
+            sum += symbols.getSymbol(NAMES[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(9)
+    public int getName() {
+        int length = 0;
+        for (int i = 0; i < ids.length; i++) {
+            length += symbols.getName(ids[i]).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public short getNSSymbol() {
+        return symbols.getNSSymbol(Namespaces.EXIST_NS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public int getQName() {
+        int hash = 0;
+        for (int i = 0; i < 6; i++) {
+            hash += symbols.getQName(Node.ELEMENT_NODE, "", NAMES[i], null).hashCode();
+        }
+        return hash;
+    }
+}
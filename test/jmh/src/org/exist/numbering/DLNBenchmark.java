@@ -0,0 +1,117 @@
+package org.exist.numbering;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.exist.storage.io.VariableByteArrayInput;
+import org.exist.storage.io.VariableByteOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding, decoding and comparison of DLN node ids. The ids are those of a
+ * generated document tree in document order, which is the order in which
+ * they are written to and read from the dom.dbx pages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DLNBenchmark {
+
+    private final static int NODES = 10000;
+
+    /** Number of children per element. */
+    @Param({"4", "20"})
+    public int fanOut;
+
+    private final DLNFactory factory = new DLNFactory();
+
+    private NodeId[] ids;
+    private byte[] encoded;
+
+    @Setup
+    public void generate() throws IOException {
+        final List<NodeId> list = new ArrayList<NodeId>(NODES);
+        addChildren(list, new DLN(), 0);
+        ids = list.toArray(new NodeId[list.size()]);
+
+        final VariableByteOutputStream os = new VariableByteOutputStream();
+        NodeId previous = null;
+        for (int i = 0; i < ids.length; i++) {
+            previous = ids[i].write(previous, os);
+        }
+        encoded = os.toByteArray();
+    }
+
+    private void addChildren(List<NodeId> list, NodeId parent, int level) {
+        NodeId child = parent.newChild();
+        for (int i = 0; i < fanOut && list.size() < NODES; i++) {
+            list.add(child);
+            if (level < 8)
+                {addChildren(list, child, level + 1);}
+            child = child.nextSibling();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public int encode() throws IOException {
+        final VariableByteOutputStream os = new VariableByteOutputStream(encoded.length);
+        NodeId previous = null;
+        for (int i = 0; i < ids.length; i++) {
+            previous = ids[i].write(previous, os);
+        }
+        return os.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public void decode(Blackhole bh) throws IOException {
+        final VariableByteArrayInput is = new VariableByteArrayInput(encoded);
+        NodeId previous = null;
+        for (int i = 0; i < ids.length; i++) {
+            previous = factory.createFromStream(previous, is);
+            bh.consume(previous);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public int compare() {
+        int sum = 0;
+        for (int i = 1; i < ids.length; i++) {
+            sum += ids[i - 1].compareTo(ids[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public int isDescendantOf() {
+        final NodeId ancestor = ids[ids.length / 3];
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i].isDescendantOf(ancestor))
+                {count++;}
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public void getParentId(Blackhole bh) {
+        for (int i = 0; i < ids.length; i++) {
+            bh.consume(ids[i].getParentId());
+        }
+    }
+}
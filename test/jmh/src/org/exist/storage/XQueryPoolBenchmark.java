@@ -0,0 +1,58 @@
+package org.exist.storage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.exist.benchmark.BrokerState;
+import org.exist.security.xacml.AccessContext;
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compiling a query compared to borrowing it from the query pool, the way
+ * the REST server and XQueryServlet obtain their queries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XQueryPoolBenchmark {
+
+    private final static String QUERY =
+        "declare namespace b='http://exist-db.org/benchmark';\n" +
+        "declare function b:total($items as element(item)*) as xs:double {\n" +
+        "    sum($items/price)\n" +
+        "};\n" +
+        "for $item in collection('/db/benchmark')//item[@category = 'c1']\n" +
+        "let $tags := $item/tags/tag\n" +
+        "where count($tags) > 1\n" +
+        "order by $item/name descending\n" +
+        "return <item id='{$item/@id}' total='{b:total($item)}'>{$tags}</item>";
+
+    private final Source source = new StringSource(QUERY);
+
+    @Benchmark
+    public CompiledXQuery compile(BrokerState state) throws Exception {
+        final XQuery xquery = state.getBroker().getXQueryService();
+        return xquery.compile(xquery.newContext(AccessContext.TEST), source);
+    }
+
+    @Benchmark
+    public CompiledXQuery borrowFromPool(BrokerState state) throws Exception {
+        final DBBroker broker = state.getBroker();
+        final XQueryPool pool = state.getPool().getXQueryPool();
+        CompiledXQuery compiled = pool.borrowCompiledXQuery(broker, source);
+        if (compiled == null) {
+            final XQuery xquery = broker.getXQueryService();
+            compiled = xquery.compile(xquery.newContext(AccessContext.TEST), source);
+        }
+        pool.returnCompiledXQuery(source, compiled);
+        return compiled;
+    }
+}
@@ -0,0 +1,142 @@
+package org.exist.storage.btree;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.exist.benchmark.DatabaseState;
+import org.exist.storage.BrokerPool;
+import org.exist.xquery.TerminatedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Inserts into and lookups in a B+-tree file outside of the journal. Keys
+ * have a common prefix and a numeric suffix, like the keys of the collection
+ * and element indexes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BTreeBenchmark {
+
+    private final static int KEYS = 10000;
+
+    private Value[] keys;
+    private Value[] shuffled;
+
+    private BTree filled;
+
+    @Setup
+    public void generate(DatabaseState database) throws DBException {
+        keys = new Value[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = new Value("key" + i);
+        }
+        shuffled = keys.clone();
+        final Random random = new Random(42);
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final Value v = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = v;
+        }
+
+        filled = create(database.getPool(), "filled.dbx");
+        try {
+            for (int i = 0; i < KEYS; i++) {
+                filled.addValue(shuffled[i], i);
+            }
+        } catch (final Exception e) {
+            throw new DBException(e.getMessage());
+        }
+    }
+
+    @TearDown
+    public void close() {
+        filled.closeAndRemove();
+    }
+
+    private static BTree create(BrokerPool pool, String name) throws DBException {
+        final File dir = new File(System.getProperty("exist.home", "."), "test/temp");
+        dir.mkdirs();
+        final File file = new File(dir, name);
+        file.delete();
+        final BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file, 0.1);
+        btree.create((short) -1);
+        return btree;
+    }
+
+    /**
+     * A new, empty tree for every invocation of the insert benchmarks.
+     */
+    @State(Scope.Thread)
+    public static class EmptyTree {
+
+        BTree btree;
+
+        @Setup(Level.Invocation)
+        public void create(DatabaseState database) throws DBException {
+            btree = BTreeBenchmark.create(database.getPool(), "empty.dbx");
+        }
+
+        @TearDown(Level.Invocation)
+        public void remove() {
+            btree.closeAndRemove();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public BTree insertSequential(EmptyTree empty) throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            empty.btree.addValue(keys[i], i);
+        }
+        return empty.btree;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public BTree insertRandom(EmptyTree empty) throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            empty.btree.addValue(shuffled[i], i);
+        }
+        return empty.btree;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public long find() throws Exception {
+        long sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += filled.findValue(shuffled[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public int rangeQuery() throws Exception {
+        final CountingCallback callback = new CountingCallback();
+        filled.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("key")), callback);
+        return callback.count;
+    }
+
+    private static class CountingCallback implements BTreeCallback {
+
+        int count = 0;
+
+        public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+            count++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.exist.storage.io;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Writing and reading variable length encoded numbers, as done for every
+ * entry of the structural and range indexes. The values are mostly small
+ * gaps with an occasional large one, which is what the index workers write.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VariableByteStreamBenchmark {
+
+    private final static int VALUES = 10000;
+
+    private int[] ints;
+    private long[] longs;
+    private byte[] encodedInts;
+    private byte[] encodedLongs;
+
+    @Setup
+    public void generate() {
+        final Random random = new Random(42);
+        ints = new int[VALUES];
+        longs = new long[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            ints[i] = random.nextInt(10) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(200);
+            longs[i] = random.nextInt(10) == 0 ? random.nextLong() & Long.MAX_VALUE : random.nextInt(50000);
+        }
+        encodedInts = writeInts().toByteArray();
+        encodedLongs = writeLongs().toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public VariableByteOutputStream writeInt() {
+        return writeInts();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public VariableByteOutputStream writeLong() {
+        return writeLongs();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int readInt() throws IOException {
+        final VariableByteArrayInput is = new VariableByteArrayInput(encodedInts);
+        int sum = 0;
+        for (int i = 0; i < VALUES; i++) {
+            sum += is.readInt();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public long readLong() throws IOException {
+        final VariableByteArrayInput is = new VariableByteArrayInput(encodedLongs);
+        long sum = 0;
+        for (int i = 0; i < VALUES; i++) {
+            sum += is.readLong();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int skip() throws IOException {
+        final VariableByteArrayInput is = new VariableByteArrayInput(encodedInts);
+        is.skip(VALUES);
+        return is.available();
+    }
+
+    private VariableByteOutputStream writeInts() {
+        final VariableByteOutputStream os = new VariableByteOutputStream(VALUES * 2);
+        for (int i = 0; i < VALUES; i++) {
+            os.writeInt(ints[i]);
+        }
+        return os;
+    }
+
+    private VariableByteOutputStream writeLongs() {
+        final VariableByteOutputStream os = new VariableByteOutputStream(VALUES * 3);
+        for (int i = 0; i < VALUES; i++) {
+            os.writeLong(longs[i]);
+        }
+        return os;
+    }
+}
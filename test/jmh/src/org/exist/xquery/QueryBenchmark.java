@@ -0,0 +1,80 @@
+package org.exist.xquery;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.exist.benchmark.BrokerState;
+import org.exist.security.xacml.AccessContext;
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.storage.DBBroker;
+import org.exist.storage.XQueryPool;
+import org.exist.xquery.value.Sequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * End-to-end evaluation of path expressions and FLWOR expressions against
+ * the documents generated by {@link org.exist.benchmark.DatabaseState}.
+ * Compiled queries are taken from the query pool, so the numbers do not
+ * include compilation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryBenchmark {
+
+    private final static Map<String, String> QUERIES = new HashMap<String, String>();
+    static {
+        QUERIES.put("childPath", "collection('/db/benchmark')/catalog/item/name");
+        QUERIES.put("descendantPath", "collection('/db/benchmark')//tag");
+        QUERIES.put("attributePredicate", "collection('/db/benchmark')//item[@category = 'c3']");
+        QUERIES.put("positionalPredicate", "collection('/db/benchmark')/catalog/item[10]/name");
+        QUERIES.put("valuePredicate", "collection('/db/benchmark')//item[price > 90]/@id");
+        QUERIES.put("flwor",
+            "for $item in collection('/db/benchmark')//item " +
+            "where $item/@category = 'c1' " +
+            "return <i id='{$item/@id}'>{$item/name/text()}</i>");
+        QUERIES.put("flworOrderBy",
+            "for $item in collection('/db/benchmark')//item[tags/tag] " +
+            "order by number($item/price) descending " +
+            "return $item/@id");
+        QUERIES.put("aggregate",
+            "for $c in distinct-values(collection('/db/benchmark')//item/@category) " +
+            "return sum(collection('/db/benchmark')//item[@category = $c]/price)");
+    }
+
+    @Param({"childPath", "descendantPath", "attributePredicate", "positionalPredicate",
+        "valuePredicate", "flwor", "flworOrderBy", "aggregate"})
+    public String query;
+
+    private Source source;
+
+    @Setup
+    public void prepare() {
+        source = new StringSource(QUERIES.get(query));
+    }
+
+    @Benchmark
+    public int execute(BrokerState state) throws Exception {
+        final DBBroker broker = state.getBroker();
+        final XQueryPool pool = state.getPool().getXQueryPool();
+        final XQuery xquery = broker.getXQueryService();
+        CompiledXQuery compiled = pool.borrowCompiledXQuery(broker, source);
+        if (compiled == null)
+            {compiled = xquery.compile(xquery.newContext(AccessContext.TEST), source);}
+        try {
+            final Sequence result = xquery.execute(compiled, null);
+            return result.getItemCount();
+        } finally {
+            pool.returnCompiledXQuery(source, compiled);
+        }
+    }
+}
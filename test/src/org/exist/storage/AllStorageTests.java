@@ -47,7 +47,14 @@ import org.junit.runners.Suite;
         ResourceTest.class,
         RangeIndexUpdateTest.class,
         LargeValuesTest.class,
-        StoreBinaryTest.class
+        ReadAheadTest.class,
+        FuzzyCheckpointTest.class,
+        ParallelRecoveryTest.class,
+        StoreBinaryTest.class,
+        GroupCommitTest.class,
+        ParallelReindexTest.class,
+        BulkLoaderTest.class,
+        QueryStatsTest.class
 })
 public class AllStorageTests {
 }
@@ -0,0 +1,92 @@
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Store documents while the structural index is in bulk load mode and
+ * check the index after the load has finished and after a restart.
+ */
+public class BulkLoaderTest {
+
+    private static final int DOCUMENTS = 50;
+    private static final int ITEMS = 50;
+
+    private BrokerPool pool;
+
+    @Test
+    public void bulkLoad() throws Exception {
+        DBBroker broker = null;
+        int configCount;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            configCount = count(broker, "collection('/db/system')//*");
+
+            // force the entries to be spilled into several sorted runs
+            final BulkLoader loader = new BulkLoader(pool, 256 * 1024);
+            loader.start();
+            assertTrue(loader.isActive());
+            store(broker);
+            loader.finish(broker);
+            assertFalse(loader.isActive());
+
+            assertEquals(DOCUMENTS * ITEMS, count(broker, "collection('/db/test')//item"));
+            assertEquals(DOCUMENTS, count(broker, "collection('/db/test')//item[@n = '7']"));
+            assertEquals(DOCUMENTS * ITEMS, count(broker, "collection('/db/test')/items/item/name"));
+            assertEquals(configCount, count(broker, "collection('/db/system')//*"));
+        } finally {
+            pool.release(broker);
+        }
+
+        // the index should be usable after a restart
+        BrokerPool.stopAll(false);
+        startDB();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            assertEquals(DOCUMENTS * ITEMS, count(broker, "collection('/db/test')//item"));
+            assertEquals(configCount, count(broker, "collection('/db/system')//*"));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private void store(DBBroker broker) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            final Collection root = StorageTestFixture.getTestCollection(broker, transaction);
+            for (int d = 0; d < DOCUMENTS; d++) {
+                StorageTestFixture.store(broker, transaction, root, "doc" + d + ".xml", ITEMS);
+            }
+            transact.commit(transaction);
+        } catch (final Exception e) {
+            transact.abort(transaction);
+            throw e;
+        }
+    }
+
+    private int count(DBBroker broker, String query) throws Exception {
+        return StorageTestFixture.count(broker, query);
+    }
+
+    private void startDB() throws Exception {
+        pool = StorageTestFixture.startDB(5, new Configuration());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        startDB();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        StorageTestFixture.tearDown(pool);
+    }
+}
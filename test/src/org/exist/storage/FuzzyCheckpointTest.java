@@ -0,0 +1,200 @@
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.journal.JournalReader;
+import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.Loggable;
+import org.exist.storage.txn.FuzzyCheckpoint;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Write fuzzy checkpoints while transactions are running, crash the database
+ * and check that recovery redoes committed and undoes uncommitted changes
+ * made before and after the checkpoint.
+ */
+public class FuzzyCheckpointTest {
+
+    private static final int ITEMS = 500;
+    private static final int THREADS = 4;
+    private static final int DOCUMENTS = 10;
+
+    private BrokerPool pool;
+
+    @Test
+    public void checkpointAndRecover() throws Exception {
+        pool = startDB();
+        final FuzzyCheckpointer checkpointer = pool.getFuzzyCheckpointer();
+        assertNotNull(checkpointer);
+        final TransactionManager transact = pool.getTransactionManager();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+
+            final Txn txn1 = transact.beginTransaction();
+            final Collection root = StorageTestFixture.getTestCollection(broker, txn1);
+            store(broker, txn1, root, "committed1.xml");
+            transact.commit(txn1);
+
+            // the checkpoint does not wait for running transactions
+            final Txn txn2 = transact.beginTransaction();
+            store(broker, txn2, root, "uncommitted1.xml");
+            assertTrue(checkpointer.checkpoint(broker));
+            store(broker, txn2, root, "uncommitted2.xml");
+
+            final Txn txn3 = transact.beginTransaction();
+            store(broker, txn3, root, "committed2.xml");
+            transact.commit(txn3);
+            transact.getJournal().flushToLog(true, true);
+
+            final FuzzyCheckpoint checkpoint = findCheckpoint(broker, transact.getJournal());
+            assertNotNull(checkpoint);
+            assertTrue(checkpoint.getRedoLsn() <= checkpoint.getLsn());
+            boolean running = false;
+            for (final long id : checkpoint.getTransactions()) {
+                running = running || id == txn2.getId();
+            }
+            assertTrue("transaction " + txn2.getId() + " should be recorded as running", running);
+        } finally {
+            pool.release(broker);
+        }
+
+        // crash: do not write dirty pages and no checkpoint on shutdown
+        BrokerPool.FORCE_CORRUPTION = true;
+        BrokerPool.stopAll(false);
+        BrokerPool.FORCE_CORRUPTION = false;
+
+        pool = startDB();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            assertEquals(ITEMS, count(broker, "committed1.xml"));
+            assertEquals(ITEMS, count(broker, "committed2.xml"));
+            assertEquals(0, count(broker, "uncommitted1.xml"));
+            assertEquals(0, count(broker, "uncommitted2.xml"));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        pool = startDB();
+        final FuzzyCheckpointer checkpointer = pool.getFuzzyCheckpointer();
+        final long lastSync = pool.getLastMajorSync();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < DOCUMENTS; j++) {
+                            storeCommitted("doc" + thread + "_" + j + ".xml");
+                        }
+                    } catch (final Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            while (thread.isAlive()) {
+                checkpointer.trigger();
+                thread.join(50);
+            }
+        }
+        if (!errors.isEmpty()) {
+            errors.get(0).printStackTrace();
+            fail(errors.get(0).getMessage());
+        }
+        // the last request may not have been picked up by the checkpointer yet
+        final long timeout = System.currentTimeMillis() + 60000;
+        while ((checkpointer.isActive() || pool.getLastMajorSync() == lastSync) &&
+                System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+        assertTrue("no checkpoint has been written", pool.getLastMajorSync() > lastSync);
+
+        BrokerPool.FORCE_CORRUPTION = true;
+        BrokerPool.stopAll(false);
+        BrokerPool.FORCE_CORRUPTION = false;
+
+        pool = startDB();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            assertEquals(THREADS * DOCUMENTS * ITEMS, StorageTestFixture.count(broker,
+                "collection('" + TestConstants.TEST_COLLECTION_URI + "')//item"));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private void storeCommitted(String name) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        DBBroker broker = null;
+        final Txn transaction = transact.beginTransaction();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            store(broker, transaction, StorageTestFixture.getTestCollection(broker, transaction), name);
+            transact.commit(transaction);
+        } catch (final Exception e) {
+            transact.abort(transaction);
+            throw e;
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private FuzzyCheckpoint findCheckpoint(DBBroker broker, Journal journal) throws Exception {
+        final int fileNum = Journal.findLastFile(journal.getFiles());
+        final JournalReader reader = new JournalReader(broker, journal.getFile(fileNum), fileNum);
+        try {
+            reader.position(1);
+            FuzzyCheckpoint checkpoint = null;
+            Loggable next;
+            while ((next = reader.nextEntry()) != null) {
+                if (next.getLogType() == LogEntryTypes.FUZZY_CHECKPOINT)
+                    {checkpoint = (FuzzyCheckpoint) next;}
+            }
+            return checkpoint;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void store(DBBroker broker, Txn transaction, Collection root, String name) throws Exception {
+        StorageTestFixture.store(broker, transaction, root, name, ITEMS);
+    }
+
+    private int count(DBBroker broker, String docName) throws Exception {
+        return StorageTestFixture.count(broker, "doc('" + TestConstants.TEST_COLLECTION_URI.append(docName) + "')//item");
+    }
+
+    private BrokerPool startDB() throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(TransactionManager.PROPERTY_RECOVERY_FUZZY_CHECKPOINT, Boolean.TRUE);
+        return StorageTestFixture.startDB(THREADS + 2, config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        StorageTestFixture.tearDown(pool);
+    }
+}
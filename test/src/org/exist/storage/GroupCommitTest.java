@@ -0,0 +1,169 @@
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Run many small transactions in parallel with durable group commits enabled,
+ * then restart the database and check that all of them survived.
+ */
+public class GroupCommitTest {
+
+    private static final XmldbURI TEST_COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("group-commit");
+
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS = 25;
+
+    private BrokerPool pool;
+
+    @Test
+    public void concurrentCommits() throws Exception {
+        pool = startDB();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        for (int i = 0; i < THREADS; i++) {
+            final XmldbURI uri = TEST_COLLECTION_URI.append("t" + i);
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        store(uri);
+                    } catch (final Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        if (!errors.isEmpty()) {
+            errors.get(0).printStackTrace();
+            fail(errors.get(0).getMessage());
+        }
+
+        BrokerPool.stopAll(false);
+        pool = startDB();
+
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            for (int i = 0; i < THREADS; i++) {
+                final Collection collection = broker.getCollection(TEST_COLLECTION_URI.append("t" + i));
+                assertNotNull(collection);
+                assertEquals(TRANSACTIONS, collection.getDocumentCount(broker));
+            }
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void failedSync() throws Exception {
+        pool = startDB();
+        final TransactionManager transact = pool.getTransactionManager();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final Txn transaction = transact.beginTransaction();
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            // the journal can no longer be written and forced to disk
+            transact.getJournal().close();
+            try {
+                transact.commit(transaction);
+                fail("Commit should fail if the journal cannot be synced");
+            } catch (final TransactionException e) {
+                // expected
+            }
+        } finally {
+            pool.release(broker);
+        }
+        BrokerPool.stopAll(false);
+        pool = startDB();
+    }
+
+    @Test
+    public void singleCommitDoesNotWait() throws Exception {
+        pool = startDB(10000);
+        final long start = System.currentTimeMillis();
+        store(TEST_COLLECTION_URI.append("single"));
+        // the only committer must not wait for group-commit-max-wait
+        assertTrue("commits waited for other transactions", System.currentTimeMillis() - start < 10000);
+    }
+
+    private void store(XmldbURI uri) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            for (int i = 0; i < TRANSACTIONS; i++) {
+                final Txn transaction = transact.beginTransaction();
+                try {
+                    final Collection collection = broker.getOrCreateCollection(transaction, uri);
+                    broker.saveCollection(transaction, collection);
+                    final String xml = "<test n=\"" + i + "\"><para>group commit</para></test>";
+                    final IndexInfo info = collection.validateXMLResource(transaction, broker,
+                        XmldbURI.create("test" + i + ".xml"), xml);
+                    collection.store(transaction, broker, info, xml, false);
+                    transact.commit(transaction);
+                } catch (final Exception e) {
+                    transact.abort(transaction);
+                    throw e;
+                }
+            }
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private BrokerPool startDB() throws Exception {
+        return startDB(10);
+    }
+
+    private BrokerPool startDB(int maxWait) throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(TransactionManager.PROPERTY_RECOVERY_GROUP_COMMIT, Boolean.TRUE);
+        config.setProperty(Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT, Boolean.TRUE);
+        config.setProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_WAIT, maxWait);
+        config.setProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_BATCH, THREADS);
+        BrokerPool.configure(1, THREADS + 2, config);
+        return BrokerPool.getInstance();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pool != null) {
+            DBBroker broker = null;
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            try {
+                broker = pool.get(pool.getSecurityManager().getSystemSubject());
+                final Collection root = broker.getCollection(TEST_COLLECTION_URI);
+                if (root != null)
+                    {broker.removeCollection(transaction, root);}
+                transact.commit(transaction);
+            } finally {
+                pool.release(broker);
+            }
+        }
+        BrokerPool.stopAll(false);
+    }
+}
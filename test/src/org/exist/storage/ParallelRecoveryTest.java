@@ -0,0 +1,104 @@
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.dom.BinaryDocument;
+import org.exist.dom.DocumentImpl;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Crash the database after storing, updating and removing documents and check
+ * that recovery with several redo threads restores the committed state.
+ */
+public class ParallelRecoveryTest {
+
+    private static final int ITEMS = 200;
+    private static final int DOCUMENTS = 20;
+    private static final int REDO_THREADS = 4;
+
+    private static final String BINARY = "binary document";
+
+    private BrokerPool pool;
+
+    @Test
+    public void recover() throws Exception {
+        pool = startDB();
+        final TransactionManager transact = pool.getTransactionManager();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+
+            final Txn txn1 = transact.beginTransaction();
+            final Collection root = StorageTestFixture.getTestCollection(broker, txn1);
+            for (int i = 0; i < DOCUMENTS; i++) {
+                StorageTestFixture.store(broker, txn1, root, "doc" + i + ".xml", ITEMS);
+            }
+            root.addBinaryResource(txn1, broker, XmldbURI.create("binary.txt"), BINARY.getBytes("UTF-8"),
+                "text/plain");
+            transact.commit(txn1);
+
+            final Txn txn2 = transact.beginTransaction();
+            for (int i = 0; i < DOCUMENTS; i += 2) {
+                final DocumentImpl doc = root.getDocument(broker, XmldbURI.create("doc" + i + ".xml"));
+                root.removeXMLResource(txn2, broker, doc.getFileURI());
+            }
+            transact.commit(txn2);
+
+            final Txn txn3 = transact.beginTransaction();
+            StorageTestFixture.store(broker, txn3, root, "uncommitted.xml", ITEMS);
+            transact.getJournal().flushToLog(true, true);
+        } finally {
+            pool.release(broker);
+        }
+
+        // crash: do not write dirty pages and no checkpoint on shutdown
+        BrokerPool.FORCE_CORRUPTION = true;
+        BrokerPool.stopAll(false);
+        BrokerPool.FORCE_CORRUPTION = false;
+
+        pool = startDB();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            assertEquals(DOCUMENTS / 2 * ITEMS, StorageTestFixture.count(broker,
+                "collection('" + TestConstants.TEST_COLLECTION_URI + "')//item"));
+            for (int i = 1; i < DOCUMENTS; i += 2) {
+                assertEquals(ITEMS, StorageTestFixture.count(broker,
+                    "doc('" + TestConstants.TEST_COLLECTION_URI.append("doc" + i + ".xml") + "')//item"));
+            }
+
+            final BinaryDocument binary = (BinaryDocument) broker.getXMLResource(
+                TestConstants.TEST_COLLECTION_URI.append("binary.txt"), Lock.READ_LOCK);
+            assertNotNull(binary);
+            try {
+                final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                broker.readBinaryResource(binary, os);
+                assertEquals(BINARY, os.toString("UTF-8"));
+            } finally {
+                binary.getUpdateLock().release(Lock.READ_LOCK);
+            }
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private BrokerPool startDB() throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(TransactionManager.PROPERTY_RECOVERY_REDO_THREADS, Integer.valueOf(REDO_THREADS));
+        return StorageTestFixture.startDB(5, config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        StorageTestFixture.tearDown(pool);
+    }
+}
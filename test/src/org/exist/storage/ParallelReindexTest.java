@@ -0,0 +1,161 @@
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reindex a collection hierarchy with several threads and check that the
+ * indexes are complete afterwards.
+ */
+public class ParallelReindexTest {
+
+    private static final String CONFIG =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "   <index>" +
+        "       <create qname=\"@n\" type=\"xs:integer\"/>" +
+        "       <create qname=\"name\" type=\"xs:string\"/>" +
+        "   </index>" +
+        "</collection>";
+
+    private static final int COLLECTIONS = 3;
+    private static final int DOCUMENTS = 40;
+    private static final int ITEMS = 20;
+
+    private BrokerPool pool;
+
+    @Test
+    public void reindex() throws Exception {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            assertEquals(COLLECTIONS * DOCUMENTS, count(broker, "collection('/db/test')//item[@n = 7]"));
+            assertEquals(COLLECTIONS * DOCUMENTS * ITEMS, count(broker, "collection('/db/test')//item[name = 'item']"));
+
+            final ParallelReindex reindex = ((NativeBroker) broker).newParallelReindex(
+                broker.getCollection(TestConstants.TEST_COLLECTION_URI), 4);
+            reindex.run();
+            assertEquals(COLLECTIONS * DOCUMENTS, reindex.getDocumentsDone());
+            assertTrue("documents were reindexed by a single worker", reindex.getWorkersUsed() > 1);
+
+            assertEquals(COLLECTIONS * DOCUMENTS, count(broker, "collection('/db/test')//item[@n = 7]"));
+            assertEquals(COLLECTIONS * DOCUMENTS * ITEMS, count(broker, "collection('/db/test')//item[name = 'item']"));
+            assertEquals(DOCUMENTS, count(broker, "collection('/db/test/c1')//item[@n = 19]"));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void concurrentUpdates() throws Exception {
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    modify();
+                } catch (final Throwable e) {
+                    errors.add(e);
+                }
+            }
+        };
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            writer.start();
+            broker.reindexCollection(TestConstants.TEST_COLLECTION_URI);
+            writer.join();
+            if (!errors.isEmpty()) {
+                errors.get(0).printStackTrace();
+                fail(errors.get(0).getMessage());
+            }
+
+            final int documents = count(broker, "collection('/db/test')/items");
+            assertEquals(COLLECTIONS * DOCUMENTS, documents);
+            assertEquals(documents, count(broker, "collection('/db/test')//item[@n = 7]"));
+            assertEquals(documents * ITEMS, count(broker, "collection('/db/test')//item[name = 'item']"));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    /**
+     * Replace documents in c0, remove documents from c1 and add new ones to c2.
+     */
+    private void modify() throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            for (int d = 0; d < DOCUMENTS; d += 4) {
+                final Txn transaction = transact.beginTransaction();
+                try {
+                    store(transaction, broker, broker.getCollection(TestConstants.TEST_COLLECTION_URI.append("c0")),
+                        "doc" + d + ".xml");
+                    broker.getCollection(TestConstants.TEST_COLLECTION_URI.append("c1"))
+                        .removeXMLResource(transaction, broker, XmldbURI.create("doc" + d + ".xml"));
+                    store(transaction, broker, broker.getCollection(TestConstants.TEST_COLLECTION_URI.append("c2")),
+                        "new" + d + ".xml");
+                    transact.commit(transaction);
+                } catch (final Exception e) {
+                    transact.abort(transaction);
+                    throw e;
+                }
+            }
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private void store(Txn transaction, DBBroker broker, Collection collection, String name) throws Exception {
+        StorageTestFixture.store(broker, transaction, collection, name, StorageTestFixture.items(ITEMS, false));
+    }
+
+    private int count(DBBroker broker, String query) throws Exception {
+        return StorageTestFixture.count(broker, query);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(NativeBroker.PROPERTY_REINDEX_THREADS, 4);
+        pool = StorageTestFixture.startDB(6, config);
+
+        DBBroker broker = null;
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final Collection root = StorageTestFixture.getTestCollection(broker, transaction);
+            pool.getConfigurationManager().addConfiguration(transaction, broker, root, CONFIG);
+
+            for (int c = 0; c < COLLECTIONS; c++) {
+                final Collection collection = broker.getOrCreateCollection(transaction,
+                    TestConstants.TEST_COLLECTION_URI.append("c" + c));
+                broker.saveCollection(transaction, collection);
+                for (int d = 0; d < DOCUMENTS; d++) {
+                    store(transaction, broker, collection, "doc" + d + ".xml");
+                }
+            }
+            transact.commit(transaction);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        StorageTestFixture.tearDown(pool);
+    }
+}
@@ -0,0 +1,126 @@
+package org.exist.storage;
+
+import org.exist.TestUtils;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.security.xacml.AccessContext;
+import org.exist.source.StringSource;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryWatchDog;
+import org.exist.xquery.value.Sequence;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QueryStatsTest {
+
+    private static BrokerPool pool;
+
+    @Test
+    public void nested() {
+        final QueryStats outer = QueryStats.start();
+        QueryStats.indexLookup();
+        final QueryStats inner = QueryStats.start();
+        assertSame(inner, QueryStats.current());
+        QueryStats.indexLookup();
+        QueryStats.pageRead("dom.dbx");
+        QueryStats.cacheMiss();
+        inner.stop();
+
+        assertSame(outer, QueryStats.current());
+        assertFalse(inner.isRunning());
+        assertEquals(1, inner.getIndexLookups());
+        assertEquals(2, outer.getIndexLookups());
+        assertEquals(1, outer.getTotalPagesRead());
+        assertEquals(Long.valueOf(1), outer.getPagesRead().get("dom.dbx"));
+        assertEquals(1, outer.getCacheMisses());
+
+        outer.stop();
+        assertNull(QueryStats.current());
+        // stopping twice has no effect
+        outer.stop();
+        assertEquals(2, outer.getIndexLookups());
+    }
+
+    @Test
+    public void notRunning() {
+        assertNull(QueryStats.current());
+        QueryStats.indexLookup();
+        QueryStats.nodeLoaded();
+        assertNull(QueryStats.current());
+    }
+
+    @Test
+    public void allocatedBytes() {
+        final QueryStats stats = QueryStats.start();
+        final byte[] data = new byte[1024 * 1024];
+        stats.stop();
+        // -1 if the JVM does not report the memory allocated by a thread
+        if (stats.getAllocatedBytes() != -1)
+            {assertTrue(stats.getAllocatedBytes() >= data.length);}
+    }
+
+    @Test
+    public void query() throws Exception {
+        final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+        try {
+            final XQuery xquery = broker.getXQueryService();
+            final CompiledXQuery compiled = xquery.compile(xquery.newContext(AccessContext.TEST), new StringSource(
+                "let $items := collection('" + TestConstants.TEST_COLLECTION_URI + "')//item[@n = '5'] " +
+                "return (util:eval('count($items)'), util:serialize($items, ()))"));
+            final Sequence result = xquery.execute(compiled, null);
+            assertEquals(2, result.getItemCount());
+            assertEquals("1", result.itemAt(0).getStringValue());
+
+            assertNull(QueryStats.current());
+            final XQueryWatchDog watchdog = compiled.getContext().getWatchDog();
+            final QueryStats stats = watchdog.getQueryStats();
+            assertNotNull(stats);
+            assertFalse(stats.isRunning());
+            assertTrue(stats.getIndexLookups() > 0);
+            assertTrue(stats.getNodesLoaded() > 0);
+            assertTrue(stats.getCacheHits() + stats.getCacheMisses() > 0);
+            assertEquals(result.itemAt(1).getStringValue().length(), stats.getCharsSerialized());
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @BeforeClass
+    public static void startDB() throws Exception {
+        BrokerPool.configure(1, 5, new Configuration());
+        pool = BrokerPool.getInstance();
+        final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+        try {
+            final StringBuilder xml = new StringBuilder("<items>");
+            for (int i = 0; i < 100; i++) {
+                xml.append("<item n='").append(i).append("'>item ").append(i).append("</item>");
+            }
+            xml.append("</items>");
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            final Collection collection = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("items.xml"), xml.toString());
+            collection.store(transaction, broker, info, xml.toString(), false);
+            transact.commit(transaction);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @AfterClass
+    public static void stopDB() {
+        TestUtils.cleanupDB();
+        BrokerPool.stopAll(false);
+        pool = null;
+    }
+}
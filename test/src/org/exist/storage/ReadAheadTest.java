@@ -0,0 +1,141 @@
+package org.exist.storage;
+
+import org.exist.dom.DocumentImpl;
+import org.exist.security.xacml.AccessContext;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.serializers.Serializer;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Serialize a document spanning many pages with read-ahead enabled, in parallel
+ * and after an update, and compare the result with the serialization obtained
+ * without read-ahead.
+ */
+public class ReadAheadTest {
+
+    private static final XmldbURI DOC_URI = TestConstants.TEST_COLLECTION_URI.append("read-ahead.xml");
+
+    private static final int ITEMS = 5000;
+    private static final int THREADS = 4;
+
+    private BrokerPool pool;
+
+    @Test
+    public void serialize() throws Exception {
+        pool = startDB(0);
+        store();
+        final String expected = serialize(DOC_URI);
+        BrokerPool.stopAll(false);
+
+        pool = startDB(8);
+        assertEquals(expected, serialize(DOC_URI));
+
+        final List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        for (int i = 0; i < THREADS; i++) {
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 3; j++) {
+                            assertEquals(expected, serialize(DOC_URI));
+                        }
+                    } catch (final Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        if (!errors.isEmpty()) {
+            errors.get(0).printStackTrace();
+            fail(errors.get(0).getMessage());
+        }
+
+        // pages changed by the update must not be replaced by stale copies
+        query("for $item in doc('" + DOC_URI + "')//item[@n mod 100 = 0] " +
+            "return update value $item/name with 'changed'");
+        assertEquals("50", query("count(doc('" + DOC_URI + "')//item[name = 'changed'])"));
+        String updated = expected;
+        for (int i = 0; i < ITEMS; i += 100) {
+            updated = updated.replace(">item " + i + "<", ">changed<");
+        }
+        assertEquals(updated, serialize(DOC_URI));
+    }
+
+    private void store() throws Exception {
+        DBBroker broker = null;
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            StorageTestFixture.store(broker, transaction, StorageTestFixture.getTestCollection(broker, transaction),
+                DOC_URI.lastSegment().toString(), ITEMS);
+            transact.commit(transaction);
+        } catch (final Exception e) {
+            transact.abort(transaction);
+            throw e;
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private String serialize(XmldbURI uri) throws Exception {
+        DBBroker broker = null;
+        DocumentImpl doc = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            doc = broker.getXMLResource(uri, Lock.READ_LOCK);
+            assertNotNull(doc);
+            final Serializer serializer = broker.getSerializer();
+            serializer.reset();
+            return serializer.serialize(doc);
+        } finally {
+            if (doc != null)
+                {doc.getUpdateLock().release(Lock.READ_LOCK);}
+            pool.release(broker);
+        }
+    }
+
+    private String query(String query) throws Exception {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final XQuery xquery = broker.getXQueryService();
+            final Sequence result = xquery.execute(query, null, AccessContext.TEST);
+            return result.getStringValue();
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private BrokerPool startDB(int readAhead) throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(BrokerPool.PROPERTY_READ_AHEAD, readAhead);
+        return StorageTestFixture.startDB(THREADS + 2, config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        StorageTestFixture.tearDown(pool);
+    }
+}
@@ -0,0 +1,108 @@
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.security.xacml.AccessContext;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+
+/**
+ * Test data and database setup shared by the storage tests which start a
+ * database with a specific configuration and store generated documents of
+ * the form <code>&lt;items&gt;&lt;item n="i"&gt;&lt;name&gt;item i&lt;/name&gt;&lt;/item&gt;...&lt;/items&gt;</code>
+ * into {@link TestConstants#TEST_COLLECTION_URI}.
+ */
+final class StorageTestFixture {
+
+    private StorageTestFixture() {
+    }
+
+    /**
+     * Start a database with the given configuration.
+     */
+    static BrokerPool startDB(int maxBrokers, Configuration config) throws Exception {
+        BrokerPool.configure(1, maxBrokers, config);
+        return BrokerPool.getInstance();
+    }
+
+    /**
+     * Generate a document with the given number of items.
+     *
+     * @param numbered true if the name of every item ends with its number,
+     *     false if all items are named "item"
+     */
+    static String items(int count, boolean numbered) {
+        final StringBuilder xml = new StringBuilder("<items>");
+        for (int i = 0; i < count; i++) {
+            xml.append("<item n=\"").append(i).append("\"><name>item");
+            if (numbered)
+                {xml.append(' ').append(i);}
+            xml.append("</name></item>");
+        }
+        xml.append("</items>");
+        return xml.toString();
+    }
+
+    /**
+     * Store a document generated by {@link #items(int, boolean)} with numbered names.
+     */
+    static void store(DBBroker broker, Txn transaction, Collection collection, String name, int count)
+            throws Exception {
+        store(broker, transaction, collection, name, items(count, true));
+    }
+
+    static void store(DBBroker broker, Txn transaction, Collection collection, String name, String xml)
+            throws Exception {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), xml);
+        collection.store(transaction, broker, info, xml, false);
+    }
+
+    /**
+     * Returns the test collection, which is created if it does not exist.
+     */
+    static Collection getTestCollection(DBBroker broker, Txn transaction) throws Exception {
+        final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+        broker.saveCollection(transaction, root);
+        return root;
+    }
+
+    /**
+     * Returns the number of items selected by the query.
+     */
+    static int count(DBBroker broker, String query) throws Exception {
+        final XQuery xquery = broker.getXQueryService();
+        final Sequence result = xquery.execute("count(" + query + ")", null, AccessContext.TEST);
+        return Integer.parseInt(result.getStringValue());
+    }
+
+    /**
+     * Remove the test collection and the collection configurations and stop
+     * the database. Does nothing but stop the database if it was not started.
+     */
+    static void tearDown(BrokerPool pool) throws Exception {
+        BrokerPool.FORCE_CORRUPTION = false;
+        if (pool != null && BrokerPool.isConfigured()) {
+            DBBroker broker = null;
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            try {
+                broker = pool.get(pool.getSecurityManager().getSystemSubject());
+                final Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+                if (root != null)
+                    {broker.removeCollection(transaction, root);}
+                final Collection config = broker.getCollection(XmldbURI.create(XmldbURI.CONFIG_COLLECTION + "/db"));
+                if (config != null)
+                    {broker.removeCollection(transaction, config);}
+                transact.commit(transaction);
+            } finally {
+                pool.release(broker);
+            }
+        }
+        BrokerPool.stopAll(false);
+    }
+}
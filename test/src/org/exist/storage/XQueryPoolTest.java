@@ -0,0 +1,209 @@
+package org.exist.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.exist.TestUtils;
+import org.exist.collections.Collection;
+import org.exist.dom.BinaryDocument;
+import org.exist.security.xacml.AccessContext;
+import org.exist.source.DBSource;
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQuery;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class XQueryPoolTest {
+
+    private static BrokerPool pool;
+
+    @Test
+    public void borrowAndReturn() throws Exception {
+        final XQueryPool xqPool = newPool(128, 5);
+        final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+        try {
+            final Source source = new StringSource("1 + 1");
+            assertNull(xqPool.borrowCompiledXQuery(broker, source));
+            final CompiledXQuery compiled = compile(broker, source);
+            xqPool.returnCompiledXQuery(source, compiled);
+            assertSame(compiled, xqPool.borrowCompiledXQuery(broker, new StringSource("1 + 1")));
+            assertNull(xqPool.borrowCompiledXQuery(broker, source));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void maxStackSize() throws Exception {
+        final XQueryPool xqPool = newPool(128, 2);
+        final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+        try {
+            final Source source = new StringSource("1 + 2");
+            for (int i = 0; i < 3; i++) {
+                xqPool.returnCompiledXQuery(source, compile(broker, source));
+            }
+            assertNotNull(xqPool.borrowCompiledXQuery(broker, source));
+            assertNotNull(xqPool.borrowCompiledXQuery(broker, source));
+            assertNull(xqPool.borrowCompiledXQuery(broker, source));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception {
+        final XQueryPool xqPool = newPool(2, 5);
+        final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+        try {
+            final Source first = new StringSource("1");
+            final Source second = new StringSource("2");
+            final Source third = new StringSource("3");
+            xqPool.returnCompiledXQuery(first, compile(broker, first));
+            Thread.sleep(5);
+            xqPool.returnCompiledXQuery(second, compile(broker, second));
+            Thread.sleep(5);
+            // use the first query again, so the second becomes the least recently used
+            xqPool.returnCompiledXQuery(first, xqPool.borrowCompiledXQuery(broker, first));
+            Thread.sleep(5);
+            xqPool.returnCompiledXQuery(third, compile(broker, third));
+
+            assertEquals(2, xqPool.size());
+            assertNotNull(xqPool.borrowCompiledXQuery(broker, first));
+            assertNull(xqPool.borrowCompiledXQuery(broker, second));
+            assertNotNull(xqPool.borrowCompiledXQuery(broker, third));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void clear() throws Exception {
+        final XQueryPool xqPool = newPool(128, 5);
+        final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+        try {
+            final Source source = new StringSource("1 + 3");
+            final CompiledXQuery compiled = compile(broker, source);
+            xqPool.returnCompiledXQuery(source, compiled);
+            xqPool.clear();
+            assertEquals(0, xqPool.size());
+            assertNull(xqPool.borrowCompiledXQuery(broker, source));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void concurrentBorrow() throws Exception {
+        final XQueryPool xqPool = newPool(128, 5);
+        final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < 8; i++) {
+            final Source source = new StringSource("'query " + (i % 4) + "'");
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+                    try {
+                        final XQuery xquery = broker.getXQueryService();
+                        for (int j = 0; j < 50; j++) {
+                            CompiledXQuery compiled = xqPool.borrowCompiledXQuery(broker, source);
+                            if (compiled == null)
+                                {compiled = compile(broker, source);}
+                            try {
+                                final String result = xquery.execute(compiled, null).getStringValue();
+                                if (!source.getContent().equals("'" + result + "'"))
+                                    {return Boolean.FALSE;}
+                            } finally {
+                                xqPool.returnCompiledXQuery(source, compiled);
+                            }
+                        }
+                        return Boolean.TRUE;
+                    } finally {
+                        pool.release(broker);
+                    }
+                }
+            });
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (final Future<Boolean> future : executor.invokeAll(tasks)) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4, xqPool.size());
+    }
+
+    @Test
+    public void prewarm() throws Exception {
+        final XmldbURI uri = TestConstants.TEST_COLLECTION_URI.append("prewarm.xql");
+        final Configuration config = new Configuration();
+        config.setProperty(XQueryPool.PROPERTY_PREWARM,
+            Arrays.asList(uri.toString(), TestConstants.TEST_COLLECTION_URI.append("missing.xql").toString()));
+        final XQueryPool xqPool = new XQueryPool(config);
+
+        final DBBroker broker = pool.get(pool.getSecurityManager().getSystemSubject());
+        try {
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            final Collection collection = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            collection.addBinaryResource(transaction, broker, XmldbURI.create("prewarm.xql"),
+                "<prewarmed/>".getBytes("UTF-8"), "application/xquery");
+            transact.commit(transaction);
+
+            xqPool.prewarm(broker);
+            assertEquals(1, xqPool.size());
+
+            final BinaryDocument doc = (BinaryDocument) broker.getXMLResource(uri, Lock.READ_LOCK);
+            try {
+                assertNotNull(xqPool.borrowCompiledXQuery(broker, new DBSource(broker, doc, true)));
+            } finally {
+                doc.getUpdateLock().release(Lock.READ_LOCK);
+            }
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private static XQueryPool newPool(int size, int stackSize) throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(XQueryPool.PROPERTY_POOL_SIZE, Integer.valueOf(size));
+        config.setProperty(XQueryPool.PROPERTY_MAX_STACK_SIZE, Integer.valueOf(stackSize));
+        return new XQueryPool(config);
+    }
+
+    private static CompiledXQuery compile(DBBroker broker, Source source) throws Exception {
+        final XQuery xquery = broker.getXQueryService();
+        return xquery.compile(xquery.newContext(AccessContext.TEST), source);
+    }
+
+    @BeforeClass
+    public static void startDB() throws Exception {
+        BrokerPool.configure(1, 5, new Configuration());
+        pool = BrokerPool.getInstance();
+    }
+
+    @AfterClass
+    public static void stopDB() {
+        TestUtils.cleanupDB();
+        BrokerPool.stopAll(false);
+        pool = null;
+    }
+}
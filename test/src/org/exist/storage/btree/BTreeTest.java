@@ -448,6 +448,88 @@ public class BTreeTest {
         System.out.println("------------------ testNumbersWithPrefix: END -------------------------");
     }
 
+    @Test
+    public void bulkLoad() throws Exception {
+        BTree btree = null;
+        final SortedRunBuffer buffer = new SortedRunBuffer(64 * 1024);
+        try {
+            btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file, 0.1);
+            btree.create((short) -1);
+            for (int i = 1; i <= COUNT; i++) {
+                btree.addValue(new Value("A" + Integer.toString(i)), i);
+            }
+
+            // keep the existing keys
+            btree.query(null, new BTreeCallback() {
+                public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+                    try {
+                        buffer.add(value, pointer);
+                    } catch (IOException e) {
+                        fail(e.getMessage());
+                    }
+                    return true;
+                }
+            });
+            final Random random = new Random(42);
+            final Map<String, Long> expected = new TreeMap<String, Long>();
+            for (int i = 0; i < COUNT * 10; i++) {
+                final String key = "B" + Integer.toString(random.nextInt(COUNT * 5));
+                expected.put(key, (long) i);
+                buffer.add(new Value(key), i);
+            }
+            assertTrue(buffer.getRuns() > 1);
+
+            btree.bulkLoad(buffer, 0.9);
+
+            for (int i = 1; i <= COUNT; i++) {
+                assertEquals(i, btree.findValue(new Value("A" + Integer.toString(i))));
+            }
+            for (final Map.Entry<String, Long> entry : expected.entrySet()) {
+                assertEquals(entry.getValue().longValue(), btree.findValue(new Value(entry.getKey())));
+            }
+            btree.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("A")), new StringIndexCallback());
+            assertEquals(COUNT, count);
+            btree.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("B")), new StringIndexCallback());
+            assertEquals(expected.size(), count);
+
+            // the tree should still accept updates
+            for (int i = 1; i <= COUNT; i++) {
+                btree.addValue(new Value("C" + Integer.toString(i)), i);
+            }
+            btree.removeValue(new Value("A1"));
+            btree.close();
+
+            btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file, 0.1);
+            btree.open((short) -1);
+            btree.query(null, new StringIndexCallback());
+            assertEquals(COUNT - 1 + expected.size() + COUNT, count);
+            assertEquals(COUNT, btree.findValue(new Value("C" + Integer.toString(COUNT))));
+        } finally {
+            buffer.close();
+            if (btree != null)
+                {btree.close();}
+        }
+    }
+
+    @Test
+    public void bulkLoadEmpty() throws Exception {
+        BTree btree = null;
+        final SortedRunBuffer buffer = new SortedRunBuffer(64 * 1024);
+        try {
+            btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file, 0.1);
+            btree.create((short) -1);
+            btree.bulkLoad(buffer, 1.0);
+            btree.query(null, new StringIndexCallback());
+            assertEquals(0, count);
+            btree.addValue(new Value("A"), 1);
+            assertEquals(1, btree.findValue(new Value("A")));
+        } finally {
+            buffer.close();
+            if (btree != null)
+                {btree.close();}
+        }
+    }
+
     @Before
     public void initialize() {
         try {
@@ -0,0 +1,158 @@
+package org.exist.storage.btree;
+
+import org.exist.storage.BrokerPool;
+import org.exist.util.ByteConversion;
+import org.exist.util.Configuration;
+import org.exist.xquery.TerminatedException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests compressed pages in {@link Paged} files.
+ */
+public class PageCompressionTest {
+
+    private static final int COUNT = 5000;
+
+    private BrokerPool pool;
+    private File file;
+    private int count;
+
+    @Test
+    public void roundTrip() throws IOException {
+        assertNull(PageCompression.create(PageCompression.NONE));
+        assertNull(PageCompression.create(null));
+        assertTrue(PageCompression.isValidMode(PageCompression.DEFLATE));
+        assertFalse(PageCompression.isValidMode("lz4"));
+
+        final PageCompression compression = PageCompression.create(PageCompression.DEFLATE);
+        final byte[] data = new byte[4000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 10);
+        }
+        final byte[] compressed = new byte[data.length];
+        final int length = compression.compress(data, 0, data.length, compressed);
+        assertTrue(length > 0 && length < data.length / 4);
+        final byte[] out = new byte[data.length];
+        PageCompression.decompress(compressed, 0, length, out);
+        assertArrayEquals(data, out);
+
+        try {
+            PageCompression.decompress(compressed, 0, length, new byte[data.length - 1]);
+            fail("decompressing into a buffer of the wrong size should fail");
+        } catch (final IOException e) {
+            //expected
+        }
+
+        // random data does not compress
+        new Random(42).nextBytes(data);
+        assertEquals(-1, compression.compress(data, 0, data.length, compressed));
+        compression.close();
+    }
+
+    @Test
+    public void btree() throws Exception {
+        restart(PageCompression.DEFLATE);
+        BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file, 0.1);
+        btree.create((short) -1);
+        assertNotNull(btree.getPageCompression());
+        for (int i = 0; i < COUNT; i++) {
+            btree.addValue(new Value("key" + i), i);
+        }
+        btree.flush();
+        btree.close();
+        final int compressed = countCompressedPages();
+        assertTrue("expected compressed pages, found none", compressed > 0);
+
+        // pages written before compression was disabled remain readable
+        restart(PageCompression.NONE);
+        btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file, 0.1);
+        btree.open((short) -1);
+        assertNull(btree.getPageCompression());
+        for (int i = 0; i < COUNT; i += 2) {
+            btree.removeValue(new Value("key" + i));
+        }
+        btree.flush();
+        assertEquals(COUNT / 2, query(btree));
+        btree.close();
+        assertTrue(countCompressedPages() < compressed);
+
+        // and the other way round
+        restart(PageCompression.DEFLATE);
+        btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file, 0.1);
+        btree.open((short) -1);
+        assertEquals(COUNT / 2, query(btree));
+        for (int i = 0; i < COUNT; i += 2) {
+            btree.addValue(new Value("key" + i), i);
+        }
+        btree.flush();
+        assertEquals(COUNT, query(btree));
+        btree.close();
+    }
+
+    private int query(BTree btree) throws Exception {
+        count = 0;
+        btree.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("key")), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+                assertEquals(new Value("key" + pointer), value);
+                count++;
+                return true;
+            }
+        });
+        return count;
+    }
+
+    private int countCompressedPages() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final int pageSize = Paged.getPageSize();
+            final byte[] header = new byte[64];
+            int compressed = 0;
+            for (long offset = pageSize; offset < raf.length(); offset += pageSize) {
+                raf.seek(offset);
+                raf.readFully(header, 0, (int) Math.min(header.length, raf.length() - offset));
+                if (ByteConversion.byteToInt(header, header.length - Paged.LENGTH_COMPRESSED_LENGTH) > 0)
+                    {compressed++;}
+            }
+            return compressed;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void restart(String compression) throws Exception {
+        if (pool != null)
+            {BrokerPool.stopAll(false);}
+        final Configuration config = new Configuration();
+        final Map<String, String> modes = new HashMap<String, String>();
+        modes.put(file.getName(), compression);
+        config.setProperty(BrokerPool.PROPERTY_PAGE_COMPRESSION, modes);
+        BrokerPool.configure(1, 5, config);
+        pool = BrokerPool.getInstance();
+    }
+
+    @Before
+    public void setUp() {
+        file = new File(System.getProperty("exist.home", ".") + "/test/junit/compressed.dbx");
+        file.getParentFile().mkdirs();
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        BrokerPool.stopAll(false);
+        pool = null;
+        file.delete();
+    }
+}
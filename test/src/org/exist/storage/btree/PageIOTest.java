@@ -0,0 +1,134 @@
+package org.exist.storage.btree;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the different {@link PageIO} backends.
+ */
+public class PageIOTest {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int PAGES = 64;
+
+    private File file;
+
+    @Test
+    public void randomAccess() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final PageIO io = new RandomAccessPageIO(raf);
+        readWrite(io);
+        io.close();
+    }
+
+    @Test
+    public void channel() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final PageIO io = new ChannelPageIO(raf);
+        readWrite(io);
+        io.close();
+    }
+
+    @Test
+    public void mapped() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        // use a small region size, so some regions get mapped while the file grows
+        final MappedPageIO io = new MappedPageIO(raf, false, PAGE_SIZE * 8);
+        readWrite(io);
+        assertEquals(PAGES / 8, io.getMappedRegions());
+        io.close();
+    }
+
+    @Test
+    public void mappedReopen() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        PageIO io = new ChannelPageIO(raf);
+        for (int i = 0; i < PAGES; i++) {
+            io.write((long) i * PAGE_SIZE, page(i), 0, PAGE_SIZE);
+        }
+        io.close();
+
+        raf = new RandomAccessFile(file, "r");
+        io = new MappedPageIO(raf, true, PAGE_SIZE * 8);
+        final byte[] buf = new byte[PAGE_SIZE];
+        for (int i = PAGES - 1; i >= 0; i--) {
+            io.read((long) i * PAGE_SIZE, buf, 0, PAGE_SIZE);
+            assertArrayEquals(page(i), buf);
+        }
+        io.close();
+    }
+
+    @Test
+    public void createFromMode() throws IOException {
+        for (final String mode : new String[] { PageIO.RANDOM_ACCESS, PageIO.CHANNEL, PageIO.MAPPED }) {
+            assertTrue(PageIO.isValidMode(mode));
+            final PageIO io = PageIO.create(mode, new RandomAccessFile(file, "rw"), false);
+            assertEquals(mode, io.getMode());
+            io.close();
+        }
+        assertFalse(PageIO.isValidMode("foo"));
+        final PageIO io = PageIO.create(null, new RandomAccessFile(file, "rw"), false);
+        assertEquals(PageIO.DEFAULT_MODE, io.getMode());
+        io.close();
+    }
+
+    private void readWrite(PageIO io) throws IOException {
+        for (int i = 0; i < PAGES; i++) {
+            io.write((long) i * PAGE_SIZE, page(i), 0, PAGE_SIZE);
+        }
+        assertEquals((long) PAGES * PAGE_SIZE, io.length());
+
+        final byte[] buf = new byte[PAGE_SIZE];
+        for (int i = PAGES - 1; i >= 0; i--) {
+            io.read((long) i * PAGE_SIZE, buf, 0, PAGE_SIZE);
+            assertArrayEquals(page(i), buf);
+        }
+
+        // overwrite a page, possibly inside a mapped region
+        final byte[] update = page(1000);
+        io.write(5 * PAGE_SIZE, update, 0, PAGE_SIZE);
+        io.read(5 * PAGE_SIZE, buf, 0, PAGE_SIZE);
+        assertArrayEquals(update, buf);
+
+        // reading beyond the end of the file returns zeros
+        Arrays.fill(buf, (byte) 1);
+        io.read((long) PAGES * PAGE_SIZE + 100, buf, 0, PAGE_SIZE);
+        assertArrayEquals(new byte[PAGE_SIZE], buf);
+
+        // partial read at the end of the file
+        io.read((long) (PAGES - 1) * PAGE_SIZE + 10, buf, 0, 20);
+        assertEquals(page(PAGES - 1)[10], buf[0]);
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        io.copyTo(os);
+        assertEquals((long) PAGES * PAGE_SIZE, os.size());
+    }
+
+    private static byte[] page(int num) {
+        final byte[] data = new byte[PAGE_SIZE];
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            data[i] = (byte) (num + i);
+        }
+        return data;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("pageio", ".dbx");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+}
@@ -0,0 +1,199 @@
+package org.exist.storage.cache;
+
+import org.exist.storage.CacheManager;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the replacement policy of {@link TwoQueueCache}.
+ */
+public class TwoQueueCacheTest {
+
+    private static final int SIZE = 100;
+
+    @Test
+    public void scanResistance() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+
+        // reference 50 pages twice, so they end up in the hot queue
+        for (int i = 0; i < 50; i++) {
+            cache.add(new Page(i));
+        }
+        for (int i = 50; i < 50 + SIZE; i++) {
+            cache.add(new Page(i));
+        }
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(i) == null)
+                {cache.add(new Page(i));}
+        }
+        assertEquals(50, cache.getHotBuffers());
+
+        // a large scan reading each page only once
+        for (int i = 1000; i < 1000 + SIZE * 10; i++) {
+            if (cache.get(i) == null)
+                {cache.add(new Page(i));}
+        }
+        assertEquals(SIZE, cache.getUsedBuffers());
+        for (int i = 0; i < 50; i++) {
+            assertNotNull("hot page " + i + " was evicted by scan", cache.get(i));
+        }
+    }
+
+    @Test
+    public void correlatedReference() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < SIZE; i++) {
+            cache.add(new Page(i));
+        }
+        // a second reference while the page is in A1in does not change its position
+        final Page page = new Page(0);
+        cache.add(page);
+        assertSame(page, cache.get(0));
+
+        cache.add(new Page(SIZE));
+        assertNull(cache.get(0));
+        assertNotNull(cache.get(1));
+        assertEquals(0, cache.getHotBuffers());
+    }
+
+    @Test
+    public void pinnedPages() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < SIZE; i++) {
+            final Page page = new Page(i);
+            page.pinned = i < 10;
+            cache.add(page);
+        }
+        for (int i = SIZE; i < SIZE * 3; i++) {
+            cache.add(new Page(i));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.get(i));
+        }
+        assertEquals(SIZE, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void innerPages() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.BTREE_CACHE);
+        for (int i = 0; i < 10; i++) {
+            final Page page = new Page(i);
+            page.inner = true;
+            cache.add(page);
+        }
+        assertEquals(10, cache.getHotBuffers());
+        for (int i = 10; i < SIZE * 5; i++) {
+            cache.add(new Page(i));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.get(i));
+        }
+    }
+
+    @Test
+    public void resize() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < SIZE; i++) {
+            cache.add(new Page(i));
+        }
+        cache.resize(SIZE * 2);
+        assertEquals(SIZE, cache.getUsedBuffers());
+        assertNotNull(cache.get(0));
+
+        cache.resize(SIZE / 2);
+        assertEquals(SIZE / 2, cache.getBuffers());
+        assertEquals(SIZE / 2, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void flushAndRemove() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final Page page = new Page(1);
+        page.dirty = true;
+        cache.add(page);
+        assertTrue(cache.hasDirtyItems());
+        assertTrue(cache.flush());
+        assertFalse(cache.hasDirtyItems());
+
+        cache.remove(page);
+        assertNull(cache.get(1));
+        assertEquals(0, cache.getUsedBuffers());
+        assertEquals(1, cache.getFails());
+    }
+
+    @Test
+    public void flushPortions() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < 25; i++) {
+            final Page page = new Page(i);
+            page.dirty = true;
+            cache.add(page);
+        }
+        assertEquals(10, cache.flush(10));
+        assertEquals(10, cache.flush(10));
+        assertEquals(5, cache.flush(10));
+        assertFalse(cache.hasDirtyItems());
+        assertEquals(0, cache.flush(10));
+    }
+
+    private static class Page implements BTreeCacheable {
+
+        final long key;
+        boolean pinned = false;
+        boolean inner = false;
+        boolean dirty = false;
+        int refCount = 0;
+        int timestamp = 0;
+
+        Page(long key) {
+            this.key = key;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public int getReferenceCount() {
+            return refCount;
+        }
+
+        public int incReferenceCount() {
+            return ++refCount;
+        }
+
+        public int decReferenceCount() {
+            return --refCount;
+        }
+
+        public void setReferenceCount(int count) {
+            refCount = count;
+        }
+
+        public void setTimestamp(int timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        public boolean sync(boolean syncJournal) {
+            final boolean wasDirty = dirty;
+            dirty = false;
+            return wasDirty;
+        }
+
+        public boolean allowUnload() {
+            return !pinned;
+        }
+
+        public boolean isDirty() {
+            return dirty;
+        }
+
+        public boolean isInnerPage() {
+            return inner;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.exist.storage.lock;
+
+import org.exist.util.LockException;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link QueuedReentrantLock}.
+ */
+public class QueuedReentrantLockTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void reentrant() throws LockException {
+        final QueuedReentrantLock lock = new QueuedReentrantLock("test.dbx");
+        assertFalse(lock.hasLock());
+
+        assertTrue(lock.acquire(Lock.READ_LOCK));
+        assertTrue(lock.acquire(Lock.WRITE_LOCK));
+        assertTrue(lock.attempt(Lock.READ_LOCK));
+        assertEquals(3, lock.holds());
+        assertTrue(lock.hasLock(Thread.currentThread()));
+        assertTrue(lock.isLockedForWrite());
+
+        lock.release(Lock.READ_LOCK);
+        assertTrue(lock.isLockedForWrite());
+        lock.release(Lock.WRITE_LOCK);
+        assertFalse(lock.isLockedForWrite());
+        lock.release(Lock.READ_LOCK);
+
+        assertEquals(0, lock.holds());
+        assertFalse(lock.hasLock());
+        assertNull(lock.getOwner());
+    }
+
+    @Test
+    public void exclusive() throws Exception {
+        final QueuedReentrantLock lock = new QueuedReentrantLock("test.dbx");
+        lock.acquire(Lock.READ_LOCK);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final boolean[] attempted = new boolean[1];
+        final Thread other = new Thread() {
+            @Override
+            public void run() {
+                attempted[0] = lock.attempt(Lock.READ_LOCK);
+                done.countDown();
+            }
+        };
+        other.start();
+        done.await();
+        assertFalse(attempted[0]);
+
+        final LockInfo info = lock.getLockInfo();
+        assertEquals(LockInfo.READ_LOCK, info.getLockMode());
+        assertEquals(Thread.currentThread().getName(), info.getOwners()[0]);
+        lock.release(Lock.READ_LOCK);
+    }
+
+    @Test
+    public void contended() throws Exception {
+        final QueuedReentrantLock lock = new QueuedReentrantLock("test.dbx");
+        final AtomicInteger inside = new AtomicInteger();
+        final int[] counter = new int[1];
+        final Throwable[] error = new Throwable[1];
+        final Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int mode = i % 2 == 0 ? Lock.READ_LOCK : Lock.WRITE_LOCK;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < ITERATIONS; j++) {
+                            lock.acquire(mode);
+                            try {
+                                if (inside.incrementAndGet() != 1)
+                                    {throw new IllegalStateException("lock is not exclusive");}
+                                counter[0]++;
+                                inside.decrementAndGet();
+                            } finally {
+                                lock.release(mode);
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error[0]);
+        assertEquals(THREADS * ITERATIONS, counter[0]);
+        assertFalse(lock.hasLock());
+    }
+}
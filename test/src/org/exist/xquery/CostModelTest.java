@@ -0,0 +1,190 @@
+package org.exist.xquery;
+
+import org.exist.TestUtils;
+import org.exist.indexing.IndexManager;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.statistics.IndexStatistics;
+import org.exist.util.Configuration;
+import org.exist.util.XMLFilenameFilter;
+import org.exist.xmldb.DatabaseInstanceManager;
+import org.exist.xmldb.IndexQueryService;
+import org.exist.xmldb.XmldbURI;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.xmldb.api.DatabaseManager;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Database;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.CollectionManagementService;
+import org.xmldb.api.modules.XMLResource;
+import org.xmldb.api.modules.XQueryService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Tests the decisions based on {@link CostModel}. Unlike the other tests, the
+ * database is started with the index-stats module, so index statistics are
+ * available to the optimizer.
+ */
+public class CostModelTest {
+
+    private final static String OPTIMIZE = "declare option exist:optimize 'enable=yes';";
+    private final static String NO_OPTIMIZE = "declare option exist:optimize 'enable=no';";
+
+    private static final String MSG_OPT_ERROR = "Optimized query should return same number of results.";
+
+    private final static String COLLECTION_CONFIG =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "   <index>" +
+        "       <lucene>" +
+        "           <text qname=\"LINE\"/>" +
+        "       </lucene>" +
+        "       <create qname=\"SPEAKER\" type=\"xs:string\"/>" +
+        "       <create qname=\"n\" type=\"xs:integer\"/>" +
+        "   </index>" +
+        "</collection>";
+
+    private static Collection testCollection;
+
+    @Test
+    public void predicateOrder() {
+        int r = execute("//SPEECH[LINE][SPEAKER='HAMLET']", false);
+        execute("//SPEECH[LINE][SPEAKER='HAMLET']", true, MSG_OPT_ERROR, r);
+        r = execute("//SPEECH[ft:query(LINE, 'king')][SPEAKER='HAMLET'][1]", false);
+        execute("//SPEECH[ft:query(LINE, 'king')][SPEAKER='HAMLET'][1]", true, MSG_OPT_ERROR, r);
+        r = execute("//SPEECH[SPEAKER='HAMLET'][position() < 10][ft:query(LINE, 'king')]", false);
+        execute("//SPEECH[SPEAKER='HAMLET'][position() < 10][ft:query(LINE, 'king')]", true, MSG_OPT_ERROR, r);
+    }
+
+    @Test
+    public void predicateOrderContextSize() {
+        // fn:last() only reports a dependency on the context set, but its value
+        // changes if another predicate is evaluated first
+        int r = execute("/PLAY/ACT/SCENE/SPEECH[last() > 20][SPEAKER='HAMLET']", false);
+        execute("/PLAY/ACT/SCENE/SPEECH[last() > 20][SPEAKER='HAMLET']", true, MSG_OPT_ERROR, r);
+        r = execute("/PLAY/ACT/SCENE/SPEECH[SPEAKER='HAMLET'][last() > 20]", false);
+        execute("/PLAY/ACT/SCENE/SPEECH[SPEAKER='HAMLET'][last() > 20]", true, MSG_OPT_ERROR, r);
+        r = execute("/PLAY/ACT/SCENE/SPEECH[count(LINE) > 2 and last() > 20][SPEAKER='HAMLET']", false);
+        execute("/PLAY/ACT/SCENE/SPEECH[count(LINE) > 2 and last() > 20][SPEAKER='HAMLET']", true, MSG_OPT_ERROR, r);
+        r = execute("//SPEECH[LINE][SPEAKER='HAMLET'][last()]", false);
+        execute("//SPEECH[LINE][SPEAKER='HAMLET'][last()]", true, MSG_OPT_ERROR, r);
+    }
+
+    @Test
+    public void scanSkipsValuesNotInIndex() {
+        // the two n elements of small.xml are compared directly instead of looking
+        // up the many n elements of numbers.xml in the index. The index does not
+        // contain "abc", so the direct comparison must skip it, too.
+        execute("doc('/db/test/small.xml')/small[n = 5]", false, "Node not in the index should be skipped.", 1);
+        execute("doc('/db/test/small.xml')/small/n[. = 5]", false, "Node not in the index should be skipped.", 1);
+        execute("doc('/db/test/numbers.xml')/numbers[n = 5]", false, "Index lookup should find the node.", 1);
+    }
+
+    private int execute(String query, boolean optimize) {
+        try {
+            XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
+            ResourceSet result = service.query((optimize ? OPTIMIZE : NO_OPTIMIZE) + query);
+            return (int) result.getSize();
+        } catch (XMLDBException e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+        return 0;
+    }
+
+    private void execute(String query, boolean optimize, String message, int expected) {
+        Assert.assertEquals(message, expected, execute(query, optimize));
+    }
+
+    @BeforeClass
+    public static void initDatabase() {
+        try {
+            Configuration config = new Configuration();
+            enableIndexStatistics(config);
+            BrokerPool.configure(1, 5, config);
+
+            Class<?> cl = Class.forName("org.exist.xmldb.DatabaseImpl");
+            Database database = (Database) cl.newInstance();
+            database.setProperty("create-database", "true");
+            DatabaseManager.registerDatabase(database);
+
+            Collection root = DatabaseManager.getCollection(XmldbURI.LOCAL_DB, "admin", "");
+            CollectionManagementService service =
+                (CollectionManagementService) root.getService("CollectionManagementService", "1.0");
+            testCollection = service.createCollection("test");
+            Assert.assertNotNull(testCollection);
+
+            IndexQueryService idxConf = (IndexQueryService) testCollection.getService("IndexQueryService", "1.0");
+            idxConf.configureCollection(COLLECTION_CONFIG);
+
+            StringBuilder numbers = new StringBuilder("<numbers>");
+            for (int i = 0; i < 1000; i++) {
+                numbers.append("<n>").append(i).append("</n>");
+            }
+            numbers.append("</numbers>");
+            store("numbers.xml", numbers.toString());
+            store("small.xml", "<small><n>abc</n><n>5</n></small>");
+
+            String existHome = System.getProperty("exist.home");
+            File existDir = existHome==null ? new File(".") : new File(existHome);
+            File dir = new File(existDir, "samples/shakespeare");
+            if (!dir.canRead())
+                throw new IOException("Unable to read samples directory");
+            File[] files = dir.listFiles(new XMLFilenameFilter());
+            for (File file : files) {
+                XMLResource resource = (XMLResource) testCollection.createResource(file.getName(), "XMLResource");
+                resource.setContent(file);
+                testCollection.storeResource(resource);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    private static void store(String name, String xml) throws XMLDBException {
+        XMLResource resource = (XMLResource) testCollection.createResource(name, "XMLResource");
+        resource.setContent(xml);
+        testCollection.storeResource(resource);
+    }
+
+    /**
+     * Add the index-stats module, which is disabled in the default configuration,
+     * so the optimizer can use the cost model.
+     */
+    private static void enableIndexStatistics(Configuration config) throws Exception {
+        Element module = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument().createElement("module");
+        module.setAttribute("id", "index-stats");
+        module.setAttribute("file", "stats.dbx");
+        Configuration.IndexModuleConfig[] modules =
+            (Configuration.IndexModuleConfig[]) config.getProperty(IndexManager.PROPERTY_INDEXER_MODULES);
+        if (modules == null)
+            modules = new Configuration.IndexModuleConfig[0];
+        Configuration.IndexModuleConfig[] newModules = Arrays.copyOf(modules, modules.length + 1);
+        newModules[modules.length] = new Configuration.IndexModuleConfig("index-stats", IndexStatistics.class.getName(), module);
+        config.setProperty(IndexManager.PROPERTY_INDEXER_MODULES, newModules);
+    }
+
+    @AfterClass
+    public static void shutdownDB() {
+        try {
+            TestUtils.cleanupDB();
+            DatabaseInstanceManager dim =
+                (DatabaseInstanceManager) testCollection.getService(
+                    "DatabaseInstanceManager", "1.0");
+            dim.shutdown();
+        } catch (XMLDBException e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+        testCollection = null;
+    }
+}
@@ -209,6 +209,23 @@ public class OptimizerTest {
         execute("//SPEECH[true() and true()]", true, MSG_OPT_ERROR, 2628);
     }
 
+    @Test
+    public void explain() {
+        try {
+            XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
+            ResourceSet result = service.query(
+                "let $plan := util:explain(\"//SPEECH[ft:query(LINE, 'king')][SPEAKER='HAMLET']\") " +
+                "return (count($plan/step[@name = 'SPEECH']), count($plan/step/predicate), exists($plan/expression))");
+            Assert.assertEquals(3, result.getSize());
+            Assert.assertEquals("1", result.getResource(0).getContent());
+            Assert.assertEquals("2", result.getResource(1).getContent());
+            Assert.assertEquals("true", result.getResource(2).getContent());
+        } catch (XMLDBException e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
     private int execute(String query, boolean optimize) {
         try {
             System.out.println("--- Query: " + query + "; Optimize: " + Boolean.toString(optimize));
@@ -0,0 +1,187 @@
+package org.exist.xquery;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.security.xacml.AccessContext;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Run "order by", "group by" and fn:distinct-values with a memory limit of
+ * 1 MB, so the sort keys, group values and grouped nodes are written to
+ * temporary files.
+ */
+public class OrderBySpillTest {
+
+    private static final int ITEMS = 30000;
+
+    private static BrokerPool pool;
+
+    @Test
+    public void sortedRuns() throws Exception {
+        final Sequence result = execute(
+            "for $i in 1 to " + ITEMS + " " +
+            "let $k := concat('key-', ($i * 7919) mod " + ITEMS + ") " +
+            "order by $k descending return $k");
+        // 7919 is prime, so every key from key-0 to key-29999 occurs once
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < ITEMS; i++) {
+            expected.add("key-" + i);
+        }
+        Collections.sort(expected, Collections.reverseOrder());
+        assertEquals(expected, toList(result));
+    }
+
+    @Test
+    public void sortedRunsWithTies() throws Exception {
+        final Sequence result = execute(
+            "for $i in 1 to " + ITEMS + " order by $i mod 10, $i descending return $i");
+        final List<String> expected = new ArrayList<String>();
+        for (int mod = 0; mod < 10; mod++) {
+            for (int i = ITEMS; i > 0; i--) {
+                if (i % 10 == mod)
+                    {expected.add(String.valueOf(i));}
+            }
+        }
+        assertEquals(expected, toList(result));
+    }
+
+    @Test
+    public void topK() throws Exception {
+        final Sequence result = execute(
+            "string-join((for $i in 1 to " + ITEMS + " order by $i mod 1000 descending, $i " +
+            "   return $i)[position() le 3], ',')");
+        assertEquals("999,1999,2999", result.getStringValue());
+    }
+
+    @Test
+    public void groupBy() throws Exception {
+        final Sequence result = execute(
+            "let $groups := for $i in 1 to " + ITEMS + " " +
+            "   let $k := concat('key-', $i mod " + (ITEMS / 2) + ") " +
+            "   group by $k return count($i) " +
+            "return (count($groups), every $c in $groups satisfies $c eq 2)");
+        assertEquals(ITEMS / 2, Integer.parseInt(result.itemAt(0).getStringValue()));
+        assertEquals("true", result.itemAt(1).getStringValue());
+    }
+
+    @Test
+    public void groupOrderAfterSpill() throws Exception {
+        final int groups = ITEMS / 2;
+        final List<String> result = toList(execute(
+            "for $i in 1 to " + ITEMS + " " +
+            "let $k := concat('key-', $i mod " + groups + ") " +
+            "group by $k return $k"));
+        assertEquals(groups, result.size());
+        assertEquals(groups, new HashSet<String>(result).size());
+        // the groups kept in memory are the first ones seen and come last,
+        // in the order of their first occurrence, after the spilled groups
+        final int first = result.indexOf("key-1");
+        assertTrue("no group was written to a temporary file", first > 0);
+        for (int i = first; i < result.size(); i++) {
+            assertEquals("key-" + (i - first + 1), result.get(i));
+        }
+    }
+
+    @Test
+    public void groupNodes() throws Exception {
+        final int groups = ITEMS / 2;
+        final List<String> result = toList(execute(
+            "for $item in doc('" + TestConstants.TEST_COLLECTION_URI + "/items.xml')//item " +
+            "group by $k := $item/@k " +
+            "return concat($k, ':', count($item), ':', count(distinct-values($item/@k)), ':', " +
+            "   count($item/ancestor-or-self::*))"));
+        assertEquals(groups, result.size());
+        final int first = result.indexOf("0:2:1:3");
+        assertTrue("no group was written to a temporary file", first > 0);
+        for (int i = 0; i < result.size(); i++) {
+            final String group = result.get(i);
+            assertTrue(group, group.endsWith(":2:1:3"));
+        }
+        for (int i = first; i < result.size(); i++) {
+            assertEquals((i - first) + ":2:1:3", result.get(i));
+        }
+    }
+
+    private List<String> toList(Sequence result) throws Exception {
+        final List<String> list = new ArrayList<String>(result.getItemCount());
+        for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+            list.add(i.nextItem().getStringValue());
+        }
+        return list;
+    }
+
+    private Sequence execute(String query) throws Exception {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            return broker.getXQueryService().execute(query, null, AccessContext.TEST);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @BeforeClass
+    public static void startDB() throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(XQueryContext.PROPERTY_AGGREGATION_MEMORY, Integer.valueOf(1));
+        BrokerPool.configure(1, 5, config);
+        pool = BrokerPool.getInstance();
+
+        // every key of the document occurs twice
+        final StringBuilder xml = new StringBuilder("<items>");
+        for (int i = 0; i < ITEMS; i++) {
+            xml.append("<item k=\"").append(i % (ITEMS / 2)).append("\"/>");
+        }
+        xml.append("</items>");
+        DBBroker broker = null;
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, root);
+            final IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create("items.xml"),
+                xml.toString());
+            root.store(transaction, broker, info, xml.toString(), false);
+            transact.commit(transaction);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @AfterClass
+    public static void stopDB() throws Exception {
+        DBBroker broker = null;
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            if (root != null)
+                {broker.removeCollection(transaction, root);}
+            transact.commit(transaction);
+        } finally {
+            pool.release(broker);
+        }
+        BrokerPool.stopAll(false);
+        pool = null;
+    }
+}
@@ -0,0 +1,159 @@
+package org.exist.xquery;
+
+import org.exist.TestUtils;
+import org.exist.dom.DefaultDocumentSet;
+import org.exist.dom.DocumentImpl;
+import org.exist.dom.DocumentSet;
+import org.exist.dom.NodeProxy;
+import org.exist.dom.NodeSet;
+import org.exist.dom.QName;
+import org.exist.numbering.NodeId;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.ElementValue;
+import org.exist.util.Configuration;
+import org.exist.xmldb.DatabaseInstanceManager;
+import org.exist.xmldb.XmldbURI;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmldb.api.DatabaseManager;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Database;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.CollectionManagementService;
+import org.xmldb.api.modules.XMLResource;
+import org.xmldb.api.modules.XQueryService;
+
+/**
+ * Tests the (# exist:parallel #) pragma. The context sets are large enough for
+ * location steps to scan the structural index with a selector, which is the
+ * part evaluated in parallel.
+ */
+public class ParallelEvaluationTest {
+
+    private final static int DOCUMENTS = 20;
+    private final static int SECTIONS = 600;
+
+    private static Collection testCollection;
+
+    @Test
+    public void childAxis() throws XMLDBException {
+        compare("collection('/db/test')//section/item/@id/string()");
+    }
+
+    @Test
+    public void descendantAxis() throws XMLDBException {
+        compare("collection('/db/test')//section//item/@id/string()");
+    }
+
+    @Test
+    public void attributeAxis() throws XMLDBException {
+        compare("collection('/db/test')//section/@n/string()");
+    }
+
+    @Test
+    public void predicate() throws XMLDBException {
+        compare("collection('/db/test')//section[item/@type = 'b']/@n/string()");
+    }
+
+    @Test
+    public void threadsParameter() throws XMLDBException {
+        final String query = "collection('/db/test')//section/item/@id/string()";
+        final String sequential = execute(query);
+        Assert.assertEquals(sequential, execute("(# exist:parallel threads=2 #) { " + query + " }"));
+    }
+
+    @Test(expected = XMLDBException.class)
+    public void invalidParameter() throws XMLDBException {
+        execute("(# exist:parallel nodes=2 #) { collection('/db/test')//section }");
+    }
+
+    @Test
+    public void failedPartition() throws Exception {
+        final BrokerPool pool = BrokerPool.getInstance();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final DocumentSet docs = broker.getCollection(XmldbURI.ROOT_COLLECTION_URI.append("test"))
+                .allDocs(broker, new DefaultDocumentSet(), false);
+            final Thread caller = Thread.currentThread();
+            // fails on the threads of the executor only: the sequential scan has to return all nodes
+            final NodeSelector selector = new NodeSelector() {
+                public NodeProxy match(DocumentImpl doc, NodeId nodeId) {
+                    if (Thread.currentThread() != caller)
+                        {throw new IllegalStateException("partition failed");}
+                    return new NodeProxy(doc, nodeId);
+                }
+            };
+            final NodeSet result = broker.getStructuralIndex().findElementsByTagName(ElementValue.ELEMENT, docs,
+                new QName("section", ""), selector, null, 4);
+            Assert.assertEquals(DOCUMENTS * SECTIONS, result.getLength());
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    /**
+     * Compare the result of the query with its parallel evaluation, including
+     * the order of items.
+     */
+    private void compare(String query) throws XMLDBException {
+        final String sequential = execute(query);
+        final String parallel = execute("(# exist:parallel #) { " + query + " }");
+        Assert.assertTrue(sequential.length() > 0);
+        Assert.assertEquals(sequential, parallel);
+    }
+
+    private String execute(String query) throws XMLDBException {
+        final XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
+        final ResourceSet result = service.query("string-join(" + query + ", ',')");
+        Assert.assertEquals(1, result.getSize());
+        return result.getResource(0).getContent().toString();
+    }
+
+    @BeforeClass
+    public static void initDatabase() throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(XQueryContext.PROPERTY_PARALLEL_THREADS, Integer.valueOf(4));
+        BrokerPool.configure(1, 5, config);
+
+        final Class<?> cl = Class.forName("org.exist.xmldb.DatabaseImpl");
+        final Database database = (Database) cl.newInstance();
+        database.setProperty("create-database", "true");
+        DatabaseManager.registerDatabase(database);
+
+        final Collection root = DatabaseManager.getCollection(XmldbURI.LOCAL_DB, "admin", "");
+        final CollectionManagementService service =
+            (CollectionManagementService) root.getService("CollectionManagementService", "1.0");
+        testCollection = service.createCollection("test");
+        Assert.assertNotNull(testCollection);
+
+        for (int i = 0; i < DOCUMENTS; i++) {
+            final StringBuilder xml = new StringBuilder("<doc>");
+            for (int j = 0; j < SECTIONS; j++) {
+                xml.append("<section n=\"").append(j).append("\">");
+                xml.append("<item id=\"").append(i).append('.').append(j).append("\" type=\"");
+                xml.append(j % 3 == 0 ? 'a' : 'b').append("\"/>");
+                if (j % 10 == 0)
+                    {xml.append("<div><item id=\"").append(i).append('.').append(j).append(".1\"/></div>");}
+                xml.append("</section>");
+            }
+            xml.append("</doc>");
+            final XMLResource resource = (XMLResource) testCollection.createResource("test" + i + ".xml", "XMLResource");
+            resource.setContent(xml.toString());
+            testCollection.storeResource(resource);
+        }
+    }
+
+    @AfterClass
+    public static void shutdownDB() throws XMLDBException {
+        TestUtils.cleanupDB();
+        final DatabaseInstanceManager dim =
+            (DatabaseInstanceManager) testCollection.getService("DatabaseInstanceManager", "1.0");
+        dim.shutdown();
+        testCollection = null;
+    }
+}
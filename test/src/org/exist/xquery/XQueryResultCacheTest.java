@@ -0,0 +1,193 @@
+package org.exist.xquery;
+
+import org.exist.TestUtils;
+import org.exist.dom.NodeProxy;
+import org.exist.security.xacml.AccessContext;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.XQueryResultCache;
+import org.exist.xmldb.DatabaseInstanceManager;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmldb.api.DatabaseManager;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Database;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.CollectionManagementService;
+import org.xmldb.api.modules.XMLResource;
+import org.xmldb.api.modules.XQueryService;
+
+/**
+ * Tests the result cache for queries declaring the exist:cache option.
+ */
+public class XQueryResultCacheTest {
+
+    private final static String QUERY =
+        "declare option exist:cache \"collection=/db/test\";\n" +
+        "string-join(collection('/db/test')//item, ',')";
+
+    private static Collection testCollection;
+    private static Collection otherCollection;
+
+    private XQueryResultCache cache;
+
+    @Test
+    public void cachedResult() throws Exception {
+        final int hits = cache.getHits();
+        Assert.assertEquals("a,b", execute(QUERY));
+        Assert.assertEquals("a,b", execute(QUERY));
+        Assert.assertEquals(hits + 1, cache.getHits());
+    }
+
+    @Test
+    public void noOption() throws Exception {
+        final int hits = cache.getHits();
+        final int misses = cache.getMisses();
+        execute("string-join(collection('/db/test')//item, ',')");
+        execute("string-join(collection('/db/test')//item, ',')");
+        Assert.assertEquals(hits, cache.getHits());
+        Assert.assertEquals(misses, cache.getMisses());
+    }
+
+    @Test
+    public void updateInvalidates() throws Exception {
+        Assert.assertEquals("a,b", execute(QUERY));
+        store(testCollection, "test2.xml", "<test><item>c</item></test>");
+        try {
+            Assert.assertEquals("a,b,c", execute(QUERY));
+        } finally {
+            testCollection.removeResource(testCollection.getResource("test2.xml"));
+        }
+        Assert.assertEquals("a,b", execute(QUERY));
+    }
+
+    @Test
+    public void updateInOtherCollection() throws Exception {
+        Assert.assertEquals("a,b", execute(QUERY));
+        final int hits = cache.getHits();
+        store(otherCollection, "other2.xml", "<test><item>y</item></test>");
+        Assert.assertEquals("a,b", execute(QUERY));
+        Assert.assertEquals(hits + 1, cache.getHits());
+    }
+
+    @Test
+    public void anyUpdateInvalidates() throws Exception {
+        final String query = "declare option exist:cache \"ttl=60000\"; count(collection('/db')//item)";
+        final String count = execute(query);
+        store(otherCollection, "other3.xml", "<test><item>z</item></test>");
+        Assert.assertEquals(Integer.parseInt(count) + 1, Integer.parseInt(execute(query)));
+    }
+
+    @Test
+    public void externalVariables() throws Exception {
+        final String query =
+            "declare variable $name external;\n" +
+            "declare option exist:cache \"collection=/db/test\";\n" +
+            "collection('/db/test')//item[. = $name]/string()";
+        final XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
+        service.declareVariable("name", "a");
+        Assert.assertEquals("a", service.query(query).getResource(0).getContent());
+        service.declareVariable("name", "b");
+        Assert.assertEquals("b", service.query(query).getResource(0).getContent());
+    }
+
+    @Test
+    public void nodes() throws Exception {
+        final String query = "declare option exist:cache \"collection=/db/test\"; collection('/db/test')//item";
+        final XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
+        service.query(query);
+        final int hits = cache.getHits();
+        final ResourceSet result = service.query(query);
+        Assert.assertEquals(hits + 1, cache.getHits());
+        Assert.assertEquals(2, result.getSize());
+        Assert.assertEquals("<item>a</item>", result.getResource(0).getContent());
+    }
+
+    @Test
+    public void nodesAreCopied() throws Exception {
+        final String query = "declare option exist:cache \"collection=/db/test\"; collection('/db/test')//item";
+        final BrokerPool pool = BrokerPool.getInstance();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final XQuery xquery = broker.getXQueryService();
+            final Sequence first = xquery.execute(query, null, AccessContext.TEST);
+            // a query using the result adds its context to the nodes
+            final NodeProxy node = (NodeProxy) first.itemAt(0);
+            node.addContextNode(1, node);
+
+            final int hits = cache.getHits();
+            final Sequence second = xquery.execute(query, null, AccessContext.TEST);
+            Assert.assertEquals(hits + 1, cache.getHits());
+            Assert.assertEquals(2, second.getItemCount());
+            final NodeProxy cached = (NodeProxy) second.itemAt(0);
+            Assert.assertNotSame(node, cached);
+            Assert.assertEquals(node, cached);
+            Assert.assertNull(cached.getContext());
+
+            // every hit gets its own copy
+            cached.addContextNode(2, cached);
+            final NodeProxy third = (NodeProxy) xquery.execute(query, null, AccessContext.TEST).itemAt(0);
+            Assert.assertNotSame(cached, third);
+            Assert.assertNull(third.getContext());
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test(expected = XMLDBException.class)
+    public void invalidParameter() throws Exception {
+        execute("declare option exist:cache \"size=10\"; 1");
+    }
+
+    private String execute(String query) throws XMLDBException {
+        final XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
+        final ResourceSet result = service.query(query);
+        Assert.assertEquals(1, result.getSize());
+        return result.getResource(0).getContent().toString();
+    }
+
+    private static void store(Collection collection, String name, String xml) throws XMLDBException {
+        final XMLResource resource = (XMLResource) collection.createResource(name, "XMLResource");
+        resource.setContent(xml);
+        collection.storeResource(resource);
+    }
+
+    @Before
+    public void clearCache() throws Exception {
+        cache = BrokerPool.getInstance().getQueryResultCache();
+        cache.clear();
+    }
+
+    @BeforeClass
+    public static void initDatabase() throws Exception {
+        final Class<?> cl = Class.forName("org.exist.xmldb.DatabaseImpl");
+        final Database database = (Database) cl.newInstance();
+        database.setProperty("create-database", "true");
+        DatabaseManager.registerDatabase(database);
+
+        final Collection root = DatabaseManager.getCollection(XmldbURI.LOCAL_DB, "admin", "");
+        final CollectionManagementService service =
+            (CollectionManagementService) root.getService("CollectionManagementService", "1.0");
+        testCollection = service.createCollection("test");
+        otherCollection = service.createCollection("other");
+        store(testCollection, "test1.xml", "<test><item>a</item><item>b</item></test>");
+        store(otherCollection, "other1.xml", "<test><item>x</item></test>");
+    }
+
+    @AfterClass
+    public static void shutdownDB() throws XMLDBException {
+        TestUtils.cleanupDB();
+        final DatabaseInstanceManager dim =
+            (DatabaseInstanceManager) testCollection.getService("DatabaseInstanceManager", "1.0");
+        dim.shutdown();
+        testCollection = null;
+        otherCollection = null;
+    }
+}
@@ -0,0 +1,102 @@
+package org.exist.xquery.value;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.Collator;
+import java.util.Locale;
+
+import org.exist.xquery.XPathException;
+import org.exist.xquery.functions.fn.FunDistinctValues.ValueComparator;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DistinctValueSetTest {
+
+    @Test
+    public void numericKeys() throws XPathException {
+        final AtomicKey one = AtomicKey.create(new IntegerValue(1), null);
+        assertEquals(one, AtomicKey.create(new DecimalValue(new BigDecimal("1.0")), null));
+        assertEquals(one, AtomicKey.create(new DoubleValue(1.0), null));
+        assertEquals(one, AtomicKey.create(new FloatValue(1.0f), null));
+        assertFalse(one.equals(AtomicKey.create(new DoubleValue(1.5), null)));
+        assertFalse(one.equals(AtomicKey.create(new StringValue("1"), null)));
+        assertEquals(AtomicKey.create(new DoubleValue(Double.NaN), null),
+            AtomicKey.create(new FloatValue(Float.NaN), null));
+        assertEquals(AtomicKey.create(new DoubleValue(0.0), null), AtomicKey.create(new DoubleValue(-0.0), null));
+    }
+
+    @Test
+    public void largeIntegralKeys() throws XPathException {
+        final AtomicKey big = AtomicKey.create(new IntegerValue(new BigInteger("100000000000000000000")), null);
+        assertEquals(big, AtomicKey.create(new DoubleValue(1e20), null));
+        assertEquals(big, AtomicKey.create(new DecimalValue(new BigDecimal("100000000000000000000.0")), null));
+        assertEquals(big, AtomicKey.create(new DecimalValue(new BigDecimal("1E+20")), null));
+        assertFalse(big.equals(AtomicKey.create(new DoubleValue(Double.POSITIVE_INFINITY), null)));
+
+        final DistinctValueSet set = new DistinctValueSet(null, new ValueComparator(null), Long.MAX_VALUE);
+        set.add(new IntegerValue(new BigInteger("100000000000000000000")));
+        set.add(new DoubleValue(1e20));
+        set.add(new DecimalValue(new BigDecimal("100000000000000000000.0")));
+        assertEquals(1, set.getResult().getItemCount());
+    }
+
+    @Test
+    public void stringKeys() throws XPathException {
+        assertEquals(AtomicKey.create(new StringValue("a"), null),
+            AtomicKey.create(new UntypedAtomicValue("a"), null));
+        assertFalse(AtomicKey.create(new StringValue("a"), null).equals(
+            AtomicKey.create(new StringValue("A"), null)));
+
+        final Collator collator = Collator.getInstance(Locale.ENGLISH);
+        collator.setStrength(Collator.PRIMARY);
+        assertEquals(AtomicKey.create(new StringValue("a"), collator),
+            AtomicKey.create(new StringValue("A"), collator));
+    }
+
+    @Test
+    public void distinct() throws XPathException {
+        final DistinctValueSet set = new DistinctValueSet(null, new ValueComparator(null), Long.MAX_VALUE);
+        set.add(new IntegerValue(1));
+        set.add(new StringValue("a"));
+        set.add(new DoubleValue(1.0));
+        set.add(new UntypedAtomicValue("a"));
+        set.add(BooleanValue.TRUE);
+        set.add(BooleanValue.TRUE);
+        final Sequence result = set.getResult();
+        assertEquals(3, result.getItemCount());
+        assertEquals(Type.INTEGER, result.itemAt(0).getType());
+        assertEquals(Type.STRING, result.itemAt(1).getType());
+        assertEquals(Type.BOOLEAN, result.itemAt(2).getType());
+    }
+
+    @Test
+    public void spill() throws XPathException {
+        final int count = 2000;
+        // a budget of 1 byte writes all but the first value to temporary files
+        final DistinctValueSet set = new DistinctValueSet(null, new ValueComparator(null), 1);
+        try {
+            for (int n = 0; n < 3; n++) {
+                for (int i = 0; i < count; i++) {
+                    set.add(new IntegerValue(i));
+                    set.add(new StringValue("s" + i));
+                }
+            }
+            final Sequence result = set.getResult();
+            assertEquals(2 * count, result.getItemCount());
+            long sum = 0;
+            int strings = 0;
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                final Item item = i.nextItem();
+                if (item.getType() == Type.INTEGER)
+                    {sum += ((IntegerValue) item).getLong();}
+                else
+                    {strings++;}
+            }
+            assertEquals((long) count * (count - 1) / 2, sum);
+            assertEquals(count, strings);
+        } finally {
+            set.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.exist.xquery.value;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.exist.xquery.RangeSequence;
+import org.exist.xquery.XPathException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NumericSequenceTest {
+
+    @Test
+    public void longSequence() throws XPathException {
+        final LongSequence seq = new LongSequence(2);
+        for (long i = 1; i <= 100; i++) {
+            seq.add(i);
+        }
+        assertEquals(100, seq.getItemCount());
+        assertEquals(Type.INTEGER, seq.getItemType());
+        assertEquals(5050L, ((IntegerValue) seq.sum()).getLong());
+        assertEquals(1L, ((IntegerValue) seq.min()).getLong());
+        assertEquals(100L, ((IntegerValue) seq.max()).getLong());
+        assertEquals(Type.INTEGER, seq.itemAt(41).getType());
+        assertEquals("42", seq.itemAt(41).getStringValue());
+
+        int count = 0;
+        for (final SequenceIterator i = seq.iterate(); i.hasNext(); i.nextItem()) {
+            count++;
+        }
+        assertEquals(100, count);
+    }
+
+    @Test
+    public void longOverflow() throws XPathException {
+        final LongSequence seq = new LongSequence();
+        seq.add(Long.MAX_VALUE);
+        seq.add(Long.MAX_VALUE);
+        seq.add(-1);
+        final BigInteger expected = BigInteger.valueOf(Long.MAX_VALUE).shiftLeft(1).subtract(BigInteger.ONE);
+        assertEquals(expected.toString(), seq.sum().getStringValue());
+    }
+
+    @Test
+    public void doubleSequence() throws XPathException {
+        final DoubleSequence seq = new DoubleSequence();
+        seq.add(1.5);
+        seq.add(-2.0);
+        seq.add(new DoubleValue(4.0));
+        assertEquals(Type.DOUBLE, seq.getItemType());
+        assertEquals(3.5, ((DoubleValue) seq.sum()).getDouble(), 0.0);
+        assertEquals(-2.0, ((DoubleValue) seq.min()).getDouble(), 0.0);
+        assertEquals(4.0, ((DoubleValue) seq.max()).getDouble(), 0.0);
+
+        seq.add(Double.NaN);
+        assertTrue(Double.isNaN(((DoubleValue) seq.max()).getDouble()));
+    }
+
+    @Test
+    public void accepts() throws XPathException {
+        assertTrue(LongSequence.accepts(new IntegerValue(1)));
+        assertFalse(LongSequence.accepts(new IntegerValue(1, Type.INT)));
+        assertFalse(LongSequence.accepts(new IntegerValue(BigInteger.ONE.shiftLeft(70))));
+        assertFalse(LongSequence.accepts(new DoubleValue(1.0)));
+        assertTrue(DoubleSequence.accepts(new DoubleValue(1.0)));
+        assertFalse(DoubleSequence.accepts(new IntegerValue(1)));
+    }
+
+    @Test(expected = XPathException.class)
+    public void addWrongType() throws XPathException {
+        new LongSequence().add(new StringValue("1"));
+    }
+
+    @Test
+    public void range() throws XPathException {
+        final RangeSequence seq = new RangeSequence(new IntegerValue(-3), new IntegerValue(4));
+        assertEquals(8, seq.getItemCount());
+        assertEquals("4", seq.sum().getStringValue());
+        assertEquals("-3", seq.min().getStringValue());
+        assertEquals("4", seq.max().getStringValue());
+        assertEquals("0", seq.itemAt(3).getStringValue());
+
+        final RangeSequence large = new RangeSequence(new IntegerValue(1), new IntegerValue(10000000));
+        assertEquals("50000005000000", large.sum().getStringValue());
+    }
+
+    @Test
+    public void rangeLongerThanInt() throws XPathException {
+        final RangeSequence seq = new RangeSequence(new IntegerValue(1), new IntegerValue(3000000000L));
+        assertEquals("3000000000", seq.max().getStringValue());
+        assertEquals("4500000001500000000", seq.sum().getStringValue());
+        assertEquals(0, new BigDecimal("1500000000.5").compareTo(new BigDecimal(seq.avg().getStringValue())));
+
+        final RangeSequence full = new RangeSequence(new IntegerValue(Long.MIN_VALUE), new IntegerValue(Long.MAX_VALUE));
+        assertEquals(Long.toString(Long.MAX_VALUE), full.max().getStringValue());
+        assertEquals(Long.toString(Long.MIN_VALUE), full.sum().getStringValue());
+        assertEquals(0, new BigDecimal("-0.5").compareTo(new BigDecimal(full.avg().getStringValue())));
+    }
+}